@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.google.android.exoplayer2internal.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2internal.util.ByteArrayScanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link ByteArrayScanner} implementations, scanning in TS packet payload sized chunks
+ * as {@code H264Reader} does, and over a whole buffer.
+ */
+@RunWith(Parameterized.class)
+public final class ByteArrayScannerBenchmark {
+
+  private static final int DATA_LENGTH = 1024 * 1024;
+  private static final int TS_PAYLOAD_LENGTH = 184;
+  private static final int START_CODE_COUNT = 256;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() {
+    return Arrays.asList(
+        new Object[] {"scalar", ByteArrayScanner.SCALAR},
+        new Object[] {"wordAtATime", ByteArrayScanner.WORD_AT_A_TIME});
+  }
+
+  @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public ByteArrayScanner scanner;
+
+  @Test
+  public void indexOfStartCode_tsPayloadChunks() {
+    byte[] data = createData();
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      for (int offset = 0; offset < DATA_LENGTH; offset += TS_PAYLOAD_LENGTH) {
+        scanForStartCodes(data, offset, Math.min(offset + TS_PAYLOAD_LENGTH, DATA_LENGTH));
+      }
+    }
+  }
+
+  @Test
+  public void indexOfStartCode_wholeBuffer() {
+    byte[] data = createData();
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      scanForStartCodes(data, /* fromIndex= */ 0, DATA_LENGTH);
+    }
+  }
+
+  @Test
+  public void indexOf_syncByteInLostSyncBuffer() {
+    byte[] data = createData();
+    // Remove sync bytes, so that the whole buffer is scanned as when sync has been lost.
+    for (int i = 0; i < DATA_LENGTH; i++) {
+      if (data[i] == TsExtractor.TS_SYNC_BYTE) {
+        data[i] = 0;
+      }
+    }
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      scanner.indexOf(data, /* fromIndex= */ 0, DATA_LENGTH, (byte) TsExtractor.TS_SYNC_BYTE);
+    }
+  }
+
+  private void scanForStartCodes(byte[] data, int fromIndex, int toIndex) {
+    int index = fromIndex;
+    while (index < toIndex) {
+      index = scanner.indexOfStartCode(data, index, toIndex) + 3;
+    }
+  }
+
+  /** Returns random data with sparse start codes, approximating entropy coded video. */
+  private static byte[] createData() {
+    Random random = new Random(/* seed= */ 0);
+    byte[] data = new byte[DATA_LENGTH];
+    random.nextBytes(data);
+    for (int i = 0; i < START_CODE_COUNT; i++) {
+      int position = random.nextInt(DATA_LENGTH - 3);
+      data[position] = 0;
+      data[position + 1] = 0;
+      data[position + 2] = 1;
+    }
+    return data;
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.cache.Cache;
+import com.google.android.exoplayer2internal.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2internal.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2internal.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2internal.upstream.cache.ContentMetadataMutations;
+import com.google.android.exoplayer2internal.upstream.cache.DefaultContentMetadata;
+import com.google.android.exoplayer2internal.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2internal.upstream.cache.SegmentedLruCacheEvictor;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Benchmarks the throughput of {@link CacheEvictor} implementations, replaying a workload of span
+ * touches and additions that cause evictions.
+ *
+ * <p>The evictors are driven directly through a minimal {@link Cache}, so that the results aren't
+ * dominated by file system operations.
+ *
+ * <p>{@link #touchAndAddSpans()} replays random touches of hot spans and all spans. {@link
+ * #hotSetWithScan()} replays touches of hot spans interleaved with a scan over all other spans, as
+ * when playback of a few popular items overlaps with a bulk download. {@link
+ * #hotSetWithScanHitRatio()} reports the fraction of hot span touches that find their span cached
+ * in that workload, both to logcat and as instrumentation status.
+ */
+@RunWith(Parameterized.class)
+public final class CacheEvictorBenchmark {
+
+  private static final String TAG = "CacheEvictorBenchmark";
+  private static final String KEY = "key";
+  private static final long SPAN_LENGTH = 64 * 1024;
+  private static final int SPAN_COUNT = 8192;
+  private static final int CACHED_SPAN_COUNT = 1024;
+  private static final int HOT_SPAN_COUNT = 256;
+  private static final int OPERATION_COUNT = 4096;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() {
+    return Arrays.asList(new Object[] {"lru"}, new Object[] {"slru"});
+  }
+
+  @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  @Parameter(0)
+  public String name;
+
+  @Test
+  public void touchAndAddSpans() {
+    replay(createSpanIndices());
+  }
+
+  @Test
+  public void hotSetWithScan() {
+    replay(createHotSetWithScanSpanIndices());
+  }
+
+  @Test
+  public void hotSetWithScanHitRatio() {
+    CacheEvictor evictor = createEvictor(/* maxBytes= */ CACHED_SPAN_COUNT * SPAN_LENGTH);
+    EvictingCache cache = new EvictingCache(evictor);
+    evictor.onCacheInitialized();
+    // Touch each hot span twice before the scan starts, so that they're all frequently used.
+    for (int round = 0; round < 2; round++) {
+      for (int spanIndex = 0; spanIndex < HOT_SPAN_COUNT; spanIndex++) {
+        cache.access(spanIndex);
+      }
+    }
+
+    int hotAccessCount = 0;
+    int hotHitCount = 0;
+    for (int spanIndex : createHotSetWithScanSpanIndices()) {
+      boolean hit = cache.access(spanIndex);
+      if (spanIndex < HOT_SPAN_COUNT) {
+        hotAccessCount++;
+        if (hit) {
+          hotHitCount++;
+        }
+      }
+    }
+    double hotSetHitRatio = (double) hotHitCount / hotAccessCount;
+
+    Bundle results = new Bundle();
+    results.putDouble(name + ".hotSetHitRatio", hotSetHitRatio);
+    Log.i(TAG, Util.formatInvariant("%s: %.3f hot set hit ratio", name, hotSetHitRatio));
+    // Report the results as instrumentation status, so that they're included in the output of
+    // "am instrument -r".
+    InstrumentationRegistry.getInstrumentation().sendStatus(/* resultCode= */ 2, results);
+  }
+
+  private void replay(int[] spanIndices) {
+    CacheEvictor evictor = createEvictor(/* maxBytes= */ CACHED_SPAN_COUNT * SPAN_LENGTH);
+    EvictingCache cache = new EvictingCache(evictor);
+    evictor.onCacheInitialized();
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      for (int spanIndex : spanIndices) {
+        cache.access(spanIndex);
+      }
+    }
+  }
+
+  private CacheEvictor createEvictor(long maxBytes) {
+    switch (name) {
+      case "lru":
+        return new LeastRecentlyUsedCacheEvictor(maxBytes);
+      case "slru":
+        return new SegmentedLruCacheEvictor(maxBytes);
+      default:
+        throw new IllegalStateException(name);
+    }
+  }
+
+  /**
+   * Returns the indices of the spans to access, half of which are drawn from a small set of hot
+   * spans that are read repeatedly, and half of which are drawn from all spans as by a bulk
+   * download.
+   */
+  private static int[] createSpanIndices() {
+    Random random = new Random(/* seed= */ 0);
+    int[] spanIndices = new int[OPERATION_COUNT];
+    for (int i = 0; i < OPERATION_COUNT; i++) {
+      spanIndices[i] =
+          random.nextBoolean() ? random.nextInt(HOT_SPAN_COUNT) : random.nextInt(SPAN_COUNT);
+    }
+    return spanIndices;
+  }
+
+  /**
+   * Returns the indices of the spans to access, alternating between one of the hot spans, chosen
+   * at random, and the next span of a scan over all other spans.
+   */
+  private static int[] createHotSetWithScanSpanIndices() {
+    Random random = new Random(/* seed= */ 0);
+    int scanSpanCount = SPAN_COUNT - HOT_SPAN_COUNT;
+    int[] spanIndices = new int[2 * scanSpanCount];
+    for (int i = 0; i < scanSpanCount; i++) {
+      spanIndices[2 * i] = random.nextInt(HOT_SPAN_COUNT);
+      spanIndices[2 * i + 1] = HOT_SPAN_COUNT + i;
+    }
+    return spanIndices;
+  }
+
+  /**
+   * A {@link Cache} that only keeps track of its spans, so that an evictor can remove them. The
+   * spans have no files, so files started in the cache are discarded when they're committed.
+   */
+  private static final class EvictingCache implements Cache {
+
+    private final CacheEvictor evictor;
+    private final CacheSpan[] spans;
+
+    private long lastTouchTimestamp;
+    private long cacheSpace;
+
+    public EvictingCache(CacheEvictor evictor) {
+      this.evictor = evictor;
+      spans = new CacheSpan[SPAN_COUNT];
+    }
+
+    /**
+     * Touches the span with the given index if it's cached, or adds it otherwise.
+     *
+     * @return Whether the span was cached.
+     */
+    public boolean access(int spanIndex) {
+      long position = spanIndex * SPAN_LENGTH;
+      CacheSpan newSpan =
+          new CacheSpan(KEY, position, SPAN_LENGTH, ++lastTouchTimestamp, /* file= */ null);
+      @Nullable CacheSpan oldSpan = spans[spanIndex];
+      if (oldSpan != null) {
+        spans[spanIndex] = newSpan;
+        evictor.onSpanTouched(this, oldSpan, newSpan);
+        return true;
+      } else {
+        evictor.onStartFile(this, KEY, position, SPAN_LENGTH);
+        spans[spanIndex] = newSpan;
+        cacheSpace += SPAN_LENGTH;
+        evictor.onSpanAdded(this, newSpan);
+        return false;
+      }
+    }
+
+    @Override
+    public void removeSpan(CacheSpan span) {
+      int spanIndex = (int) (span.position / SPAN_LENGTH);
+      if (spans[spanIndex] == span) {
+        spans[spanIndex] = null;
+        cacheSpace -= SPAN_LENGTH;
+        evictor.onSpanRemoved(this, span);
+      }
+    }
+
+    @Override
+    public long getUid() {
+      return UID_UNSET;
+    }
+
+    @Override
+    public void release() {
+      // Do nothing.
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+      return getCachedSpans(key);
+    }
+
+    @Override
+    public void removeListener(String key, Listener listener) {
+      // Do nothing.
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> getCachedSpans(String key) {
+      TreeSet<CacheSpan> cachedSpans = new TreeSet<>();
+      if (KEY.equals(key)) {
+        for (@Nullable CacheSpan span : spans) {
+          if (span != null) {
+            cachedSpans.add(span);
+          }
+        }
+      }
+      return cachedSpans;
+    }
+
+    @Override
+    public Set<String> getKeys() {
+      return cacheSpace > 0 ? Collections.singleton(KEY) : Collections.emptySet();
+    }
+
+    @Override
+    public long getCacheSpace() {
+      return cacheSpace;
+    }
+
+    @Override
+    public CacheSpan startReadWrite(String key, long position, long length) {
+      return startReadWriteNonBlocking(key, position, length);
+    }
+
+    @Override
+    public CacheSpan startReadWriteNonBlocking(String key, long position, long length) {
+      @Nullable CacheSpan span = getSpan(key, position);
+      return span != null ? span : new CacheSpan(key, position, length);
+    }
+
+    @Override
+    public File startFile(String key, long position, long length) {
+      return new File(key + "." + position);
+    }
+
+    @Override
+    public void commitFile(File file, long length) {
+      // Do nothing.
+    }
+
+    @Override
+    public void releaseHoleSpan(CacheSpan holeSpan) {
+      // Do nothing.
+    }
+
+    @Override
+    public void removeResource(String key) {
+      for (CacheSpan span : getCachedSpans(key)) {
+        removeSpan(span);
+      }
+    }
+
+    @Override
+    public boolean isCached(String key, long position, long length) {
+      return getCachedBytes(key, position, length) == length;
+    }
+
+    @Override
+    public long getCachedLength(String key, long position, long length) {
+      long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
+      boolean isCached = getSpan(key, position) != null;
+      long blockEndPosition = position;
+      while (blockEndPosition < endPosition
+          && blockEndPosition < SPAN_COUNT * SPAN_LENGTH
+          && (getSpan(key, blockEndPosition) != null) == isCached) {
+        blockEndPosition = (blockEndPosition / SPAN_LENGTH + 1) * SPAN_LENGTH;
+      }
+      if (!isCached && blockEndPosition >= SPAN_COUNT * SPAN_LENGTH) {
+        // Holes extend beyond the last span.
+        blockEndPosition = endPosition;
+      }
+      long blockLength = min(blockEndPosition, endPosition) - position;
+      return isCached ? blockLength : -blockLength;
+    }
+
+    @Override
+    public long getCachedBytes(String key, long position, long length) {
+      long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
+      long cachedBytes = 0;
+      for (CacheSpan span : getCachedSpans(key)) {
+        long spanEndPosition = span.position + span.length;
+        if (span.position < endPosition && spanEndPosition > position) {
+          cachedBytes += min(spanEndPosition, endPosition) - max(span.position, position);
+        }
+      }
+      return cachedBytes;
+    }
+
+    @Override
+    public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations) {
+      // Do nothing.
+    }
+
+    @Override
+    public ContentMetadata getContentMetadata(String key) {
+      return DefaultContentMetadata.EMPTY;
+    }
+
+    @Nullable
+    private CacheSpan getSpan(String key, long position) {
+      if (!KEY.equals(key) || position < 0 || position >= SPAN_COUNT * SPAN_LENGTH) {
+        return null;
+      }
+      return spans[(int) (position / SPAN_LENGTH)];
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2internal.extractor.Extractor;
+import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2internal.extractor.FileSeekIndexStore;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.extractor.SeekMap;
+import com.google.android.exoplayer2internal.extractor.mkv.MatroskaExtractor;
+import com.google.android.exoplayer2internal.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2internal.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2internal.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2internal.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks extractors running end-to-end over synthetic media.
+ *
+ * <p>Media files can be benchmarked too, by passing the path of a directory on the device as the
+ * {@code mediaDir} instrumentation argument. Files in the directory are extracted by the extractor
+ * matching their extension ({@code .ts}, {@code .mp4}, {@code .m4s} or {@code .fmp4} for fragmented
+ * MP4, {@code .mkv}, {@code .webm} or {@code .mp3}).
+ *
+ * <p>{@link #extract()} reports the time per extraction through {@link BenchmarkRule}. {@link
+ * #throughputAndReadLatency()} reports throughput in MB/s, allocations per sample and the p99
+ * latency of {@link Extractor#read}, both to logcat and as instrumentation status. {@link
+ * #openWithoutStoredSeekIndex()} and {@link #openWithStoredSeekIndex()} report the time taken to
+ * read MP4 media until its {@link SeekMap} is output, with an empty {@link SeekIndexStore} and with
+ * the sample tables already stored in it.
+ */
+@RunWith(Parameterized.class)
+public final class ExtractorBenchmark {
+
+  private static final String TAG = "ExtractorBenchmark";
+  private static final String MEDIA_DIR_ARGUMENT = "mediaDir";
+  private static final int SYNTHETIC_FRAME_COUNT = 4096;
+  private static final int WARM_UP_PASS_COUNT = 3;
+  private static final int MEASURED_PASS_COUNT = 10;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() throws IOException {
+    List<Object[]> parameters = new ArrayList<>();
+    parameters.add(
+        new Object[] {
+          "synthetic.ts", TsExtractor.FACTORY, SyntheticMedia.createTs(SYNTHETIC_FRAME_COUNT)
+        });
+    parameters.add(
+        new Object[] {
+          "synthetic.fmp4",
+          (ExtractorsFactory)
+              () ->
+                  new Extractor[] {
+                    new FragmentedMp4Extractor(
+                        /* flags= */ 0,
+                        /* timestampAdjuster= */ null,
+                        SyntheticMedia.createFragmentedMp4Track())
+                  },
+          SyntheticMedia.createFragmentedMp4(
+              /* fragmentCount= */ SYNTHETIC_FRAME_COUNT / 64, /* samplesPerFragment= */ 64)
+        });
+    parameters.add(
+        new Object[] {
+          "synthetic.mkv",
+          MatroskaExtractor.FACTORY,
+          SyntheticMedia.createMkv(SYNTHETIC_FRAME_COUNT)
+        });
+    parameters.add(
+        new Object[] {
+          "synthetic.mkv.parallelClusterParsing",
+          (ExtractorsFactory)
+              () ->
+                  new Extractor[] {
+                    new MatroskaExtractor(MatroskaExtractor.FLAG_ENABLE_PARALLEL_CLUSTER_PARSING)
+                  },
+          SyntheticMedia.createMkv(SYNTHETIC_FRAME_COUNT)
+        });
+    parameters.add(
+        new Object[] {
+          "synthetic.mp3", Mp3Extractor.FACTORY, SyntheticMedia.createMp3(SYNTHETIC_FRAME_COUNT)
+        });
+    parameters.add(
+        new Object[] {
+          "synthetic.mp4", Mp4Extractor.FACTORY, SyntheticMedia.createMp4(SYNTHETIC_FRAME_COUNT)
+        });
+    addMediaFiles(parameters);
+    return parameters;
+  }
+
+  @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public ExtractorsFactory extractorsFactory;
+
+  @Parameter(2)
+  public byte[] data;
+
+  @Test
+  public void extract() throws IOException {
+    ExtractorRunner runner = new ExtractorRunner(extractorsFactory);
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      runner.extract(data, /* readLatencyRecorder= */ null);
+    }
+  }
+
+  @SuppressWarnings("deprecation") // Allocation counting is only deprecated for profiling.
+  @Test
+  public void throughputAndReadLatency() throws IOException {
+    ExtractorRunner runner = new ExtractorRunner(extractorsFactory);
+    for (int i = 0; i < WARM_UP_PASS_COUNT; i++) {
+      runner.extract(data, /* readLatencyRecorder= */ null);
+    }
+
+    ExtractorRunner.LatencyRecorder readLatencyRecorder = new ExtractorRunner.LatencyRecorder();
+    long totalSampleCount = 0;
+    long totalDurationNs = 0;
+    long totalAllocationCount = 0;
+    for (int i = 0; i < MEASURED_PASS_COUNT; i++) {
+      // Allocations are counted in a separate pass, as counting them slows down allocation.
+      Debug.resetThreadAllocCount();
+      Debug.startAllocCounting();
+      runner.extract(data, /* readLatencyRecorder= */ null);
+      Debug.stopAllocCounting();
+      totalAllocationCount += Debug.getThreadAllocCount();
+
+      long startTimeNs = System.nanoTime();
+      totalSampleCount += runner.extract(data, readLatencyRecorder);
+      totalDurationNs += System.nanoTime() - startTimeNs;
+    }
+
+    double megabytesPerSecond =
+        (double) data.length * MEASURED_PASS_COUNT / (1024 * 1024) / (totalDurationNs / 1e9);
+    double allocationsPerSample =
+        totalSampleCount == 0 ? 0 : (double) totalAllocationCount / totalSampleCount;
+    long p99ReadLatencyNs = readLatencyRecorder.getPercentileNs(/* percentile= */ 99);
+
+    Bundle results = new Bundle();
+    results.putDouble(name + ".megabytesPerSecond", megabytesPerSecond);
+    results.putDouble(name + ".allocationsPerSample", allocationsPerSample);
+    results.putLong(name + ".p99ReadLatencyNs", p99ReadLatencyNs);
+    Log.i(
+        TAG,
+        Util.formatInvariant(
+            "%s: %.2f MB/s, %.3f allocations/sample, p99 read() latency %d ns",
+            name, megabytesPerSecond, allocationsPerSample, p99ReadLatencyNs));
+    // Report the results as instrumentation status, so that they're included in the output of
+    // "am instrument -r".
+    InstrumentationRegistry.getInstrumentation().sendStatus(/* resultCode= */ 2, results);
+  }
+
+  @Test
+  public void openWithoutStoredSeekIndex() throws IOException {
+    assumeTrue(isMp4());
+    File directory = getSeekIndexDirectory();
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      state.pauseTiming();
+      Util.recursiveDelete(directory);
+      ExtractorRunner runner = new ExtractorRunner(createMp4ExtractorsFactory(directory));
+      state.resumeTiming();
+      runner.open(data);
+    }
+    Util.recursiveDelete(directory);
+  }
+
+  @Test
+  public void openWithStoredSeekIndex() throws IOException {
+    assumeTrue(isMp4());
+    File directory = getSeekIndexDirectory();
+    Util.recursiveDelete(directory);
+    ExtractorRunner runner = new ExtractorRunner(createMp4ExtractorsFactory(directory));
+    // Store the sample tables.
+    runner.open(data);
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      runner.open(data);
+    }
+    Util.recursiveDelete(directory);
+  }
+
+  private boolean isMp4() {
+    return extractorsFactory.createExtractors()[0] instanceof Mp4Extractor;
+  }
+
+  private static File getSeekIndexDirectory() {
+    return new File(
+        InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+        "ExtractorBenchmarkSeekIndices");
+  }
+
+  /**
+   * Returns a factory of {@link Mp4Extractor Mp4Extractors} that share a {@link
+   * FileSeekIndexStore} in {@code directory}. Each extractor is created with a new store instance,
+   * so that stored indices are loaded from the files rather than from memory.
+   */
+  private static ExtractorsFactory createMp4ExtractorsFactory(File directory) {
+    return () ->
+        new Extractor[] {new Mp4Extractor(/* flags= */ 0, new FileSeekIndexStore(directory))};
+  }
+
+  private static void addMediaFiles(List<Object[]> parameters) throws IOException {
+    @Nullable
+    String mediaDirPath = InstrumentationRegistry.getArguments().getString(MEDIA_DIR_ARGUMENT);
+    if (mediaDirPath == null) {
+      return;
+    }
+    @Nullable File[] files = new File(mediaDirPath).listFiles();
+    if (files == null) {
+      throw new IOException("Can't list media directory: " + mediaDirPath);
+    }
+    for (File file : files) {
+      @Nullable ExtractorsFactory extractorsFactory = getExtractorsFactory(file.getName());
+      if (extractorsFactory != null) {
+        parameters.add(new Object[] {file.getName(), extractorsFactory, readFile(file)});
+      }
+    }
+  }
+
+  @Nullable
+  private static ExtractorsFactory getExtractorsFactory(String fileName) {
+    String lowerCaseFileName = Util.toLowerInvariant(fileName);
+    if (lowerCaseFileName.endsWith(".ts")) {
+      return TsExtractor.FACTORY;
+    } else if (lowerCaseFileName.endsWith(".mp4")) {
+      return Mp4Extractor.FACTORY;
+    } else if (lowerCaseFileName.endsWith(".m4s") || lowerCaseFileName.endsWith(".fmp4")) {
+      return FragmentedMp4Extractor.FACTORY;
+    } else if (lowerCaseFileName.endsWith(".mkv") || lowerCaseFileName.endsWith(".webm")) {
+      return MatroskaExtractor.FACTORY;
+    } else if (lowerCaseFileName.endsWith(".mp3")) {
+      return Mp3Extractor.FACTORY;
+    }
+    return null;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    try (InputStream inputStream = new FileInputStream(file)) {
+      return Util.toByteArray(inputStream);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.net.Uri;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.google.android.exoplayer2internal.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2internal.extractor.ExtractorInput;
+import com.google.android.exoplayer2internal.extractor.RingBufferExtractorInput;
+import com.google.android.exoplayer2internal.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2internal.upstream.DataReader;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link ExtractorInput} implementations, with access patterns approximating sniffing
+ * followed by TS extraction, and the repeated forward peeking of {@code BinarySearchSeeker}.
+ */
+@RunWith(Parameterized.class)
+public final class ExtractorInputBenchmark {
+
+  /** Creates an {@link ExtractorInput} for a benchmark. */
+  private interface InputFactory {
+    ExtractorInput createInput(DataReader dataReader, long length);
+  }
+
+  private static final int DATA_LENGTH = 188 * 22_000;
+  private static final int TS_PACKET_LENGTH = 188;
+  // Peek lengths of the sniffing extractors, approximating those of DefaultExtractorsFactory.
+  private static final int[] SNIFF_PEEK_LENGTHS = {16, 64, 1024, 4096, 188 * 5, 8192, 10, 32};
+  private static final int BINARY_SEARCH_PEEK_LENGTH = 112_800;
+  private static final int BINARY_SEARCH_SKIP_LENGTH = 16_384;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() {
+    return Arrays.asList(
+        new Object[] {
+          "default",
+          (InputFactory)
+              (dataReader, length) ->
+                  new DefaultExtractorInput(dataReader, /* position= */ 0, length)
+        },
+        new Object[] {
+          "ringBuffer",
+          (InputFactory)
+              (dataReader, length) ->
+                  new RingBufferExtractorInput(dataReader, /* position= */ 0, length)
+        });
+  }
+
+  @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public InputFactory inputFactory;
+
+  @Test
+  public void sniffThenReadTsPackets() throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(createData());
+    byte[] target = new byte[TS_PACKET_LENGTH];
+    byte[] sniffTarget = new byte[8192];
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      ExtractorInput input = openInput(dataSource);
+      for (int peekLength : SNIFF_PEEK_LENGTHS) {
+        for (int offset = 0; offset + peekLength <= sniffTarget.length; offset += peekLength) {
+          input.peekFully(sniffTarget, /* offset= */ 0, peekLength);
+        }
+        input.resetPeekPosition();
+      }
+      // Peek the first byte of each packet before reading it, so that every read consumes peeked
+      // data.
+      while (input.peekFully(
+          target, /* offset= */ 0, /* length= */ 1, /* allowEndOfInput= */ true)) {
+        input.readFully(target, /* offset= */ 0, TS_PACKET_LENGTH);
+      }
+      dataSource.close();
+    }
+  }
+
+  @Test
+  public void peekAheadThenSkip() throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(createData());
+    byte[] target = new byte[TS_PACKET_LENGTH];
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      ExtractorInput input = openInput(dataSource);
+      while (input.getPosition() + BINARY_SEARCH_PEEK_LENGTH <= DATA_LENGTH) {
+        for (int i = 0; i < BINARY_SEARCH_PEEK_LENGTH; i += TS_PACKET_LENGTH) {
+          input.peekFully(target, /* offset= */ 0, TS_PACKET_LENGTH);
+        }
+        input.skipFully(BINARY_SEARCH_SKIP_LENGTH);
+      }
+      dataSource.close();
+    }
+  }
+
+  private ExtractorInput openInput(ByteArrayDataSource dataSource) throws IOException {
+    long length = dataSource.open(new DataSpec(Uri.EMPTY));
+    return inputFactory.createInput(dataSource, length);
+  }
+
+  private static byte[] createData() {
+    byte[] data = new byte[DATA_LENGTH];
+    new Random(/* seed= */ 0).nextBytes(data);
+    return data;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.Format;
+import com.google.android.exoplayer2internal.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2internal.extractor.Extractor;
+import com.google.android.exoplayer2internal.extractor.ExtractorInput;
+import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
+import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekMap;
+import com.google.android.exoplayer2internal.extractor.TrackOutput;
+import com.google.android.exoplayer2internal.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2internal.upstream.DataReader;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static java.lang.Math.min;
+
+/**
+ * Runs an {@link Extractor} end-to-end over in-memory media through a {@link
+ * DefaultExtractorInput}, discarding the extracted samples.
+ */
+/* package */ final class ExtractorRunner implements ExtractorOutput, TrackOutput {
+
+  /** Records the duration of individual operations, for computing percentiles. */
+  public static final class LatencyRecorder {
+
+    private long[] durationsNs;
+    private int count;
+
+    public LatencyRecorder() {
+      durationsNs = new long[1024];
+    }
+
+    /** Records the duration of an operation. */
+    public void record(long durationNs) {
+      if (count == durationsNs.length) {
+        durationsNs = Arrays.copyOf(durationsNs, count * 2);
+      }
+      durationsNs[count++] = durationNs;
+    }
+
+    /** Returns the number of recorded durations. */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the given percentile of the recorded durations, in nanoseconds.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     */
+    public long getPercentileNs(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long[] sortedDurationsNs = Arrays.copyOf(durationsNs, count);
+      Arrays.sort(sortedDurationsNs);
+      int index = (int) Math.ceil(percentile / 100 * count) - 1;
+      return sortedDurationsNs[Math.max(0, min(count - 1, index))];
+    }
+  }
+
+  private final ExtractorsFactory extractorsFactory;
+  private final PositionHolder positionHolder;
+  private final byte[] scratch;
+
+  private int sampleCount;
+  private long sampleBytes;
+  private boolean seekMapOutput;
+
+  /**
+   * @param extractorsFactory A factory whose first {@link Extractor} is created for each
+   *     extraction.
+   */
+  public ExtractorRunner(ExtractorsFactory extractorsFactory) {
+    this.extractorsFactory = extractorsFactory;
+    positionHolder = new PositionHolder();
+    scratch = new byte[4096];
+  }
+
+  /**
+   * Extracts all samples from {@code data}.
+   *
+   * @param data The media to extract.
+   * @param readLatencyRecorder Records the duration of each call to {@link Extractor#read}, or
+   *     {@code null} if durations shouldn't be recorded.
+   * @return The number of samples that were extracted.
+   * @throws IOException If an error occurs extracting the media.
+   */
+  public int extract(byte[] data, @Nullable LatencyRecorder readLatencyRecorder)
+      throws IOException {
+    sampleCount = 0;
+    sampleBytes = 0;
+    Extractor extractor = extractorsFactory.createExtractors()[0];
+    extractor.init(/* output= */ this);
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(data);
+    ExtractorInput input = openInput(dataSource, /* position= */ 0);
+    int result = Extractor.RESULT_CONTINUE;
+    while (result != Extractor.RESULT_END_OF_INPUT) {
+      long startTimeNs = readLatencyRecorder != null ? System.nanoTime() : 0;
+      result = extractor.read(input, positionHolder);
+      if (readLatencyRecorder != null) {
+        readLatencyRecorder.record(System.nanoTime() - startTimeNs);
+      }
+      if (result == Extractor.RESULT_SEEK) {
+        dataSource.close();
+        input = openInput(dataSource, positionHolder.position);
+      }
+    }
+    dataSource.close();
+    extractor.release();
+    return sampleCount;
+  }
+
+  /**
+   * Reads {@code data} until the extractor outputs a {@link SeekMap}, as a player does when it
+   * prepares a stream, and then releases the extractor.
+   *
+   * @param data The media to open.
+   * @throws IOException If an error occurs reading the media, or if it ends before a {@link
+   *     SeekMap} is output.
+   */
+  public void open(byte[] data) throws IOException {
+    seekMapOutput = false;
+    Extractor extractor = extractorsFactory.createExtractors()[0];
+    extractor.init(/* output= */ this);
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(data);
+    ExtractorInput input = openInput(dataSource, /* position= */ 0);
+    while (!seekMapOutput) {
+      int result = extractor.read(input, positionHolder);
+      if (result == Extractor.RESULT_END_OF_INPUT) {
+        throw new EOFException();
+      } else if (result == Extractor.RESULT_SEEK) {
+        dataSource.close();
+        input = openInput(dataSource, positionHolder.position);
+      }
+    }
+    dataSource.close();
+    extractor.release();
+  }
+
+  /** Returns the number of sample bytes output by the last call to {@link #extract}. */
+  public long getSampleBytes() {
+    return sampleBytes;
+  }
+
+  // ExtractorOutput implementation.
+
+  @Override
+  public TrackOutput track(int id, int type) {
+    return this;
+  }
+
+  @Override
+  public void endTracks() {
+    // Do nothing.
+  }
+
+  @Override
+  public void seekMap(SeekMap seekMap) {
+    seekMapOutput = true;
+  }
+
+  // TrackOutput implementation.
+
+  @Override
+  public void format(Format format) {
+    // Do nothing.
+  }
+
+  @Override
+  public int sampleData(
+      DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+      throws IOException {
+    int bytesRead = input.read(scratch, /* offset= */ 0, min(scratch.length, length));
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      if (allowEndOfInput) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      throw new EOFException();
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public void sampleData(ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+    data.skipBytes(length);
+  }
+
+  @Override
+  public void sampleMetadata(
+      long timeUs,
+      @C.BufferFlags int flags,
+      int size,
+      int offset,
+      @Nullable CryptoData cryptoData) {
+    sampleCount++;
+    sampleBytes += size;
+  }
+
+  private static ExtractorInput openInput(ByteArrayDataSource dataSource, long position)
+      throws IOException {
+    long length =
+        dataSource.open(new DataSpec.Builder().setUri(Uri.EMPTY).setPosition(position).build());
+    return new DefaultExtractorInput(dataSource, position, position + length);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2internal.extractor.Extractor;
+import com.google.android.exoplayer2internal.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the number of allocations {@link FragmentedMp4Extractor} makes per fragment, for short
+ * fragments as used in low-latency streaming.
+ *
+ * <p>Streams with {@link #FRAGMENT_COUNT} and twice as many fragments are extracted, and the
+ * difference between their allocation counts is reported per fragment, so that allocations that
+ * don't depend on the number of fragments (e.g. creating the extractor) are excluded.
+ *
+ * <p>Once the first fragment has been parsed, the extractor reuses the atoms of previous fragments.
+ * Allocation counts depend on the runtime, so no bound is asserted by default. A bound measured on
+ * the target device can be passed as the {@code maxAllocationsPerFragment} instrumentation
+ * argument, in which case the benchmark fails if it's exceeded.
+ */
+@RunWith(Parameterized.class)
+public final class FragmentedMp4AllocationBenchmark {
+
+  private static final String TAG = "FragmentedMp4AllocationBenchmark";
+  private static final String MAX_ALLOCATIONS_PER_FRAGMENT_ARGUMENT = "maxAllocationsPerFragment";
+  private static final int FRAGMENT_COUNT = 256;
+  private static final int SAMPLES_PER_FRAGMENT = 8;
+  private static final int WARM_UP_PASS_COUNT = 3;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() {
+    return Arrays.asList(
+        new Object[] {"clear", /* encrypted= */ false},
+        new Object[] {"encrypted", /* encrypted= */ true});
+  }
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public boolean encrypted;
+
+  @Test
+  public void allocationsPerFragment() throws IOException {
+    byte[] data =
+        SyntheticMedia.createFragmentedMp4(FRAGMENT_COUNT, SAMPLES_PER_FRAGMENT, encrypted);
+    byte[] doubleLengthData =
+        SyntheticMedia.createFragmentedMp4(2 * FRAGMENT_COUNT, SAMPLES_PER_FRAGMENT, encrypted);
+    ExtractorRunner runner =
+        new ExtractorRunner(
+            () ->
+                new Extractor[] {
+                  new FragmentedMp4Extractor(
+                      /* flags= */ 0,
+                      /* timestampAdjuster= */ null,
+                      SyntheticMedia.createFragmentedMp4Track(encrypted))
+                });
+    for (int i = 0; i < WARM_UP_PASS_COUNT; i++) {
+      runner.extract(doubleLengthData, /* readLatencyRecorder= */ null);
+    }
+
+    long allocationCount = countAllocations(runner, data);
+    long doubleLengthAllocationCount = countAllocations(runner, doubleLengthData);
+    double allocationsPerFragment =
+        (double) (doubleLengthAllocationCount - allocationCount) / FRAGMENT_COUNT;
+
+    Bundle results = new Bundle();
+    results.putDouble(name + ".allocationsPerFragment", allocationsPerFragment);
+    Log.i(TAG, Util.formatInvariant("%s: %.2f allocations/fragment", name, allocationsPerFragment));
+    // Report the results as instrumentation status, so that they're included in the output of
+    // "am instrument -r".
+    InstrumentationRegistry.getInstrumentation().sendStatus(/* resultCode= */ 2, results);
+
+    @Nullable
+    String maxAllocationsPerFragment =
+        InstrumentationRegistry.getArguments().getString(MAX_ALLOCATIONS_PER_FRAGMENT_ARGUMENT);
+    if (maxAllocationsPerFragment != null) {
+      assertTrue(
+          Util.formatInvariant(
+              "%s: %.2f allocations/fragment exceeds %s",
+              name, allocationsPerFragment, maxAllocationsPerFragment),
+          allocationsPerFragment <= Double.parseDouble(maxAllocationsPerFragment));
+    }
+  }
+
+  @SuppressWarnings("deprecation") // Allocation counting is only deprecated for profiling.
+  private static long countAllocations(ExtractorRunner runner, byte[] data) throws IOException {
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    runner.extract(data, /* readLatencyRecorder= */ null);
+    Debug.stopAllocCounting();
+    return Debug.getThreadAllocCount();
+  }
+}
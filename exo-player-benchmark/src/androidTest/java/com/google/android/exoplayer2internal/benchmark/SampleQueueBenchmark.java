@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import android.os.Looper;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.Format;
+import com.google.android.exoplayer2internal.FormatHolder;
+import com.google.android.exoplayer2internal.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2internal.drm.DrmSessionEventListener;
+import com.google.android.exoplayer2internal.drm.DrmSessionManager;
+import com.google.android.exoplayer2internal.source.SampleQueue;
+import com.google.android.exoplayer2internal.upstream.DefaultAllocator;
+import com.google.android.exoplayer2internal.util.MimeTypes;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks writing samples to and reading them from a {@link SampleQueue}, for each of the
+ * {@link DefaultAllocator} modes.
+ */
+@RunWith(Parameterized.class)
+public final class SampleQueueBenchmark {
+
+  private static final int SAMPLE_SIZE = 4096;
+  private static final int SAMPLE_COUNT = 256;
+  private static final long SAMPLE_DURATION_US = 23_220;
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> parameters() {
+    return Arrays.asList(
+        new Object[] {"default", /* useThreadLocalCaches= */ false, /* useDirectBuffers= */ false},
+        new Object[] {
+          "threadLocalCaches", /* useThreadLocalCaches= */ true, /* useDirectBuffers= */ false
+        },
+        new Object[] {
+          "directBuffers", /* useThreadLocalCaches= */ false, /* useDirectBuffers= */ true
+        });
+  }
+
+  @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  @Parameter(0)
+  public String name;
+
+  @Parameter(1)
+  public boolean useThreadLocalCaches;
+
+  @Parameter(2)
+  public boolean useDirectBuffers;
+
+  @Test
+  public void writeAndRead() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ true,
+            C.DEFAULT_BUFFER_SEGMENT_SIZE,
+            /* initialAllocationCount= */ 0,
+            useThreadLocalCaches,
+            useDirectBuffers);
+    SampleQueue sampleQueue =
+        new SampleQueue(
+            allocator,
+            Looper.getMainLooper(),
+            DrmSessionManager.DUMMY,
+            new DrmSessionEventListener.EventDispatcher());
+    sampleQueue.format(new Format.Builder().setSampleMimeType(MimeTypes.AUDIO_MPEG).build());
+    ParsableByteArray sampleData = new ParsableByteArray(new byte[SAMPLE_SIZE]);
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer =
+        new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        sampleData.setPosition(0);
+        sampleQueue.sampleData(sampleData, SAMPLE_SIZE);
+        sampleQueue.sampleMetadata(
+            /* timeUs= */ i * SAMPLE_DURATION_US,
+            C.BUFFER_FLAG_KEY_FRAME,
+            SAMPLE_SIZE,
+            /* offset= */ 0,
+            /* cryptoData= */ null);
+      }
+      int result;
+      do {
+        buffer.clear();
+        result =
+            sampleQueue.read(
+                formatHolder, buffer, /* formatRequired= */ false, /* loadingFinished= */ false);
+      } while (result != C.RESULT_NOTHING_READ);
+      sampleQueue.discardToRead();
+      sampleQueue.reset(/* resetUpstreamFormat= */ false);
+    }
+    sampleQueue.release();
+  }
+}
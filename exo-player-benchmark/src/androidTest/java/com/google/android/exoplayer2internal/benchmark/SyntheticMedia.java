@@ -0,0 +1,574 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.benchmark;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.Format;
+import com.google.android.exoplayer2internal.extractor.mp4.Track;
+import com.google.android.exoplayer2internal.extractor.mp4.TrackEncryptionBox;
+import com.google.android.exoplayer2internal.util.MimeTypes;
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Generates well-formed media streams in memory, so that extractors can be benchmarked without
+ * bundling media files.
+ *
+ * <p>The streams carry a single audio track. Their sample payloads are zero-filled, which doesn't
+ * matter to the container parsing being measured.
+ */
+/* package */ final class SyntheticMedia {
+
+  /** The size of each generated MPEG-1 Layer III frame (128 kbit/s, 44.1 kHz, no padding). */
+  public static final int MP3_FRAME_SIZE = 417;
+  /** The duration of each generated MPEG-1 Layer III frame, in microseconds. */
+  public static final long MP3_FRAME_DURATION_US = 1152L * C.MICROS_PER_SECOND / 44100;
+  /** The size of each generated AAC sample in fragmented MP4 streams. */
+  public static final int AAC_SAMPLE_SIZE = 371;
+
+  private static final int TS_PACKET_SIZE = 188;
+  private static final int TS_PMT_PID = 0x1000;
+  private static final int TS_AUDIO_PID = 0x100;
+  private static final int TS_FRAMES_PER_PES = 8;
+  private static final int MKV_FRAMES_PER_CLUSTER = 64;
+  private static final int MP4_SAMPLES_PER_CHUNK = 64;
+  private static final int MP3_SAMPLE_DURATION = 1152;
+  private static final int MP3_SAMPLE_RATE = 44100;
+  private static final int AAC_SAMPLE_DURATION = 1024;
+  private static final int AAC_SAMPLE_RATE = 44100;
+  private static final int PER_SAMPLE_IV_SIZE = 8;
+
+  private SyntheticMedia() {}
+
+  /** Returns an MP3 stream consisting of {@code frameCount} constant bitrate frames. */
+  public static byte[] createMp3(int frameCount) {
+    byte[] data = new byte[frameCount * MP3_FRAME_SIZE];
+    for (int i = 0; i < frameCount; i++) {
+      writeMp3FrameHeader(data, i * MP3_FRAME_SIZE);
+    }
+    return data;
+  }
+
+  /**
+   * Returns an MPEG-TS stream with a PAT, a PMT and one MPEG audio elementary stream carrying
+   * {@code frameCount} MP3 frames.
+   */
+  public static byte[] createTs(int frameCount) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int[] continuityCounters = new int[0x2000];
+    writeTsSection(output, /* pid= */ 0, createPatSection(), continuityCounters);
+    writeTsSection(output, TS_PMT_PID, createPmtSection(), continuityCounters);
+    byte[] frame = new byte[MP3_FRAME_SIZE];
+    writeMp3FrameHeader(frame, /* offset= */ 0);
+    for (int i = 0; i < frameCount; i += TS_FRAMES_PER_PES) {
+      int framesInPes = Math.min(TS_FRAMES_PER_PES, frameCount - i);
+      byte[] payload = new byte[framesInPes * MP3_FRAME_SIZE];
+      for (int j = 0; j < framesInPes; j++) {
+        System.arraycopy(frame, 0, payload, j * MP3_FRAME_SIZE, MP3_FRAME_SIZE);
+      }
+      long pts90Khz = i * MP3_FRAME_DURATION_US * 90 / 1000;
+      writeTsPayload(output, TS_AUDIO_PID, createPes(payload, pts90Khz), continuityCounters);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Returns a Matroska stream with a single MP3 track, whose {@code frameCount} frames are stored
+   * as SimpleBlocks.
+   */
+  public static byte[] createMkv(int frameCount) {
+    byte[] ebmlHeader =
+        element(
+            0x1A45DFA3,
+            uint(0x4286, 1),
+            uint(0x42F7, 1),
+            uint(0x42F2, 4),
+            uint(0x42F3, 8),
+            element(0x4282, Util.getUtf8Bytes("matroska")),
+            uint(0x4287, 4),
+            uint(0x4285, 2));
+    byte[] info = element(0x1549A966, uint(0x2AD7B1, 1_000_000));
+    byte[] tracks =
+        element(
+            0x1654AE6B,
+            element(
+                0xAE,
+                uint(0xD7, 1),
+                uint(0x73C5, 1),
+                uint(0x83, 2),
+                element(0x86, Util.getUtf8Bytes("A_MPEG/L3")),
+                element(0xE1, float64(0xB5, 44100), uint(0x9F, 2))));
+    ByteArrayOutputStream segmentBody = new ByteArrayOutputStream();
+    write(segmentBody, info);
+    write(segmentBody, tracks);
+    byte[] frame = new byte[MP3_FRAME_SIZE];
+    writeMp3FrameHeader(frame, /* offset= */ 0);
+    for (int i = 0; i < frameCount; i += MKV_FRAMES_PER_CLUSTER) {
+      int framesInCluster = Math.min(MKV_FRAMES_PER_CLUSTER, frameCount - i);
+      long clusterTimecodeMs = i * MP3_FRAME_DURATION_US / 1000;
+      ByteArrayOutputStream clusterBody = new ByteArrayOutputStream();
+      write(clusterBody, uint(0xE7, clusterTimecodeMs));
+      for (int j = 0; j < framesInCluster; j++) {
+        int relativeTimecodeMs = (int) ((i + j) * MP3_FRAME_DURATION_US / 1000 - clusterTimecodeMs);
+        byte[] block = new byte[4 + MP3_FRAME_SIZE];
+        block[0] = (byte) 0x81; // Track number 1.
+        block[1] = (byte) (relativeTimecodeMs >> 8);
+        block[2] = (byte) relativeTimecodeMs;
+        block[3] = (byte) 0x80; // Keyframe.
+        System.arraycopy(frame, 0, block, 4, MP3_FRAME_SIZE);
+        write(clusterBody, element(0xA3, block));
+      }
+      write(segmentBody, element(0x1F43B675, clusterBody.toByteArray()));
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    write(output, ebmlHeader);
+    write(output, element(0x18538067, segmentBody.toByteArray()));
+    return output.toByteArray();
+  }
+
+  /**
+   * Returns a fragmented MP4 stream without a moov box, consisting of {@code fragmentCount}
+   * fragments of {@code samplesPerFragment} AAC samples. The stream must be extracted with the
+   * track returned by {@link #createFragmentedMp4Track()} sideloaded.
+   */
+  public static byte[] createFragmentedMp4(int fragmentCount, int samplesPerFragment) {
+    return createFragmentedMp4(fragmentCount, samplesPerFragment, /* encrypted= */ false);
+  }
+
+  /**
+   * Returns a fragmented MP4 stream without a moov box, consisting of {@code fragmentCount}
+   * fragments of {@code samplesPerFragment} AAC samples. If {@code encrypted} is true, each
+   * fragment has a senc box with a per-sample initialization vector. The stream must be extracted
+   * with the track returned by {@link #createFragmentedMp4Track(boolean)} sideloaded.
+   */
+  public static byte[] createFragmentedMp4(
+      int fragmentCount, int samplesPerFragment, boolean encrypted) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] mdatPayload = new byte[samplesPerFragment * AAC_SAMPLE_SIZE];
+    for (int i = 0; i < fragmentCount; i++) {
+      long baseMediaDecodeTime = (long) i * samplesPerFragment * AAC_SAMPLE_DURATION;
+      ByteArrayOutputStream trunBody = new ByteArrayOutputStream();
+      DataOutputStream trun = new DataOutputStream(trunBody);
+      try {
+        // Flags: data-offset-present, sample-duration-present and sample-size-present.
+        trun.writeInt(0x000301);
+        trun.writeInt(samplesPerFragment);
+        trun.writeInt(0); // Data offset, written below once the moof size is known.
+        for (int j = 0; j < samplesPerFragment; j++) {
+          trun.writeInt(AAC_SAMPLE_DURATION);
+          trun.writeInt(AAC_SAMPLE_SIZE);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      byte[] trunBytes = trunBody.toByteArray();
+      byte[] senc = new byte[0];
+      if (encrypted) {
+        byte[] sencBody = new byte[4 + samplesPerFragment * PER_SAMPLE_IV_SIZE];
+        writeInt32(sencBody, 0, samplesPerFragment);
+        senc = box("senc", fullBoxBody(/* versionAndFlags= */ 0, sencBody));
+      }
+      byte[] moof =
+          box(
+              "moof",
+              box("mfhd", fullBoxBody(/* versionAndFlags= */ 0, int32(i + 1))),
+              box(
+                  "traf",
+                  // Flags: default-base-is-moof.
+                  box("tfhd", fullBoxBody(/* versionAndFlags= */ 0x020000, int32(1))),
+                  box(
+                      "tfdt",
+                      fullBoxBody(/* versionAndFlags= */ 0x01000000, int64(baseMediaDecodeTime))),
+                  senc,
+                  // The trun box must come last, for the data offset to be patched below.
+                  box("trun", trunBytes)));
+      // Patch the data offset, which is relative to the start of the moof.
+      int dataOffset = moof.length + 8;
+      int dataOffsetPosition = moof.length - trunBytes.length + 8;
+      writeInt32(moof, dataOffsetPosition, dataOffset);
+      write(output, moof);
+      write(output, box("mdat", mdatPayload));
+    }
+    return output.toByteArray();
+  }
+
+  /** Returns the track to sideload when extracting streams from {@link #createFragmentedMp4}. */
+  public static Track createFragmentedMp4Track() {
+    return createFragmentedMp4Track(/* encrypted= */ false);
+  }
+
+  /**
+   * Returns the track to sideload when extracting streams from {@link #createFragmentedMp4(int,
+   * int, boolean)}.
+   */
+  public static Track createFragmentedMp4Track(boolean encrypted) {
+    Format format =
+        new Format.Builder()
+            .setSampleMimeType(MimeTypes.AUDIO_AAC)
+            .setChannelCount(2)
+            .setSampleRate(AAC_SAMPLE_RATE)
+            .build();
+    return new Track(
+        /* id= */ 1,
+        C.TRACK_TYPE_AUDIO,
+        /* timescale= */ AAC_SAMPLE_RATE,
+        /* movieTimescale= */ 1000,
+        /* durationUs= */ C.TIME_UNSET,
+        format,
+        Track.TRANSFORMATION_NONE,
+        encrypted
+            ? new TrackEncryptionBox[] {
+              new TrackEncryptionBox(
+                  /* isEncrypted= */ true,
+                  C.CENC_TYPE_cenc,
+                  PER_SAMPLE_IV_SIZE,
+                  /* keyId= */ new byte[16],
+                  /* defaultEncryptedBlocks= */ 0,
+                  /* defaultClearBlocks= */ 0,
+                  /* defaultInitializationVector= */ null)
+            }
+            : null,
+        /* nalUnitLengthFieldLength= */ 0,
+        /* editListDurations= */ null,
+        /* editListMediaTimes= */ null);
+  }
+
+  /**
+   * Returns an MP4 stream with a moov box followed by an mdat box, consisting of one MP3 track
+   * with {@code frameCount} samples. The sample table lists the size of each sample, so parsing it
+   * takes time proportional to {@code frameCount}.
+   */
+  public static byte[] createMp4(int frameCount) {
+    byte[] ftyp = box("ftyp", Util.getUtf8Bytes("isom"), int32(0), Util.getUtf8Bytes("isom"));
+    // The size of the moov box doesn't depend on the chunk offsets, so it's created twice to work
+    // out where the samples start.
+    int moovSize = createMp4Moov(frameCount, /* dataOffset= */ 0).length;
+    byte[] moov = createMp4Moov(frameCount, /* dataOffset= */ ftyp.length + moovSize + 8);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    write(output, ftyp);
+    write(output, moov);
+    write(output, box("mdat", createMp3(frameCount)));
+    return output.toByteArray();
+  }
+
+  // MP3.
+
+  private static void writeMp3FrameHeader(byte[] data, int offset) {
+    // MPEG-1 Layer III, no CRC, 128 kbit/s, 44.1 kHz, no padding, joint stereo.
+    data[offset] = (byte) 0xFF;
+    data[offset + 1] = (byte) 0xFB;
+    data[offset + 2] = (byte) 0x90;
+    data[offset + 3] = (byte) 0x64;
+  }
+
+  // MPEG-TS.
+
+  private static byte[] createPatSection() {
+    return createSection(
+        /* tableId= */ 0,
+        /* tableIdExtension= */ 1,
+        new byte[] {0, 1, (byte) (0xE0 | (TS_PMT_PID >> 8)), (byte) TS_PMT_PID});
+  }
+
+  private static byte[] createPmtSection() {
+    return createSection(
+        /* tableId= */ 2,
+        /* tableIdExtension= */ 1,
+        new byte[] {
+          (byte) (0xE0 | (TS_AUDIO_PID >> 8)),
+          (byte) TS_AUDIO_PID,
+          (byte) 0xF0,
+          0,
+          0x03, // MPEG-1 audio.
+          (byte) (0xE0 | (TS_AUDIO_PID >> 8)),
+          (byte) TS_AUDIO_PID,
+          (byte) 0xF0,
+          0
+        });
+  }
+
+  private static byte[] createSection(int tableId, int tableIdExtension, byte[] body) {
+    int sectionLength = 5 + body.length + 4;
+    byte[] section = new byte[3 + sectionLength];
+    section[0] = (byte) tableId;
+    section[1] = (byte) (0xB0 | (sectionLength >> 8));
+    section[2] = (byte) sectionLength;
+    section[3] = (byte) (tableIdExtension >> 8);
+    section[4] = (byte) tableIdExtension;
+    section[5] = (byte) 0xC1; // Version 0, current.
+    section[6] = 0; // Section number.
+    section[7] = 0; // Last section number.
+    System.arraycopy(body, 0, section, 8, body.length);
+    int crc = Util.crc32(section, 0, section.length - 4, 0xFFFFFFFF);
+    writeInt32(section, section.length - 4, crc);
+    return section;
+  }
+
+  private static byte[] createPes(byte[] payload, long pts90Khz) {
+    byte[] pes = new byte[14 + payload.length];
+    pes[2] = 1;
+    pes[3] = (byte) 0xC0; // Audio stream 0.
+    int pesPacketLength = pes.length - 6;
+    pes[4] = (byte) (pesPacketLength >> 8);
+    pes[5] = (byte) pesPacketLength;
+    pes[6] = (byte) 0x80;
+    pes[7] = (byte) 0x80; // PTS only.
+    pes[8] = 5;
+    pes[9] = (byte) (0x21 | ((pts90Khz >> 29) & 0x0E));
+    pes[10] = (byte) (pts90Khz >> 22);
+    pes[11] = (byte) (0x01 | ((pts90Khz >> 14) & 0xFE));
+    pes[12] = (byte) (pts90Khz >> 7);
+    pes[13] = (byte) (0x01 | ((pts90Khz << 1) & 0xFE));
+    System.arraycopy(payload, 0, pes, 14, payload.length);
+    return pes;
+  }
+
+  /** Writes a PSI section into a single packet, preceded by a zero pointer field. */
+  private static void writeTsSection(
+      ByteArrayOutputStream output, int pid, byte[] section, int[] continuityCounters) {
+    byte[] packet = new byte[TS_PACKET_SIZE];
+    Arrays.fill(packet, (byte) 0xFF);
+    writeTsHeader(
+        packet,
+        pid,
+        /* payloadUnitStart= */ true,
+        /* hasAdaptationField= */ false,
+        continuityCounters);
+    packet[4] = 0; // Pointer field.
+    System.arraycopy(section, 0, packet, 5, section.length);
+    output.write(packet, 0, packet.length);
+  }
+
+  /** Splits a PES packet into TS packets, stuffing the last one with an adaptation field. */
+  private static void writeTsPayload(
+      ByteArrayOutputStream output, int pid, byte[] payload, int[] continuityCounters) {
+    int position = 0;
+    while (position < payload.length) {
+      byte[] packet = new byte[TS_PACKET_SIZE];
+      int remaining = payload.length - position;
+      int headerSize = 4;
+      boolean hasAdaptationField = remaining < TS_PACKET_SIZE - 4;
+      writeTsHeader(packet, pid, position == 0, hasAdaptationField, continuityCounters);
+      if (hasAdaptationField) {
+        int adaptationFieldLength = TS_PACKET_SIZE - 5 - remaining;
+        packet[4] = (byte) adaptationFieldLength;
+        if (adaptationFieldLength > 0) {
+          packet[5] = 0; // No adaptation field flags.
+          Arrays.fill(packet, 6, 5 + adaptationFieldLength, (byte) 0xFF);
+        }
+        headerSize += 1 + adaptationFieldLength;
+      }
+      int length = TS_PACKET_SIZE - headerSize;
+      System.arraycopy(payload, position, packet, headerSize, length);
+      position += length;
+      output.write(packet, 0, packet.length);
+    }
+  }
+
+  private static void writeTsHeader(
+      byte[] packet,
+      int pid,
+      boolean payloadUnitStart,
+      boolean hasAdaptationField,
+      int[] continuityCounters) {
+    packet[0] = 0x47;
+    packet[1] = (byte) ((payloadUnitStart ? 0x40 : 0) | (pid >> 8));
+    packet[2] = (byte) pid;
+    packet[3] = (byte) ((hasAdaptationField ? 0x30 : 0x10) | continuityCounters[pid]);
+    continuityCounters[pid] = (continuityCounters[pid] + 1) & 0x0F;
+  }
+
+  // Matroska.
+
+  private static byte[] element(int id, byte[]... children) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (byte[] child : children) {
+      write(body, child);
+    }
+    byte[] idBytes = idBytes(id);
+    byte[] bodyBytes = body.toByteArray();
+    byte[] element = new byte[idBytes.length + 8 + bodyBytes.length];
+    System.arraycopy(idBytes, 0, element, 0, idBytes.length);
+    // Always use an eight byte size, whose first byte is the length marker.
+    element[idBytes.length] = 0x01;
+    long size = bodyBytes.length;
+    for (int i = 1; i < 8; i++) {
+      element[idBytes.length + i] = (byte) (size >> (8 * (7 - i)));
+    }
+    System.arraycopy(bodyBytes, 0, element, idBytes.length + 8, bodyBytes.length);
+    return element;
+  }
+
+  private static byte[] uint(int id, long value) {
+    return element(id, int64(value));
+  }
+
+  private static byte[] float64(int id, double value) {
+    return element(id, int64(Double.doubleToLongBits(value)));
+  }
+
+  private static byte[] idBytes(int id) {
+    int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (id >> (8 * (length - 1 - i)));
+    }
+    return bytes;
+  }
+
+  // MP4.
+
+  private static byte[] box(String type, byte[]... children) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (byte[] child : children) {
+      write(body, child);
+    }
+    byte[] bodyBytes = body.toByteArray();
+    byte[] box = new byte[8 + bodyBytes.length];
+    writeInt32(box, 0, box.length);
+    System.arraycopy(Util.getUtf8Bytes(type), 0, box, 4, 4);
+    System.arraycopy(bodyBytes, 0, box, 8, bodyBytes.length);
+    return box;
+  }
+
+  private static byte[] createMp4Moov(int frameCount, int dataOffset) {
+    int duration = frameCount * MP3_SAMPLE_DURATION;
+    byte[] identityMatrix = new byte[36];
+    writeInt32(identityMatrix, 0, 0x10000);
+    writeInt32(identityMatrix, 16, 0x10000);
+    writeInt32(identityMatrix, 32, 0x40000000);
+
+    byte[] mvhdBody = new byte[96];
+    writeInt32(mvhdBody, 8, MP3_SAMPLE_RATE); // Timescale.
+    writeInt32(mvhdBody, 12, duration);
+    writeInt32(mvhdBody, 16, 0x10000); // Rate.
+    mvhdBody[20] = 1; // Volume.
+    System.arraycopy(identityMatrix, 0, mvhdBody, 32, identityMatrix.length);
+    writeInt32(mvhdBody, 92, 2); // Next track ID.
+
+    byte[] tkhdBody = new byte[80];
+    writeInt32(tkhdBody, 8, 1); // Track ID.
+    writeInt32(tkhdBody, 16, duration);
+    System.arraycopy(identityMatrix, 0, tkhdBody, 36, identityMatrix.length);
+
+    byte[] mdhdBody = new byte[20];
+    writeInt32(mdhdBody, 8, MP3_SAMPLE_RATE); // Timescale.
+    writeInt32(mdhdBody, 12, duration);
+    mdhdBody[16] = 0x55; // Language "und".
+    mdhdBody[17] = (byte) 0xC4;
+
+    byte[] hdlrBody = new byte[21];
+    System.arraycopy(Util.getUtf8Bytes("soun"), 0, hdlrBody, 4, 4);
+
+    byte[] sampleEntryBody = new byte[28];
+    sampleEntryBody[7] = 1; // Data reference index.
+    sampleEntryBody[17] = 2; // Channel count.
+    sampleEntryBody[19] = 16; // Sample size.
+    writeInt32(sampleEntryBody, 24, MP3_SAMPLE_RATE << 16);
+
+    byte[] sttsBody = new byte[12];
+    writeInt32(sttsBody, 0, 1); // Entry count.
+    writeInt32(sttsBody, 4, frameCount);
+    writeInt32(sttsBody, 8, MP3_SAMPLE_DURATION);
+
+    int chunkCount = (frameCount + MP4_SAMPLES_PER_CHUNK - 1) / MP4_SAMPLES_PER_CHUNK;
+    int lastChunkSampleCount = frameCount - (chunkCount - 1) * MP4_SAMPLES_PER_CHUNK;
+    boolean lastChunkIsShort = lastChunkSampleCount != MP4_SAMPLES_PER_CHUNK;
+    byte[] stscBody = new byte[4 + (lastChunkIsShort ? 24 : 12)];
+    writeInt32(stscBody, 0, lastChunkIsShort ? 2 : 1);
+    writeInt32(stscBody, 4, 1); // First chunk.
+    writeInt32(stscBody, 8, MP4_SAMPLES_PER_CHUNK);
+    writeInt32(stscBody, 12, 1); // Sample description index.
+    if (lastChunkIsShort) {
+      writeInt32(stscBody, 16, chunkCount);
+      writeInt32(stscBody, 20, lastChunkSampleCount);
+      writeInt32(stscBody, 24, 1);
+    }
+
+    byte[] stszBody = new byte[8 + 4 * frameCount];
+    writeInt32(stszBody, 4, frameCount);
+    for (int i = 0; i < frameCount; i++) {
+      writeInt32(stszBody, 8 + 4 * i, MP3_FRAME_SIZE);
+    }
+
+    byte[] stcoBody = new byte[4 + 4 * chunkCount];
+    writeInt32(stcoBody, 0, chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      writeInt32(stcoBody, 4 + 4 * i, dataOffset + i * MP4_SAMPLES_PER_CHUNK * MP3_FRAME_SIZE);
+    }
+
+    byte[] stbl =
+        box(
+            "stbl",
+            box(
+                "stsd",
+                fullBoxBody(/* versionAndFlags= */ 0, int32(1)),
+                box(".mp3", sampleEntryBody)),
+            box("stts", fullBoxBody(/* versionAndFlags= */ 0, sttsBody)),
+            box("stsc", fullBoxBody(/* versionAndFlags= */ 0, stscBody)),
+            box("stsz", fullBoxBody(/* versionAndFlags= */ 0, stszBody)),
+            box("stco", fullBoxBody(/* versionAndFlags= */ 0, stcoBody)));
+    return box(
+        "moov",
+        box("mvhd", fullBoxBody(/* versionAndFlags= */ 0, mvhdBody)),
+        box(
+            "trak",
+            // Flags: track enabled and in movie.
+            box("tkhd", fullBoxBody(/* versionAndFlags= */ 0x000003, tkhdBody)),
+            box(
+                "mdia",
+                box("mdhd", fullBoxBody(/* versionAndFlags= */ 0, mdhdBody)),
+                box("hdlr", fullBoxBody(/* versionAndFlags= */ 0, hdlrBody)),
+                box("minf", stbl))));
+  }
+
+  private static byte[] fullBoxBody(int versionAndFlags, byte[] body) {
+    byte[] fullBoxBody = new byte[4 + body.length];
+    writeInt32(fullBoxBody, 0, versionAndFlags);
+    System.arraycopy(body, 0, fullBoxBody, 4, body.length);
+    return fullBoxBody;
+  }
+
+  // Utility methods.
+
+  private static byte[] int32(int value) {
+    byte[] bytes = new byte[4];
+    writeInt32(bytes, 0, value);
+    return bytes;
+  }
+
+  private static byte[] int64(long value) {
+    byte[] bytes = new byte[8];
+    writeInt32(bytes, 0, (int) (value >>> 32));
+    writeInt32(bytes, 4, (int) value);
+    return bytes;
+  }
+
+  private static void writeInt32(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >> 24);
+    data[offset + 1] = (byte) (value >> 16);
+    data[offset + 2] = (byte) (value >> 8);
+    data[offset + 3] = (byte) value;
+  }
+
+  private static void write(ByteArrayOutputStream output, byte[] bytes) {
+    output.write(bytes, 0, bytes.length);
+  }
+}
@@ -26,6 +26,12 @@ import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /**
  * A seeker that supports seeking within a stream by searching for the target frame using binary
@@ -36,6 +42,11 @@ import java.lang.annotation.RetentionPolicy;
  * seek time, the seeker will find the corresponding target timestamp, and perform a search
  * operation within the stream to identify the target frame and return the byte position in the
  * stream of the target frame.
+ *
+ * <p>Timestamps found by each seek operation are retained to narrow the search range of later
+ * operations. If the {@link CachedRanges} of the stream are {@link #setCachedRanges set}, search
+ * positions that would require a new request are moved to nearby cached data where possible, so
+ * that seeking doesn't require a new network request for every step of the search.
  */
 public abstract class BinarySearchSeeker {
 
@@ -57,6 +68,14 @@ public abstract class BinarySearchSeeker {
 
     /** Called when a seek operation finishes. */
     default void onSeekFinished() {}
+
+    /**
+     * Returns the maximum number of bytes that {@link #searchForTimestamp} reads from the input, or
+     * {@link C#LENGTH_UNSET} if it's unknown.
+     */
+    default int getSearchLength() {
+      return C.LENGTH_UNSET;
+    }
   }
 
   /**
@@ -89,12 +108,24 @@ public abstract class BinarySearchSeeker {
    * the new seek position.
    */
   private static final long MAX_SKIP_BYTES = 256 * 1024;
+  /**
+   * The maximum number of floor and ceiling timestamps retained from previous seek operations. Once
+   * reached, the timestamp closest to the one before it is evicted for each new timestamp, so that
+   * the retained timestamps stay spread over the stream.
+   */
+  private static final int MAX_KNOWN_TIMESTAMPS = 1024;
 
   protected final BinarySearchSeekMap seekMap;
   protected final TimestampSeeker timestampSeeker;
   @Nullable protected SeekOperationParams seekOperationParams;
 
   private final int minimumSearchRange;
+  /** Byte positions before which all timestamps are at most the key timestamp. */
+  private final TreeMap<Long, Long> knownFloorBytePositions;
+  /** Byte positions after which all timestamps are greater than the key timestamp. */
+  private final TreeMap<Long, Long> knownCeilingBytePositions;
+
+  @Nullable private volatile CachedRanges cachedRanges;
 
   /**
    * Constructs an instance.
@@ -128,8 +159,10 @@ public abstract class BinarySearchSeeker {
       int minimumSearchRange) {
     this.timestampSeeker = timestampSeeker;
     this.minimumSearchRange = minimumSearchRange;
+    knownFloorBytePositions = new TreeMap<>();
+    knownCeilingBytePositions = new TreeMap<>();
     this.seekMap =
-        new BinarySearchSeekMap(
+        new SearchStartSeekMap(
             seekTimestampConverter,
             durationUs,
             floorTimePosition,
@@ -144,6 +177,16 @@ public abstract class BinarySearchSeeker {
     return seekMap;
   }
 
+  /**
+   * Sets the {@link CachedRanges} of the stream. Search positions are moved to nearby cached data
+   * where possible.
+   *
+   * @param cachedRanges The {@link CachedRanges} of the stream, or {@code null} if unknown.
+   */
+  public final void setCachedRanges(@Nullable CachedRanges cachedRanges) {
+    this.cachedRanges = cachedRanges;
+  }
+
   /**
    * Sets the target time in microseconds within the stream to seek to.
    *
@@ -185,6 +228,15 @@ public abstract class BinarySearchSeeker {
         markSeekOperationFinished(/* foundTargetFrame= */ false, floorPosition);
         return seekToPosition(input, floorPosition, seekPositionHolder);
       }
+      searchPosition = adjustSearchBytePosition(floorPosition, ceilingPosition, searchPosition);
+      if (!canSkipInputToPosition(input, searchPosition)) {
+        // Searching from the position requires a new request, so prefer one that reads cached data.
+        long cachedBytePosition =
+            getCachedSearchBytePosition(floorPosition, ceilingPosition, searchPosition);
+        if (cachedBytePosition != C.POSITION_UNSET) {
+          searchPosition = cachedBytePosition;
+        }
+      }
       if (!skipInputUntilPosition(input, searchPosition)) {
         return seekToPosition(input, searchPosition, seekPositionHolder);
       }
@@ -197,10 +249,18 @@ public abstract class BinarySearchSeeker {
         case TimestampSearchResult.TYPE_POSITION_OVERESTIMATED:
           seekOperationParams.updateSeekCeiling(
               timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
+          addKnownBytePosition(
+              knownCeilingBytePositions,
+              timestampSearchResult.timestampToUpdate,
+              timestampSearchResult.bytePositionToUpdate);
           break;
         case TimestampSearchResult.TYPE_POSITION_UNDERESTIMATED:
           seekOperationParams.updateSeekFloor(
               timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
+          addKnownBytePosition(
+              knownFloorBytePositions,
+              timestampSearchResult.timestampToUpdate,
+              timestampSearchResult.bytePositionToUpdate);
           break;
         case TimestampSearchResult.TYPE_TARGET_TIMESTAMP_FOUND:
           skipInputUntilPosition(input, timestampSearchResult.bytePositionToUpdate);
@@ -220,14 +280,17 @@ public abstract class BinarySearchSeeker {
   }
 
   protected SeekOperationParams createSeekParamsForTargetTimeUs(long timeUs) {
-    return new SeekOperationParams(
-        timeUs,
-        seekMap.timeUsToTargetTime(timeUs),
-        seekMap.floorTimePosition,
-        seekMap.ceilingTimePosition,
-        seekMap.floorBytePosition,
-        seekMap.ceilingBytePosition,
-        seekMap.approxBytesPerFrame);
+    SeekOperationParams seekOperationParams =
+        new SeekOperationParams(
+            timeUs,
+            seekMap.timeUsToTargetTime(timeUs),
+            seekMap.floorTimePosition,
+            seekMap.ceilingTimePosition,
+            seekMap.floorBytePosition,
+            seekMap.ceilingBytePosition,
+            seekMap.approxBytesPerFrame);
+    narrowToKnownBytePositions(seekOperationParams);
+    return seekOperationParams;
   }
 
   protected final void markSeekOperationFinished(boolean foundTargetFrame, long resultPosition) {
@@ -242,14 +305,138 @@ public abstract class BinarySearchSeeker {
 
   protected final boolean skipInputUntilPosition(ExtractorInput input, long position)
       throws IOException {
-    long bytesToSkip = position - input.getPosition();
-    if (bytesToSkip >= 0 && bytesToSkip <= MAX_SKIP_BYTES) {
-      input.skipFully((int) bytesToSkip);
+    if (canSkipInputToPosition(input, position)) {
+      input.skipFully((int) (position - input.getPosition()));
       return true;
     }
     return false;
   }
 
+  private static boolean canSkipInputToPosition(ExtractorInput input, long position) {
+    long bytesToSkip = position - input.getPosition();
+    return bytesToSkip >= 0 && bytesToSkip <= MAX_SKIP_BYTES;
+  }
+
+  /**
+   * Returns the position from which to search for the target timestamp, given the position
+   * estimated by {@link SeekOperationParams}, without taking cached data into account.
+   *
+   * @param floorBytePosition The floor byte position of the search range.
+   * @param ceilingBytePosition The ceiling byte position of the search range.
+   * @param estimatedBytePosition The estimated search position.
+   * @return The position from which to search.
+   */
+  private static long adjustSearchBytePosition(
+      long floorBytePosition, long ceilingBytePosition, long estimatedBytePosition) {
+    if (ceilingBytePosition - floorBytePosition <= MAX_SKIP_BYTES) {
+      // Search from the floor, so that the remaining steps of the search skip forward through the
+      // same request, rather than possibly requiring a new request to search backward.
+      return floorBytePosition;
+    }
+    return estimatedBytePosition;
+  }
+
+  /**
+   * Returns the position closest to {@code estimatedBytePosition}, and within a quarter of the
+   * search range of it, from which a search would only read cached data, or {@link
+   * C#POSITION_UNSET} if there's no such position.
+   */
+  private long getCachedSearchBytePosition(
+      long floorBytePosition, long ceilingBytePosition, long estimatedBytePosition) {
+    @Nullable CachedRanges cachedRanges = this.cachedRanges;
+    if (cachedRanges == null) {
+      return C.POSITION_UNSET;
+    }
+    int searchLength = max(1, timestampSeeker.getSearchLength());
+    long bytesToSearch = min(searchLength, ceilingBytePosition - estimatedBytePosition);
+    if (cachedRanges.getCachedLength(estimatedBytePosition, bytesToSearch) >= bytesToSearch) {
+      return estimatedBytePosition;
+    }
+    long maxDistance = (ceilingBytePosition - floorBytePosition) / 4;
+    long position = max(floorBytePosition, estimatedBytePosition - maxDistance);
+    long endPosition = min(ceilingBytePosition, estimatedBytePosition + maxDistance + 1);
+    long cachedBytePosition = C.POSITION_UNSET;
+    long cachedBytePositionDistance = Long.MAX_VALUE;
+    while (position < endPosition) {
+      long cachedLength = cachedRanges.getCachedLength(position, ceilingBytePosition - position);
+      if (cachedLength == 0) {
+        break;
+      } else if (cachedLength < 0) {
+        position -= cachedLength;
+        continue;
+      }
+      long cachedEndPosition = position + cachedLength;
+      // The last position in the cached range from which a whole search would be cached.
+      long lastBytePosition =
+          cachedEndPosition == ceilingBytePosition
+              ? cachedEndPosition - 1
+              : cachedEndPosition - searchLength;
+      if (lastBytePosition >= position) {
+        long candidate = Util.constrainValue(estimatedBytePosition, position, lastBytePosition);
+        long distance = abs(candidate - estimatedBytePosition);
+        if (distance <= maxDistance && distance < cachedBytePositionDistance) {
+          cachedBytePosition = candidate;
+          cachedBytePositionDistance = distance;
+        }
+      }
+      position = cachedEndPosition;
+    }
+    return cachedBytePosition;
+  }
+
+  private synchronized void addKnownBytePosition(
+      TreeMap<Long, Long> knownBytePositions, long timestamp, long bytePosition) {
+    if (knownBytePositions.size() >= MAX_KNOWN_TIMESTAMPS
+        && !knownBytePositions.containsKey(timestamp)) {
+      removeDensestKnownTimestamp(knownBytePositions);
+    }
+    knownBytePositions.put(timestamp, bytePosition);
+  }
+
+  /** Removes the known timestamp that is closest to the one before it. */
+  private static void removeDensestKnownTimestamp(TreeMap<Long, Long> knownBytePositions) {
+    long densestTimestamp = knownBytePositions.firstKey();
+    long densestTimestampGap = Long.MAX_VALUE;
+    long previousTimestamp = densestTimestamp;
+    for (long timestamp : knownBytePositions.tailMap(previousTimestamp, false).keySet()) {
+      long gap = timestamp - previousTimestamp;
+      if (gap < densestTimestampGap) {
+        densestTimestamp = timestamp;
+        densestTimestampGap = gap;
+      }
+      previousTimestamp = timestamp;
+    }
+    knownBytePositions.remove(densestTimestamp);
+  }
+
+  /**
+   * Narrows the search range of a seek operation to the closest floor and ceiling found by previous
+   * seek operations.
+   */
+  private synchronized void narrowToKnownBytePositions(SeekOperationParams seekOperationParams) {
+    long targetTimePosition = seekOperationParams.getTargetTimePosition();
+    @Nullable
+    Map.Entry<Long, Long> floor = knownFloorBytePositions.floorEntry(targetTimePosition);
+    @Nullable
+    Map.Entry<Long, Long> ceiling = knownCeilingBytePositions.higherEntry(targetTimePosition);
+    if (floor != null && floor.getValue() <= seekOperationParams.getFloorBytePosition()) {
+      floor = null;
+    }
+    if (ceiling != null && ceiling.getValue() >= seekOperationParams.getCeilingBytePosition()) {
+      ceiling = null;
+    }
+    if (floor != null && ceiling != null && floor.getValue() >= ceiling.getValue()) {
+      // The known positions are inconsistent, for example because the stream has discontinuities.
+      return;
+    }
+    if (floor != null) {
+      seekOperationParams.updateSeekFloor(floor.getKey(), floor.getValue());
+    }
+    if (ceiling != null) {
+      seekOperationParams.updateSeekCeiling(ceiling.getKey(), ceiling.getValue());
+    }
+  }
+
   protected final int seekToPosition(
       ExtractorInput input, long position, PositionHolder seekPositionHolder) {
     if (position == input.getPosition()) {
@@ -535,4 +722,47 @@ public abstract class BinarySearchSeeker {
       return seekTimestampConverter.timeUsToTargetTime(timeUs);
     }
   }
+
+  /**
+   * A {@link BinarySearchSeekMap} that returns the position from which a seek operation will start
+   * searching, taking timestamps found by previous seek operations into account.
+   *
+   * <p>Seek points are queried on the playback thread, so cached data isn't taken into account, as
+   * querying the {@link CachedRanges} may block on the cache. A seek operation that starts from the
+   * returned position searches from it without a new request, and only prefers cached data when a
+   * new request is required anyway.
+   */
+  private final class SearchStartSeekMap extends BinarySearchSeekMap {
+
+    public SearchStartSeekMap(
+        SeekTimestampConverter seekTimestampConverter,
+        long durationUs,
+        long floorTimePosition,
+        long ceilingTimePosition,
+        long floorBytePosition,
+        long ceilingBytePosition,
+        long approxBytesPerFrame) {
+      super(
+          seekTimestampConverter,
+          durationUs,
+          floorTimePosition,
+          ceilingTimePosition,
+          floorBytePosition,
+          ceilingBytePosition,
+          approxBytesPerFrame);
+    }
+
+    @Override
+    public SeekPoints getSeekPoints(long timeUs) {
+      SeekOperationParams seekOperationParams = createSeekParamsForTargetTimeUs(timeUs);
+      long floorPosition = seekOperationParams.getFloorBytePosition();
+      long ceilingPosition = seekOperationParams.getCeilingBytePosition();
+      long searchPosition =
+          ceilingPosition - floorPosition <= minimumSearchRange
+              ? floorPosition
+              : adjustSearchBytePosition(
+                  floorPosition, ceilingPosition, seekOperationParams.getNextSearchBytePosition());
+      return new SeekPoints(new SeekPoint(timeUs, searchPosition));
+    }
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.C;
+
+/**
+ * Describes which byte ranges of a stream can be read without a network request, so that seeking
+ * can prefer reading them.
+ *
+ * <p>Implementations must be thread-safe.
+ */
+public interface CachedRanges {
+
+  /** Creates {@link CachedRanges} instances. */
+  interface Factory {
+
+    /**
+     * Returns the {@link CachedRanges} of the stream at {@code uri}, or {@code null} if they are
+     * unknown.
+     *
+     * @param uri The {@link Uri} of the stream.
+     */
+    @Nullable
+    CachedRanges createCachedRanges(Uri uri);
+  }
+
+  /**
+   * Returns the length of continuously cached data starting from {@code position}, up to a maximum
+   * of {@code length}. If {@code position} isn't cached then {@code -holeLength} is returned, where
+   * {@code holeLength} is the length of continuously uncached data starting from {@code position},
+   * up to a maximum of {@code length}.
+   *
+   * @param position The starting position of the data in the stream.
+   * @param length The maximum length of the data or hole to be returned. {@link C#LENGTH_UNSET} is
+   *     permitted, and is equivalent to passing {@link Long#MAX_VALUE}.
+   * @return The length of the continuously cached data, or {@code -holeLength} if {@code position}
+   *     isn't cached.
+   */
+  long getCachedLength(long position, long length);
+}
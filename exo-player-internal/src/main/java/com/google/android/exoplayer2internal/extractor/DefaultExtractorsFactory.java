@@ -135,6 +135,9 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
   @TsExtractor.Mode private int tsMode;
   @DefaultTsPayloadReaderFactory.Flags
   private int tsFlags;
+  private boolean tsPipelineElementaryStreams;
+  @Nullable private SeekIndexStore.Factory seekIndexStoreFactory;
+  @Nullable private CachedRanges.Factory cachedRangesFactory;
 
   public DefaultExtractorsFactory() {
     tsMode = TsExtractor.MODE_SINGLE_PMT;
@@ -157,6 +160,50 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets the {@link SeekIndexStore.Factory} used to create the {@link SeekIndexStore} of each
+   * stream read by extractors created by the factory. {@link Mp4Extractor}, {@link
+   * MatroskaExtractor} and {@link Mp3Extractor} store the seek indices they parse, and {@link
+   * TsExtractor} and {@link PsExtractor} store the timestamps from which the duration of a stream
+   * is calculated, so that they don't need to be parsed again when the stream is opened again.
+   * Seek indices are only stored for streams whose {@link Uri} is passed to {@link
+   * #createExtractors(Uri, Map)}. The default value is {@code null}.
+   *
+   * @see Mp4Extractor#Mp4Extractor(int, SeekIndexStore)
+   * @see MatroskaExtractor#MatroskaExtractor(int, SeekIndexStore)
+   * @see Mp3Extractor#Mp3Extractor(int, SeekIndexStore)
+   * @see TsExtractor#TsExtractor(int, TimestampAdjuster, TsPayloadReader.Factory, boolean,
+   *     CachedRanges, SeekIndexStore)
+   * @see PsExtractor#PsExtractor(TimestampAdjuster, CachedRanges, SeekIndexStore)
+   * @param seekIndexStoreFactory The {@link SeekIndexStore.Factory} to use, or {@code null} if
+   *     seek indices should always be parsed from the stream.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setSeekIndexStoreFactory(
+      @Nullable SeekIndexStore.Factory seekIndexStoreFactory) {
+    this.seekIndexStoreFactory = seekIndexStoreFactory;
+    return this;
+  }
+
+  /**
+   * Sets the {@link CachedRanges.Factory} used to create the {@link CachedRanges} of the streams
+   * read by {@link TsExtractor} and {@link PsExtractor} instances created by the factory. When
+   * seeking, these extractors prefer to read cached data over making new requests. The default
+   * value is {@code null}.
+   *
+   * @see TsExtractor#TsExtractor(int, TimestampAdjuster, TsPayloadReader.Factory, boolean,
+   *     CachedRanges)
+   * @see PsExtractor#PsExtractor(TimestampAdjuster, CachedRanges)
+   * @param cachedRangesFactory The {@link CachedRanges.Factory} to use, or {@code null} if cached
+   *     ranges should not be taken into account.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setCachedRangesFactory(
+      @Nullable CachedRanges.Factory cachedRangesFactory) {
+    this.cachedRangesFactory = cachedRangesFactory;
+    return this;
+  }
+
   /**
    * Sets flags for {@link AdtsExtractor} instances created by the factory.
    *
@@ -273,6 +320,21 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets whether {@link TsExtractor} instances created by the factory should parse elementary
+   * streams on worker threads. The default value is {@code false}.
+   *
+   * @see TsExtractor#TsExtractor(int, TimestampAdjuster, TsPayloadReader.Factory, boolean)
+   * @param pipelineElementaryStreams Whether elementary streams should be parsed on worker
+   *     threads.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setTsExtractorPipelineElementaryStreams(
+      boolean pipelineElementaryStreams) {
+    tsPipelineElementaryStreams = pipelineElementaryStreams;
+    return this;
+  }
+
   @Override
   public synchronized Extractor[] createExtractors() {
     return createExtractors(Uri.EMPTY, new HashMap<>());
@@ -286,25 +348,26 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     @FileTypes.Type
     int responseHeadersInferredFileType = inferFileTypeFromResponseHeaders(responseHeaders);
     if (responseHeadersInferredFileType != FileTypes.UNKNOWN) {
-      addExtractorsForFileType(responseHeadersInferredFileType, extractors);
+      addExtractorsForFileType(responseHeadersInferredFileType, uri, extractors);
     }
 
     @FileTypes.Type int uriInferredFileType = inferFileTypeFromUri(uri);
     if (uriInferredFileType != FileTypes.UNKNOWN
         && uriInferredFileType != responseHeadersInferredFileType) {
-      addExtractorsForFileType(uriInferredFileType, extractors);
+      addExtractorsForFileType(uriInferredFileType, uri, extractors);
     }
 
     for (int fileType : DEFAULT_EXTRACTOR_ORDER) {
       if (fileType != responseHeadersInferredFileType && fileType != uriInferredFileType) {
-        addExtractorsForFileType(fileType, extractors);
+        addExtractorsForFileType(fileType, uri, extractors);
       }
     }
 
     return extractors.toArray(new Extractor[extractors.size()]);
   }
 
-  private void addExtractorsForFileType(@FileTypes.Type int fileType, List<Extractor> extractors) {
+  private void addExtractorsForFileType(
+      @FileTypes.Type int fileType, Uri uri, List<Extractor> extractors) {
     switch (fileType) {
       case FileTypes.AC3:
         extractors.add(new Ac3Extractor());
@@ -344,7 +407,7 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
         extractors.add(new FlvExtractor());
         break;
       case FileTypes.MATROSKA:
-        extractors.add(new MatroskaExtractor(matroskaFlags));
+        extractors.add(new MatroskaExtractor(matroskaFlags, createSeekIndexStore(uri)));
         break;
       case FileTypes.MP3:
         extractors.add(
@@ -352,20 +415,30 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
                 mp3Flags
                     | (constantBitrateSeekingEnabled
                         ? Mp3Extractor.FLAG_ENABLE_CONSTANT_BITRATE_SEEKING
-                        : 0)));
+                        : 0),
+                createSeekIndexStore(uri)));
         break;
       case FileTypes.MP4:
         extractors.add(new FragmentedMp4Extractor(fragmentedMp4Flags));
-        extractors.add(new Mp4Extractor(mp4Flags));
+        extractors.add(new Mp4Extractor(mp4Flags, createSeekIndexStore(uri)));
         break;
       case FileTypes.OGG:
         extractors.add(new OggExtractor());
         break;
       case FileTypes.PS:
-        extractors.add(new PsExtractor());
+        extractors.add(
+            new PsExtractor(
+                new TimestampAdjuster(0), createCachedRanges(uri), createSeekIndexStore(uri)));
         break;
       case FileTypes.TS:
-        extractors.add(new TsExtractor(tsMode, tsFlags));
+        extractors.add(
+            new TsExtractor(
+                tsMode,
+                new TimestampAdjuster(0),
+                new DefaultTsPayloadReaderFactory(tsFlags),
+                tsPipelineElementaryStreams,
+                createCachedRanges(uri),
+                createSeekIndexStore(uri)));
         break;
       case FileTypes.WAV:
         extractors.add(new WavExtractor());
@@ -374,4 +447,22 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
         break;
     }
   }
+
+  @Nullable
+  private CachedRanges createCachedRanges(Uri uri) {
+    if (cachedRangesFactory == null || uri.equals(Uri.EMPTY)) {
+      // Without a URI, the cached ranges of the stream can't be looked up.
+      return null;
+    }
+    return cachedRangesFactory.createCachedRanges(uri);
+  }
+
+  @Nullable
+  private SeekIndexStore createSeekIndexStore(Uri uri) {
+    if (seekIndexStoreFactory == null || uri.equals(Uri.EMPTY)) {
+      // Without a URI, the store can't be specific to the stream.
+      return null;
+    }
+    return seekIndexStoreFactory.createSeekIndexStore(uri);
+  }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.AtomicFile;
+import com.google.android.exoplayer2internal.util.Log;
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link SeekIndexStore} that stores each seek index in a file in a directory. The directory is
+ * typically placed alongside a cache directory.
+ *
+ * <p>An instance holds the indices of a single stream. The indices of many streams can be stored in
+ * the same directory by a {@link Factory}, which prefixes their keys with a SHA-256 digest of the
+ * {@link Uri} of each stream.
+ *
+ * <p>The total size of the stored indices is bounded. When it's exceeded, the least recently used
+ * indices are deleted. Recency is persisted using the modification times of the files.
+ */
+public final class FileSeekIndexStore implements SeekIndexStore {
+
+  /**
+   * A {@link SeekIndexStore.Factory} that stores the seek indices of all streams in the same
+   * directory, sharing a single size bound.
+   */
+  public static final class Factory implements SeekIndexStore.Factory {
+
+    private final FileSeekIndexStore fileSeekIndexStore;
+
+    /**
+     * Creates an instance that stores up to {@link #DEFAULT_MAX_BYTES} of seek indices.
+     *
+     * @param directory The directory in which to store seek indices. It's created if it doesn't
+     *     exist.
+     */
+    public Factory(File directory) {
+      this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param directory The directory in which to store seek indices. It's created if it doesn't
+     *     exist.
+     * @param maxBytes The maximum total size of the stored seek indices, in bytes.
+     */
+    public Factory(File directory, long maxBytes) {
+      fileSeekIndexStore = new FileSeekIndexStore(directory, maxBytes);
+    }
+
+    @Override
+    public SeekIndexStore createSeekIndexStore(Uri uri) {
+      byte[] uriDigest = Util.newSha256Digest().digest(Util.getUtf8Bytes(uri.toString()));
+      return new KeyPrefixingSeekIndexStore(
+          fileSeekIndexStore, /* keyPrefix= */ Util.toHexString(uriDigest) + "-");
+    }
+  }
+
+  /** The default maximum total size of the stored seek indices, in bytes. */
+  public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  private static final String TAG = "FileSeekIndexStore";
+  private static final String FILE_EXTENSION = ".idx";
+
+  private final File directory;
+  private final long maxBytes;
+
+  /**
+   * The lengths of the stored indices in bytes, keyed by their keys, in least recently used order.
+   * Loaded from the directory when first needed.
+   */
+  @Nullable private LinkedHashMap<String, Long> indexLengths;
+  private long totalBytes;
+
+  /**
+   * Creates an instance that stores up to {@link #DEFAULT_MAX_BYTES} of seek indices.
+   *
+   * @param directory The directory in which to store seek indices. It's created if it doesn't
+   *     exist.
+   */
+  public FileSeekIndexStore(File directory) {
+    this(directory, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param directory The directory in which to store seek indices. It's created if it doesn't
+   *     exist.
+   * @param maxBytes The maximum total size of the stored seek indices, in bytes.
+   */
+  public FileSeekIndexStore(File directory, long maxBytes) {
+    Assertions.checkArgument(maxBytes > 0);
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  @Nullable
+  public synchronized byte[] get(String key) {
+    LinkedHashMap<String, Long> indexLengths = getIndexLengths();
+    if (indexLengths.get(key) == null) {
+      return null;
+    }
+    AtomicFile atomicFile = getAtomicFile(key);
+    try (InputStream inputStream = atomicFile.openRead()) {
+      byte[] seekIndex = Util.toByteArray(inputStream);
+      getFile(key).setLastModified(System.currentTimeMillis());
+      return seekIndex;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read seek index: " + key, e);
+      remove(key);
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void put(String key, byte[] seekIndex) {
+    if (seekIndex.length > maxBytes) {
+      return;
+    }
+    LinkedHashMap<String, Long> indexLengths = getIndexLengths();
+    AtomicFile atomicFile = getAtomicFile(key);
+    @Nullable OutputStream outputStream = null;
+    try {
+      outputStream = atomicFile.startWrite();
+      outputStream.write(seekIndex);
+      atomicFile.endWrite(outputStream);
+      outputStream = null;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write seek index: " + key, e);
+      return;
+    } finally {
+      Util.closeQuietly(outputStream);
+    }
+    @Nullable Long previousLength = indexLengths.put(key, (long) seekIndex.length);
+    totalBytes += seekIndex.length - (previousLength != null ? previousLength : 0);
+    evictLeastRecentlyUsed();
+  }
+
+  private LinkedHashMap<String, Long> getIndexLengths() {
+    if (indexLengths != null) {
+      return indexLengths;
+    }
+    indexLengths =
+        new LinkedHashMap<>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+    @Nullable File[] files = directory.listFiles();
+    if (files != null) {
+      Arrays.sort(
+          files, (file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+      for (File file : files) {
+        String name = file.getName();
+        if (name.endsWith(FILE_EXTENSION)) {
+          String key = name.substring(0, name.length() - FILE_EXTENSION.length());
+          indexLengths.put(key, file.length());
+          totalBytes += file.length();
+        }
+      }
+    }
+    evictLeastRecentlyUsed();
+    return indexLengths;
+  }
+
+  private void evictLeastRecentlyUsed() {
+    Iterator<Map.Entry<String, Long>> iterator =
+        Assertions.checkNotNull(indexLengths).entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      iterator.remove();
+      totalBytes -= entry.getValue();
+      getAtomicFile(entry.getKey()).delete();
+    }
+  }
+
+  private void remove(String key) {
+    @Nullable Long length = Assertions.checkNotNull(indexLengths).remove(key);
+    if (length != null) {
+      totalBytes -= length;
+      getAtomicFile(key).delete();
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + FILE_EXTENSION);
+  }
+
+  private AtomicFile getAtomicFile(String key) {
+    return new AtomicFile(getFile(key));
+  }
+
+  private static final class KeyPrefixingSeekIndexStore implements SeekIndexStore {
+
+    private final SeekIndexStore seekIndexStore;
+    private final String keyPrefix;
+
+    public KeyPrefixingSeekIndexStore(SeekIndexStore seekIndexStore, String keyPrefix) {
+      this.seekIndexStore = seekIndexStore;
+      this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    @Nullable
+    public byte[] get(String key) {
+      return seekIndexStore.get(keyPrefix + key);
+    }
+
+    @Override
+    public void put(String key, byte[] seekIndex) {
+      seekIndexStore.put(keyPrefix + key, seekIndex);
+    }
+  }
+}
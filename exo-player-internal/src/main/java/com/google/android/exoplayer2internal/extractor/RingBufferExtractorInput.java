@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.ByteBufferDataReader;
+import com.google.android.exoplayer2internal.upstream.DataReader;
+import com.google.android.exoplayer2internal.util.Assertions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * An {@link ExtractorInput} that wraps a {@link DataReader}, and behaves identically to {@link
+ * DefaultExtractorInput}.
+ *
+ * <p>Peeked data is held in a ring buffer, so consuming it takes constant time, where {@link
+ * DefaultExtractorInput} shifts the remaining peeked data to the start of its buffer. The buffer
+ * only grows when a single peek exceeds its capacity, and the input can be {@link #reset} to wrap
+ * another {@link DataReader}, so a single instance can be used for all the loads of a media period
+ * without allocating. In addition to the {@link ExtractorInput} methods, {@link #read(ByteBuffer)}
+ * reads into a {@link ByteBuffer}, which may be direct. If the wrapped {@link DataReader} is a
+ * {@link ByteBufferDataReader}, data that hasn't been peeked is read into direct buffers without
+ * passing through the ring buffer.
+ */
+public final class RingBufferExtractorInput implements ExtractorInput, ByteBufferDataReader {
+
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  /** The capacity above which the buffer is reallocated at the initial capacity once drained. */
+  private static final int MAX_RETAINED_CAPACITY = 512 * 1024;
+
+  private DataReader dataReader;
+  private long streamLength;
+  private long position;
+
+  private byte[] buffer;
+  private int bufferMask;
+  /** The index in {@link #buffer} of the byte at {@link #position}. */
+  private int bufferStart;
+  /** The number of bytes in {@link #buffer} from {@link #bufferStart}. */
+  private int bufferLength;
+  /** The peek position, relative to {@link #position}. */
+  private int peekOffset;
+
+  /**
+   * @param dataReader The wrapped {@link DataReader}.
+   * @param position The initial position in the stream.
+   * @param length The length of the stream, or {@link C#LENGTH_UNSET} if it is unknown.
+   */
+  public RingBufferExtractorInput(DataReader dataReader, long position, long length) {
+    this.dataReader = dataReader;
+    this.position = position;
+    this.streamLength = length;
+    buffer = new byte[INITIAL_CAPACITY];
+    bufferMask = INITIAL_CAPACITY - 1;
+  }
+
+  /**
+   * Resets the input to wrap another {@link DataReader}, discarding any peeked data. The buffer is
+   * retained for reuse.
+   *
+   * @param dataReader The wrapped {@link DataReader}.
+   * @param position The initial position in the stream.
+   * @param length The length of the stream, or {@link C#LENGTH_UNSET} if it is unknown.
+   */
+  public void reset(DataReader dataReader, long position, long length) {
+    this.dataReader = dataReader;
+    this.position = position;
+    this.streamLength = length;
+    consumeFromBuffer(bufferLength);
+  }
+
+  @Override
+  public int read(byte[] target, int offset, int length) throws IOException {
+    int bytesRead = readFromBuffer(target, offset, length);
+    if (bytesRead == 0) {
+      bytesRead =
+          readFromUpstream(
+              target, offset, length, /* bytesAlreadyRead= */ 0, /* allowEndOfInput= */ true);
+    }
+    commitBytesRead(bytesRead);
+    return bytesRead;
+  }
+
+  /**
+   * Reads up to {@link ByteBuffer#remaining()} bytes from the input into {@code target}, which may
+   * be a direct buffer, advancing its position by the number of bytes read.
+   *
+   * <p>This method blocks until at least one byte of data can be read, the end of the input is
+   * detected, or an exception is thrown.
+   *
+   * <p>Unlike other {@link ByteBufferDataReader} implementations, this method never returns {@link
+   * #RESULT_UNSUPPORTED}.
+   *
+   * @param target The buffer into which data should be read.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if the input has ended.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  @Override
+  public int read(ByteBuffer target) throws IOException {
+    int length = target.remaining();
+    int bytesRead;
+    if (bufferLength > 0) {
+      bytesRead = min(bufferLength, length);
+      copyFromBuffer(/* bufferOffset= */ 0, target, bytesRead);
+      consumeFromBuffer(bytesRead);
+    } else if (target.hasArray()) {
+      bytesRead =
+          readFromUpstream(
+              target.array(),
+              target.arrayOffset() + target.position(),
+              length,
+              /* bytesAlreadyRead= */ 0,
+              /* allowEndOfInput= */ true);
+      if (bytesRead != C.RESULT_END_OF_INPUT) {
+        target.position(target.position() + bytesRead);
+      }
+    } else {
+      bytesRead = readFromUpstream(target);
+      if (bytesRead == RESULT_UNSUPPORTED) {
+        // The wrapped reader can't read into the target, and the buffer is empty, so read through
+        // it.
+        bufferStart = 0;
+        bytesRead =
+            readFromUpstream(
+                buffer,
+                /* offset= */ 0,
+                min(length, buffer.length),
+                /* bytesAlreadyRead= */ 0,
+                /* allowEndOfInput= */ true);
+        if (bytesRead != C.RESULT_END_OF_INPUT) {
+          target.put(buffer, /* offset= */ 0, bytesRead);
+        }
+      }
+    }
+    commitBytesRead(bytesRead);
+    return bytesRead;
+  }
+
+  @Override
+  public boolean readFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+      throws IOException {
+    int bytesRead = readFromBuffer(target, offset, length);
+    while (bytesRead < length && bytesRead != C.RESULT_END_OF_INPUT) {
+      bytesRead = readFromUpstream(target, offset, length, bytesRead, allowEndOfInput);
+    }
+    commitBytesRead(bytesRead);
+    return bytesRead != C.RESULT_END_OF_INPUT;
+  }
+
+  @Override
+  public void readFully(byte[] target, int offset, int length) throws IOException {
+    readFully(target, offset, length, false);
+  }
+
+  @Override
+  public int skip(int length) throws IOException {
+    int bytesSkipped = skipFromBuffer(length);
+    if (bytesSkipped == 0 && bufferLength == 0) {
+      // The buffer is empty, so skip through it.
+      bufferStart = 0;
+      bytesSkipped = readFromUpstream(buffer, 0, min(length, buffer.length), 0, true);
+    }
+    commitBytesRead(bytesSkipped);
+    return bytesSkipped;
+  }
+
+  @Override
+  public boolean skipFully(int length, boolean allowEndOfInput) throws IOException {
+    int bytesSkipped = skipFromBuffer(length);
+    if (bytesSkipped < length) {
+      // The buffer is empty, so skip through it.
+      bufferStart = 0;
+    }
+    while (bytesSkipped < length && bytesSkipped != C.RESULT_END_OF_INPUT) {
+      int minLength = min(length, bytesSkipped + buffer.length);
+      bytesSkipped =
+          readFromUpstream(buffer, -bytesSkipped, minLength, bytesSkipped, allowEndOfInput);
+    }
+    commitBytesRead(bytesSkipped);
+    return bytesSkipped != C.RESULT_END_OF_INPUT;
+  }
+
+  @Override
+  public void skipFully(int length) throws IOException {
+    skipFully(length, false);
+  }
+
+  @Override
+  public int peek(byte[] target, int offset, int length) throws IOException {
+    ensureCapacityForPeek(length);
+    int bufferRemainingBytes = bufferLength - peekOffset;
+    int bytesPeeked;
+    if (bufferRemainingBytes == 0) {
+      bytesPeeked = readIntoBuffer(length, /* allowEndOfInput= */ true);
+      if (bytesPeeked == C.RESULT_END_OF_INPUT) {
+        return C.RESULT_END_OF_INPUT;
+      }
+    } else {
+      bytesPeeked = min(length, bufferRemainingBytes);
+    }
+    copyFromBuffer(peekOffset, target, offset, bytesPeeked);
+    peekOffset += bytesPeeked;
+    return bytesPeeked;
+  }
+
+  @Override
+  public boolean peekFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+      throws IOException {
+    if (!advancePeekPosition(length, allowEndOfInput)) {
+      return false;
+    }
+    copyFromBuffer(peekOffset - length, target, offset, length);
+    return true;
+  }
+
+  @Override
+  public void peekFully(byte[] target, int offset, int length) throws IOException {
+    peekFully(target, offset, length, false);
+  }
+
+  @Override
+  public boolean advancePeekPosition(int length, boolean allowEndOfInput) throws IOException {
+    ensureCapacityForPeek(length);
+    while (bufferLength - peekOffset < length) {
+      int bytesPeeked = bufferLength - peekOffset;
+      if (readIntoBuffer(length - bytesPeeked, allowEndOfInput && bytesPeeked == 0)
+          == C.RESULT_END_OF_INPUT) {
+        return false;
+      }
+    }
+    peekOffset += length;
+    return true;
+  }
+
+  @Override
+  public void advancePeekPosition(int length) throws IOException {
+    advancePeekPosition(length, false);
+  }
+
+  /**
+   * Reads up to {@code length} bytes from the peek position into the buffer, without advancing the
+   * peek position, so that peeks within that range don't read from the wrapped {@link DataReader}.
+   *
+   * <p>This method blocks until {@code length} bytes are buffered, the end of the input is
+   * detected, or an exception is thrown.
+   *
+   * @param length The number of bytes to buffer.
+   * @return The number of bytes that can be peeked without reading from the wrapped {@link
+   *     DataReader}, which is less than {@code length} only if the end of the input was reached.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  public int prefetch(int length) throws IOException {
+    ensureCapacityForPeek(length);
+    while (bufferLength - peekOffset < length) {
+      int bytesPeeked = bufferLength - peekOffset;
+      if (readIntoBuffer(length - bytesPeeked, /* allowEndOfInput= */ true)
+          == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+    }
+    return min(length, bufferLength - peekOffset);
+  }
+
+  @Override
+  public void resetPeekPosition() {
+    peekOffset = 0;
+  }
+
+  @Override
+  public long getPeekPosition() {
+    return position + peekOffset;
+  }
+
+  @Override
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public long getLength() {
+    return streamLength;
+  }
+
+  @Override
+  public <E extends Throwable> void setRetryPosition(long position, E e) throws E {
+    Assertions.checkArgument(position >= 0);
+    this.position = position;
+    throw e;
+  }
+
+  /**
+   * Ensures the buffer is large enough to store at least {@code length} bytes from the current
+   * peek position.
+   */
+  private void ensureCapacityForPeek(int length) {
+    int requiredCapacity = peekOffset + length;
+    if (requiredCapacity > buffer.length) {
+      int newCapacity = max(buffer.length * 2, Integer.highestOneBit(requiredCapacity - 1) << 1);
+      byte[] newBuffer = new byte[newCapacity];
+      copyFromBuffer(/* bufferOffset= */ 0, newBuffer, /* offset= */ 0, bufferLength);
+      buffer = newBuffer;
+      bufferMask = newCapacity - 1;
+      bufferStart = 0;
+    }
+  }
+
+  /**
+   * Skips from the buffer.
+   *
+   * @param length The maximum number of bytes to skip from the buffer.
+   * @return The number of bytes skipped.
+   */
+  private int skipFromBuffer(int length) {
+    int bytesSkipped = min(bufferLength, length);
+    consumeFromBuffer(bytesSkipped);
+    return bytesSkipped;
+  }
+
+  /**
+   * Reads from the buffer.
+   *
+   * @param target A target array into which data should be written.
+   * @param offset The offset into the target array at which to write.
+   * @param length The maximum number of bytes to read from the buffer.
+   * @return The number of bytes read.
+   */
+  private int readFromBuffer(byte[] target, int offset, int length) {
+    if (bufferLength == 0) {
+      return 0;
+    }
+    int bytesRead = min(bufferLength, length);
+    copyFromBuffer(/* bufferOffset= */ 0, target, offset, bytesRead);
+    consumeFromBuffer(bytesRead);
+    return bytesRead;
+  }
+
+  /**
+   * Removes bytes from the start of the buffer, and resets the peek position.
+   *
+   * @param length The number of bytes to remove.
+   */
+  private void consumeFromBuffer(int length) {
+    bufferStart = (bufferStart + length) & bufferMask;
+    bufferLength -= length;
+    peekOffset = 0;
+    if (bufferLength == 0 && buffer.length > MAX_RETAINED_CAPACITY) {
+      buffer = new byte[INITIAL_CAPACITY];
+      bufferMask = INITIAL_CAPACITY - 1;
+      bufferStart = 0;
+    }
+  }
+
+  /**
+   * Copies data from the buffer into an array.
+   *
+   * @param bufferOffset The offset from the start of the buffer of the data to copy.
+   * @param target The array into which data should be copied.
+   * @param offset The offset into the target array at which to write.
+   * @param length The number of bytes to copy.
+   */
+  private void copyFromBuffer(int bufferOffset, byte[] target, int offset, int length) {
+    int index = (bufferStart + bufferOffset) & bufferMask;
+    int firstLength = min(length, buffer.length - index);
+    System.arraycopy(buffer, index, target, offset, firstLength);
+    System.arraycopy(buffer, 0, target, offset + firstLength, length - firstLength);
+  }
+
+  /** Equivalent to {@link #copyFromBuffer(int, byte[], int, int)}, for a {@link ByteBuffer}. */
+  private void copyFromBuffer(int bufferOffset, ByteBuffer target, int length) {
+    int index = (bufferStart + bufferOffset) & bufferMask;
+    int firstLength = min(length, buffer.length - index);
+    target.put(buffer, index, firstLength);
+    target.put(buffer, /* offset= */ 0, length - firstLength);
+  }
+
+  /**
+   * Reads from the data reader into the free space at the end of the buffer, which must have been
+   * ensured to be at least {@code length} bytes. Fewer bytes may be read if the free space wraps
+   * around the end of the buffer.
+   *
+   * @param length The maximum number of bytes to read.
+   * @param allowEndOfInput Whether encountering the end of the input should result in {@link
+   *     C#RESULT_END_OF_INPUT} being returned, rather than an {@link EOFException} being thrown.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+   * @throws EOFException If the end of the input was encountered and {@code allowEndOfInput} is
+   *     false.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  private int readIntoBuffer(int length, boolean allowEndOfInput) throws IOException {
+    int index = (bufferStart + bufferLength) & bufferMask;
+    int bytesRead =
+        readFromUpstream(
+            buffer,
+            index,
+            min(length, buffer.length - index),
+            /* bytesAlreadyRead= */ 0,
+            allowEndOfInput);
+    if (bytesRead != C.RESULT_END_OF_INPUT) {
+      bufferLength += bytesRead;
+    }
+    return bytesRead;
+  }
+
+  /**
+   * Starts or continues a read from the data reader.
+   *
+   * @param target A target array into which data should be written.
+   * @param offset The offset into the target array at which to write.
+   * @param length The maximum number of bytes to read from the input.
+   * @param bytesAlreadyRead The number of bytes already read from the input.
+   * @param allowEndOfInput True if encountering the end of the input having read no data is
+   *     allowed, and should result in {@link C#RESULT_END_OF_INPUT} being returned. False if it
+   *     should be considered an error, causing an {@link EOFException} to be thrown.
+   * @return The total number of bytes read so far, or {@link C#RESULT_END_OF_INPUT} if {@code
+   *     allowEndOfInput} is true and the input has ended having read no bytes.
+   * @throws EOFException If the end of input was encountered having partially satisfied the read
+   *     (i.e. having read at least one byte, but fewer than {@code length}), or if no bytes were
+   *     read and {@code allowEndOfInput} is false.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  private int readFromUpstream(
+      byte[] target, int offset, int length, int bytesAlreadyRead, boolean allowEndOfInput)
+      throws IOException {
+    if (Thread.interrupted()) {
+      throw new InterruptedIOException();
+    }
+    int bytesRead = dataReader.read(target, offset + bytesAlreadyRead, length - bytesAlreadyRead);
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      if (bytesAlreadyRead == 0 && allowEndOfInput) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      throw new EOFException();
+    }
+    return bytesAlreadyRead + bytesRead;
+  }
+
+  /**
+   * Reads from the wrapped {@link DataReader} directly into {@code target}, if it's a {@link
+   * ByteBufferDataReader}.
+   *
+   * @param target The buffer into which data should be read.
+   * @return The number of bytes read, {@link C#RESULT_END_OF_INPUT} if the input has ended, or
+   *     {@link #RESULT_UNSUPPORTED} if the data must be read into an array instead.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  private int readFromUpstream(ByteBuffer target) throws IOException {
+    if (!(dataReader instanceof ByteBufferDataReader)) {
+      return RESULT_UNSUPPORTED;
+    }
+    if (Thread.interrupted()) {
+      throw new InterruptedIOException();
+    }
+    return ((ByteBufferDataReader) dataReader).read(target);
+  }
+
+  /**
+   * Advances the position by the specified number of bytes read.
+   *
+   * @param bytesRead The number of bytes read.
+   */
+  private void commitBytesRead(int bytesRead) {
+    if (bytesRead != C.RESULT_END_OF_INPUT) {
+      position += bytesRead;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Stores the serialized seek indices of a single stream, such as sample tables, cue points and
+ * duration timestamps, so that extractors can load them when the stream is opened again instead of
+ * reparsing them. Instances are created for each stream by a {@link Factory}.
+ *
+ * <p>Since a store is specific to a stream, keys only need to distinguish the indices of that
+ * stream. Extractors also derive them from the parts of the stream that an index depends on, such
+ * as its length and a SHA-256 digest of the parsed headers, so that an index isn't loaded if the
+ * stream has changed since it was stored. Keys consist of ASCII letters, digits and hyphens.
+ * Implementations must be thread-safe, and should treat failures as cache misses rather than
+ * throwing.
+ */
+public interface SeekIndexStore {
+
+  /** Creates the {@link SeekIndexStore} of each stream. */
+  interface Factory {
+
+    /**
+     * Returns the {@link SeekIndexStore} of the stream at {@code uri}, or {@code null} if its seek
+     * indices can't be stored. Indices stored in the returned instance are only loaded when a
+     * stream with the same {@link Uri} is opened again.
+     *
+     * @param uri The {@link Uri} of the stream.
+     */
+    @Nullable
+    SeekIndexStore createSeekIndexStore(Uri uri);
+  }
+
+  /**
+   * Returns the seek index stored for {@code key}, or {@code null} if there is none.
+   *
+   * @param key The key of the seek index.
+   * @return The serialized seek index, or {@code null}.
+   */
+  @Nullable
+  byte[] get(String key);
+
+  /**
+   * Stores a seek index, replacing any index previously stored for {@code key}.
+   *
+   * @param key The key of the seek index.
+   * @param seekIndex The serialized seek index.
+   */
+  void put(String key, byte[] seekIndex);
+}
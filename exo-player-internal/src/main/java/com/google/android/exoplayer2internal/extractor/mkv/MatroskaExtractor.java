@@ -36,6 +36,7 @@ import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
 import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.SeekMap;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
 import com.google.android.exoplayer2internal.util.Assertions;
@@ -53,12 +54,17 @@ import com.google.android.exoplayer2internal.video.HevcConfig;
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -78,14 +84,14 @@ public class MatroskaExtractor implements Extractor {
   public static final ExtractorsFactory FACTORY = () -> new Extractor[] {new MatroskaExtractor()};
 
   /**
-   * Flags controlling the behavior of the extractor. Possible flag value is {@link
-   * #FLAG_DISABLE_SEEK_FOR_CUES}.
+   * Flags controlling the behavior of the extractor. Possible flag values are {@link
+   * #FLAG_DISABLE_SEEK_FOR_CUES} and {@link #FLAG_ENABLE_PARALLEL_CLUSTER_PARSING}.
    */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
   @IntDef(
       flag = true,
-      value = {FLAG_DISABLE_SEEK_FOR_CUES})
+      value = {FLAG_DISABLE_SEEK_FOR_CUES, FLAG_ENABLE_PARALLEL_CLUSTER_PARSING})
   public @interface Flags {}
   /**
    * Flag to disable seeking for cues.
@@ -96,10 +102,23 @@ public class MatroskaExtractor implements Extractor {
    * media is treated as being unseekable.
    */
   public static final int FLAG_DISABLE_SEEK_FOR_CUES = 1;
+  /**
+   * Flag to parse clusters on worker threads.
+   *
+   * <p>When this flag is set, clusters whose size is known are read into memory and parsed on
+   * worker threads, whilst the loading thread continues reading the following clusters. Samples are
+   * output in the same order as when the flag isn't set. Clusters of unknown size or larger than 16
+   * MB, and streams containing TrueHD tracks, are parsed on the loading thread.
+   *
+   * <p>Cluster content is parsed by instances of this class, so the flag must not be set by
+   * subclasses that override the handling of elements within clusters.
+   */
+  public static final int FLAG_ENABLE_PARALLEL_CLUSTER_PARSING = 1 << 1;
 
   private static final String TAG = "MatroskaExtractor";
 
   private static final int UNSET_ENTRY_ID = -1;
+  private static final int CUES_SEEK_INDEX_VERSION = 2;
 
   private static final int BLOCK_STATE_START = 0;
   private static final int BLOCK_STATE_HEADER = 1;
@@ -360,6 +379,8 @@ public class MatroskaExtractor implements Extractor {
   private final VarintReader varintReader;
   private final SparseArray<Track> tracks;
   private final boolean seekForCuesEnabled;
+  @Nullable private final SeekIndexStore seekIndexStore;
+  @Nullable private final ParallelClusterReader parallelClusterReader;
 
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
@@ -393,6 +414,8 @@ public class MatroskaExtractor implements Extractor {
   // Cue related elements.
   private boolean seekForCues;
   private long cuesContentPosition = C.POSITION_UNSET;
+  private long firstClusterContentPosition = C.POSITION_UNSET;
+  private long firstClusterContentSize;
   private long seekPositionAfterBuildingCues = C.POSITION_UNSET;
   private long clusterTimecodeUs = C.TIME_UNSET;
   @Nullable private LongArray cueTimesUs;
@@ -401,6 +424,11 @@ public class MatroskaExtractor implements Extractor {
 
   // Reading state.
   private boolean haveOutputSample;
+  private long startedClusterContentSize = C.LENGTH_UNSET;
+
+  // The outputs to which samples are written by a cluster parsing extractor, or null if samples are
+  // written to the track outputs.
+  @Nullable private SparseArray<TrackOutput> clusterTrackOutputs;
 
   // Block reading state.
   private int blockState;
@@ -434,13 +462,31 @@ public class MatroskaExtractor implements Extractor {
   }
 
   public MatroskaExtractor(@Flags int flags) {
-    this(new DefaultEbmlReader(), flags);
+    this(flags, /* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param flags Flags that control the extractor's behavior.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, from which to
+   *     load cues that have been parsed before, avoiding the need to seek to them, and in which to
+   *     store newly parsed cues, or {@code null} if cues should always be parsed.
+   */
+  public MatroskaExtractor(@Flags int flags, @Nullable SeekIndexStore seekIndexStore) {
+    this(new DefaultEbmlReader(), flags, seekIndexStore);
   }
 
   /* package */ MatroskaExtractor(EbmlReader reader, @Flags int flags) {
+    this(reader, flags, /* seekIndexStore= */ null);
+  }
+
+  /* package */ MatroskaExtractor(
+      EbmlReader reader, @Flags int flags, @Nullable SeekIndexStore seekIndexStore) {
     this.reader = reader;
     this.reader.init(new InnerEbmlProcessor());
+    this.seekIndexStore = seekIndexStore;
     seekForCuesEnabled = (flags & FLAG_DISABLE_SEEK_FOR_CUES) == 0;
+    parallelClusterReader =
+        (flags & FLAG_ENABLE_PARALLEL_CLUSTER_PARSING) != 0 ? new ParallelClusterReader() : null;
     varintReader = new VarintReader();
     tracks = new SparseArray<>();
     scratch = new ParsableByteArray(4);
@@ -471,6 +517,10 @@ public class MatroskaExtractor implements Extractor {
   public void seek(long position, long timeUs) {
     clusterTimecodeUs = C.TIME_UNSET;
     blockState = BLOCK_STATE_START;
+    startedClusterContentSize = C.LENGTH_UNSET;
+    if (parallelClusterReader != null) {
+      parallelClusterReader.reset();
+    }
     reader.reset();
     varintReader.reset();
     resetWriteSampleData();
@@ -481,7 +531,9 @@ public class MatroskaExtractor implements Extractor {
 
   @Override
   public final void release() {
-    // Do nothing
+    if (parallelClusterReader != null) {
+      parallelClusterReader.release();
+    }
   }
 
   @Override
@@ -489,12 +541,22 @@ public class MatroskaExtractor implements Extractor {
     haveOutputSample = false;
     boolean continueReading = true;
     while (continueReading && !haveOutputSample) {
+      if (parallelClusterReader != null && parallelClusterReader.isReadingCluster()) {
+        haveOutputSample = parallelClusterReader.readCluster(input);
+        continue;
+      }
       continueReading = reader.read(input);
       if (continueReading && maybeSeekForCues(seekPosition, input.getPosition())) {
         return Extractor.RESULT_SEEK;
       }
+      if (continueReading && startedClusterContentSize != C.LENGTH_UNSET) {
+        maybeStartParallelClusterParsing();
+      }
     }
     if (!continueReading) {
+      if (parallelClusterReader != null) {
+        parallelClusterReader.outputParsedClusters();
+      }
       for (int i = 0; i < tracks.size(); i++) {
         tracks.valueAt(i).outputPendingSampleMetadata();
       }
@@ -652,9 +714,18 @@ public class MatroskaExtractor implements Extractor {
         seenClusterPositionForCurrentCuePoint = false;
         break;
       case ID_CLUSTER:
+        if (firstClusterContentPosition == C.POSITION_UNSET) {
+          firstClusterContentPosition = contentPosition;
+          firstClusterContentSize = contentSize;
+        }
         if (!sentSeekMap) {
           // We need to build cues before parsing the cluster.
-          if (seekForCuesEnabled && cuesContentPosition != C.POSITION_UNSET) {
+          @Nullable ChunkIndex storedCues = loadStoredCues();
+          if (storedCues != null) {
+            // The cues have been parsed before, so there's no need to seek to them.
+            extractorOutput.seekMap(storedCues);
+            sentSeekMap = true;
+          } else if (seekForCuesEnabled && cuesContentPosition != C.POSITION_UNSET) {
             // We know where the Cues element is located. Seek to request it.
             seekForCues = true;
           } else {
@@ -664,6 +735,9 @@ public class MatroskaExtractor implements Extractor {
             sentSeekMap = true;
           }
         }
+        if (parallelClusterReader != null && !seekForCues) {
+          startedClusterContentSize = contentSize;
+        }
         break;
       case ID_BLOCK_GROUP:
         blockHasReferenceBlock = false;
@@ -712,8 +786,12 @@ public class MatroskaExtractor implements Extractor {
         break;
       case ID_CUES:
         if (!sentSeekMap) {
-          extractorOutput.seekMap(buildSeekMap());
+          SeekMap seekMap = buildSeekMap();
+          extractorOutput.seekMap(seekMap);
           sentSeekMap = true;
+          if (seekMap instanceof ChunkIndex) {
+            storeCues((ChunkIndex) seekMap);
+          }
         } else {
           // We have already built the cues. Ignore.
         }
@@ -1311,7 +1389,7 @@ public class MatroskaExtractor implements Extractor {
           setSubtitleEndTime(track.codecId, blockDurationUs, subtitleSample.getData());
           // Note: If we ever want to support DRM protected subtitles then we'll need to output the
           // appropriate encryption data here.
-          track.output.sampleData(subtitleSample, subtitleSample.limit());
+          getTrackOutput(track).sampleData(subtitleSample, subtitleSample.limit());
           size += subtitleSample.limit();
         }
       }
@@ -1324,12 +1402,15 @@ public class MatroskaExtractor implements Extractor {
         } else {
           // Append supplemental data.
           int blockAdditionalSize = blockAdditionalData.limit();
-          track.output.sampleData(
-              blockAdditionalData, blockAdditionalSize, TrackOutput.SAMPLE_DATA_PART_SUPPLEMENTAL);
+          getTrackOutput(track)
+              .sampleData(
+                  blockAdditionalData,
+                  blockAdditionalSize,
+                  TrackOutput.SAMPLE_DATA_PART_SUPPLEMENTAL);
           size += blockAdditionalSize;
         }
       }
-      track.output.sampleMetadata(timeUs, flags, size, offset, track.cryptoData);
+      getTrackOutput(track).sampleMetadata(timeUs, flags, size, offset, track.cryptoData);
     }
     haveOutputSample = true;
   }
@@ -1369,7 +1450,7 @@ public class MatroskaExtractor implements Extractor {
       return finishWriteSampleData();
     }
 
-    TrackOutput output = track.output;
+    TrackOutput output = getTrackOutput(track);
     if (!sampleEncodingHandled) {
       if (track.hasContentEncryption) {
         // If the sample is encrypted, read its encryption signal byte and set the IV size.
@@ -1667,6 +1748,52 @@ public class MatroskaExtractor implements Extractor {
     return bytesWritten;
   }
 
+  /**
+   * Called after the start of a cluster has been read, to start reading the cluster for parsing on
+   * a worker thread if possible.
+   */
+  private void maybeStartParallelClusterParsing() throws IOException {
+    ParallelClusterReader parallelClusterReader =
+        Assertions.checkNotNull(this.parallelClusterReader);
+    long contentSize = startedClusterContentSize;
+    startedClusterContentSize = C.LENGTH_UNSET;
+    boolean canParseInParallel = contentSize <= ParallelClusterReader.MAX_CLUSTER_SIZE;
+    SparseArray<TrackOutput> trackOutputs = new SparseArray<>();
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.valueAt(i);
+      // TrueHD samples are rechunked across clusters, so clusters can't be parsed independently.
+      canParseInParallel &= track.trueHdSampleRechunker == null;
+      trackOutputs.put(track.number, track.output);
+    }
+    if (canParseInParallel) {
+      MatroskaExtractor clusterExtractor =
+          new MatroskaExtractor(
+              new DefaultEbmlReader(), /* flags= */ 0, /* seekIndexStore= */ null);
+      clusterExtractor.timecodeScale = timecodeScale;
+      for (int i = 0; i < tracks.size(); i++) {
+        clusterExtractor.tracks.put(tracks.keyAt(i), tracks.valueAt(i));
+      }
+      parallelClusterReader.startCluster(
+          (int) contentSize, trackOutputs, clusterExtractor::parseClusterContent);
+    } else {
+      // Samples of clusters read before this one must be output before this cluster is parsed.
+      haveOutputSample |= parallelClusterReader.outputParsedClusters();
+    }
+  }
+
+  /** Parses the content of a cluster read by another extractor. Called on a worker thread. */
+  private void parseClusterContent(ExtractorInput input, SparseArray<TrackOutput> outputs)
+      throws IOException {
+    clusterTrackOutputs = outputs;
+    while (reader.read(input)) {
+      // Do nothing.
+    }
+  }
+
+  private TrackOutput getTrackOutput(Track track) {
+    return clusterTrackOutputs != null ? clusterTrackOutputs.get(track.number) : track.output;
+  }
+
   /**
    * Builds a {@link SeekMap} from the recently gathered Cues information.
    *
@@ -1713,6 +1840,153 @@ public class MatroskaExtractor implements Extractor {
     return new ChunkIndex(sizes, offsets, durationsUs, timesUs);
   }
 
+  /**
+   * Returns the {@link SeekIndexStore} key for the cues of the current segment, or {@code null} if
+   * cues shouldn't be stored. The key is derived from the segment, cues and first cluster
+   * positions, the segment information and a SHA-256 digest of the tracks, including their codec
+   * private data.
+   *
+   * <p>Cues are only stored if they follow the first cluster, since otherwise they're read before
+   * any media anyway.
+   */
+  @Nullable
+  private String getCuesSeekIndexKey() {
+    if (seekIndexStore == null
+        || segmentContentPosition == C.POSITION_UNSET
+        || cuesContentPosition == C.POSITION_UNSET
+        || firstClusterContentPosition == C.POSITION_UNSET
+        || durationTimecode == C.TIME_UNSET) {
+      return null;
+    }
+    MessageDigest tracksDigest = Util.newSha256Digest();
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.valueAt(i);
+      tracksDigest.update(
+          Util.getUtf8Bytes(
+              track.number
+                  + "-"
+                  + track.codecId
+                  + "-"
+                  + track.width
+                  + "x"
+                  + track.height
+                  + "-"
+                  + track.channelCount
+                  + "-"
+                  + track.sampleRate));
+      if (track.codecPrivate != null) {
+        tracksDigest.update(track.codecPrivate);
+      }
+    }
+    return "mkv-v"
+        + CUES_SEEK_INDEX_VERSION
+        + "-"
+        + segmentContentPosition
+        + "-"
+        + segmentContentSize
+        + "-"
+        + cuesContentPosition
+        + "-"
+        + firstClusterContentPosition
+        + "-"
+        + firstClusterContentSize
+        + "-"
+        + timecodeScale
+        + "-"
+        + durationTimecode
+        + "-"
+        + Util.toHexString(tracksDigest.digest());
+  }
+
+  /**
+   * Returns the stored cues of the current segment, or {@code null} if there are none or they
+   * aren't consistent with the segment.
+   */
+  @Nullable
+  private ChunkIndex loadStoredCues() {
+    @Nullable String key = getCuesSeekIndexKey();
+    if (key == null) {
+      return null;
+    }
+    @Nullable byte[] seekIndex = Assertions.checkNotNull(seekIndexStore).get(key);
+    if (seekIndex == null) {
+      return null;
+    }
+    try {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(seekIndex));
+      if (input.readInt() != CUES_SEEK_INDEX_VERSION) {
+        return null;
+      }
+      int length = input.readInt();
+      if (length <= 0 || length > seekIndex.length / 28) {
+        return null;
+      }
+      int[] sizes = new int[length];
+      long[] offsets = new long[length];
+      long[] durationsUs = new long[length];
+      long[] timesUs = new long[length];
+      for (int i = 0; i < length; i++) {
+        sizes[i] = input.readInt();
+        offsets[i] = input.readLong();
+        durationsUs[i] = input.readLong();
+        timesUs[i] = input.readLong();
+      }
+      if (!areStoredCuesValid(sizes, offsets, timesUs)) {
+        Log.w(TAG, "Ignoring stored cues that don't match the segment");
+        return null;
+      }
+      return new ChunkIndex(sizes, offsets, durationsUs, timesUs);
+    } catch (IOException e) {
+      Log.w(TAG, "Ignoring invalid stored cues", e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether stored cues describe clusters in non-decreasing order that lie within the
+   * current segment.
+   */
+  private boolean areStoredCuesValid(int[] sizes, long[] offsets, long[] timesUs) {
+    long segmentEndPosition =
+        segmentContentSize == C.LENGTH_UNSET
+            ? Long.MAX_VALUE
+            : segmentContentPosition + segmentContentSize;
+    for (int i = 0; i < offsets.length; i++) {
+      if (offsets[i] < segmentContentPosition
+          || sizes[i] < 0
+          || offsets[i] + sizes[i] > segmentEndPosition
+          || (i > 0 && (offsets[i] < offsets[i - 1] || timesUs[i] < timesUs[i - 1]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Stores the cues of the current segment, if a {@link SeekIndexStore} is set. */
+  private void storeCues(ChunkIndex cues) {
+    @Nullable String key = getCuesSeekIndexKey();
+    if (key == null) {
+      return;
+    }
+    ByteArrayOutputStream seekIndex = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(seekIndex);
+    try {
+      output.writeInt(CUES_SEEK_INDEX_VERSION);
+      output.writeInt(cues.length);
+      for (int i = 0; i < cues.length; i++) {
+        output.writeInt(cues.sizes[i]);
+        output.writeLong(cues.offsets[i]);
+        output.writeLong(cues.durationsUs[i]);
+        output.writeLong(cues.timesUs[i]);
+      }
+      output.flush();
+    } catch (IOException e) {
+      // Not expected when writing to a ByteArrayOutputStream.
+      throw new IllegalStateException(e);
+    }
+    Assertions.checkNotNull(seekIndexStore).put(key, seekIndex.toByteArray());
+  }
+
   /**
    * Updates the position of the holder to Cues element's position if the extractor configuration
    * permits use of master seek entry. After building Cues sets the holder's position back to where
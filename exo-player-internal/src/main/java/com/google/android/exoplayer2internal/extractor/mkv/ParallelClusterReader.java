@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mkv;
+
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.Format;
+import com.google.android.exoplayer2internal.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2internal.extractor.ExtractorInput;
+import com.google.android.exoplayer2internal.extractor.TrackOutput;
+import com.google.android.exoplayer2internal.upstream.DataReader;
+import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.checkerframework.checker.nullness.compatqual.NullableType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Reads Matroska clusters into memory and parses them on worker threads.
+ *
+ * <p>Each cluster is parsed by a {@link ClusterParser} into outputs that record the samples. Once a
+ * cluster has been parsed, its samples are written to the real track outputs on the loading thread,
+ * in the order in which the clusters were read. The samples written to each output are therefore
+ * the same as if the clusters had been parsed one after another.
+ *
+ * <p>Sample data that the parser reads from the cluster isn't copied into the record. Its position
+ * in the cluster is recorded instead, and it's written to the track outputs straight from the
+ * cluster's data. The loading thread copies each sample byte once into the cluster, and once into
+ * the track output.
+ *
+ * <p>Clusters of up to {@link #MAX_CLUSTER_SIZE} bytes can be read. One more cluster than there
+ * are worker threads is held in memory at any one time, including the cluster being read. Once
+ * output, a cluster is recycled, but only keeps buffers of up to {@link
+ * #MAX_RECYCLED_DATA_CAPACITY} and {@link #MAX_RECYCLED_RECORDED_DATA_CAPACITY} bytes.
+ */
+/* package */ final class ParallelClusterReader {
+
+  /** Parses the content of a cluster. */
+  public interface ClusterParser {
+
+    /**
+     * Parses the content of a cluster. Called on a worker thread.
+     *
+     * @param input An input containing the content of the cluster.
+     * @param outputs The outputs to which samples should be written, keyed by track number.
+     * @throws IOException If an error occurs parsing the cluster.
+     */
+    void parseClusterContent(ExtractorInput input, SparseArray<TrackOutput> outputs)
+        throws IOException;
+  }
+
+  /** The maximum size of a cluster that can be read, in bytes. */
+  public static final int MAX_CLUSTER_SIZE = 16 * 1024 * 1024;
+
+  /** The maximum capacity of the cluster content buffer that a recycled cluster keeps. */
+  private static final int MAX_RECYCLED_DATA_CAPACITY = 2 * 1024 * 1024;
+  /** The maximum capacity of the recorded sample data buffer that a recycled cluster keeps. */
+  private static final int MAX_RECYCLED_RECORDED_DATA_CAPACITY = 64 * 1024;
+
+  private static final String THREAD_NAME = "ExoPlayer:MatroskaClusterParser";
+  private static final int MAX_THREAD_COUNT = 3;
+
+  private final int threadCount;
+  private final int maxPendingClusterCount;
+  private final ArrayDeque<Cluster> pendingClusters;
+  private final ArrayDeque<Cluster> recycledClusters;
+
+  @Nullable private ExecutorService executorService;
+  @Nullable private Cluster readingCluster;
+
+  public ParallelClusterReader() {
+    threadCount = max(1, min(Runtime.getRuntime().availableProcessors() - 1, MAX_THREAD_COUNT));
+    maxPendingClusterCount = threadCount + 1;
+    pendingClusters = new ArrayDeque<>();
+    recycledClusters = new ArrayDeque<>();
+  }
+
+  /** Returns whether a cluster started by {@link #startCluster} is still being read. */
+  public boolean isReadingCluster() {
+    return readingCluster != null;
+  }
+
+  /**
+   * Starts reading a cluster. {@link #readCluster(ExtractorInput)} must be called until the
+   * cluster has been read, before any other data is read from the input.
+   *
+   * @param contentSize The size of the cluster content, in bytes. Must not exceed {@link
+   *     #MAX_CLUSTER_SIZE}.
+   * @param trackOutputs The outputs to which samples in the cluster should be written, keyed by
+   *     track number.
+   * @param clusterParser The parser for the cluster content.
+   */
+  public void startCluster(
+      int contentSize, SparseArray<TrackOutput> trackOutputs, ClusterParser clusterParser) {
+    Assertions.checkArgument(contentSize <= MAX_CLUSTER_SIZE);
+    Assertions.checkState(readingCluster == null);
+    @Nullable Cluster cluster = recycledClusters.poll();
+    if (cluster == null) {
+      cluster = new Cluster();
+    }
+    cluster.start(contentSize, trackOutputs, clusterParser);
+    readingCluster = cluster;
+  }
+
+  /**
+   * Continues reading the cluster started by {@link #startCluster}. Once it has been read, the
+   * cluster is queued for parsing, and the samples of any clusters that have been parsed are
+   * written to the track outputs.
+   *
+   * @param input The input from which to read the cluster.
+   * @return Whether any samples were written to the track outputs.
+   * @throws IOException If an error occurs reading from the input, or parsing a cluster.
+   */
+  public boolean readCluster(ExtractorInput input) throws IOException {
+    Cluster cluster = Assertions.checkStateNotNull(readingCluster);
+    while (cluster.bytesRead < cluster.size) {
+      int bytesRead =
+          input.read(cluster.data, cluster.bytesRead, cluster.size - cluster.bytesRead);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        throw new EOFException();
+      }
+      cluster.bytesRead += bytesRead;
+    }
+    readingCluster = null;
+    if (executorService == null) {
+      executorService =
+          Executors.newFixedThreadPool(threadCount, runnable -> new Thread(runnable, THREAD_NAME));
+    }
+    cluster.future = executorService.submit(cluster);
+    pendingClusters.add(cluster);
+    // Leave space for the next cluster to be read.
+    return outputParsedClusters(/* maxRemainingClusterCount= */ maxPendingClusterCount - 1);
+  }
+
+  /**
+   * Waits for all queued clusters to be parsed, and writes their samples to the track outputs.
+   *
+   * @return Whether any samples were written to the track outputs.
+   * @throws IOException If an error occurs parsing a cluster.
+   */
+  public boolean outputParsedClusters() throws IOException {
+    return outputParsedClusters(/* maxRemainingClusterCount= */ 0);
+  }
+
+  /** Discards the cluster being read and all queued clusters. */
+  public void reset() {
+    if (readingCluster != null) {
+      recycle(readingCluster);
+      readingCluster = null;
+    }
+    // Clusters that are being parsed can't be recycled, as a worker thread may still be using them.
+    for (Cluster cluster : pendingClusters) {
+      Assertions.checkNotNull(cluster.future).cancel(/* mayInterruptIfRunning= */ false);
+    }
+    pendingClusters.clear();
+  }
+
+  /** Releases the reader, stopping its worker threads and freeing its buffers. */
+  public void release() {
+    reset();
+    recycledClusters.clear();
+    if (executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
+  }
+
+  /**
+   * Writes the samples of parsed clusters at the head of the queue to the track outputs, waiting
+   * for clusters to be parsed whilst more than {@code maxRemainingClusterCount} are queued.
+   */
+  private boolean outputParsedClusters(int maxRemainingClusterCount) throws IOException {
+    boolean outputSample = false;
+    while (!pendingClusters.isEmpty()) {
+      Cluster cluster = pendingClusters.peek();
+      Future<?> future = Assertions.checkNotNull(cluster.future);
+      if (pendingClusters.size() <= maxRemainingClusterCount && !future.isDone()) {
+        break;
+      }
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        pendingClusters.remove();
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+      pendingClusters.remove();
+      outputSample |= cluster.outputSamples();
+      recycle(cluster);
+    }
+    return outputSample;
+  }
+
+  /** Recycles a cluster that isn't being used by a worker thread, trimming its buffers. */
+  private void recycle(Cluster cluster) {
+    if (recycledClusters.size() < maxPendingClusterCount) {
+      cluster.trim();
+      recycledClusters.add(cluster);
+    }
+  }
+
+  /**
+   * A cluster that is read into memory, and parsed into a record of the calls made to its track
+   * outputs.
+   */
+  private static final class Cluster implements Callable<Void>, DataReader {
+
+    private static final int EVENT_TYPE_SAMPLE_METADATA = -1;
+
+    /** The sample data of an event is in {@link #recordedData}. */
+    private static final int DATA_SOURCE_RECORDED = 0;
+    /** The sample data of an event is in {@link #data}, at the event's offset. */
+    private static final int DATA_SOURCE_CLUSTER = 1;
+
+    private final SparseArray<TrackOutput> recordingOutputs;
+    private final ParsableByteArray recordedData;
+    private final ParsableByteArray clusterData;
+
+    private byte[] data;
+    private int size;
+    private int bytesRead;
+    private int parsePosition;
+    @Nullable private SparseArray<TrackOutput> trackOutputs;
+    @Nullable private ClusterParser clusterParser;
+    @Nullable private Future<?> future;
+    @Nullable private ExtractorInput parseInput;
+
+    // Recorded calls to the outputs. The event type is either EVENT_TYPE_SAMPLE_METADATA, or the
+    // part of the sample data that was written. For sample data events, the event flags hold the
+    // DATA_SOURCE_* of the written data. Data read from the cluster is referenced by its offset in
+    // data, and other written data is stored in recordedData.
+    private int eventCount;
+    private int[] eventTrackNumbers;
+    private int[] eventTypes;
+    private int[] eventSizes;
+    private int[] eventFlags;
+    private int[] eventOffsets;
+    private long[] eventTimesUs;
+    private @NullableType TrackOutput.CryptoData[] eventCryptoData;
+
+    public Cluster() {
+      recordingOutputs = new SparseArray<>();
+      recordedData = new ParsableByteArray();
+      clusterData = new ParsableByteArray();
+      data = Util.EMPTY_BYTE_ARRAY;
+      eventTrackNumbers = new int[32];
+      eventTypes = new int[32];
+      eventSizes = new int[32];
+      eventFlags = new int[32];
+      eventOffsets = new int[32];
+      eventTimesUs = new long[32];
+      eventCryptoData = new TrackOutput.CryptoData[32];
+    }
+
+    public void start(
+        int contentSize, SparseArray<TrackOutput> trackOutputs, ClusterParser clusterParser) {
+      if (data.length < contentSize) {
+        data = new byte[contentSize];
+      }
+      size = contentSize;
+      bytesRead = 0;
+      this.trackOutputs = trackOutputs;
+      this.clusterParser = clusterParser;
+      future = null;
+      recordingOutputs.clear();
+      for (int i = 0; i < trackOutputs.size(); i++) {
+        int trackNumber = trackOutputs.keyAt(i);
+        recordingOutputs.put(trackNumber, new RecordingTrackOutput(trackNumber));
+      }
+    }
+
+    /**
+     * Drops the buffers if their capacity exceeds what a recycled cluster may keep. Must not be
+     * called whilst a worker thread may be using the cluster.
+     */
+    public void trim() {
+      if (data.length > MAX_RECYCLED_DATA_CAPACITY) {
+        data = Util.EMPTY_BYTE_ARRAY;
+      }
+      if (recordedData.capacity() > MAX_RECYCLED_RECORDED_DATA_CAPACITY) {
+        recordedData.reset(Util.EMPTY_BYTE_ARRAY);
+      }
+    }
+
+    /** Writes the recorded samples to the track outputs, returning whether there were any. */
+    public boolean outputSamples() {
+      SparseArray<TrackOutput> trackOutputs = Assertions.checkNotNull(this.trackOutputs);
+      boolean outputSample = false;
+      recordedData.setPosition(0);
+      clusterData.reset(data, size);
+      for (int i = 0; i < eventCount; i++) {
+        TrackOutput output = trackOutputs.get(eventTrackNumbers[i]);
+        if (eventTypes[i] == EVENT_TYPE_SAMPLE_METADATA) {
+          output.sampleMetadata(
+              eventTimesUs[i], eventFlags[i], eventSizes[i], eventOffsets[i], eventCryptoData[i]);
+          outputSample = true;
+        } else if (eventFlags[i] == DATA_SOURCE_CLUSTER) {
+          clusterData.setPosition(eventOffsets[i]);
+          output.sampleData(clusterData, eventSizes[i], eventTypes[i]);
+        } else {
+          output.sampleData(recordedData, eventSizes[i], eventTypes[i]);
+        }
+      }
+      // Release references to the parser, the outputs and the data.
+      this.trackOutputs = null;
+      clusterParser = null;
+      clusterData.reset(Util.EMPTY_BYTE_ARRAY);
+      Arrays.fill(eventCryptoData, 0, eventCount, null);
+      recordingOutputs.clear();
+      eventCount = 0;
+      return outputSample;
+    }
+
+    // Callable implementation. Called on a worker thread.
+
+    @Override
+    public Void call() throws IOException {
+      parsePosition = 0;
+      eventCount = 0;
+      recordedData.reset(/* limit= */ 0);
+      ExtractorInput parseInput =
+          new DefaultExtractorInput(/* dataReader= */ this, /* position= */ 0, size);
+      this.parseInput = parseInput;
+      try {
+        Assertions.checkNotNull(clusterParser).parseClusterContent(parseInput, recordingOutputs);
+      } finally {
+        this.parseInput = null;
+      }
+      return null;
+    }
+
+    // DataReader implementation, providing the content of the cluster to the parser.
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      } else if (parsePosition == size) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = min(length, size - parsePosition);
+      System.arraycopy(data, parsePosition, target, offset, bytesToRead);
+      parsePosition += bytesToRead;
+      return bytesToRead;
+    }
+
+    private void recordSampleData(
+        int trackNumber, int sampleDataPart, int dataSource, int dataOffset, int length) {
+      if (eventCount > 0) {
+        int lastEventIndex = eventCount - 1;
+        if (eventTrackNumbers[lastEventIndex] == trackNumber
+            && eventTypes[lastEventIndex] == sampleDataPart
+            && eventFlags[lastEventIndex] == dataSource
+            && (dataSource == DATA_SOURCE_RECORDED
+                || eventOffsets[lastEventIndex] + eventSizes[lastEventIndex] == dataOffset)) {
+          eventSizes[lastEventIndex] += length;
+          return;
+        }
+      }
+      int eventIndex = addEvent(trackNumber, sampleDataPart);
+      eventFlags[eventIndex] = dataSource;
+      eventOffsets[eventIndex] = dataOffset;
+      eventSizes[eventIndex] = length;
+    }
+
+    private int addEvent(int trackNumber, int type) {
+      if (eventCount == eventTypes.length) {
+        int newLength = eventCount * 2;
+        eventTrackNumbers = Arrays.copyOf(eventTrackNumbers, newLength);
+        eventTypes = Arrays.copyOf(eventTypes, newLength);
+        eventSizes = Arrays.copyOf(eventSizes, newLength);
+        eventFlags = Arrays.copyOf(eventFlags, newLength);
+        eventOffsets = Arrays.copyOf(eventOffsets, newLength);
+        eventTimesUs = Arrays.copyOf(eventTimesUs, newLength);
+        eventCryptoData = Arrays.copyOf(eventCryptoData, newLength);
+      }
+      eventTrackNumbers[eventCount] = trackNumber;
+      eventTypes[eventCount] = type;
+      return eventCount++;
+    }
+
+    /** Ensures there's space to record {@code length} more bytes of sample data. */
+    private void ensureRecordedDataCapacity(int length) {
+      int requiredCapacity = recordedData.limit() + length;
+      if (recordedData.capacity() < requiredCapacity) {
+        recordedData.reset(
+            Arrays.copyOf(
+                recordedData.getData(), max(recordedData.capacity() * 2, requiredCapacity)),
+            recordedData.limit());
+      }
+    }
+
+    /** A {@link TrackOutput} that records the calls made to it. */
+    private final class RecordingTrackOutput implements TrackOutput {
+
+      private final int trackNumber;
+
+      public RecordingTrackOutput(int trackNumber) {
+        this.trackNumber = trackNumber;
+      }
+
+      @Override
+      public void format(Format format) {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public int sampleData(
+          DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+          throws IOException {
+        if (input == parseInput) {
+          // The data is already in the cluster, so record where it is rather than copying it.
+          ExtractorInput clusterInput = Assertions.checkNotNull(parseInput);
+          int dataOffset = (int) clusterInput.getPosition();
+          int bytesSkipped = clusterInput.skip(length);
+          if (bytesSkipped == C.RESULT_END_OF_INPUT) {
+            if (allowEndOfInput) {
+              return C.RESULT_END_OF_INPUT;
+            }
+            throw new EOFException();
+          }
+          recordSampleData(
+              trackNumber, sampleDataPart, DATA_SOURCE_CLUSTER, dataOffset, bytesSkipped);
+          return bytesSkipped;
+        }
+        ensureRecordedDataCapacity(length);
+        int limit = recordedData.limit();
+        int bytesRead = input.read(recordedData.getData(), limit, length);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          if (allowEndOfInput) {
+            return C.RESULT_END_OF_INPUT;
+          }
+          throw new EOFException();
+        }
+        recordedData.setLimit(limit + bytesRead);
+        recordSampleData(
+            trackNumber, sampleDataPart, DATA_SOURCE_RECORDED, /* dataOffset= */ 0, bytesRead);
+        return bytesRead;
+      }
+
+      @Override
+      public void sampleData(
+          ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+        ensureRecordedDataCapacity(length);
+        int limit = recordedData.limit();
+        data.readBytes(recordedData.getData(), limit, length);
+        recordedData.setLimit(limit + length);
+        recordSampleData(
+            trackNumber, sampleDataPart, DATA_SOURCE_RECORDED, /* dataOffset= */ 0, length);
+      }
+
+      @Override
+      public void sampleMetadata(
+          long timeUs,
+          @C.BufferFlags int flags,
+          int size,
+          int offset,
+          @Nullable CryptoData encryptionData) {
+        int eventIndex = addEvent(trackNumber, EVENT_TYPE_SAMPLE_METADATA);
+        eventTimesUs[eventIndex] = timeUs;
+        eventFlags[eventIndex] = flags;
+        eventSizes[eventIndex] = size;
+        eventOffsets[eventIndex] = offset;
+        eventCryptoData[eventIndex] = encryptionData;
+      }
+    }
+  }
+}
@@ -110,4 +110,19 @@ import com.google.android.exoplayer2internal.util.Util;
   /* package */ void setDurationUs(long durationUs) {
     this.durationUs = durationUs;
   }
+
+  /** Returns the number of seek points in the index. */
+  /* package */ int getSeekPointCount() {
+    return timesUs.size();
+  }
+
+  /** Returns the time of the seek point at {@code index} in microseconds. */
+  /* package */ long getSeekPointTimeUs(int index) {
+    return timesUs.get(index);
+  }
+
+  /** Returns the position of the seek point at {@code index} in bytes. */
+  /* package */ long getSeekPointPosition(int index) {
+    return positions.get(index);
+  }
 }
@@ -30,6 +30,7 @@ import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.GaplessInfoHolder;
 import com.google.android.exoplayer2internal.extractor.Id3Peeker;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
 import com.google.android.exoplayer2internal.metadata.Metadata;
 import com.google.android.exoplayer2internal.metadata.id3.Id3Decoder;
@@ -49,6 +50,8 @@ import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+import static java.lang.Math.min;
+
 /**
  * Extracts data from the MP3 container format.
  */
@@ -90,6 +93,9 @@ public final class Mp3Extractor implements Extractor {
    *   <li>The bitrate is variable (or it's unknown whether it's variable) and the file does not
    *       provide precise enough seeking metadata.
    * </ul>
+   *
+   * <p>If a {@link SeekIndexStore} is set, the index is stored once the whole file has been read,
+   * so that it can be loaded when the file is played again.
    */
   public static final int FLAG_ENABLE_INDEX_SEEKING = 1 << 1;
   /**
@@ -107,7 +113,7 @@ public final class Mp3Extractor implements Extractor {
   /**
    * The maximum number of bytes to search when synchronizing, before giving up.
    */
-  private static final int MAX_SYNC_BYTES = 128 * 1024;
+  /* package */ static final int MAX_SYNC_BYTES = 128 * 1024;
   /**
    * The maximum number of bytes to peek when sniffing, excluding the ID3 header, before giving up.
    */
@@ -122,10 +128,10 @@ public final class Mp3Extractor implements Extractor {
    */
   private static final int MPEG_AUDIO_HEADER_MASK = 0xFFFE0C00;
 
-  private static final int SEEK_HEADER_XING = 0x58696e67;
-  private static final int SEEK_HEADER_INFO = 0x496e666f;
-  private static final int SEEK_HEADER_VBRI = 0x56425249;
-  private static final int SEEK_HEADER_UNSET = 0;
+  /* package */ static final int SEEK_HEADER_XING = 0x58696e67;
+  /* package */ static final int SEEK_HEADER_INFO = 0x496e666f;
+  /* package */ static final int SEEK_HEADER_VBRI = 0x56425249;
+  /* package */ static final int SEEK_HEADER_UNSET = 0;
 
   @Flags private final int flags;
   private final long forcedFirstSampleTimestampUs;
@@ -134,6 +140,7 @@ public final class Mp3Extractor implements Extractor {
   private final GaplessInfoHolder gaplessInfoHolder;
   private final Id3Peeker id3Peeker;
   private final TrackOutput skippingTrackOutput;
+  @Nullable private final SeekIndexStore seekIndexStore;
 
   private @MonotonicNonNull ExtractorOutput extractorOutput;
   private @MonotonicNonNull TrackOutput realTrackOutput;
@@ -149,6 +156,8 @@ public final class Mp3Extractor implements Extractor {
 
   private @MonotonicNonNull Seeker seeker;
   private boolean disableSeeking;
+  private boolean isSeekTableLoaded;
+  @Nullable private String seekTableKey;
   private boolean isSeekInProgress;
   private long seekTimeUs;
 
@@ -169,8 +178,34 @@ public final class Mp3Extractor implements Extractor {
    *     {@link C#TIME_UNSET} if forcing is not required.
    */
   public Mp3Extractor(@Flags int flags, long forcedFirstSampleTimestampUs) {
+    this(flags, forcedFirstSampleTimestampUs, /* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param flags Flags that control the extractor's behavior.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, from which to
+   *     load seek tables built by {@link Mp3SeekTableBuilder}, and in which to store the index
+   *     built when {@link #FLAG_ENABLE_INDEX_SEEKING} is set, or {@code null}.
+   */
+  public Mp3Extractor(@Flags int flags, @Nullable SeekIndexStore seekIndexStore) {
+    this(flags, C.TIME_UNSET, seekIndexStore);
+  }
+
+  /**
+   * @param flags Flags that control the extractor's behavior.
+   * @param forcedFirstSampleTimestampUs A timestamp to force for the first sample, or
+   *     {@link C#TIME_UNSET} if forcing is not required.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, from which to
+   *     load seek tables built by {@link Mp3SeekTableBuilder}, and in which to store the index
+   *     built when {@link #FLAG_ENABLE_INDEX_SEEKING} is set, or {@code null}.
+   */
+  public Mp3Extractor(
+      @Flags int flags,
+      long forcedFirstSampleTimestampUs,
+      @Nullable SeekIndexStore seekIndexStore) {
     this.flags = flags;
     this.forcedFirstSampleTimestampUs = forcedFirstSampleTimestampUs;
+    this.seekIndexStore = seekIndexStore;
     scratch = new ParsableByteArray(SCRATCH_LENGTH);
     synchronizedHeader = new MpegAudioUtil.Header();
     gaplessInfoHolder = new GaplessInfoHolder();
@@ -217,13 +252,19 @@ public final class Mp3Extractor implements Extractor {
   public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
     assertInitialized();
     int readResult = readInternal(input);
-    if (readResult == RESULT_END_OF_INPUT && seeker instanceof IndexSeeker) {
+    if (readResult == RESULT_END_OF_INPUT && seeker instanceof IndexSeeker && !isSeekTableLoaded) {
       // Duration is exact when index seeker is used.
       long durationUs = computeTimeUs(samplesRead);
       if (seeker.getDurationUs() != durationUs) {
         ((IndexSeeker) seeker).setDurationUs(durationUs);
         extractorOutput.seekMap(seeker);
       }
+      if (seekTableKey != null) {
+        // The index is built contiguously from the first frame, so it now covers the whole stream.
+        Assertions.checkNotNull(seekIndexStore)
+            .put(seekTableKey, Mp3SeekTable.serialize((IndexSeeker) seeker));
+        seekTableKey = null;
+      }
     }
     return readResult;
   }
@@ -432,6 +473,13 @@ public final class Mp3Extractor implements Extractor {
       return new Seeker.UnseekableSeeker();
     }
 
+    if (seekIndexStore != null) {
+      @Nullable IndexSeeker storedSeeker = maybeLoadSeekTable(input);
+      if (storedSeeker != null) {
+        return storedSeeker;
+      }
+    }
+
     @Nullable Seeker resultSeeker = null;
     if ((flags & FLAG_ENABLE_INDEX_SEEKING) != 0) {
       long durationUs = C.TIME_UNSET;
@@ -460,6 +508,53 @@ public final class Mp3Extractor implements Extractor {
     return resultSeeker;
   }
 
+  /**
+   * Returns an {@link IndexSeeker} for the seek table stored for the stream, or {@code null} if
+   * none is stored. If none is stored and {@link #FLAG_ENABLE_INDEX_SEEKING} is set, sets {@link
+   * #seekTableKey} so that the index is stored once it's complete.
+   *
+   * @param input The {@link ExtractorInput} from which to read, positioned at the start of the
+   *     first frame of audio.
+   * @return The stored {@link IndexSeeker}, or {@code null}.
+   * @throws IOException Thrown if there was an error peeking the start of the audio data.
+   */
+  @Nullable
+  private IndexSeeker maybeLoadSeekTable(ExtractorInput input) throws IOException {
+    long inputLength = input.getLength();
+    if (inputLength == C.LENGTH_UNSET) {
+      return null;
+    }
+    long dataStartPosition = input.getPosition();
+    int fingerprintLength =
+        (int) min(Mp3SeekTable.FINGERPRINT_LENGTH, inputLength - dataStartPosition);
+    byte[] fingerprint = new byte[fingerprintLength];
+    // The peek position may have been advanced past the first frame while reading the seek frame.
+    input.resetPeekPosition();
+    try {
+      input.peekFully(fingerprint, /* offset= */ 0, fingerprintLength);
+    } catch (EOFException e) {
+      // The input is shorter than its declared length.
+      return null;
+    } finally {
+      input.resetPeekPosition();
+    }
+    String key =
+        Mp3SeekTable.getKey(
+            inputLength, dataStartPosition, fingerprint, /* offset= */ 0, fingerprintLength);
+    @Nullable byte[] seekIndex = Assertions.checkNotNull(seekIndexStore).get(key);
+    @Nullable
+    IndexSeeker storedSeeker =
+        seekIndex != null ? Mp3SeekTable.deserialize(seekIndex, dataStartPosition) : null;
+    if (storedSeeker != null) {
+      isSeekTableLoaded = true;
+    } else if ((flags & FLAG_ENABLE_INDEX_SEEKING) != 0
+        && forcedFirstSampleTimestampUs == C.TIME_UNSET) {
+      // Indexed times are offset when the first sample timestamp is forced.
+      seekTableKey = key;
+    }
+    return storedSeeker;
+  }
+
   /**
    * Consumes the next frame from the {@code input} if it contains VBRI or Xing seeking metadata,
    * returning a {@link Seeker} if the metadata was present and valid, or {@code null} otherwise.
@@ -474,9 +569,7 @@ public final class Mp3Extractor implements Extractor {
   private Seeker maybeReadSeekFrame(ExtractorInput input) throws IOException {
     ParsableByteArray frame = new ParsableByteArray(synchronizedHeader.frameSize);
     input.peekFully(frame.getData(), 0, synchronizedHeader.frameSize);
-    int xingBase = (synchronizedHeader.version & 1) != 0
-        ? (synchronizedHeader.channels != 1 ? 36 : 21) // MPEG 1
-        : (synchronizedHeader.channels != 1 ? 21 : 13); // MPEG 2 or 2.5
+    int xingBase = getXingBase(synchronizedHeader);
     int seekHeader = getSeekFrameHeader(frame, xingBase);
     @Nullable Seeker seeker;
     if (seekHeader == SEEK_HEADER_XING || seekHeader == SEEK_HEADER_INFO) {
@@ -522,7 +615,7 @@ public final class Mp3Extractor implements Extractor {
   /**
    * Returns whether the headers match in those bits masked by {@link #MPEG_AUDIO_HEADER_MASK}.
    */
-  private static boolean headersMatch(int headerA, long headerB) {
+  /* package */ static boolean headersMatch(int headerA, long headerB) {
     return (headerA & MPEG_AUDIO_HEADER_MASK) == (headerB & MPEG_AUDIO_HEADER_MASK);
   }
 
@@ -531,7 +624,7 @@ public final class Mp3Extractor implements Extractor {
    * the provided {@code frame} may have seeking metadata, or {@link #SEEK_HEADER_UNSET} otherwise.
    * If seeking metadata is present, {@code frame}'s position is advanced past the header.
    */
-  private static int getSeekFrameHeader(ParsableByteArray frame, int xingBase) {
+  /* package */ static int getSeekFrameHeader(ParsableByteArray frame, int xingBase) {
     if (frame.limit() >= xingBase + 4) {
       frame.setPosition(xingBase);
       int headerData = frame.readInt();
@@ -548,6 +641,13 @@ public final class Mp3Extractor implements Extractor {
     return SEEK_HEADER_UNSET;
   }
 
+  /** Returns the offset of any Xing or Info header in a frame with the given header. */
+  /* package */ static int getXingBase(MpegAudioUtil.Header header) {
+    return (header.version & 1) != 0
+        ? (header.channels != 1 ? 36 : 21) // MPEG 1
+        : (header.channels != 1 ? 21 : 13); // MPEG 2 or 2.5
+  }
+
   @Nullable
   private static MlltSeeker maybeHandleSeekMetadata(
       @Nullable Metadata metadata, long firstFramePosition) {
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp3;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Serializes the seek points of an {@link IndexSeeker} that covers a whole MP3 stream, for storage
+ * in a {@link SeekIndexStore}.
+ *
+ * <p>Seek points are delta encoded as variable length integers, which takes around five bytes per
+ * point, or 50 bytes per second of audio.
+ */
+/* package */ final class Mp3SeekTable {
+
+  /** The maximum number of bytes of audio data from which the key of a seek table is derived. */
+  public static final int FINGERPRINT_LENGTH = 4096;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Returns the {@link SeekIndexStore} key for the seek table of an MP3 stream. The key is derived
+   * from the length of the stream, the position of its audio data and a SHA-256 digest of the start
+   * of its audio data.
+   *
+   * @param inputLength The length of the stream in bytes.
+   * @param dataStartPosition The position of the first frame of audio, after any ID3 tags and seek
+   *     frame.
+   * @param data An array containing the start of the audio data.
+   * @param offset The offset of the audio data in {@code data}.
+   * @param length The length of the audio data in {@code data}, which must be {@link
+   *     #FINGERPRINT_LENGTH}, or the remaining length of the stream if that's shorter.
+   */
+  public static String getKey(
+      long inputLength, long dataStartPosition, byte[] data, int offset, int length) {
+    MessageDigest digest = Util.newSha256Digest();
+    digest.update(data, offset, length);
+    return "mp3-v"
+        + VERSION
+        + "-"
+        + Util.toHexString(digest.digest())
+        + "-"
+        + dataStartPosition
+        + "-"
+        + inputLength;
+  }
+
+  /**
+   * Serializes the seek points of an {@link IndexSeeker}.
+   *
+   * @param seekTable An {@link IndexSeeker} that has indexed the whole stream.
+   * @return The serialized seek table.
+   */
+  public static byte[] serialize(IndexSeeker seekTable) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writeVarint(output, VERSION);
+    writeSignedVarint(output, seekTable.getDurationUs());
+    writeSignedVarint(output, seekTable.getDataEndPosition());
+    int seekPointCount = seekTable.getSeekPointCount();
+    writeVarint(output, seekPointCount);
+    for (int i = 1; i < seekPointCount; i++) {
+      writeVarint(output, seekTable.getSeekPointTimeUs(i) - seekTable.getSeekPointTimeUs(i - 1));
+      writeVarint(
+          output, seekTable.getSeekPointPosition(i) - seekTable.getSeekPointPosition(i - 1));
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Deserializes a seek table.
+   *
+   * @param seekIndex A seek table serialized by {@link #serialize}.
+   * @param dataStartPosition The position of the first frame of audio.
+   * @return An {@link IndexSeeker} containing the seek points of the table, or {@code null} if
+   *     {@code seekIndex} is invalid.
+   */
+  @Nullable
+  public static IndexSeeker deserialize(byte[] seekIndex, long dataStartPosition) {
+    ParsableByteArray data = new ParsableByteArray(seekIndex);
+    try {
+      if (readVarint(data) != VERSION) {
+        return null;
+      }
+      long durationUs = readSignedVarint(data);
+      long dataEndPosition = readSignedVarint(data);
+      long seekPointCount = readVarint(data);
+      // Each seek point after the first takes at least two bytes.
+      if (seekPointCount <= 0 || seekPointCount > data.bytesLeft() / 2 + 1) {
+        return null;
+      }
+      IndexSeeker seekTable = new IndexSeeker(durationUs, dataStartPosition, dataEndPosition);
+      long timeUs = 0;
+      long seekPointPosition = dataStartPosition;
+      for (int i = 1; i < seekPointCount; i++) {
+        timeUs += readVarint(data);
+        seekPointPosition += readVarint(data);
+        seekTable.maybeAddSeekPoint(timeUs, seekPointPosition);
+      }
+      if (data.bytesLeft() != 0 || seekTable.getSeekPointCount() != seekPointCount) {
+        return null;
+      }
+      return seekTable;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // The seek table is truncated.
+      return null;
+    }
+  }
+
+  private Mp3SeekTable() {}
+
+  private static void writeVarint(ByteArrayOutputStream output, long value) {
+    while ((value & ~0x7FL) != 0) {
+      output.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  private static void writeSignedVarint(ByteArrayOutputStream output, long value) {
+    // Zigzag encode, so that C.POSITION_UNSET takes a single byte.
+    writeVarint(output, (value << 1) ^ (value >> 63));
+  }
+
+  private static long readVarint(ParsableByteArray data) {
+    long value = 0;
+    int shift = 0;
+    int currentByte;
+    do {
+      currentByte = data.readUnsignedByte();
+      value |= (long) (currentByte & 0x7F) << shift;
+      shift += 7;
+    } while ((currentByte & 0x80) != 0);
+    return value;
+  }
+
+  private static long readSignedVarint(ParsableByteArray data) {
+    long value = readVarint(data);
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
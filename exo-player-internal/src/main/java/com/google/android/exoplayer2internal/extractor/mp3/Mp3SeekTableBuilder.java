@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp3;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.ParserException;
+import com.google.android.exoplayer2internal.audio.MpegAudioUtil;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.metadata.id3.Id3Decoder;
+import com.google.android.exoplayer2internal.upstream.DataSource;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import static java.lang.Math.min;
+
+/**
+ * Builds a seek table covering a whole MP3 file, and stores it in a {@link SeekIndexStore} from
+ * which {@link Mp3Extractor} loads it when the file is played.
+ *
+ * <p>The table has a seek point every 100 milliseconds, each of which maps the exact timestamp of
+ * a frame to its position, so seeking is accurate for variable bitrate files that have no table of
+ * contents, or only an approximate one. It's built by scanning the MPEG audio frame headers, which
+ * is much faster than extracting the file, so it's typically built on a background thread once a
+ * long file (e.g. a podcast episode or an audiobook) has been downloaded or cached. To use the
+ * table, the extractor must be created with a {@link SeekIndexStore} for the same file, such as one
+ * created by the same {@link SeekIndexStore.Factory} for its URI.
+ */
+public final class Mp3SeekTableBuilder {
+
+  /** Size of the buffer into which the file is read. */
+  private static final int BUFFER_SIZE_BYTES = 128 * 1024;
+
+  private final DataSource dataSource;
+  private final DataSpec dataSpec;
+  private final SeekIndexStore seekIndexStore;
+  private final byte[] buffer;
+  private final ParsableByteArray bufferData;
+  private final MpegAudioUtil.Header header;
+
+  private long bufferPosition;
+  private int bufferLength;
+  private boolean endOfInput;
+  private int synchronizedHeaderData;
+
+  private volatile boolean isCanceled;
+
+  /**
+   * @param dataSource A {@link DataSource} from which to read the file, typically one that reads
+   *     from a cache.
+   * @param dataSpec Defines the file. Must start at position zero.
+   * @param seekIndexStore The {@link SeekIndexStore} of the file, in which to store the seek table.
+   */
+  public Mp3SeekTableBuilder(
+      DataSource dataSource, DataSpec dataSpec, SeekIndexStore seekIndexStore) {
+    Assertions.checkArgument(dataSpec.position == 0);
+    this.dataSource = dataSource;
+    this.dataSpec = dataSpec;
+    this.seekIndexStore = seekIndexStore;
+    buffer = new byte[BUFFER_SIZE_BYTES];
+    bufferData = new ParsableByteArray(buffer);
+    header = new MpegAudioUtil.Header();
+  }
+
+  /**
+   * Cancels the build. {@link #build} checks for cancelation frequently during execution, and
+   * throws an {@link InterruptedIOException} if it sees that the build has been canceled.
+   */
+  public void cancel() {
+    isCanceled = true;
+  }
+
+  /**
+   * Reads the file and stores its seek table.
+   *
+   * <p>This method may be slow and shouldn't be called on the main thread.
+   *
+   * @return Whether the seek table was stored. A table isn't stored if the length of the file is
+   *     unknown, or if it contains no MPEG audio frames.
+   * @throws IOException If an error occurs reading the file, if the file can't be parsed, or if the
+   *     build is canceled. If canceled, an {@link InterruptedIOException} is thrown.
+   */
+  @WorkerThread
+  public boolean build() throws IOException {
+    throwIfCanceled();
+    bufferPosition = 0;
+    bufferLength = 0;
+    endOfInput = false;
+    try {
+      long inputLength = dataSource.open(dataSpec);
+      return inputLength != C.LENGTH_UNSET && buildSeekTable(inputLength);
+    } finally {
+      Util.closeQuietly(dataSource);
+    }
+  }
+
+  private boolean buildSeekTable(long inputLength) throws IOException {
+    // Skip any ID3 tags at the start of the file.
+    long position = 0;
+    while (ensureAvailable(position, Id3Decoder.ID3_HEADER_LENGTH)) {
+      bufferData.setPosition((int) (position - bufferPosition));
+      if (bufferData.readUnsignedInt24() != Id3Decoder.ID3_TAG) {
+        break;
+      }
+      bufferData.skipBytes(3); // Skip major version, minor version and flags.
+      position += Id3Decoder.ID3_HEADER_LENGTH + bufferData.readSynchSafeInt();
+    }
+
+    position = synchronize(position, /* dataEndPosition= */ C.POSITION_UNSET);
+    if (position == C.POSITION_UNSET || !ensureAvailable(position, header.frameSize)) {
+      return false;
+    }
+
+    // Skip any seek frame, and stop at the end of the data it declares, as the extractor does.
+    long dataEndPosition = C.POSITION_UNSET;
+    ParsableByteArray frame = new ParsableByteArray(header.frameSize);
+    System.arraycopy(
+        buffer, (int) (position - bufferPosition), frame.getData(), 0, header.frameSize);
+    int seekHeader = Mp3Extractor.getSeekFrameHeader(frame, Mp3Extractor.getXingBase(header));
+    if (seekHeader != Mp3Extractor.SEEK_HEADER_UNSET) {
+      @Nullable
+      Seeker seekFrameSeeker =
+          seekHeader == Mp3Extractor.SEEK_HEADER_VBRI
+              ? VbriSeeker.create(inputLength, position, header, frame)
+              : XingSeeker.create(inputLength, position, header, frame);
+      // Info headers missing a table of contents fall back to constant bitrate seeking.
+      if (seekFrameSeeker != null
+          && (seekFrameSeeker.isSeekable() || seekHeader != Mp3Extractor.SEEK_HEADER_INFO)) {
+        dataEndPosition = seekFrameSeeker.getDataEndPosition();
+      }
+      position += header.frameSize;
+    }
+
+    int fingerprintLength = (int) min(Mp3SeekTable.FINGERPRINT_LENGTH, inputLength - position);
+    if (!ensureAvailable(position, fingerprintLength)) {
+      return false;
+    }
+    String key =
+        Mp3SeekTable.getKey(
+            inputLength, position, buffer, (int) (position - bufferPosition), fingerprintLength);
+
+    // Index the frames in the same way as the extractor does when index seeking is enabled.
+    IndexSeeker seekTable =
+        new IndexSeeker(/* durationUs= */ C.TIME_UNSET, position, dataEndPosition);
+    long samplesRead = 0;
+    while (true) {
+      if ((dataEndPosition != C.POSITION_UNSET && position > dataEndPosition - 4)
+          || !ensureAvailable(position, /* length= */ 4)) {
+        break;
+      }
+      bufferData.setPosition((int) (position - bufferPosition));
+      int headerData = bufferData.readInt();
+      if (!Mp3Extractor.headersMatch(headerData, synchronizedHeaderData)
+          || MpegAudioUtil.getFrameSize(headerData) == C.LENGTH_UNSET) {
+        // Synchronization has been lost, so resynchronize starting at the next byte.
+        position = synchronize(position + 1, dataEndPosition);
+        if (position == C.POSITION_UNSET) {
+          break;
+        }
+        continue;
+      }
+      header.setForHeaderData(headerData);
+      seekTable.maybeAddSeekPoint(
+          computeTimeUs(samplesRead + header.samplesPerFrame), position + header.frameSize);
+      if (!ensureAvailable(position, header.frameSize)) {
+        break;
+      }
+      samplesRead += header.samplesPerFrame;
+      position += header.frameSize;
+    }
+    seekTable.setDurationUs(computeTimeUs(samplesRead));
+
+    seekIndexStore.put(key, Mp3SeekTable.serialize(seekTable));
+    return true;
+  }
+
+  /**
+   * Searches for four consecutive frames with matching headers, or fewer at the end of the data,
+   * in the same way as {@link Mp3Extractor}. If found, sets {@link #header} for the first frame.
+   *
+   * @param position The position from which to search.
+   * @param dataEndPosition The end position of the audio data, or {@link C#POSITION_UNSET}.
+   * @return The position of the first frame, or {@link C#POSITION_UNSET} if the end of the input
+   *     was reached.
+   * @throws IOException If an error occurs reading the file, or if no frames were found within
+   *     {@link Mp3Extractor#MAX_SYNC_BYTES}.
+   */
+  private long synchronize(long position, long dataEndPosition) throws IOException {
+    int validFrameCount = 0;
+    int candidateSynchronizedHeaderData = 0;
+    int searchedBytes = 0;
+    long framePosition = position;
+    while (true) {
+      if ((dataEndPosition != C.POSITION_UNSET && framePosition > dataEndPosition - 4)
+          || !ensureAvailable(position, (int) (framePosition - position) + 4)) {
+        if (validFrameCount > 0) {
+          // The end of the data was reached, but at least one valid frame was found.
+          break;
+        }
+        return C.POSITION_UNSET;
+      }
+      bufferData.setPosition((int) (framePosition - bufferPosition));
+      int headerData = bufferData.readInt();
+      int frameSize;
+      if ((candidateSynchronizedHeaderData != 0
+              && !Mp3Extractor.headersMatch(headerData, candidateSynchronizedHeaderData))
+          || (frameSize = MpegAudioUtil.getFrameSize(headerData)) == C.LENGTH_UNSET) {
+        // The header doesn't match the candidate header or is invalid. Try the next byte offset.
+        if (searchedBytes++ == Mp3Extractor.MAX_SYNC_BYTES) {
+          throw new ParserException("Searched too many bytes.");
+        }
+        validFrameCount = 0;
+        candidateSynchronizedHeaderData = 0;
+        position++;
+        framePosition = position;
+      } else {
+        // The header matches the candidate header and/or is valid.
+        validFrameCount++;
+        if (validFrameCount == 1) {
+          header.setForHeaderData(headerData);
+          candidateSynchronizedHeaderData = headerData;
+        } else if (validFrameCount == 4) {
+          break;
+        }
+        framePosition += frameSize;
+        if (!ensureAvailable(position, (int) (framePosition - position))) {
+          // The frame is truncated.
+          return C.POSITION_UNSET;
+        }
+      }
+    }
+    synchronizedHeaderData = candidateSynchronizedHeaderData;
+    return position;
+  }
+
+  private long computeTimeUs(long samplesRead) {
+    return samplesRead * C.MICROS_PER_SECOND / header.sampleRate;
+  }
+
+  /**
+   * Ensures that the buffer contains the file data from {@code position} to {@code position +
+   * length}, discarding any buffered data before {@code position}.
+   *
+   * @param position The start position of the required data. Must not be less than the start
+   *     position of the data passed to the previous call.
+   * @param length The length of the required data. Must not exceed {@link #BUFFER_SIZE_BYTES}.
+   * @return Whether the data is buffered. {@code false} if the end of the input was reached first.
+   * @throws IOException If an error occurs reading the file, or if the build is canceled.
+   */
+  private boolean ensureAvailable(long position, int length) throws IOException {
+    long bufferEndPosition = bufferPosition + bufferLength;
+    if (position + length <= bufferEndPosition) {
+      return true;
+    } else if (endOfInput) {
+      return false;
+    }
+    if (position < bufferEndPosition) {
+      int discardLength = (int) (position - bufferPosition);
+      System.arraycopy(buffer, discardLength, buffer, 0, bufferLength - discardLength);
+      bufferLength -= discardLength;
+    } else {
+      // Skip the data up to the position without buffering it.
+      bufferLength = 0;
+      while (bufferEndPosition < position) {
+        int bytesRead =
+            read(/* offset= */ 0, (int) min(buffer.length, position - bufferEndPosition));
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          bufferPosition = bufferEndPosition;
+          return false;
+        }
+        bufferEndPosition += bytesRead;
+      }
+    }
+    bufferPosition = position;
+    while (bufferLength < length) {
+      int bytesRead = read(bufferLength, buffer.length - bufferLength);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        return false;
+      }
+      bufferLength += bytesRead;
+    }
+    return true;
+  }
+
+  private int read(int offset, int length) throws IOException {
+    throwIfCanceled();
+    int bytesRead = dataSource.read(buffer, offset, length);
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      endOfInput = true;
+    }
+    return bytesRead;
+  }
+
+  private void throwIfCanceled() throws InterruptedIOException {
+    if (isCanceled) {
+      throw new InterruptedIOException();
+    }
+  }
+}
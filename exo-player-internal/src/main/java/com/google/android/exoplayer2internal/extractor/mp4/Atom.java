@@ -421,7 +421,7 @@ import java.util.List;
    */
   /* package */ static final class ContainerAtom extends Atom {
 
-    public final long endPosition;
+    public long endPosition;
     public final List<LeafAtom> leafChildren;
     public final List<ContainerAtom> containerChildren;
 
@@ -436,6 +436,17 @@ import java.util.List;
       containerChildren = new ArrayList<>();
     }
 
+    /**
+     * Resets this container so that it can be reused, removing all of its children.
+     *
+     * @param endPosition The position of the first byte after the end of the atom.
+     */
+    public void reset(long endPosition) {
+      this.endPosition = endPosition;
+      leafChildren.clear();
+      containerChildren.clear();
+    }
+
     /**
      * Adds a child leaf to this container.
      *
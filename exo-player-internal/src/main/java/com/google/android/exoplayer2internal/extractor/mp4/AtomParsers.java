@@ -50,6 +50,7 @@ import java.util.List;
 import static com.google.android.exoplayer2internal.util.Assertions.checkNotNull;
 import static com.google.android.exoplayer2internal.util.MimeTypes.getMimeTypeFromMp4ObjectType;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /** Utility methods for parsing MP4 format atom payloads according to ISO/IEC 14496-12. */
 @SuppressWarnings({"ConstantField"})
@@ -114,6 +115,99 @@ import static java.lang.Math.max;
       Function<@NullableType Track, @NullableType Track> modifyTrackFunction)
       throws ParserException {
     List<TrackSampleTable> trackSampleTables = new ArrayList<>();
+    for (int i = 0; i < moov.containerChildren.size(); i++) {
+      Atom.ContainerAtom atom = moov.containerChildren.get(i);
+      if (atom.type != Atom.TYPE_trak) {
+        continue;
+      }
+      @Nullable
+      TrackSampleTable trackSampleTable =
+          parseTrakWithSampleTable(
+              atom,
+              checkNotNull(moov.getLeafAtomOfType(Atom.TYPE_mvhd)),
+              gaplessInfoHolder,
+              duration,
+              drmInitData,
+              ignoreEditLists,
+              isQuickTime,
+              modifyTrackFunction);
+      if (trackSampleTable != null) {
+        trackSampleTables.add(trackSampleTable);
+      }
+    }
+    return trackSampleTables;
+  }
+
+  /**
+   * Parses a single trak atom (defined in ISO/IEC 14496-12), including its sample table.
+   *
+   * <p>Parsing each trak atom of a moov atom in order with the same {@code gaplessInfoHolder} is
+   * equivalent to calling {@link #parseTraks}, so trak atoms can be parsed as soon as they've been
+   * read, before the rest of the moov atom is available.
+   *
+   * @param trak Trak atom to decode.
+   * @param mvhd Movie header atom, used to get the timescale.
+   * @param gaplessInfoHolder Holder to populate with gapless playback information.
+   * @param duration The duration in units of the timescale declared in the mvhd atom, or {@link
+   *     C#TIME_UNSET} if the duration should be parsed from the tkhd atom.
+   * @param drmInitData {@link DrmInitData} to be included in the format, or {@code null}.
+   * @param ignoreEditLists Whether to ignore any edit lists in the trak box.
+   * @param isQuickTime True for QuickTime media. False otherwise.
+   * @param modifyTrackFunction A function to apply to the parsed {@link Track}.
+   * @return The {@link TrackSampleTable}, or {@code null} if the track is not supported.
+   * @throws ParserException Thrown if the trak atom can't be parsed.
+   */
+  @Nullable
+  public static TrackSampleTable parseTrakWithSampleTable(
+      Atom.ContainerAtom trak,
+      Atom.LeafAtom mvhd,
+      GaplessInfoHolder gaplessInfoHolder,
+      long duration,
+      @Nullable DrmInitData drmInitData,
+      boolean ignoreEditLists,
+      boolean isQuickTime,
+      Function<@NullableType Track, @NullableType Track> modifyTrackFunction)
+      throws ParserException {
+    @Nullable
+    Track track =
+        modifyTrackFunction.apply(
+            parseTrak(trak, mvhd, duration, drmInitData, ignoreEditLists, isQuickTime));
+    if (track == null) {
+      return null;
+    }
+    Atom.ContainerAtom stblAtom =
+        checkNotNull(
+            checkNotNull(
+                    checkNotNull(trak.getContainerAtomOfType(Atom.TYPE_mdia))
+                        .getContainerAtomOfType(Atom.TYPE_minf))
+                .getContainerAtomOfType(Atom.TYPE_stbl));
+    return parseStbl(track, stblAtom, gaplessInfoHolder);
+  }
+
+  /**
+   * Parses the trak atoms in a moov atom, without parsing their sample tables. The result contains
+   * the {@link Track Tracks} of the {@link TrackSampleTable TrackSampleTables} returned by {@link
+   * #parseTraks}, in the same order.
+   *
+   * @param moov Moov atom to decode.
+   * @param duration The duration in units of the timescale declared in the mvhd atom, or {@link
+   *     C#TIME_UNSET} if the duration should be parsed from the tkhd atom.
+   * @param drmInitData {@link DrmInitData} to be included in the format, or {@code null}.
+   * @param ignoreEditLists Whether to ignore any edit lists in the trak boxes.
+   * @param isQuickTime True for QuickTime media. False otherwise.
+   * @param modifyTrackFunction A function to apply to the {@link Track Tracks} in the result.
+   * @return A list of {@link Track} instances.
+   * @throws ParserException Thrown if the trak atoms can't be parsed.
+   */
+  public static List<Track> parseTracks(
+      Atom.ContainerAtom moov,
+      long duration,
+      @Nullable DrmInitData drmInitData,
+      boolean ignoreEditLists,
+      boolean isQuickTime,
+      Function<@NullableType Track, @NullableType Track> modifyTrackFunction)
+      throws ParserException {
+    List<Track> tracks = new ArrayList<>();
     for (int i = 0; i < moov.containerChildren.size(); i++) {
       Atom.ContainerAtom atom = moov.containerChildren.get(i);
       if (atom.type != Atom.TYPE_trak) {
@@ -129,19 +223,11 @@ import static java.lang.Math.max;
                   drmInitData,
                   ignoreEditLists,
                   isQuickTime));
-      if (track == null) {
-        continue;
+      if (track != null) {
+        tracks.add(track);
       }
-      Atom.ContainerAtom stblAtom =
-          checkNotNull(
-              checkNotNull(
-                      checkNotNull(atom.getContainerAtomOfType(Atom.TYPE_mdia))
-                          .getContainerAtomOfType(Atom.TYPE_minf))
-                  .getContainerAtomOfType(Atom.TYPE_stbl));
-      TrackSampleTable trackSampleTable = parseStbl(track, stblAtom, gaplessInfoHolder);
-      trackSampleTables.add(trackSampleTable);
     }
-    return trackSampleTables;
+    return tracks;
   }
 
   /**
@@ -395,11 +481,11 @@ import static java.lang.Math.max;
             && remainingTimestampOffsetChanges == 0
             && remainingSynchronizationSamples == 0;
 
-    long[] offsets;
-    int[] sizes;
+    CompactLongArray offsets;
+    CompactLongArray sizes;
     int maximumSize = 0;
-    long[] timestamps;
-    int[] flags;
+    CompactLongArray timestamps;
+    CompactLongArray flags;
     long timestampTimeUnits = 0;
     long duration;
 
@@ -415,17 +501,19 @@ import static java.lang.Math.max;
       FixedSampleSizeRechunker.Results rechunkedResults =
           FixedSampleSizeRechunker.rechunk(
               fixedSampleSize, chunkOffsetsBytes, chunkSampleCounts, timestampDeltaInTimeUnits);
-      offsets = rechunkedResults.offsets;
-      sizes = rechunkedResults.sizes;
+      offsets = CompactLongArray.of(rechunkedResults.offsets);
+      sizes = CompactLongArray.of(rechunkedResults.sizes);
       maximumSize = rechunkedResults.maximumSize;
-      timestamps = rechunkedResults.timestamps;
-      flags = rechunkedResults.flags;
+      timestamps = CompactLongArray.of(rechunkedResults.timestamps);
+      flags = CompactLongArray.of(rechunkedResults.flags);
       duration = rechunkedResults.duration;
     } else {
-      offsets = new long[sampleCount];
-      sizes = new int[sampleCount];
-      timestamps = new long[sampleCount];
-      flags = new int[sampleCount];
+      // Samples are appended to compact arrays as they're read, so that full-length primitive
+      // arrays are never allocated.
+      CompactLongArray.Builder offsetsBuilder = new CompactLongArray.Builder();
+      CompactLongArray.Builder sizesBuilder = new CompactLongArray.Builder();
+      CompactLongArray.Builder timestampsBuilder = new CompactLongArray.Builder();
+      CompactLongArray.Builder flagsBuilder = new CompactLongArray.Builder();
       long offset = 0;
       int remainingSamplesInChunk = 0;
 
@@ -439,10 +527,6 @@ import static java.lang.Math.max;
         if (!chunkDataComplete) {
           Log.w(TAG, "Unexpected end of chunk data");
           sampleCount = i;
-          offsets = Arrays.copyOf(offsets, sampleCount);
-          sizes = Arrays.copyOf(sizes, sampleCount);
-          timestamps = Arrays.copyOf(timestamps, sampleCount);
-          flags = Arrays.copyOf(flags, sampleCount);
           break;
         }
 
@@ -461,22 +545,24 @@ import static java.lang.Math.max;
           remainingSamplesAtTimestampOffset--;
         }
 
-        offsets[i] = offset;
-        sizes[i] = sampleSizeBox.readNextSampleSize();
-        if (sizes[i] > maximumSize) {
-          maximumSize = sizes[i];
+        offsetsBuilder.add(offset);
+        int size = sampleSizeBox.readNextSampleSize();
+        sizesBuilder.add(size);
+        if (size > maximumSize) {
+          maximumSize = size;
         }
-        timestamps[i] = timestampTimeUnits + timestampOffset;
+        timestampsBuilder.add(timestampTimeUnits + timestampOffset);
 
         // All samples are synchronization samples if the stss is not present.
-        flags[i] = stss == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
+        int sampleFlags = stss == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
         if (i == nextSynchronizationSampleIndex) {
-          flags[i] = C.BUFFER_FLAG_KEY_FRAME;
+          sampleFlags = C.BUFFER_FLAG_KEY_FRAME;
           remainingSynchronizationSamples--;
           if (remainingSynchronizationSamples > 0) {
             nextSynchronizationSampleIndex = checkNotNull(stss).readUnsignedIntToInt() - 1;
           }
         }
+        flagsBuilder.add(sampleFlags);
 
         // Add on the duration of this sample.
         timestampTimeUnits += timestampDeltaInTimeUnits;
@@ -493,9 +579,13 @@ import static java.lang.Math.max;
           remainingTimestampDeltaChanges--;
         }
 
-        offset += sizes[i];
+        offset += size;
         remainingSamplesInChunk--;
       }
+      offsets = offsetsBuilder.build();
+      sizes = sizesBuilder.build();
+      timestamps = timestampsBuilder.build();
+      flags = flagsBuilder.build();
       duration = timestampTimeUnits + timestampOffset;
 
       // If the stbl's child boxes are not consistent the container is malformed, but the stream may
@@ -534,12 +624,18 @@ import static java.lang.Math.max;
                 + (!isCttsValid ? ", ctts invalid" : ""));
       }
     }
+    sampleCount = timestamps.size();
     long durationUs = Util.scaleLargeTimestamp(duration, C.MICROS_PER_SECOND, track.timescale);
 
     if (track.editListDurations == null) {
-      Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
       return new TrackSampleTable(
-          track, offsets, sizes, maximumSize, timestamps, flags, durationUs);
+          track,
+          offsets,
+          sizes,
+          maximumSize,
+          scaleTimestamps(timestamps, C.MICROS_PER_SECOND, track.timescale),
+          flags,
+          durationUs);
     }
 
     // See the BMFF spec (ISO/IEC 14496-12) subsection 8.6.6. Edit lists that require prerolling
@@ -551,13 +647,13 @@ import static java.lang.Math.max;
 
     if (track.editListDurations.length == 1
         && track.type == C.TRACK_TYPE_AUDIO
-        && timestamps.length >= 2) {
+        && sampleCount >= 2) {
       long editStartTime = checkNotNull(track.editListMediaTimes)[0];
       long editEndTime = editStartTime + Util.scaleLargeTimestamp(track.editListDurations[0],
           track.timescale, track.movieTimescale);
       if (canApplyEditWithGaplessInfo(timestamps, duration, editStartTime, editEndTime)) {
         long paddingTimeUnits = duration - editEndTime;
-        long encoderDelay = Util.scaleLargeTimestamp(editStartTime - timestamps[0],
+        long encoderDelay = Util.scaleLargeTimestamp(editStartTime - timestamps.get(0),
             track.format.sampleRate, track.timescale);
         long encoderPadding = Util.scaleLargeTimestamp(paddingTimeUnits,
             track.format.sampleRate, track.timescale);
@@ -565,12 +661,17 @@ import static java.lang.Math.max;
             && encoderPadding <= Integer.MAX_VALUE) {
           gaplessInfoHolder.encoderDelay = (int) encoderDelay;
           gaplessInfoHolder.encoderPadding = (int) encoderPadding;
-          Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
           long editedDurationUs =
               Util.scaleLargeTimestamp(
                   track.editListDurations[0], C.MICROS_PER_SECOND, track.movieTimescale);
           return new TrackSampleTable(
-              track, offsets, sizes, maximumSize, timestamps, flags, editedDurationUs);
+              track,
+              offsets,
+              sizes,
+              maximumSize,
+              scaleTimestamps(timestamps, C.MICROS_PER_SECOND, track.timescale),
+              flags,
+              editedDurationUs);
         }
       }
     }
@@ -580,15 +681,16 @@ import static java.lang.Math.max;
       // unfragmented files open to interpretation. We handle this as a special case and include all
       // samples in the edit.
       long editStartTime = checkNotNull(track.editListMediaTimes)[0];
-      for (int i = 0; i < timestamps.length; i++) {
-        timestamps[i] =
+      CompactLongArray.Builder editedTimestamps = new CompactLongArray.Builder();
+      for (int i = 0; i < sampleCount; i++) {
+        editedTimestamps.add(
             Util.scaleLargeTimestamp(
-                timestamps[i] - editStartTime, C.MICROS_PER_SECOND, track.timescale);
+                timestamps.get(i) - editStartTime, C.MICROS_PER_SECOND, track.timescale));
       }
       durationUs =
           Util.scaleLargeTimestamp(duration - editStartTime, C.MICROS_PER_SECOND, track.timescale);
       return new TrackSampleTable(
-          track, offsets, sizes, maximumSize, timestamps, flags, durationUs);
+          track, offsets, sizes, maximumSize, editedTimestamps.build(), flags, durationUs);
     }
 
     // Omit any sample at the end point of an edit for audio tracks.
@@ -608,16 +710,15 @@ import static java.lang.Math.max;
             Util.scaleLargeTimestamp(
                 track.editListDurations[i], track.timescale, track.movieTimescale);
         startIndices[i] =
-            Util.binarySearchFloor(
-                timestamps, editMediaTime, /* inclusive= */ true, /* stayInBounds= */ true);
+            timestamps.binarySearchFloor(
+                editMediaTime, /* inclusive= */ true, /* stayInBounds= */ true);
         endIndices[i] =
-            Util.binarySearchCeil(
-                timestamps,
+            timestamps.binarySearchCeil(
                 editMediaTime + editDuration,
                 /* inclusive= */ omitClippedSample,
                 /* stayInBounds= */ false);
         while (startIndices[i] < endIndices[i]
-            && (flags[startIndices[i]] & C.BUFFER_FLAG_KEY_FRAME) == 0) {
+            && (flags.get(startIndices[i]) & C.BUFFER_FLAG_KEY_FRAME) == 0) {
           // Applying the edit correctly would require prerolling from the previous sync sample. In
           // the current implementation we advance to the next sync sample instead. Only other
           // tracks (i.e. audio) will be rendered until the time of the first sync sample.
@@ -632,33 +733,31 @@ import static java.lang.Math.max;
     copyMetadata |= editedSampleCount != sampleCount;
 
     // Calculate edited sample timestamps and update the corresponding metadata arrays.
-    long[] editedOffsets = copyMetadata ? new long[editedSampleCount] : offsets;
-    int[] editedSizes = copyMetadata ? new int[editedSampleCount] : sizes;
+    CompactLongArray.Builder editedOffsets = new CompactLongArray.Builder();
+    CompactLongArray.Builder editedSizes = new CompactLongArray.Builder();
     int editedMaximumSize = copyMetadata ? 0 : maximumSize;
-    int[] editedFlags = copyMetadata ? new int[editedSampleCount] : flags;
-    long[] editedTimestamps = new long[editedSampleCount];
+    CompactLongArray.Builder editedFlags = new CompactLongArray.Builder();
+    CompactLongArray.Builder editedTimestamps = new CompactLongArray.Builder();
     long pts = 0;
-    int sampleIndex = 0;
     for (int i = 0; i < track.editListDurations.length; i++) {
       long editMediaTime = track.editListMediaTimes[i];
       int startIndex = startIndices[i];
       int endIndex = endIndices[i];
-      if (copyMetadata) {
-        int count = endIndex - startIndex;
-        System.arraycopy(offsets, startIndex, editedOffsets, sampleIndex, count);
-        System.arraycopy(sizes, startIndex, editedSizes, sampleIndex, count);
-        System.arraycopy(flags, startIndex, editedFlags, sampleIndex, count);
-      }
       for (int j = startIndex; j < endIndex; j++) {
+        if (copyMetadata) {
+          int size = (int) sizes.get(j);
+          editedOffsets.add(offsets.get(j));
+          editedSizes.add(size);
+          editedFlags.add(flags.get(j));
+          if (size > editedMaximumSize) {
+            editedMaximumSize = size;
+          }
+        }
         long ptsUs = Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, track.movieTimescale);
         long timeInSegmentUs =
             Util.scaleLargeTimestamp(
-                max(0, timestamps[j] - editMediaTime), C.MICROS_PER_SECOND, track.timescale);
-        editedTimestamps[sampleIndex] = ptsUs + timeInSegmentUs;
-        if (copyMetadata && editedSizes[sampleIndex] > editedMaximumSize) {
-          editedMaximumSize = sizes[j];
-        }
-        sampleIndex++;
+                max(0, timestamps.get(j) - editMediaTime), C.MICROS_PER_SECOND, track.timescale);
+        editedTimestamps.add(ptsUs + timeInSegmentUs);
       }
       pts += track.editListDurations[i];
     }
@@ -666,11 +765,11 @@ import static java.lang.Math.max;
         Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, track.movieTimescale);
     return new TrackSampleTable(
         track,
-        editedOffsets,
-        editedSizes,
+        copyMetadata ? editedOffsets.build() : offsets,
+        copyMetadata ? editedSizes.build() : sizes,
         editedMaximumSize,
-        editedTimestamps,
-        editedFlags,
+        editedTimestamps.build(),
+        copyMetadata ? editedFlags.build() : flags,
         editedDurationUs);
   }
 
@@ -1543,17 +1642,38 @@ import static java.lang.Math.max;
 
   /** Returns whether it's possible to apply the specified edit using gapless playback info. */
   private static boolean canApplyEditWithGaplessInfo(
-      long[] timestamps, long duration, long editStartTime, long editEndTime) {
-    int lastIndex = timestamps.length - 1;
+      CompactLongArray timestamps, long duration, long editStartTime, long editEndTime) {
+    int lastIndex = timestamps.size() - 1;
     int latestDelayIndex = Util.constrainValue(MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
     int earliestPaddingIndex =
-        Util.constrainValue(timestamps.length - MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
-    return timestamps[0] <= editStartTime
-        && editStartTime < timestamps[latestDelayIndex]
-        && timestamps[earliestPaddingIndex] < editEndTime
+        Util.constrainValue(timestamps.size() - MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
+    return timestamps.get(0) <= editStartTime
+        && editStartTime < timestamps.get(latestDelayIndex)
+        && timestamps.get(earliestPaddingIndex) < editEndTime
         && editEndTime <= duration;
   }
 
+  /**
+   * Returns a copy of {@code timestamps} with each timestamp scaled as {@link
+   * Util#scaleLargeTimestampsInPlace(long[], long, long)} would.
+   */
+  private static CompactLongArray scaleTimestamps(
+      CompactLongArray timestamps, long multiplier, long divisor) {
+    CompactLongArray.Builder scaledTimestamps = new CompactLongArray.Builder();
+    long[] chunk = new long[256];
+    for (int i = 0; i < timestamps.size(); i += chunk.length) {
+      int chunkLength = min(chunk.length, timestamps.size() - i);
+      for (int j = 0; j < chunkLength; j++) {
+        chunk[j] = timestamps.get(i + j);
+      }
+      Util.scaleLargeTimestampsInPlace(chunk, multiplier, divisor);
+      for (int j = 0; j < chunkLength; j++) {
+        scaledTimestamps.add(chunk[j]);
+      }
+    }
+    return scaledTimestamps.build();
+  }
+
   private AtomParsers() {
     // Prevent instantiation.
   }
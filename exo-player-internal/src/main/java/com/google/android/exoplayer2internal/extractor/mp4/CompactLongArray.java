@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp4;
+
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable {@code long[]} stored in compressed form, with constant time random access.
+ *
+ * <p>Values are stored in blocks of {@link #BLOCK_SIZE}. Within each block, every value is stored
+ * as its difference from a linear prediction, bit-packed at the width of the largest difference.
+ * Sample offsets, timestamps and sizes in MP4 sample tables are close to linear over short runs of
+ * samples, so they typically require only a few bits per value, and values with a constant
+ * increment (e.g. fixed size audio samples) require none at all.
+ *
+ * <p>The blocks can be read with {@link #getBlockBases()}, {@link #getBlockIncrements()}, {@link
+ * #getBlockBitWidths()} and {@link #getBits()}, and an equal array created from them with {@link
+ * #fromBlocks}, in time proportional to the number of blocks rather than the number of values.
+ */
+/* package */ final class CompactLongArray {
+
+  /** Builds {@link CompactLongArray} instances. */
+  public static final class Builder {
+
+    private final long[] pendingValues;
+
+    private int pendingValueCount;
+    private int size;
+    private int blockCount;
+    private long[] blockBases;
+    private long[] blockIncrements;
+    private byte[] blockBitWidths;
+    private long[] blockBitOffsets;
+    private long[] bits;
+    private long bitCount;
+
+    public Builder() {
+      pendingValues = new long[BLOCK_SIZE];
+      blockBases = new long[16];
+      blockIncrements = new long[16];
+      blockBitWidths = new byte[16];
+      blockBitOffsets = new long[16];
+      bits = new long[16];
+    }
+
+    /**
+     * Appends a value.
+     *
+     * @param value The value to append.
+     * @return This builder.
+     */
+    public Builder add(long value) {
+      pendingValues[pendingValueCount++] = value;
+      size++;
+      if (pendingValueCount == BLOCK_SIZE) {
+        flushBlock();
+      }
+      return this;
+    }
+
+    /** Returns the number of values added so far. */
+    public int size() {
+      return size;
+    }
+
+    /** Builds the array. The builder must not be used after calling this method. */
+    public CompactLongArray build() {
+      if (pendingValueCount > 0) {
+        flushBlock();
+      }
+      return new CompactLongArray(
+          size,
+          Arrays.copyOf(blockBases, blockCount),
+          Arrays.copyOf(blockIncrements, blockCount),
+          Arrays.copyOf(blockBitWidths, blockCount),
+          Arrays.copyOf(blockBitOffsets, blockCount),
+          Arrays.copyOf(bits, (int) ((bitCount + 63) >>> 6)));
+    }
+
+    private void flushBlock() {
+      int count = pendingValueCount;
+      long increment =
+          count > 1 ? (pendingValues[count - 1] - pendingValues[0]) / (count - 1) : 0;
+      // Arithmetic may overflow for extreme values, but it wraps consistently in both directions.
+      long base = pendingValues[0];
+      for (int i = 1; i < count; i++) {
+        base = Math.min(base, pendingValues[i] - i * increment);
+      }
+      long maximumDifference = 0;
+      for (int i = 0; i < count; i++) {
+        long difference = pendingValues[i] - i * increment - base;
+        pendingValues[i] = difference;
+        maximumDifference |= difference;
+      }
+      int bitWidth = 64 - Long.numberOfLeadingZeros(maximumDifference);
+
+      if (blockCount == blockBases.length) {
+        int newLength = blockCount * 2;
+        blockBases = Arrays.copyOf(blockBases, newLength);
+        blockIncrements = Arrays.copyOf(blockIncrements, newLength);
+        blockBitWidths = Arrays.copyOf(blockBitWidths, newLength);
+        blockBitOffsets = Arrays.copyOf(blockBitOffsets, newLength);
+      }
+      blockBases[blockCount] = base;
+      blockIncrements[blockCount] = increment;
+      blockBitWidths[blockCount] = (byte) bitWidth;
+      blockBitOffsets[blockCount] = bitCount;
+      blockCount++;
+
+      if (bitWidth > 0) {
+        long requiredWords = (bitCount + (long) count * bitWidth + 63) >>> 6;
+        if (requiredWords > bits.length) {
+          bits = Arrays.copyOf(bits, (int) Math.max(requiredWords, bits.length * 2L));
+        }
+        for (int i = 0; i < count; i++) {
+          writeBits(pendingValues[i], bitWidth);
+        }
+      }
+      pendingValueCount = 0;
+    }
+
+    private void writeBits(long value, int bitWidth) {
+      int wordIndex = (int) (bitCount >>> 6);
+      int bitIndex = (int) (bitCount & 63);
+      bits[wordIndex] |= value << bitIndex;
+      if (bitIndex + bitWidth > 64) {
+        bits[wordIndex + 1] |= value >>> (64 - bitIndex);
+      }
+      bitCount += bitWidth;
+    }
+  }
+
+  /** The number of values in each block. Must be a power of two. */
+  private static final int BLOCK_SIZE = 64;
+
+  private static final int BLOCK_SIZE_SHIFT = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+
+  private final int size;
+  private final long[] blockBases;
+  private final long[] blockIncrements;
+  private final byte[] blockBitWidths;
+  private final long[] blockBitOffsets;
+  private final long[] bits;
+
+  /** Returns an array containing the given values. */
+  public static CompactLongArray of(long[] values) {
+    Builder builder = new Builder();
+    for (long value : values) {
+      builder.add(value);
+    }
+    return builder.build();
+  }
+
+  /** Returns an array containing the given values. */
+  public static CompactLongArray of(int[] values) {
+    Builder builder = new Builder();
+    for (int value : values) {
+      builder.add(value);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns an array with the given blocks, as returned by the block accessors of another array.
+   * The arrays are used directly, and must not be modified afterwards.
+   *
+   * @param size The number of values.
+   * @param blockBases The base of each block.
+   * @param blockIncrements The increment of each block.
+   * @param blockBitWidths The bit width of the differences in each block.
+   * @param bits The bit-packed differences of all blocks.
+   * @return The array.
+   * @throws IllegalArgumentException If the blocks are inconsistent with each other or with {@code
+   *     size}.
+   */
+  public static CompactLongArray fromBlocks(
+      int size, long[] blockBases, long[] blockIncrements, byte[] blockBitWidths, long[] bits) {
+    int blockCount = (size + BLOCK_SIZE - 1) >>> BLOCK_SIZE_SHIFT;
+    if (size < 0
+        || blockBases.length != blockCount
+        || blockIncrements.length != blockCount
+        || blockBitWidths.length != blockCount) {
+      throw new IllegalArgumentException();
+    }
+    long[] blockBitOffsets = new long[blockCount];
+    long bitCount = 0;
+    for (int i = 0; i < blockCount; i++) {
+      int bitWidth = blockBitWidths[i];
+      if (bitWidth < 0 || bitWidth > 64) {
+        throw new IllegalArgumentException();
+      }
+      blockBitOffsets[i] = bitCount;
+      int valueCount = i == blockCount - 1 ? size - (i << BLOCK_SIZE_SHIFT) : BLOCK_SIZE;
+      bitCount += (long) valueCount * bitWidth;
+    }
+    if (bits.length != (int) ((bitCount + 63) >>> 6)) {
+      throw new IllegalArgumentException();
+    }
+    return new CompactLongArray(
+        size, blockBases, blockIncrements, blockBitWidths, blockBitOffsets, bits);
+  }
+
+  private CompactLongArray(
+      int size,
+      long[] blockBases,
+      long[] blockIncrements,
+      byte[] blockBitWidths,
+      long[] blockBitOffsets,
+      long[] bits) {
+    this.size = size;
+    this.blockBases = blockBases;
+    this.blockIncrements = blockIncrements;
+    this.blockBitWidths = blockBitWidths;
+    this.blockBitOffsets = blockBitOffsets;
+    this.bits = bits;
+  }
+
+  /** Returns the number of values in the array. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the base of each block. The returned array must not be modified. */
+  public long[] getBlockBases() {
+    return blockBases;
+  }
+
+  /** Returns the increment of each block. The returned array must not be modified. */
+  public long[] getBlockIncrements() {
+    return blockIncrements;
+  }
+
+  /**
+   * Returns the bit width of the differences in each block. The returned array must not be
+   * modified.
+   */
+  public byte[] getBlockBitWidths() {
+    return blockBitWidths;
+  }
+
+  /** Returns the bit-packed differences of all blocks. The returned array must not be modified. */
+  public long[] getBits() {
+    return bits;
+  }
+
+  /**
+   * Returns the value at a specified index.
+   *
+   * @param index The index.
+   * @return The corresponding value.
+   * @throws IndexOutOfBoundsException If the index is less than zero, or greater than or equal to
+   *     {@link #size()}.
+   */
+  public long get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+    }
+    int blockIndex = index >>> BLOCK_SIZE_SHIFT;
+    int indexInBlock = index & (BLOCK_SIZE - 1);
+    long value = blockBases[blockIndex] + indexInBlock * blockIncrements[blockIndex];
+    int bitWidth = blockBitWidths[blockIndex];
+    if (bitWidth != 0) {
+      value += readBits(blockBitOffsets[blockIndex] + (long) indexInBlock * bitWidth, bitWidth);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the index of the largest value that is less than (or optionally equal to) {@code
+   * value}.
+   *
+   * <p>Equivalent to {@link Util#binarySearchFloor(long[], long, boolean, boolean)} on the
+   * uncompressed values. In particular, the same values are probed, so the result is the same even
+   * if the values aren't sorted.
+   *
+   * @param value The value being searched for.
+   * @param inclusive If the value is present in the array, whether to return the corresponding
+   *     index. If false then the returned index corresponds to the largest value strictly less
+   *     than the value.
+   * @param stayInBounds If true, then 0 will be returned in the case that the value is smaller than
+   *     the smallest value in the array. If false then -1 will be returned.
+   * @return The index of the largest value that is less than (or optionally equal to) {@code
+   *     value}.
+   */
+  public int binarySearchFloor(long value, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearch(value);
+    if (index < 0) {
+      index = -(index + 2);
+    } else {
+      while (--index >= 0 && get(index) == value) {}
+      if (inclusive) {
+        index++;
+      }
+    }
+    return stayInBounds ? Math.max(0, index) : index;
+  }
+
+  /**
+   * Returns the index of the smallest value that is greater than (or optionally equal to) {@code
+   * value}.
+   *
+   * <p>Equivalent to {@link Util#binarySearchCeil(long[], long, boolean, boolean)} on the
+   * uncompressed values. In particular, the same values are probed, so the result is the same even
+   * if the values aren't sorted.
+   *
+   * @param value The value being searched for.
+   * @param inclusive If the value is present in the array, whether to return the corresponding
+   *     index. If false then the returned index corresponds to the smallest value strictly greater
+   *     than the value.
+   * @param stayInBounds If true, then {@code (size() - 1)} will be returned in the case that the
+   *     value is greater than the largest value in the array. If false then {@code size()} will be
+   *     returned.
+   * @return The index of the smallest value that is greater than (or optionally equal to) {@code
+   *     value}.
+   */
+  public int binarySearchCeil(long value, boolean inclusive, boolean stayInBounds) {
+    int index = binarySearch(value);
+    if (index < 0) {
+      index = ~index;
+    } else {
+      while (++index < size && get(index) == value) {}
+      if (inclusive) {
+        index--;
+      }
+    }
+    return stayInBounds ? Math.min(size - 1, index) : index;
+  }
+
+  /** Equivalent to {@link Arrays#binarySearch(long[], long)} on the uncompressed values. */
+  private int binarySearch(long value) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midValue = get(mid);
+      if (midValue < value) {
+        low = mid + 1;
+      } else if (midValue > value) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private long readBits(long bitOffset, int bitWidth) {
+    int wordIndex = (int) (bitOffset >>> 6);
+    int bitIndex = (int) (bitOffset & 63);
+    long value = bits[wordIndex] >>> bitIndex;
+    if (bitIndex + bitWidth > 64) {
+      value |= bits[wordIndex + 1] << (64 - bitIndex);
+    }
+    return bitWidth == 64 ? value : value & ((1L << bitWidth) - 1);
+  }
+}
@@ -159,6 +159,9 @@ public class FragmentedMp4Extractor implements Extractor {
   // Parser state.
   private final ParsableByteArray atomHeader;
   private final ArrayDeque<ContainerAtom> containerAtoms;
+  // Atoms of a moof, keyed by type, which are recycled once the moof has been parsed.
+  private final SparseArray<ArrayDeque<ContainerAtom>> recycledContainerAtoms;
+  private final SparseArray<ArrayDeque<LeafAtom>> recycledLeafAtoms;
   private final ArrayDeque<MetadataSampleInfo> pendingMetadataSampleInfos;
   @Nullable private final TrackOutput additionalEmsgTrackOutput;
 
@@ -166,7 +169,7 @@ public class FragmentedMp4Extractor implements Extractor {
   private int atomType;
   private long atomSize;
   private int atomHeaderBytesRead;
-  @Nullable private ParsableByteArray atomData;
+  @Nullable private LeafAtom leafAtom;
   private long endOfMdatPosition;
   private int pendingMetadataSampleBytes;
   private long pendingSeekTimeUs;
@@ -270,6 +273,8 @@ public class FragmentedMp4Extractor implements Extractor {
     scratchBytes = new byte[16];
     scratch = new ParsableByteArray(scratchBytes);
     containerAtoms = new ArrayDeque<>();
+    recycledContainerAtoms = new SparseArray<>();
+    recycledLeafAtoms = new SparseArray<>();
     pendingMetadataSampleInfos = new ArrayDeque<>();
     trackBundles = new SparseArray<>();
     durationUs = C.TIME_UNSET;
@@ -421,7 +426,7 @@ public class FragmentedMp4Extractor implements Extractor {
 
     if (shouldParseContainerAtom(atomType)) {
       long endPosition = input.getPosition() + atomSize - Atom.HEADER_SIZE;
-      containerAtoms.push(new ContainerAtom(atomType, endPosition));
+      containerAtoms.push(obtainContainerAtom(atomType, endPosition));
       if (atomSize == atomHeaderBytesRead) {
         processAtomEnded(endPosition);
       } else {
@@ -435,27 +440,55 @@ public class FragmentedMp4Extractor implements Extractor {
       if (atomSize > Integer.MAX_VALUE) {
         throw new ParserException("Leaf atom with length > 2147483647 (unsupported).");
       }
-      ParsableByteArray atomData = new ParsableByteArray((int) atomSize);
-      System.arraycopy(atomHeader.getData(), 0, atomData.getData(), 0, Atom.HEADER_SIZE);
-      this.atomData = atomData;
+      LeafAtom leafAtom = obtainLeafAtom(atomType, (int) atomSize);
+      System.arraycopy(atomHeader.getData(), 0, leafAtom.data.getData(), 0, Atom.HEADER_SIZE);
+      this.leafAtom = leafAtom;
       parserState = STATE_READING_ATOM_PAYLOAD;
     } else {
       if (atomSize > Integer.MAX_VALUE) {
         throw new ParserException("Skipping atom with length > 2147483647 (unsupported).");
       }
-      atomData = null;
+      leafAtom = null;
       parserState = STATE_READING_ATOM_PAYLOAD;
     }
 
     return true;
   }
 
+  /**
+   * Returns a {@link ContainerAtom} of the given type, reusing an atom of a previously parsed moof
+   * if possible.
+   */
+  private ContainerAtom obtainContainerAtom(int atomType, long endPosition) {
+    @Nullable ArrayDeque<ContainerAtom> recycledAtoms = recycledContainerAtoms.get(atomType);
+    if (recycledAtoms != null && !recycledAtoms.isEmpty()) {
+      ContainerAtom atom = recycledAtoms.pop();
+      atom.reset(endPosition);
+      return atom;
+    }
+    return new ContainerAtom(atomType, endPosition);
+  }
+
+  /**
+   * Returns a {@link LeafAtom} of the given type and size, reusing an atom of a previously parsed
+   * moof if possible.
+   */
+  private LeafAtom obtainLeafAtom(int atomType, int atomSize) {
+    @Nullable ArrayDeque<LeafAtom> recycledAtoms = recycledLeafAtoms.get(atomType);
+    if (recycledAtoms != null && !recycledAtoms.isEmpty()) {
+      LeafAtom atom = recycledAtoms.pop();
+      atom.data.reset(atomSize);
+      return atom;
+    }
+    return new LeafAtom(atomType, new ParsableByteArray(atomSize));
+  }
+
   private void readAtomPayload(ExtractorInput input) throws IOException {
     int atomPayloadSize = (int) atomSize - atomHeaderBytesRead;
-    @Nullable ParsableByteArray atomData = this.atomData;
-    if (atomData != null) {
-      input.readFully(atomData.getData(), Atom.HEADER_SIZE, atomPayloadSize);
-      onLeafAtomRead(new LeafAtom(atomType, atomData), input.getPosition());
+    @Nullable LeafAtom leafAtom = this.leafAtom;
+    if (leafAtom != null) {
+      input.readFully(leafAtom.data.getData(), Atom.HEADER_SIZE, atomPayloadSize);
+      onLeafAtomRead(leafAtom, input.getPosition());
     } else {
       input.skipFully(atomPayloadSize);
     }
@@ -575,6 +608,8 @@ public class FragmentedMp4Extractor implements Extractor {
         trackBundles.valueAt(i).updateDrmInitData(drmInitData);
       }
     }
+    // The fragment has been parsed into the track bundles, so the moof atoms can be reused.
+    recycleMoofAtoms(moof);
     // If we have a pending seek, advance tracks to their preceding sync frames.
     if (pendingSeekTimeUs != C.TIME_UNSET) {
       int trackCount = trackBundles.size();
@@ -585,6 +620,35 @@ public class FragmentedMp4Extractor implements Extractor {
     }
   }
 
+  private void recycleMoofAtoms(ContainerAtom moof) {
+    int moofContainerChildrenSize = moof.containerChildren.size();
+    for (int i = 0; i < moofContainerChildrenSize; i++) {
+      Atom.ContainerAtom traf = moof.containerChildren.get(i);
+      if (traf.type != Atom.TYPE_traf) {
+        continue;
+      }
+      int leafChildrenSize = traf.leafChildren.size();
+      for (int j = 0; j < leafChildrenSize; j++) {
+        LeafAtom atom = traf.leafChildren.get(j);
+        if (isRecyclableTrafLeafAtom(atom.type)) {
+          getRecycledAtoms(recycledLeafAtoms, atom.type).push(atom);
+        }
+      }
+      getRecycledAtoms(recycledContainerAtoms, Atom.TYPE_traf).push(traf);
+    }
+    getRecycledAtoms(recycledContainerAtoms, Atom.TYPE_moof).push(moof);
+  }
+
+  private static <T extends Atom> ArrayDeque<T> getRecycledAtoms(
+      SparseArray<ArrayDeque<T>> recycledAtoms, int atomType) {
+    @Nullable ArrayDeque<T> recycledAtomsOfType = recycledAtoms.get(atomType);
+    if (recycledAtomsOfType == null) {
+      recycledAtomsOfType = new ArrayDeque<>();
+      recycledAtoms.put(atomType, recycledAtomsOfType);
+    }
+    return recycledAtomsOfType;
+  }
+
   private void initExtraTracks() {
     int nextExtraTrackId = EXTRA_TRACKS_BASE_ID;
 
@@ -920,8 +984,16 @@ public class FragmentedMp4Extractor implements Extractor {
         ((atomFlags & 0x20 /* default_sample_flags_present */) != 0)
             ? tfhd.readInt()
             : defaultSampleValues.flags;
-    trackBundle.fragment.header = new DefaultSampleValues(defaultSampleDescriptionIndex,
-        defaultSampleDuration, defaultSampleSize, defaultSampleFlags);
+    @Nullable DefaultSampleValues header = trackBundle.fragment.header;
+    if (header == null
+        || header.sampleDescriptionIndex != defaultSampleDescriptionIndex
+        || header.duration != defaultSampleDuration
+        || header.size != defaultSampleSize
+        || header.flags != defaultSampleFlags) {
+      // The values rarely change between fragments, so the previous instance is usually reused.
+      trackBundle.fragment.header = new DefaultSampleValues(defaultSampleDescriptionIndex,
+          defaultSampleDuration, defaultSampleSize, defaultSampleFlags);
+    }
     return trackBundle;
   }
 
@@ -1504,6 +1576,22 @@ public class FragmentedMp4Extractor implements Extractor {
     return schemeDatas == null ? null : new DrmInitData(schemeDatas);
   }
 
+  /**
+   * Returns whether a traf leaf atom with type {@code atom} is no longer referenced once the
+   * containing moof has been parsed, so that it can be reused.
+   */
+  private static boolean isRecyclableTrafLeafAtom(int atom) {
+    return atom == Atom.TYPE_tfhd
+        || atom == Atom.TYPE_tfdt
+        || atom == Atom.TYPE_trun
+        || atom == Atom.TYPE_saiz
+        || atom == Atom.TYPE_saio
+        || atom == Atom.TYPE_senc
+        || atom == Atom.TYPE_sbgp
+        || atom == Atom.TYPE_sgpd
+        || atom == Atom.TYPE_uuid;
+  }
+
   /** Returns whether the extractor should decode a leaf atom with type {@code atom}. */
   private static boolean shouldParseLeafAtom(int atom) {
     return atom == Atom.TYPE_hdlr
@@ -1644,21 +1732,21 @@ public class FragmentedMp4Extractor implements Extractor {
     /** Returns the presentation time of the current sample in microseconds. */
     public long getCurrentSamplePresentationTimeUs() {
       return !currentlyInFragment
-          ? moovSampleTable.timestampsUs[currentSampleIndex]
+          ? moovSampleTable.getTimestampUs(currentSampleIndex)
           : fragment.getSamplePresentationTimeUs(currentSampleIndex);
     }
 
     /** Returns the byte offset of the current sample. */
     public long getCurrentSampleOffset() {
       return !currentlyInFragment
-          ? moovSampleTable.offsets[currentSampleIndex]
+          ? moovSampleTable.getOffset(currentSampleIndex)
           : fragment.trunDataPosition[currentTrackRunIndex];
     }
 
     /** Returns the size of the current sample in bytes. */
     public int getCurrentSampleSize() {
       return !currentlyInFragment
-          ? moovSampleTable.sizes[currentSampleIndex]
+          ? moovSampleTable.getSize(currentSampleIndex)
           : fragment.sampleSizeTable[currentSampleIndex];
     }
 
@@ -1667,7 +1755,7 @@ public class FragmentedMp4Extractor implements Extractor {
     public int getCurrentSampleFlags() {
       int flags =
           !currentlyInFragment
-              ? moovSampleTable.flags[currentSampleIndex]
+              ? moovSampleTable.getFlags(currentSampleIndex)
               : (fragment.sampleIsSyncFrameTable[currentSampleIndex] ? C.BUFFER_FLAG_KEY_FRAME : 0);
       if (getEncryptionBoxIfEncrypted() != null) {
         flags |= C.BUFFER_FLAG_ENCRYPTED;
@@ -28,6 +28,7 @@ import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
 import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.GaplessInfoHolder;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.SeekMap;
 import com.google.android.exoplayer2internal.extractor.SeekPoint;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
@@ -104,6 +105,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private static final long MAXIMUM_READ_AHEAD_BYTES_STREAM = 10 * 1024 * 1024;
 
   private final @Flags int flags;
+  @Nullable private final SeekIndexStore seekIndexStore;
 
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
@@ -112,6 +114,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
   private final ParsableByteArray atomHeader;
   private final ArrayDeque<ContainerAtom> containerAtoms;
+  private final List<TrackSampleTable> parsedTrackSampleTables;
 
   @State private int parserState;
   private int atomType;
@@ -119,6 +122,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private int atomHeaderBytesRead;
   @Nullable private ParsableByteArray atomData;
 
+  // Trak atoms of the current moov atom are parsed as soon as they've been read, so that their atom
+  // data can be released before the rest of the moov atom is read, rather than all of it being held
+  // until the moov atom ends. This requires the mvhd atom to precede them. It's disabled whenever a
+  // SeekIndexStore is set, since the whole moov atom is then kept to derive the key of its sample
+  // tables.
+  private boolean parseTraksIncrementally;
+  private GaplessInfoHolder parsedTraksGaplessInfoHolder;
+
   private int sampleTrackIndex;
   private int sampleBytesRead;
   private int sampleBytesWritten;
@@ -127,7 +138,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   // Extractor outputs.
   private @MonotonicNonNull ExtractorOutput extractorOutput;
   private Mp4Track @MonotonicNonNull [] tracks;
-  private long @MonotonicNonNull [][] accumulatedSampleSizes;
+  private CompactLongArray @MonotonicNonNull [] accumulatedSampleSizes;
   private int firstVideoTrackIndex;
   private long durationUs;
   private boolean isQuickTime;
@@ -146,9 +157,25 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * @param flags Flags that control the extractor's behavior.
    */
   public Mp4Extractor(@Flags int flags) {
+    this(flags, /* seekIndexStore= */ null);
+  }
+
+  /**
+   * Creates a new extractor for unfragmented MP4 streams, using the specified flags to control the
+   * extractor's behavior.
+   *
+   * @param flags Flags that control the extractor's behavior.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, from which to
+   *     load sample tables that have been parsed before, and in which to store newly parsed sample
+   *     tables, or {@code null} if sample tables should always be parsed.
+   */
+  public Mp4Extractor(@Flags int flags, @Nullable SeekIndexStore seekIndexStore) {
     this.flags = flags;
+    this.seekIndexStore = seekIndexStore;
     atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
     containerAtoms = new ArrayDeque<>();
+    parsedTrackSampleTables = new ArrayList<>();
+    parsedTraksGaplessInfoHolder = new GaplessInfoHolder();
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
     nalLength = new ParsableByteArray(4);
     scratch = new ParsableByteArray();
@@ -237,14 +264,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
+      firstOffset = sampleTable.getOffset(sampleIndex);
       if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -322,6 +349,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         maybeSkipRemainingMetaAtomHeaderBytes(input);
       }
       containerAtoms.push(new ContainerAtom(atomType, endPosition));
+      if (atomType == Atom.TYPE_moov) {
+        parseTraksIncrementally = seekIndexStore == null;
+        parsedTrackSampleTables.clear();
+        parsedTraksGaplessInfoHolder = new GaplessInfoHolder();
+      }
       if (atomSize == atomHeaderBytesRead) {
         processAtomEnded(endPosition);
       } else {
@@ -384,6 +416,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         processMoovAtom(containerAtom);
         containerAtoms.clear();
         parserState = STATE_READING_SAMPLE;
+      } else if (containerAtom.type == Atom.TYPE_trak
+          && maybeParseTrakIncrementally(containerAtom)) {
+        // The trak atom has been parsed, so there's no need to keep it.
       } else if (!containerAtoms.isEmpty()) {
         containerAtoms.peek().add(containerAtom);
       }
@@ -417,18 +452,27 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       mdtaMetadata = AtomParsers.parseMdtaFromMeta(meta);
     }
 
-    boolean ignoreEditLists = (flags & FLAG_WORKAROUND_IGNORE_EDIT_LISTS) != 0;
-    List<TrackSampleTable> trackSampleTables =
-        parseTraks(
-            moov,
-            gaplessInfoHolder,
-            /* duration= */ C.TIME_UNSET,
-            /* drmInitData= */ null,
-            ignoreEditLists,
-            isQuickTime,
-            /* modifyTrackFunction= */ track -> track);
+    Mp4SeekIndex.SampleTables sampleTables;
+    if (parseTraksIncrementally) {
+      List<TrackSampleTable> trackSampleTables = new ArrayList<>(parsedTrackSampleTables);
+      parsedTrackSampleTables.clear();
+      // Gapless information from the sample tables takes precedence over the metadata, as it would
+      // if the trak atoms had been parsed now.
+      if (parsedTraksGaplessInfoHolder.hasGaplessInfo()) {
+        gaplessInfoHolder.encoderDelay = parsedTraksGaplessInfoHolder.encoderDelay;
+        gaplessInfoHolder.encoderPadding = parsedTraksGaplessInfoHolder.encoderPadding;
+      }
+      sampleTables =
+          new Mp4SeekIndex.SampleTables(
+              trackSampleTables, calculateAccumulatedSampleSizes(trackSampleTables));
+    } else {
+      boolean ignoreEditLists = (flags & FLAG_WORKAROUND_IGNORE_EDIT_LISTS) != 0;
+      sampleTables = parseSampleTables(moov, gaplessInfoHolder, ignoreEditLists);
+    }
 
     ExtractorOutput extractorOutput = checkNotNull(this.extractorOutput);
+    List<TrackSampleTable> trackSampleTables = sampleTables.trackSampleTables;
+    List<CompactLongArray> accumulatedSampleSizes = new ArrayList<>();
     int trackCount = trackSampleTables.size();
     for (int i = 0; i < trackCount; i++) {
       TrackSampleTable trackSampleTable = trackSampleTables.get(i);
@@ -461,16 +505,102 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         firstVideoTrackIndex = tracks.size();
       }
       tracks.add(mp4Track);
+      accumulatedSampleSizes.add(sampleTables.accumulatedSampleSizes[i]);
     }
     this.firstVideoTrackIndex = firstVideoTrackIndex;
     this.durationUs = durationUs;
     this.tracks = tracks.toArray(new Mp4Track[0]);
-    accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    this.accumulatedSampleSizes = accumulatedSampleSizes.toArray(new CompactLongArray[0]);
 
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
   }
 
+  /**
+   * Parses a trak atom that has just been read, if trak atoms of the current moov atom are being
+   * parsed incrementally.
+   *
+   * @param trak The trak atom.
+   * @return Whether the trak atom was parsed, in which case it shouldn't be added to the moov atom.
+   * @throws ParserException If the trak atom can't be parsed.
+   */
+  private boolean maybeParseTrakIncrementally(ContainerAtom trak) throws ParserException {
+    @Nullable ContainerAtom moov = containerAtoms.peek();
+    if (!parseTraksIncrementally || moov == null || moov.type != Atom.TYPE_moov) {
+      return false;
+    }
+    @Nullable Atom.LeafAtom mvhd = moov.getLeafAtomOfType(Atom.TYPE_mvhd);
+    if (mvhd == null) {
+      // Parse all trak atoms once the whole moov atom has been read, as they'd be parsed out of
+      // order otherwise.
+      parseTraksIncrementally = false;
+      return false;
+    }
+    @Nullable
+    TrackSampleTable trackSampleTable =
+        AtomParsers.parseTrakWithSampleTable(
+            trak,
+            mvhd,
+            parsedTraksGaplessInfoHolder,
+            /* duration= */ C.TIME_UNSET,
+            /* drmInitData= */ null,
+            /* ignoreEditLists= */ (flags & FLAG_WORKAROUND_IGNORE_EDIT_LISTS) != 0,
+            isQuickTime,
+            /* modifyTrackFunction= */ track -> track);
+    if (trackSampleTable != null) {
+      parsedTrackSampleTables.add(trackSampleTable);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the sample tables of a moov atom and their accumulated sample sizes, loading them from
+   * the {@link SeekIndexStore} if they have been stored before, and calculating and storing them
+   * otherwise.
+   */
+  private Mp4SeekIndex.SampleTables parseSampleTables(
+      ContainerAtom moov, GaplessInfoHolder gaplessInfoHolder, boolean ignoreEditLists)
+      throws ParserException {
+    @Nullable String seekIndexKey = null;
+    if (seekIndexStore != null) {
+      seekIndexKey = Mp4SeekIndex.getKey(moov, ignoreEditLists, isQuickTime);
+      @Nullable byte[] seekIndex = seekIndexStore.get(seekIndexKey);
+      if (seekIndex != null) {
+        List<Track> tracks =
+            AtomParsers.parseTracks(
+                moov,
+                /* duration= */ C.TIME_UNSET,
+                /* drmInitData= */ null,
+                ignoreEditLists,
+                isQuickTime,
+                /* modifyTrackFunction= */ track -> track);
+        @Nullable
+        Mp4SeekIndex.SampleTables sampleTables =
+            Mp4SeekIndex.deserialize(seekIndex, tracks, gaplessInfoHolder);
+        if (sampleTables != null) {
+          return sampleTables;
+        }
+      }
+    }
+    List<TrackSampleTable> trackSampleTables =
+        parseTraks(
+            moov,
+            gaplessInfoHolder,
+            /* duration= */ C.TIME_UNSET,
+            /* drmInitData= */ null,
+            ignoreEditLists,
+            isQuickTime,
+            /* modifyTrackFunction= */ track -> track);
+    Mp4SeekIndex.SampleTables sampleTables =
+        new Mp4SeekIndex.SampleTables(
+            trackSampleTables, calculateAccumulatedSampleSizes(trackSampleTables));
+    if (seekIndexStore != null) {
+      seekIndexStore.put(
+          checkNotNull(seekIndexKey), Mp4SeekIndex.serialize(sampleTables, gaplessInfoHolder));
+    }
+    return sampleTables;
+  }
+
   /**
    * Attempts to extract the next sample in the current mdat atom for the specified track.
    *
@@ -497,8 +627,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = castNonNull(tracks)[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     long skipAmount = position - inputPosition + sampleBytesRead;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
       positionHolder.position = position;
@@ -563,8 +693,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
+    trackOutput.sampleMetadata(track.sampleTable.getTimestampUs(sampleIndex),
+        track.sampleTable.getFlags(sampleIndex), sampleSize, 0, null);
     track.sampleIndex++;
     sampleTrackIndex = C.INDEX_UNSET;
     sampleBytesRead = 0;
@@ -600,8 +730,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == track.sampleTable.sampleCount) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getOffset(sampleIndex);
+      long sampleAccumulatedBytes =
+          castNonNull(accumulatedSampleSizes)[trackIndex].get(sampleIndex);
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -669,38 +800,50 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * For each sample of each track, calculates accumulated size of all samples which need to be read
    * before this sample can be used.
    */
-  private static long[][] calculateAccumulatedSampleSizes(Mp4Track[] tracks) {
-    long[][] accumulatedSampleSizes = new long[tracks.length][];
-    int[] nextSampleIndex = new int[tracks.length];
-    long[] nextSampleTimesUs = new long[tracks.length];
-    boolean[] tracksFinished = new boolean[tracks.length];
-    for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
+  private static CompactLongArray[] calculateAccumulatedSampleSizes(
+      List<TrackSampleTable> sampleTables) {
+    int trackCount = sampleTables.size();
+    CompactLongArray.Builder[] accumulatedSampleSizeBuilders =
+        new CompactLongArray.Builder[trackCount];
+    int[] nextSampleIndex = new int[trackCount];
+    long[] nextSampleTimesUs = new long[trackCount];
+    boolean[] tracksFinished = new boolean[trackCount];
+    int finishedTracks = 0;
+    for (int i = 0; i < trackCount; i++) {
+      accumulatedSampleSizeBuilders[i] = new CompactLongArray.Builder();
+      if (sampleTables.get(i).sampleCount == 0) {
+        tracksFinished[i] = true;
+        finishedTracks++;
+      } else {
+        nextSampleTimesUs[i] = sampleTables.get(i).getTimestampUs(0);
+      }
     }
     long accumulatedSampleSize = 0;
-    int finishedTracks = 0;
-    while (finishedTracks < tracks.length) {
+    while (finishedTracks < trackCount) {
       long minTimeUs = Long.MAX_VALUE;
       int minTimeTrackIndex = -1;
-      for (int i = 0; i < tracks.length; i++) {
+      for (int i = 0; i < trackCount; i++) {
         if (!tracksFinished[i] && nextSampleTimesUs[i] <= minTimeUs) {
           minTimeTrackIndex = i;
           minTimeUs = nextSampleTimesUs[i];
         }
       }
+      TrackSampleTable sampleTable = sampleTables.get(minTimeTrackIndex);
       int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
-      accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
+      accumulatedSampleSizeBuilders[minTimeTrackIndex].add(accumulatedSampleSize);
+      accumulatedSampleSize += sampleTable.getSize(trackSampleIndex);
       nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
-      if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
-        nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
+      if (trackSampleIndex < sampleTable.sampleCount) {
+        nextSampleTimesUs[minTimeTrackIndex] = sampleTable.getTimestampUs(trackSampleIndex);
       } else {
         tracksFinished[minTimeTrackIndex] = true;
         finishedTracks++;
       }
     }
+    CompactLongArray[] accumulatedSampleSizes = new CompactLongArray[trackCount];
+    for (int i = 0; i < trackCount; i++) {
+      accumulatedSampleSizes[i] = accumulatedSampleSizeBuilders[i].build();
+    }
     return accumulatedSampleSizes;
   }
 
@@ -719,7 +862,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return min(sampleOffset, offset);
   }
 
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp4;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.extractor.GaplessInfoHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.extractor.mp4.Atom.ContainerAtom;
+import com.google.android.exoplayer2internal.extractor.mp4.Atom.LeafAtom;
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.max;
+
+/**
+ * Serializes the {@link TrackSampleTable TrackSampleTables} parsed from a moov atom, together with
+ * the accumulated sample sizes calculated from them, for storage in a {@link SeekIndexStore}.
+ *
+ * <p>Each {@link CompactLongArray} is written as its blocks, with the bit-packed values copied
+ * as they are, so deserializing takes time proportional to the number of blocks rather than the
+ * number of samples.
+ */
+/* package */ final class Mp4SeekIndex {
+
+  /** Sample tables, and the accumulated sample sizes calculated from them. */
+  public static final class SampleTables {
+
+    /** The sample tables. */
+    public final List<TrackSampleTable> trackSampleTables;
+    /**
+     * For each sample table, the accumulated size of all samples of all tables that are read
+     * before each of its samples.
+     */
+    public final CompactLongArray[] accumulatedSampleSizes;
+
+    public SampleTables(
+        List<TrackSampleTable> trackSampleTables, CompactLongArray[] accumulatedSampleSizes) {
+      this.trackSampleTables = trackSampleTables;
+      this.accumulatedSampleSizes = accumulatedSampleSizes;
+    }
+  }
+
+  private static final int VERSION = 3;
+
+  /**
+   * Returns the {@link SeekIndexStore} key for the sample tables of a moov atom. The key is derived
+   * from the length and a SHA-256 digest of the contents of all leaf atoms in the moov atom, and
+   * the parsing options that affect the sample tables, so sample tables aren't loaded for a stream
+   * whose moov atom has changed since they were stored.
+   */
+  public static String getKey(ContainerAtom moov, boolean ignoreEditLists, boolean isQuickTime) {
+    MessageDigest digest = Util.newSha256Digest();
+    long length = updateDigest(digest, moov);
+    return "mp4-v"
+        + VERSION
+        + "-"
+        + Util.toHexString(digest.digest())
+        + "-"
+        + length
+        + (ignoreEditLists ? "-e" : "")
+        + (isQuickTime ? "-q" : "");
+  }
+
+  /**
+   * Serializes sample tables.
+   *
+   * @param sampleTables The sample tables returned by {@link AtomParsers#parseTraks}, and the
+   *     accumulated sample sizes calculated from them.
+   * @param gaplessInfoHolder The gapless playback information populated by {@link
+   *     AtomParsers#parseTraks}.
+   * @return The serialized sample tables.
+   */
+  public static byte[] serialize(SampleTables sampleTables, GaplessInfoHolder gaplessInfoHolder) {
+    List<TrackSampleTable> trackSampleTables = sampleTables.trackSampleTables;
+    VarintWriter writer = new VarintWriter();
+    writer.writeVarint(VERSION);
+    writer.writeVarint(gaplessInfoHolder.encoderDelay);
+    writer.writeVarint(gaplessInfoHolder.encoderPadding);
+    writer.writeVarint(trackSampleTables.size());
+    for (int i = 0; i < trackSampleTables.size(); i++) {
+      TrackSampleTable trackSampleTable = trackSampleTables.get(i);
+      writer.writeVarint(trackSampleTable.track.id);
+      writer.writeVarint(trackSampleTable.maximumSize);
+      writer.writeSignedVarint(trackSampleTable.durationUs);
+      writeCompactLongArray(writer, trackSampleTable.getCompactOffsets());
+      writeCompactLongArray(writer, trackSampleTable.getCompactSizes());
+      writeCompactLongArray(writer, trackSampleTable.getCompactTimestampsUs());
+      writeCompactLongArray(writer, trackSampleTable.getCompactFlags());
+      writeCompactLongArray(writer, sampleTables.accumulatedSampleSizes[i]);
+      @Nullable int[] synchronizationSampleIndices =
+          trackSampleTable.getSynchronizationSampleIndices();
+      if (synchronizationSampleIndices == null) {
+        writer.writeVarint(0);
+      } else {
+        writer.writeVarint(synchronizationSampleIndices.length + 1);
+        int previousIndex = 0;
+        for (int index : synchronizationSampleIndices) {
+          writer.writeVarint(index - previousIndex);
+          previousIndex = index;
+        }
+      }
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Deserializes sample tables.
+   *
+   * @param seekIndex Sample tables serialized by {@link #serialize}.
+   * @param tracks The tracks returned by {@link AtomParsers#parseTracks} for the same moov atom.
+   * @param gaplessInfoHolder Holder to populate with gapless playback information.
+   * @return The sample tables, or {@code null} if {@code seekIndex} is invalid or doesn't match
+   *     {@code tracks}.
+   */
+  @Nullable
+  public static SampleTables deserialize(
+      byte[] seekIndex, List<Track> tracks, GaplessInfoHolder gaplessInfoHolder) {
+    VarintReader reader = new VarintReader(seekIndex);
+    try {
+      if (reader.readVarint() != VERSION) {
+        return null;
+      }
+      int encoderDelay = (int) reader.readVarint();
+      int encoderPadding = (int) reader.readVarint();
+      if (reader.readVarint() != tracks.size()) {
+        return null;
+      }
+      List<TrackSampleTable> trackSampleTables = new ArrayList<>(tracks.size());
+      CompactLongArray[] accumulatedSampleSizes = new CompactLongArray[tracks.size()];
+      for (int i = 0; i < tracks.size(); i++) {
+        Track track = tracks.get(i);
+        if (reader.readVarint() != track.id) {
+          return null;
+        }
+        int maximumSize = (int) reader.readVarint();
+        long durationUs = reader.readSignedVarint();
+        CompactLongArray offsets = readCompactLongArray(reader);
+        CompactLongArray sizes = readCompactLongArray(reader);
+        CompactLongArray timestampsUs = readCompactLongArray(reader);
+        CompactLongArray flags = readCompactLongArray(reader);
+        accumulatedSampleSizes[i] = readCompactLongArray(reader);
+        int sampleCount = offsets.size();
+        checkValid(
+            sizes.size() == sampleCount
+                && timestampsUs.size() == sampleCount
+                && flags.size() == sampleCount
+                && accumulatedSampleSizes[i].size() == sampleCount);
+        int synchronizationSampleCount = (int) reader.readVarint() - 1;
+        @Nullable int[] synchronizationSampleIndices = null;
+        if (synchronizationSampleCount >= 0) {
+          // Each index takes at least one byte.
+          checkValid(synchronizationSampleCount <= reader.bytesLeft());
+          synchronizationSampleIndices = new int[synchronizationSampleCount];
+          long index = 0;
+          for (int j = 0; j < synchronizationSampleCount; j++) {
+            index += reader.readVarint();
+            checkValid(index >= 0 && index < sampleCount);
+            synchronizationSampleIndices[j] = (int) index;
+          }
+        }
+        trackSampleTables.add(
+            new TrackSampleTable(
+                track,
+                offsets,
+                sizes,
+                maximumSize,
+                timestampsUs,
+                flags,
+                durationUs,
+                synchronizationSampleIndices));
+      }
+      if (reader.bytesLeft() != 0) {
+        return null;
+      }
+      gaplessInfoHolder.encoderDelay = encoderDelay;
+      gaplessInfoHolder.encoderPadding = encoderPadding;
+      return new SampleTables(trackSampleTables, accumulatedSampleSizes);
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      // The seek index is truncated or invalid.
+      return null;
+    }
+  }
+
+  private Mp4SeekIndex() {}
+
+  private static long updateDigest(MessageDigest digest, ContainerAtom containerAtom) {
+    long length = 0;
+    for (int i = 0; i < containerAtom.leafChildren.size(); i++) {
+      LeafAtom leafAtom = containerAtom.leafChildren.get(i);
+      byte[] data = leafAtom.data.getData();
+      int dataLength = leafAtom.data.limit();
+      digest.update(data, /* offset= */ 0, dataLength);
+      length += dataLength;
+    }
+    for (int i = 0; i < containerAtom.containerChildren.size(); i++) {
+      ContainerAtom childAtom = containerAtom.containerChildren.get(i);
+      // Include the atom type, as container atoms have no data of their own.
+      digest.update((byte) (childAtom.type >> 24));
+      digest.update((byte) (childAtom.type >> 16));
+      digest.update((byte) (childAtom.type >> 8));
+      digest.update((byte) childAtom.type);
+      length += updateDigest(digest, childAtom);
+    }
+    return length;
+  }
+
+  /** Throws an {@link IllegalArgumentException} if a seek index being deserialized is invalid. */
+  private static void checkValid(boolean valid) {
+    if (!valid) {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  private static void writeCompactLongArray(VarintWriter writer, CompactLongArray array) {
+    long[] blockBases = array.getBlockBases();
+    long[] blockIncrements = array.getBlockIncrements();
+    byte[] blockBitWidths = array.getBlockBitWidths();
+    long[] bits = array.getBits();
+    writer.writeVarint(array.size());
+    long previousBlockBase = 0;
+    for (int i = 0; i < blockBases.length; i++) {
+      writer.writeSignedVarint(blockBases[i] - previousBlockBase);
+      writer.writeSignedVarint(blockIncrements[i]);
+      writer.writeVarint(blockBitWidths[i]);
+      previousBlockBase = blockBases[i];
+    }
+    writer.writeVarint(bits.length);
+    writer.writeLongs(bits);
+  }
+
+  private static CompactLongArray readCompactLongArray(VarintReader reader) {
+    int size = (int) reader.readVarint();
+    int blockCount = (int) ((size + 63L) / 64);
+    // Each block takes at least three bytes.
+    checkValid(size >= 0 && blockCount <= reader.bytesLeft() / 3);
+    long[] blockBases = new long[blockCount];
+    long[] blockIncrements = new long[blockCount];
+    byte[] blockBitWidths = new byte[blockCount];
+    long blockBase = 0;
+    for (int i = 0; i < blockCount; i++) {
+      blockBase += reader.readSignedVarint();
+      blockBases[i] = blockBase;
+      blockIncrements[i] = reader.readSignedVarint();
+      blockBitWidths[i] = (byte) reader.readVarint();
+    }
+    long[] bits = reader.readLongs((int) reader.readVarint());
+    return CompactLongArray.fromBlocks(size, blockBases, blockIncrements, blockBitWidths, bits);
+  }
+
+  /** Writes variable length integers, using seven bits per byte, and raw longs. */
+  private static final class VarintWriter {
+
+    private byte[] data;
+    private int length;
+
+    public VarintWriter() {
+      data = new byte[4096];
+    }
+
+    public void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        data[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      data[length++] = (byte) value;
+    }
+
+    public void writeSignedVarint(long value) {
+      // Zigzag encode, so that values of small magnitude take few bytes.
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeLongs(long[] values) {
+      int byteCount = values.length * 8;
+      ensureCapacity(byteCount);
+      ByteBuffer.wrap(data, length, byteCount).asLongBuffer().put(values);
+      length += byteCount;
+    }
+
+    public byte[] toByteArray() {
+      return Arrays.copyOf(data, length);
+    }
+
+    private void ensureCapacity(int byteCount) {
+      if (data.length - length < byteCount) {
+        data = Arrays.copyOf(data, max(data.length * 2, length + byteCount));
+      }
+    }
+  }
+
+  /** Reads values written by {@link VarintWriter}. */
+  private static final class VarintReader {
+
+    private final byte[] data;
+    private int position;
+
+    public VarintReader(byte[] data) {
+      this.data = data;
+    }
+
+    public int bytesLeft() {
+      return data.length - position;
+    }
+
+    public long readVarint() {
+      long value = 0;
+      int shift = 0;
+      byte currentByte;
+      do {
+        currentByte = data[position++];
+        value |= (long) (currentByte & 0x7F) << shift;
+        shift += 7;
+      } while ((currentByte & 0x80) != 0);
+      return value;
+    }
+
+    public long readSignedVarint() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long[] readLongs(int count) {
+      checkValid(count >= 0 && count <= bytesLeft() / 8);
+      long[] values = new long[count];
+      ByteBuffer.wrap(data, position, count * 8).asLongBuffer().get(values);
+      position += count * 8;
+      return values;
+    }
+  }
+}
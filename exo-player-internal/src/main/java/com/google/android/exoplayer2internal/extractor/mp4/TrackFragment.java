@@ -141,13 +141,14 @@ import java.io.IOException;
   public void initTables(int trunCount, int sampleCount) {
     this.trunCount = trunCount;
     this.sampleCount = sampleCount;
+    // Size the tables 25% larger than needed, so as to make future resize operations less likely.
+    // The choice of 25% is relatively arbitrary.
     if (trunLength.length < trunCount) {
-      trunDataPosition = new long[trunCount];
-      trunLength = new int[trunCount];
+      int tableSize = (trunCount * 125) / 100;
+      trunDataPosition = new long[tableSize];
+      trunLength = new int[tableSize];
     }
     if (sampleSizeTable.length < sampleCount) {
-      // Size the tables 25% larger than needed, so as to make future resize operations less
-      // likely. The choice of 25% is relatively arbitrary.
       int tableSize = (sampleCount * 125) / 100;
       sampleSizeTable = new int[tableSize];
       sampleCompositionTimeOffsetUsTable = new int[tableSize];
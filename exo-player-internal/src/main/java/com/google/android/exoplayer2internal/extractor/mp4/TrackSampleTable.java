@@ -15,12 +15,19 @@
  */
 package com.google.android.exoplayer2internal.extractor.mp4;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.util.Assertions;
 import com.google.android.exoplayer2internal.util.Util;
 
+import java.util.Arrays;
+
 /**
  * Sample table for a track in an MP4 file.
+ *
+ * <p>Per-sample values are held in {@link CompactLongArray CompactLongArrays} and decoded on
+ * access, so that long tracks don't require several full-length primitive arrays.
  */
 /* package */ final class TrackSampleTable {
 
@@ -28,19 +35,18 @@ import com.google.android.exoplayer2internal.util.Util;
   public final Track track;
   /** Number of samples. */
   public final int sampleCount;
-  /** Sample offsets in bytes. */
-  public final long[] offsets;
-  /** Sample sizes in bytes. */
-  public final int[] sizes;
-  /** Maximum sample size in {@link #sizes}. */
+  /** Maximum sample size in bytes. */
   public final int maximumSize;
-  /** Sample timestamps in microseconds. */
-  public final long[] timestampsUs;
-  /** Sample flags. */
-  public final int[] flags;
   /** The duration of the track sample table in microseconds. */
   public final long durationUs;
 
+  private final CompactLongArray offsets;
+  private final CompactLongArray sizes;
+  private final CompactLongArray timestampsUs;
+  private final CompactLongArray flags;
+  // Null if all samples are synchronization samples.
+  @Nullable private final int[] synchronizationSampleIndices;
+
   public TrackSampleTable(
       Track track,
       long[] offsets,
@@ -49,9 +55,54 @@ import com.google.android.exoplayer2internal.util.Util;
       long[] timestampsUs,
       int[] flags,
       long durationUs) {
-    Assertions.checkArgument(sizes.length == timestampsUs.length);
-    Assertions.checkArgument(offsets.length == timestampsUs.length);
-    Assertions.checkArgument(flags.length == timestampsUs.length);
+    this(
+        track,
+        CompactLongArray.of(offsets),
+        CompactLongArray.of(sizes),
+        maximumSize,
+        CompactLongArray.of(timestampsUs),
+        CompactLongArray.of(flags),
+        durationUs);
+  }
+
+  public TrackSampleTable(
+      Track track,
+      CompactLongArray offsets,
+      CompactLongArray sizes,
+      int maximumSize,
+      CompactLongArray timestampsUs,
+      CompactLongArray flags,
+      long durationUs) {
+    this(
+        track,
+        offsets,
+        sizes,
+        maximumSize,
+        timestampsUs,
+        flags,
+        durationUs,
+        calculateSynchronizationSampleIndices(flags));
+  }
+
+  /**
+   * Creates a sample table whose synchronization sample indices have already been calculated, for
+   * example by a previous instance.
+   *
+   * @param synchronizationSampleIndices The indices of the synchronization samples, as returned
+   *     by {@link #getSynchronizationSampleIndices()}.
+   */
+  public TrackSampleTable(
+      Track track,
+      CompactLongArray offsets,
+      CompactLongArray sizes,
+      int maximumSize,
+      CompactLongArray timestampsUs,
+      CompactLongArray flags,
+      long durationUs,
+      @Nullable int[] synchronizationSampleIndices) {
+    Assertions.checkArgument(sizes.size() == timestampsUs.size());
+    Assertions.checkArgument(offsets.size() == timestampsUs.size());
+    Assertions.checkArgument(flags.size() == timestampsUs.size());
 
     this.track = track;
     this.offsets = offsets;
@@ -60,10 +111,62 @@ import com.google.android.exoplayer2internal.util.Util;
     this.timestampsUs = timestampsUs;
     this.flags = flags;
     this.durationUs = durationUs;
-    sampleCount = offsets.length;
-    if (flags.length > 0) {
-      flags[flags.length - 1] |= C.BUFFER_FLAG_LAST_SAMPLE;
+    sampleCount = offsets.size();
+    this.synchronizationSampleIndices = synchronizationSampleIndices;
+  }
+
+  /** Returns the offsets of the samples. */
+  public CompactLongArray getCompactOffsets() {
+    return offsets;
+  }
+
+  /** Returns the sizes of the samples. */
+  public CompactLongArray getCompactSizes() {
+    return sizes;
+  }
+
+  /** Returns the timestamps of the samples. */
+  public CompactLongArray getCompactTimestampsUs() {
+    return timestampsUs;
+  }
+
+  /** Returns the flags of the samples, excluding {@link C#BUFFER_FLAG_LAST_SAMPLE}. */
+  public CompactLongArray getCompactFlags() {
+    return flags;
+  }
+
+  /**
+   * Returns the indices of the synchronization samples, or {@code null} if all samples are
+   * synchronization samples. The returned array must not be modified.
+   */
+  @Nullable
+  public int[] getSynchronizationSampleIndices() {
+    return synchronizationSampleIndices;
+  }
+
+  /** Returns the offset of the sample at {@code index}, in bytes. */
+  public long getOffset(int index) {
+    return offsets.get(index);
+  }
+
+  /** Returns the size of the sample at {@code index}, in bytes. */
+  public int getSize(int index) {
+    return (int) sizes.get(index);
+  }
+
+  /** Returns the timestamp of the sample at {@code index}, in microseconds. */
+  public long getTimestampUs(int index) {
+    return timestampsUs.get(index);
+  }
+
+  /** Returns the {@link C.BufferFlags} of the sample at {@code index}. */
+  @C.BufferFlags
+  public int getFlags(int index) {
+    int flags = (int) this.flags.get(index);
+    if (index == sampleCount - 1) {
+      flags |= C.BUFFER_FLAG_LAST_SAMPLE;
     }
+    return flags;
   }
 
   /**
@@ -76,13 +179,17 @@ import com.google.android.exoplayer2internal.util.Util;
   public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
     // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
     // Frames are not reordered past synchronization samples so this works in practice.
-    int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i >= 0; i--) {
-      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-        return i;
-      }
+    int startIndex = timestampsUs.binarySearchFloor(timeUs, true, false);
+    if (startIndex < 0 || synchronizationSampleIndices == null) {
+      return startIndex < 0 ? C.INDEX_UNSET : startIndex;
     }
-    return C.INDEX_UNSET;
+    int index =
+        Util.binarySearchFloor(
+            synchronizationSampleIndices,
+            startIndex,
+            /* inclusive= */ true,
+            /* stayInBounds= */ false);
+    return index < 0 ? C.INDEX_UNSET : synchronizationSampleIndices[index];
   }
 
   /**
@@ -93,13 +200,37 @@ import com.google.android.exoplayer2internal.util.Util;
    * @return index Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
    */
   public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
-    int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i < timestampsUs.length; i++) {
-      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-        return i;
-      }
+    int startIndex = timestampsUs.binarySearchCeil(timeUs, true, false);
+    if (startIndex >= sampleCount || synchronizationSampleIndices == null) {
+      return startIndex >= sampleCount ? C.INDEX_UNSET : startIndex;
     }
-    return C.INDEX_UNSET;
+    int index =
+        Util.binarySearchCeil(
+            synchronizationSampleIndices,
+            startIndex,
+            /* inclusive= */ true,
+            /* stayInBounds= */ false);
+    return index == synchronizationSampleIndices.length
+        ? C.INDEX_UNSET
+        : synchronizationSampleIndices[index];
   }
 
+  @Nullable
+  private static int[] calculateSynchronizationSampleIndices(CompactLongArray flags) {
+    int sampleCount = flags.size();
+    int[] synchronizationSampleIndices = new int[16];
+    int synchronizationSampleCount = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if ((flags.get(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        if (synchronizationSampleCount == synchronizationSampleIndices.length) {
+          synchronizationSampleIndices =
+              Arrays.copyOf(synchronizationSampleIndices, synchronizationSampleCount * 2);
+        }
+        synchronizationSampleIndices[synchronizationSampleCount++] = i;
+      }
+    }
+    return synchronizationSampleCount == sampleCount
+        ? null
+        : Arrays.copyOf(synchronizationSampleIndices, synchronizationSampleCount);
+  }
 }
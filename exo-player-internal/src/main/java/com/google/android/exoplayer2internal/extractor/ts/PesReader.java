@@ -68,6 +68,11 @@ public final class PesReader implements TsPayloadReader {
     state = STATE_FINDING_HEADER;
   }
 
+  /** Returns the {@link ElementaryStreamReader} to which the payload of PES packets is passed. */
+  /* package */ ElementaryStreamReader getElementaryStreamReader() {
+    return reader;
+  }
+
   @Override
   public void init(TimestampAdjuster timestampAdjuster, ExtractorOutput extractorOutput,
       TrackIdGenerator idGenerator) {
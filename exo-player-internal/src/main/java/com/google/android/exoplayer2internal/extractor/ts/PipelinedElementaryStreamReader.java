@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.ts;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.ParserException;
+import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+
+/**
+ * An {@link ElementaryStreamReader} that runs another reader on a dedicated worker thread.
+ *
+ * <p>Calls are queued in a bounded queue and executed in order on the worker thread, except for
+ * {@link #createTracks}, which is executed on the calling thread so that tracks are created
+ * synchronously. Data passed to {@link #consume} is copied, so the caller may reuse its buffer
+ * as soon as the call returns. If the queue is full, the calling thread blocks until the worker
+ * thread has made space.
+ *
+ * <p>{@link #awaitIdle()} must be called before any output of the wrapped reader is relied upon,
+ * and {@link #release()} must be called when the reader is no longer required.
+ */
+/* package */ final class PipelinedElementaryStreamReader implements ElementaryStreamReader {
+
+  private static final int QUEUE_CAPACITY = 256;
+
+  private static final int COMMAND_SEEK = 0;
+  private static final int COMMAND_PACKET_STARTED = 1;
+  private static final int COMMAND_CONSUME = 2;
+  private static final int COMMAND_PACKET_FINISHED = 3;
+
+  private static final class Command {
+
+    public final ParsableByteArray data;
+
+    public int type;
+    public long pesTimeUs;
+    public @TsPayloadReader.Flags int flags;
+
+    public Command() {
+      data = new ParsableByteArray(TsExtractor.TS_PACKET_SIZE);
+    }
+  }
+
+  private final ElementaryStreamReader reader;
+  private final Object lock;
+  private final Command[] commands;
+
+  @Nullable private Thread workerThread;
+
+  // Guarded by lock. Commands at indices [firstCommandIndex, firstCommandIndex + commandCount),
+  // modulo QUEUE_CAPACITY, are queued or being executed.
+  private int firstCommandIndex;
+  private int commandCount;
+  @Nullable private Throwable exception;
+  private boolean released;
+  private boolean workerStopped;
+
+  /** @param reader The reader to run on the worker thread. */
+  public PipelinedElementaryStreamReader(ElementaryStreamReader reader) {
+    this.reader = reader;
+    lock = new Object();
+    commands = new Command[QUEUE_CAPACITY];
+    for (int i = 0; i < QUEUE_CAPACITY; i++) {
+      commands[i] = new Command();
+    }
+  }
+
+  /**
+   * Blocks until all queued calls have been executed by the worker thread.
+   *
+   * @throws ParserException If the wrapped reader failed to parse the data.
+   * @throws RuntimeException If the wrapped reader threw a {@link RuntimeException}, or if the
+   *     worker thread was stopped unexpectedly.
+   * @throws Error If the wrapped reader threw an {@link Error}.
+   */
+  public void awaitIdle() throws ParserException {
+    synchronized (lock) {
+      boolean wasInterrupted = false;
+      while (!released && commandCount > 0) {
+        wasInterrupted |= waitOnLock();
+      }
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+      maybeThrowException();
+    }
+  }
+
+  /** Stops the worker thread. Queued calls that have not been executed are discarded. */
+  public void release() {
+    synchronized (lock) {
+      released = true;
+      lock.notifyAll();
+    }
+  }
+
+  // ElementaryStreamReader implementation.
+
+  @Override
+  public void seek() {
+    queueCommand(dequeueCommand(COMMAND_SEEK));
+  }
+
+  @Override
+  public void createTracks(
+      ExtractorOutput extractorOutput, PesReader.TrackIdGenerator idGenerator) {
+    reader.createTracks(extractorOutput, idGenerator);
+    if (workerThread == null) {
+      workerThread =
+          new Thread("ExoPlayer:TsElementaryStreamReader") {
+            @Override
+            public void run() {
+              PipelinedElementaryStreamReader.this.run();
+            }
+          };
+      workerThread.start();
+    }
+  }
+
+  @Override
+  public void packetStarted(long pesTimeUs, @TsPayloadReader.Flags int flags) {
+    Command command = dequeueCommand(COMMAND_PACKET_STARTED);
+    command.pesTimeUs = pesTimeUs;
+    command.flags = flags;
+    queueCommand(command);
+  }
+
+  @Override
+  public void consume(ParsableByteArray data) throws ParserException {
+    synchronized (lock) {
+      maybeThrowException();
+    }
+    Command command = dequeueCommand(COMMAND_CONSUME);
+    int length = data.bytesLeft();
+    command.data.reset(length);
+    data.readBytes(command.data.getData(), /* offset= */ 0, length);
+    queueCommand(command);
+  }
+
+  @Override
+  public void packetFinished() {
+    queueCommand(dequeueCommand(COMMAND_PACKET_FINISHED));
+  }
+
+  // Internal methods.
+
+  /** Returns a free command of the given type, waiting for one to become free if necessary. */
+  private Command dequeueCommand(int type) {
+    Command command;
+    synchronized (lock) {
+      boolean wasInterrupted = false;
+      // The queue is emptied if the worker thread stops, so this doesn't wait for a dead thread.
+      while (!released && commandCount == QUEUE_CAPACITY) {
+        wasInterrupted |= waitOnLock();
+      }
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+      command = commands[(firstCommandIndex + commandCount) % QUEUE_CAPACITY];
+    }
+    command.type = type;
+    return command;
+  }
+
+  /** Queues a command obtained from {@link #dequeueCommand(int)} for the worker thread. */
+  private void queueCommand(Command command) {
+    if (workerThread == null) {
+      // Tracks haven't been created yet, so there's nothing to hand off to.
+      try {
+        execute(command);
+      } catch (ParserException e) {
+        // Not expected, as no data can have been consumed.
+        throw new IllegalStateException(e);
+      }
+      return;
+    }
+    synchronized (lock) {
+      if (workerStopped) {
+        // Nothing will execute the command. The failure is thrown by the next call that can.
+        return;
+      }
+      commandCount++;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits on the lock, returning whether the calling thread was interrupted. Waits for the worker
+   * thread are always bounded, so interrupts are deferred rather than abandoning queued data.
+   *
+   * <p>Should only be called whilst synchronized on the lock object.
+   */
+  private boolean waitOnLock() {
+    try {
+      lock.wait();
+      return false;
+    } catch (InterruptedException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Throws an exception thrown by the wrapped reader, if there is one.
+   *
+   * <p>Should only be called whilst synchronized on the lock object.
+   */
+  private void maybeThrowException() throws ParserException {
+    if (exception instanceof ParserException) {
+      throw (ParserException) exception;
+    } else if (exception instanceof RuntimeException) {
+      throw (RuntimeException) exception;
+    } else if (exception instanceof Error) {
+      throw (Error) exception;
+    } else if (exception != null) {
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        Command command;
+        boolean skipCommand;
+        synchronized (lock) {
+          while (!released && commandCount == 0) {
+            lock.wait();
+          }
+          if (released) {
+            return;
+          }
+          command = commands[firstCommandIndex];
+          skipCommand = exception != null;
+        }
+
+        if (!skipCommand) {
+          try {
+            execute(command);
+          } catch (Throwable e) {
+            // Keep draining the queue, so that the loading thread doesn't block, and rethrow the
+            // failure there.
+            synchronized (lock) {
+              exception = e;
+            }
+          }
+        }
+
+        synchronized (lock) {
+          firstCommandIndex = (firstCommandIndex + 1) % QUEUE_CAPACITY;
+          commandCount--;
+          lock.notifyAll();
+        }
+      }
+    } catch (Throwable e) {
+      // The worker thread can't continue, for example because it was interrupted. Discard the
+      // queue and release any waiting threads, which then throw the failure.
+      synchronized (lock) {
+        if (exception == null) {
+          exception = e;
+        }
+        workerStopped = true;
+        commandCount = 0;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void execute(Command command) throws ParserException {
+    switch (command.type) {
+      case COMMAND_SEEK:
+        reader.seek();
+        break;
+      case COMMAND_PACKET_STARTED:
+        reader.packetStarted(command.pesTimeUs, command.flags);
+        break;
+      case COMMAND_CONSUME:
+        reader.consume(command.data);
+        break;
+      case COMMAND_PACKET_FINISHED:
+        reader.packetFinished();
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+}
@@ -88,6 +88,11 @@ import static java.lang.Math.min;
       packetBuffer.reset(Util.EMPTY_BYTE_ARRAY);
     }
 
+    @Override
+    public int getSearchLength() {
+      return TIMESTAMP_SEARCH_BYTES;
+    }
+
     private TimestampSearchResult searchForScrValueInBuffer(
         ParsableByteArray packetBuffer, long targetScrTimeUs, long bufferStartOffset) {
       int startOfLastPacketPosition = C.POSITION_UNSET;
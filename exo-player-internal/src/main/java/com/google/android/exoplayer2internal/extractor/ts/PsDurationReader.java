@@ -15,15 +15,19 @@
  */
 package com.google.android.exoplayer2internal.extractor.ts;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.extractor.Extractor;
 import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.util.ParsableByteArray;
 import com.google.android.exoplayer2internal.util.TimestampAdjuster;
 import com.google.android.exoplayer2internal.util.Util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static java.lang.Math.min;
 
@@ -38,16 +42,25 @@ import static java.lang.Math.min;
  * a given stream, and the usage of the class is not thread-safe, so all calls should be made from
  * the same thread.
  *
+ * <p>If a {@link SeekIndexStore} for the stream is provided, the SCR values are stored in it, and
+ * are loaded instead of being read when the stream is opened again. Only the first and last SCR
+ * values are stored, which is enough to skip reading the end of the stream. No index from SCR
+ * values to stream positions is stored, so seeking still performs a binary search over the stream.
+ *
  * <p>Note: See ISO/IEC 13818-1, Table 2-33 for details of the SCR field in pack_header.
  */
 /* package */ final class PsDurationReader {
 
   private static final int TIMESTAMP_SEARCH_BYTES = 20_000;
+  private static final int STORED_SCR_VALUES_LENGTH = 16;
 
   private final TimestampAdjuster scrTimestampAdjuster;
   private final ParsableByteArray packetBuffer;
+  @Nullable private final SeekIndexStore seekIndexStore;
 
   private boolean isDurationRead;
+  private boolean isSeekIndexStoreRead;
+  private boolean isSeekIndexStored;
   private boolean isFirstScrValueRead;
   private boolean isLastScrValueRead;
 
@@ -56,6 +69,15 @@ import static java.lang.Math.min;
   private long durationUs;
 
   /* package */ PsDurationReader() {
+    this(/* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param seekIndexStore A {@link SeekIndexStore} for the stream, in which its SCR values are
+   *     stored, or {@code null} if they should always be read from the stream.
+   */
+  /* package */ PsDurationReader(@Nullable SeekIndexStore seekIndexStore) {
+    this.seekIndexStore = seekIndexStore;
     scrTimestampAdjuster = new TimestampAdjuster(/* firstSampleTimestampUs= */ 0);
     firstScrValue = C.TIME_UNSET;
     lastScrValue = C.TIME_UNSET;
@@ -87,6 +109,9 @@ import static java.lang.Math.min;
    */
   public @Extractor.ReadResult int readDuration(
       ExtractorInput input, PositionHolder seekPositionHolder) throws IOException {
+    if (!isSeekIndexStoreRead) {
+      readStoredScrValues(input.getLength());
+    }
     if (!isLastScrValueRead) {
       return readLastScrValue(input, seekPositionHolder);
     }
@@ -103,6 +128,7 @@ import static java.lang.Math.min;
     long minScrPositionUs = scrTimestampAdjuster.adjustTsTimestamp(firstScrValue);
     long maxScrPositionUs = scrTimestampAdjuster.adjustTsTimestamp(lastScrValue);
     durationUs = maxScrPositionUs - minScrPositionUs;
+    maybeStoreScrValues(input.getLength());
     return finishReadDuration(input);
   }
 
@@ -130,6 +156,40 @@ import static java.lang.Math.min;
     return readScrValueFromPackHeader(scrBytes);
   }
 
+  private void readStoredScrValues(long inputLength) {
+    isSeekIndexStoreRead = true;
+    if (seekIndexStore == null) {
+      return;
+    }
+    @Nullable byte[] scrValues = seekIndexStore.get(getSeekIndexKey(inputLength));
+    if (scrValues == null || scrValues.length != STORED_SCR_VALUES_LENGTH) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(scrValues);
+    firstScrValue = buffer.getLong();
+    lastScrValue = buffer.getLong();
+    isFirstScrValueRead = true;
+    isLastScrValueRead = true;
+    isSeekIndexStored = true;
+  }
+
+  private void maybeStoreScrValues(long inputLength) {
+    if (seekIndexStore == null || isSeekIndexStored) {
+      return;
+    }
+    byte[] scrValues =
+        ByteBuffer.allocate(STORED_SCR_VALUES_LENGTH)
+            .putLong(firstScrValue)
+            .putLong(lastScrValue)
+            .array();
+    seekIndexStore.put(getSeekIndexKey(inputLength), scrValues);
+    isSeekIndexStored = true;
+  }
+
+  private static String getSeekIndexKey(long inputLength) {
+    return "ps-scr-v1-" + inputLength;
+  }
+
   private int finishReadDuration(ExtractorInput input) {
     packetBuffer.reset(Util.EMPTY_BYTE_ARRAY);
     isDurationRead = true;
@@ -21,11 +21,13 @@ import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.ParserException;
+import com.google.android.exoplayer2internal.extractor.CachedRanges;
 import com.google.android.exoplayer2internal.extractor.Extractor;
 import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
 import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.SeekMap;
 import com.google.android.exoplayer2internal.extractor.ts.TsPayloadReader.TrackIdGenerator;
 import com.google.android.exoplayer2internal.util.Assertions;
@@ -68,6 +70,7 @@ public final class PsExtractor implements Extractor {
   private final SparseArray<PesReader> psPayloadReaders; // Indexed by pid
   private final ParsableByteArray psPacketBuffer;
   private final PsDurationReader durationReader;
+  @Nullable private final CachedRanges cachedRanges;
 
   private boolean foundAllTracks;
   private boolean foundAudioTrack;
@@ -84,10 +87,35 @@ public final class PsExtractor implements Extractor {
   }
 
   public PsExtractor(TimestampAdjuster timestampAdjuster) {
+    this(timestampAdjuster, /* cachedRanges= */ null);
+  }
+
+  /**
+   * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+   * @param cachedRanges The {@link CachedRanges} of the stream, which are preferred when searching
+   *     for a seek position, or {@code null} if they're unknown.
+   */
+  public PsExtractor(TimestampAdjuster timestampAdjuster, @Nullable CachedRanges cachedRanges) {
+    this(timestampAdjuster, cachedRanges, /* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+   * @param cachedRanges The {@link CachedRanges} of the stream, which are preferred when searching
+   *     for a seek position, or {@code null} if they're unknown.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, in which the SCR
+   *     values used to calculate its duration are stored. If they are stored, the end of the stream
+   *     isn't read when it's opened again. May be {@code null}.
+   */
+  public PsExtractor(
+      TimestampAdjuster timestampAdjuster,
+      @Nullable CachedRanges cachedRanges,
+      @Nullable SeekIndexStore seekIndexStore) {
     this.timestampAdjuster = timestampAdjuster;
+    this.cachedRanges = cachedRanges;
     psPacketBuffer = new ParsableByteArray(4096);
     psPayloadReaders = new SparseArray<>();
-    durationReader = new PsDurationReader();
+    durationReader = new PsDurationReader(seekIndexStore);
   }
 
   // Extractor implementation.
@@ -296,6 +324,7 @@ public final class PsExtractor implements Extractor {
                 durationReader.getScrTimestampAdjuster(),
                 durationReader.getDurationUs(),
                 inputLength);
+        psBinarySearchSeeker.setCachedRanges(cachedRanges);
         output.seekMap(psBinarySearchSeeker.getSeekMap());
       } else {
         output.seekMap(new SeekMap.Unseekable(durationReader.getDurationUs()));
@@ -139,5 +139,10 @@ import static java.lang.Math.min;
     public void onSeekFinished() {
       packetBuffer.reset(Util.EMPTY_BYTE_ARRAY);
     }
+
+    @Override
+    public int getSearchLength() {
+      return TIMESTAMP_SEARCH_BYTES;
+    }
   }
 }
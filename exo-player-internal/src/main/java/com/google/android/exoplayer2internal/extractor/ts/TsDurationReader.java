@@ -15,15 +15,19 @@
  */
 package com.google.android.exoplayer2internal.extractor.ts;
 
+import androidx.annotation.Nullable;
+
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.extractor.Extractor;
 import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.util.ParsableByteArray;
 import com.google.android.exoplayer2internal.util.TimestampAdjuster;
 import com.google.android.exoplayer2internal.util.Util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static java.lang.Math.min;
 
@@ -36,15 +40,24 @@ import static java.lang.Math.min;
  * stream, which can make PCR values at the beginning of the stream larger than PCR values at the
  * end. This class can only be used once to read duration from a given stream, and the usage of the
  * class is not thread-safe, so all calls should be made from the same thread.
+ *
+ * <p>If a {@link SeekIndexStore} for the stream is provided, the PCR values are stored in it, and
+ * are loaded instead of being read when the stream is opened again. Only the first and last PCR
+ * values are stored, which is enough to skip reading the end of the stream. No index from PCR
+ * values to stream positions is stored, so seeking still performs a binary search over the stream.
  */
 /* package */ final class TsDurationReader {
 
   private static final int TIMESTAMP_SEARCH_BYTES = 600 * TsExtractor.TS_PACKET_SIZE;
+  private static final int STORED_PCR_VALUES_LENGTH = 16;
 
   private final TimestampAdjuster pcrTimestampAdjuster;
   private final ParsableByteArray packetBuffer;
+  @Nullable private final SeekIndexStore seekIndexStore;
 
   private boolean isDurationRead;
+  private boolean isSeekIndexStoreRead;
+  private boolean isSeekIndexStored;
   private boolean isFirstPcrValueRead;
   private boolean isLastPcrValueRead;
 
@@ -53,6 +66,15 @@ import static java.lang.Math.min;
   private long durationUs;
 
   /* package */ TsDurationReader() {
+    this(/* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param seekIndexStore A {@link SeekIndexStore} for the stream, in which its PCR values are
+   *     stored, or {@code null} if they should always be read from the stream.
+   */
+  /* package */ TsDurationReader(@Nullable SeekIndexStore seekIndexStore) {
+    this.seekIndexStore = seekIndexStore;
     pcrTimestampAdjuster = new TimestampAdjuster(/* firstSampleTimestampUs= */ 0);
     firstPcrValue = C.TIME_UNSET;
     lastPcrValue = C.TIME_UNSET;
@@ -83,6 +105,9 @@ import static java.lang.Math.min;
     if (pcrPid <= 0) {
       return finishReadDuration(input);
     }
+    if (!isSeekIndexStoreRead) {
+      readStoredPcrValues(input.getLength(), pcrPid);
+    }
     if (!isLastPcrValueRead) {
       return readLastPcrValue(input, seekPositionHolder, pcrPid);
     }
@@ -99,6 +124,7 @@ import static java.lang.Math.min;
     long minPcrPositionUs = pcrTimestampAdjuster.adjustTsTimestamp(firstPcrValue);
     long maxPcrPositionUs = pcrTimestampAdjuster.adjustTsTimestamp(lastPcrValue);
     durationUs = maxPcrPositionUs - minPcrPositionUs;
+    maybeStorePcrValues(input.getLength(), pcrPid);
     return finishReadDuration(input);
   }
 
@@ -117,6 +143,40 @@ import static java.lang.Math.min;
     return pcrTimestampAdjuster;
   }
 
+  private void readStoredPcrValues(long inputLength, int pcrPid) {
+    isSeekIndexStoreRead = true;
+    if (seekIndexStore == null) {
+      return;
+    }
+    @Nullable byte[] pcrValues = seekIndexStore.get(getSeekIndexKey(inputLength, pcrPid));
+    if (pcrValues == null || pcrValues.length != STORED_PCR_VALUES_LENGTH) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(pcrValues);
+    firstPcrValue = buffer.getLong();
+    lastPcrValue = buffer.getLong();
+    isFirstPcrValueRead = true;
+    isLastPcrValueRead = true;
+    isSeekIndexStored = true;
+  }
+
+  private void maybeStorePcrValues(long inputLength, int pcrPid) {
+    if (seekIndexStore == null || isSeekIndexStored) {
+      return;
+    }
+    byte[] pcrValues =
+        ByteBuffer.allocate(STORED_PCR_VALUES_LENGTH)
+            .putLong(firstPcrValue)
+            .putLong(lastPcrValue)
+            .array();
+    seekIndexStore.put(getSeekIndexKey(inputLength, pcrPid), pcrValues);
+    isSeekIndexStored = true;
+  }
+
+  private static String getSeekIndexKey(long inputLength, int pcrPid) {
+    return "ts-pcr-v1-" + pcrPid + "-" + inputLength;
+  }
+
   private int finishReadDuration(ExtractorInput input) {
     packetBuffer.reset(Util.EMPTY_BYTE_ARRAY);
     isDurationRead = true;
@@ -24,11 +24,13 @@ import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.ParserException;
+import com.google.android.exoplayer2internal.extractor.CachedRanges;
 import com.google.android.exoplayer2internal.extractor.Extractor;
 import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
 import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.SeekMap;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
 import com.google.android.exoplayer2internal.extractor.ts.DefaultTsPayloadReaderFactory.Flags;
@@ -115,6 +117,8 @@ public final class TsExtractor implements Extractor {
   private static final long HEVC_FORMAT_IDENTIFIER = 0x48455643;
 
   private static final int BUFFER_SIZE = TS_PACKET_SIZE * 50;
+  // Larger, so that more packets are handed off to the worker threads between waits for them.
+  private static final int PIPELINED_BUFFER_SIZE = TS_PACKET_SIZE * 1000;
   private static final int SNIFF_TS_PACKET_COUNT = 5;
 
   private final @Mode int mode;
@@ -126,6 +130,8 @@ public final class TsExtractor implements Extractor {
   private final SparseBooleanArray trackIds;
   private final SparseBooleanArray trackPids;
   private final TsDurationReader durationReader;
+  @Nullable private final List<PipelinedElementaryStreamReader> pipelinedReaders;
+  @Nullable private final CachedRanges cachedRanges;
 
   // Accessed only by the loading thread.
   private TsBinarySearchSeeker tsBinarySearchSeeker;
@@ -173,6 +179,79 @@ public final class TsExtractor implements Extractor {
       @Mode int mode,
       TimestampAdjuster timestampAdjuster,
       TsPayloadReader.Factory payloadReaderFactory) {
+    this(mode, timestampAdjuster, payloadReaderFactory, /* pipelineElementaryStreams= */ false);
+  }
+
+  /**
+   * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
+   *     and {@link #MODE_HLS}.
+   * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+   * @param payloadReaderFactory Factory for injecting a custom set of payload readers.
+   * @param pipelineElementaryStreams Whether the {@link ElementaryStreamReader}s of {@link
+   *     PesReader}s created by {@code payloadReaderFactory} should each run on a worker thread.
+   *     Splitting TS packets and parsing PES headers remain on the loading thread, and all
+   *     elementary streams are parsed by the time {@link #read} returns. Enabling this spreads the
+   *     parsing of streams with many high bitrate elementary streams over multiple cores.
+   */
+  public TsExtractor(
+      @Mode int mode,
+      TimestampAdjuster timestampAdjuster,
+      TsPayloadReader.Factory payloadReaderFactory,
+      boolean pipelineElementaryStreams) {
+    this(
+        mode,
+        timestampAdjuster,
+        payloadReaderFactory,
+        pipelineElementaryStreams,
+        /* cachedRanges= */ null);
+  }
+
+  /**
+   * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
+   *     and {@link #MODE_HLS}.
+   * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+   * @param payloadReaderFactory Factory for injecting a custom set of payload readers.
+   * @param pipelineElementaryStreams Whether the {@link ElementaryStreamReader}s of {@link
+   *     PesReader}s created by {@code payloadReaderFactory} should each run on a worker thread.
+   * @param cachedRanges The {@link CachedRanges} of the stream, which are preferred when searching
+   *     for a seek position, or {@code null} if they're unknown.
+   */
+  public TsExtractor(
+      @Mode int mode,
+      TimestampAdjuster timestampAdjuster,
+      TsPayloadReader.Factory payloadReaderFactory,
+      boolean pipelineElementaryStreams,
+      @Nullable CachedRanges cachedRanges) {
+    this(
+        mode,
+        timestampAdjuster,
+        payloadReaderFactory,
+        pipelineElementaryStreams,
+        cachedRanges,
+        /* seekIndexStore= */ null);
+  }
+
+  /**
+   * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
+   *     and {@link #MODE_HLS}.
+   * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+   * @param payloadReaderFactory Factory for injecting a custom set of payload readers.
+   * @param pipelineElementaryStreams Whether the {@link ElementaryStreamReader}s of {@link
+   *     PesReader}s created by {@code payloadReaderFactory} should each run on a worker thread.
+   * @param cachedRanges The {@link CachedRanges} of the stream, which are preferred when searching
+   *     for a seek position, or {@code null} if they're unknown.
+   * @param seekIndexStore A {@link SeekIndexStore} that is specific to the stream, in which the PCR
+   *     values used to calculate its duration are stored. If they are stored, the end of the stream
+   *     isn't read when it's opened again. May be {@code null}.
+   */
+  public TsExtractor(
+      @Mode int mode,
+      TimestampAdjuster timestampAdjuster,
+      TsPayloadReader.Factory payloadReaderFactory,
+      boolean pipelineElementaryStreams,
+      @Nullable CachedRanges cachedRanges,
+      @Nullable SeekIndexStore seekIndexStore) {
+    this.cachedRanges = cachedRanges;
     this.payloadReaderFactory = Assertions.checkNotNull(payloadReaderFactory);
     this.mode = mode;
     if (mode == MODE_SINGLE_PMT || mode == MODE_HLS) {
@@ -181,12 +260,15 @@ public final class TsExtractor implements Extractor {
       timestampAdjusters = new ArrayList<>();
       timestampAdjusters.add(timestampAdjuster);
     }
-    tsPacketBuffer = new ParsableByteArray(new byte[BUFFER_SIZE], 0);
+    pipelinedReaders = pipelineElementaryStreams ? new ArrayList<>() : null;
+    tsPacketBuffer =
+        new ParsableByteArray(
+            new byte[pipelineElementaryStreams ? PIPELINED_BUFFER_SIZE : BUFFER_SIZE], 0);
     trackIds = new SparseBooleanArray();
     trackPids = new SparseBooleanArray();
     tsPayloadReaders = new SparseArray<>();
     continuityCounters = new SparseIntArray();
-    durationReader = new TsDurationReader();
+    durationReader = new TsDurationReader(seekIndexStore);
     pcrPid = -1;
     resetPayloadReaders();
   }
@@ -252,12 +334,40 @@ public final class TsExtractor implements Extractor {
 
   @Override
   public void release() {
-    // Do nothing
+    if (pipelinedReaders != null) {
+      for (int i = 0; i < pipelinedReaders.size(); i++) {
+        pipelinedReaders.get(i).release();
+      }
+      pipelinedReaders.clear();
+    }
   }
 
   @Override
   public @ReadResult int read(ExtractorInput input, PositionHolder seekPosition)
       throws IOException {
+    if (pipelinedReaders == null) {
+      return readPacket(input, seekPosition);
+    }
+    // Hand off all complete packets in the buffer before waiting for the worker threads, unless
+    // the state of the extractor changes in a way that needs the outer read loop.
+    boolean wereTracksEnded = tracksEnded;
+    @ReadResult int result;
+    do {
+      result = readPacket(input, seekPosition);
+    } while (result == RESULT_CONTINUE
+        && tracksEnded == wereTracksEnded
+        && !pendingSeekToStart
+        && tsPacketBuffer.bytesLeft() >= TS_PACKET_SIZE);
+    for (int i = 0; i < pipelinedReaders.size(); i++) {
+      pipelinedReaders.get(i).awaitIdle();
+    }
+    return result;
+  }
+
+  // Internals.
+
+  private @ReadResult int readPacket(ExtractorInput input, PositionHolder seekPosition)
+      throws IOException {
     long inputLength = input.getLength();
     if (tracksEnded) {
       boolean canReadDuration = inputLength != C.LENGTH_UNSET && mode != MODE_HLS;
@@ -357,8 +467,6 @@ public final class TsExtractor implements Extractor {
     return RESULT_CONTINUE;
   }
 
-  // Internals.
-
   private void maybeOutputSeekMap(long inputLength) {
     if (!hasOutputSeekMap) {
       hasOutputSeekMap = true;
@@ -369,6 +477,7 @@ public final class TsExtractor implements Extractor {
                 durationReader.getDurationUs(),
                 inputLength,
                 pcrPid);
+        tsBinarySearchSeeker.setCachedRanges(cachedRanges);
         output.seekMap(tsBinarySearchSeeker.getSeekMap());
       } else {
         output.seekMap(new SeekMap.Unseekable(durationReader.getDurationUs()));
@@ -379,7 +488,7 @@ public final class TsExtractor implements Extractor {
   private boolean fillBufferWithAtLeastOnePacket(ExtractorInput input) throws IOException {
     byte[] data = tsPacketBuffer.getData();
     // Shift bytes to the start of the buffer if there isn't enough space left at the end.
-    if (BUFFER_SIZE - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
+    if (data.length - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
       int bytesLeft = tsPacketBuffer.bytesLeft();
       if (bytesLeft > 0) {
         System.arraycopy(data, tsPacketBuffer.getPosition(), data, 0, bytesLeft);
@@ -389,7 +498,7 @@ public final class TsExtractor implements Extractor {
     // Read more bytes until we have at least one packet.
     while (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE) {
       int limit = tsPacketBuffer.limit();
-      int read = input.read(data, limit, BUFFER_SIZE - limit);
+      int read = input.read(data, limit, data.length - limit);
       if (read == C.RESULT_END_OF_INPUT) {
         return false;
       }
@@ -444,6 +553,21 @@ public final class TsExtractor implements Extractor {
     id3Reader = null;
   }
 
+  /**
+   * Returns {@code reader}, or a {@link PesReader} whose {@link ElementaryStreamReader} runs on a
+   * worker thread if elementary streams are pipelined and {@code reader} is a {@link PesReader}.
+   */
+  @Nullable
+  private TsPayloadReader maybePipelineReader(@Nullable TsPayloadReader reader) {
+    if (pipelinedReaders == null || !(reader instanceof PesReader)) {
+      return reader;
+    }
+    PipelinedElementaryStreamReader pipelinedReader =
+        new PipelinedElementaryStreamReader(((PesReader) reader).getElementaryStreamReader());
+    pipelinedReaders.add(pipelinedReader);
+    return new PesReader(pipelinedReader);
+  }
+
   /**
    * Parses Program Association Table data.
    */
@@ -583,7 +707,9 @@ public final class TsExtractor implements Extractor {
         // Setup an ID3 track regardless of whether there's a corresponding entry, in case one
         // appears intermittently during playback. See [Internal: b/20261500].
         EsInfo id3EsInfo = new EsInfo(TS_STREAM_TYPE_ID3, null, null, Util.EMPTY_BYTE_ARRAY);
-        id3Reader = payloadReaderFactory.createPayloadReader(TS_STREAM_TYPE_ID3, id3EsInfo);
+        id3Reader =
+            maybePipelineReader(
+                payloadReaderFactory.createPayloadReader(TS_STREAM_TYPE_ID3, id3EsInfo));
         id3Reader.init(timestampAdjuster, output,
             new TrackIdGenerator(programNumber, TS_STREAM_TYPE_ID3, MAX_PID_PLUS_ONE));
       }
@@ -630,6 +756,8 @@ public final class TsExtractor implements Extractor {
         @Nullable TsPayloadReader reader = trackIdToReaderScratch.valueAt(i);
         if (reader != null) {
           if (reader != id3Reader) {
+            // Only pipeline readers that are used, so that unused readers aren't retained.
+            reader = Assertions.checkNotNull(maybePipelineReader(reader));
             reader.init(timestampAdjuster, output,
                 new TrackIdGenerator(programNumber, trackId, MAX_PID_PLUS_ONE));
           }
@@ -17,20 +17,31 @@
 package com.google.android.exoplayer2internal.extractor.ts;
 
 import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.util.ByteArrayScanner;
 import com.google.android.exoplayer2internal.util.ParsableByteArray;
 
 /** Utilities method for extracting MPEG-TS streams. */
 public final class TsUtil {
+
+  private static volatile ByteArrayScanner byteArrayScanner = ByteArrayScanner.SCALAR;
+
+  /**
+   * Sets the {@link ByteArrayScanner} used by {@link #findSyncBytePosition(byte[], int, int)}. The
+   * default is {@link ByteArrayScanner#SCALAR}.
+   *
+   * @param scanner The {@link ByteArrayScanner} to use.
+   */
+  public static void setByteArrayScanner(ByteArrayScanner scanner) {
+    byteArrayScanner = scanner;
+  }
+
   /**
    * Returns the position of the first TS_SYNC_BYTE within the range [startPosition, limitPosition)
    * from the provided data array, or returns limitPosition if sync byte could not be found.
    */
   public static int findSyncBytePosition(byte[] data, int startPosition, int limitPosition) {
-    int position = startPosition;
-    while (position < limitPosition && data[position] != TsExtractor.TS_SYNC_BYTE) {
-      position++;
-    }
-    return position;
+    return byteArrayScanner.indexOf(
+        data, startPosition, limitPosition, (byte) TsExtractor.TS_SYNC_BYTE);
   }
 
   /**
@@ -40,6 +40,7 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
 
   private final CacheDataSource.Factory cacheDataSourceFactory;
   private final Executor executor;
+  @Nullable private final DownloadWorkerPool downloadWorkerPool;
 
   /**
    * Creates an instance.
@@ -67,6 +68,23 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
       CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
     this.cacheDataSourceFactory = Assertions.checkNotNull(cacheDataSourceFactory);
     this.executor = Assertions.checkNotNull(executor);
+    downloadWorkerPool = null;
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which
+   *     downloads will be written.
+   * @param downloadWorkerPool A {@link DownloadWorkerPool} on which the requests of all downloads
+   *     are run. Each download submits its requests through its own {@link
+   *     DownloadWorkerPool#createExecutor() Executor}, so that downloads share the pool fairly.
+   */
+  public DefaultDownloaderFactory(
+      CacheDataSource.Factory cacheDataSourceFactory, DownloadWorkerPool downloadWorkerPool) {
+    this.cacheDataSourceFactory = Assertions.checkNotNull(cacheDataSourceFactory);
+    this.downloadWorkerPool = downloadWorkerPool;
+    executor = Runnable::run;
   }
 
   @Override
@@ -85,7 +103,7 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
                 .setCustomCacheKey(request.customCacheKey)
                 .build(),
             cacheDataSourceFactory,
-            executor);
+            getExecutor());
       default:
         throw new IllegalArgumentException("Unsupported type: " + contentType);
     }
@@ -104,13 +122,17 @@ public class DefaultDownloaderFactory implements DownloaderFactory {
             .setDrmKeySetId(request.keySetId)
             .build();
     try {
-      return constructor.newInstance(mediaItem, cacheDataSourceFactory, executor);
+      return constructor.newInstance(mediaItem, cacheDataSourceFactory, getExecutor());
     } catch (Exception e) {
       throw new IllegalStateException(
           "Failed to instantiate downloader for content type " + contentType);
     }
   }
 
+  private Executor getExecutor() {
+    return downloadWorkerPool != null ? downloadWorkerPool.createExecutor() : executor;
+  }
+
   // LINT.IfChange
   private static SparseArray<Constructor<? extends Downloader>> createDownloaderConstructors() {
     SparseArray<Constructor<? extends Downloader>> array = new SparseArray<>();
@@ -29,8 +29,9 @@ import com.google.android.exoplayer2internal.database.DatabaseProvider;
 import com.google.android.exoplayer2internal.scheduler.Requirements;
 import com.google.android.exoplayer2internal.scheduler.RequirementsWatcher;
 import com.google.android.exoplayer2internal.upstream.DataSource;
+import com.google.android.exoplayer2internal.upstream.RateLimitedDataSource;
+import com.google.android.exoplayer2internal.upstream.TokenBucket;
 import com.google.android.exoplayer2internal.upstream.cache.Cache;
-import com.google.android.exoplayer2internal.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2internal.upstream.cache.CacheEvictor;
 import com.google.android.exoplayer2internal.upstream.cache.NoOpCacheEvictor;
 import com.google.android.exoplayer2internal.util.Assertions;
@@ -170,6 +171,7 @@ public final class DownloadManager {
   private final InternalHandler internalHandler;
   private final RequirementsWatcher.Listener requirementsListener;
   private final CopyOnWriteArraySet<Listener> listeners;
+  @Nullable private final RateLimitedDownloaderFactory rateLimitedDownloaderFactory;
 
   private int pendingMessages;
   private int activeTaskCount;
@@ -222,11 +224,35 @@ public final class DownloadManager {
     this(
         context,
         new DefaultDownloadIndex(databaseProvider),
-        new DefaultDownloaderFactory(
-            new CacheDataSource.Factory()
-                .setCache(cache)
-                .setUpstreamDataSourceFactory(upstreamFactory),
-            executor));
+        new RateLimitedDownloaderFactory(
+            cache, upstreamFactory, executor, /* downloadWorkerPool= */ null));
+  }
+
+  /**
+   * Constructs a {@link DownloadManager}.
+   *
+   * @param context Any context.
+   * @param databaseProvider Provides the SQLite database in which downloads are persisted.
+   * @param cache A cache to be used to store downloaded data. The cache should be configured with
+   *     an {@link CacheEvictor} that will not evict downloaded content, for example {@link
+   *     NoOpCacheEvictor}.
+   * @param upstreamFactory A {@link DataSource.Factory} for creating {@link DataSource}s for
+   *     downloading data.
+   * @param downloadWorkerPool A {@link DownloadWorkerPool} on which the requests of all downloads
+   *     are run. It bounds the number of requests made at the same time, independently of {@link
+   *     #setMaxParallelDownloads(int)}.
+   */
+  public DownloadManager(
+      Context context,
+      DatabaseProvider databaseProvider,
+      Cache cache,
+      DataSource.Factory upstreamFactory,
+      DownloadWorkerPool downloadWorkerPool) {
+    this(
+        context,
+        new DefaultDownloadIndex(databaseProvider),
+        new RateLimitedDownloaderFactory(
+            cache, upstreamFactory, /* executor= */ Runnable::run, downloadWorkerPool));
   }
 
   /**
@@ -240,6 +266,11 @@ public final class DownloadManager {
       Context context, WritableDownloadIndex downloadIndex, DownloaderFactory downloaderFactory) {
     this.context = context.getApplicationContext();
     this.downloadIndex = downloadIndex;
+    // Download rates can only be limited if the downloader factory was created by this class.
+    rateLimitedDownloaderFactory =
+        downloaderFactory instanceof RateLimitedDownloaderFactory
+            ? (RateLimitedDownloaderFactory) downloaderFactory
+            : null;
 
     maxParallelDownloads = DEFAULT_MAX_PARALLEL_DOWNLOADS;
     minRetryCount = DEFAULT_MIN_RETRY_COUNT;
@@ -365,6 +396,66 @@ public final class DownloadManager {
     return maxParallelDownloads;
   }
 
+  /**
+   * Returns the maximum rate at which all downloads together download data, in bytes per second,
+   * or {@link TokenBucket#RATE_UNLIMITED} if it's not limited.
+   */
+  public long getMaxBytesPerSecond() {
+    return rateLimitedDownloaderFactory != null
+        ? rateLimitedDownloaderFactory.getMaxBytesPerSecond()
+        : TokenBucket.RATE_UNLIMITED;
+  }
+
+  /**
+   * Sets the maximum rate at which all downloads together download data. The rate applies to
+   * downloads that are in progress, so it can be changed at any time, for example lowered while
+   * playback is loading and set to {@link TokenBucket#RATE_UNLIMITED} when it isn't.
+   *
+   * <p>Only has an effect if this manager was constructed with an upstream {@link
+   * DataSource.Factory}, rather than a {@link DownloaderFactory}. Otherwise a warning is logged and
+   * the call is ignored. When using a {@link DownloaderFactory}, rates can be limited by wrapping
+   * its upstream in a {@link RateLimitedDataSource}.
+   *
+   * @param maxBytesPerSecond The maximum rate in bytes per second, or {@link
+   *     TokenBucket#RATE_UNLIMITED}. Must be greater than 0.
+   */
+  public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+    if (rateLimitedDownloaderFactory == null) {
+      Log.w(TAG, "Ignoring download rate, as downloads are created by a custom DownloaderFactory.");
+      return;
+    }
+    rateLimitedDownloaderFactory.setMaxBytesPerSecond(maxBytesPerSecond);
+  }
+
+  /**
+   * Returns the maximum rate at which each download downloads data, in bytes per second, or {@link
+   * TokenBucket#RATE_UNLIMITED} if it's not limited.
+   */
+  public long getMaxBytesPerSecondPerDownload() {
+    return rateLimitedDownloaderFactory != null
+        ? rateLimitedDownloaderFactory.getMaxBytesPerSecondPerDownload()
+        : TokenBucket.RATE_UNLIMITED;
+  }
+
+  /**
+   * Sets the maximum rate at which each download downloads data. The rate applies to downloads
+   * that are in progress, so it can be changed at any time.
+   *
+   * <p>Only has an effect if this manager was constructed with an upstream {@link
+   * DataSource.Factory}, rather than a {@link DownloaderFactory}. Otherwise a warning is logged and
+   * the call is ignored.
+   *
+   * @param maxBytesPerSecondPerDownload The maximum rate in bytes per second, or {@link
+   *     TokenBucket#RATE_UNLIMITED}. Must be greater than 0.
+   */
+  public void setMaxBytesPerSecondPerDownload(long maxBytesPerSecondPerDownload) {
+    if (rateLimitedDownloaderFactory == null) {
+      Log.w(TAG, "Ignoring download rate, as downloads are created by a custom DownloaderFactory.");
+      return;
+    }
+    rateLimitedDownloaderFactory.setMaxBytesPerSecondPerDownload(maxBytesPerSecondPerDownload);
+  }
+
   /**
    * Sets the maximum number of parallel downloads.
    *
@@ -1177,14 +1268,20 @@ public final class DownloadManager {
     // Progress updates.
 
     private void updateProgress() {
+      // Write the progress of all downloads together, rather than one at a time. State changes are
+      // written by putDownload on this thread, so they can't be overwritten by a stale batch.
+      ArrayList<Download> downloadingDownloads = new ArrayList<>();
       for (int i = 0; i < downloads.size(); i++) {
         Download download = downloads.get(i);
         if (download.state == Download.STATE_DOWNLOADING) {
-          try {
-            downloadIndex.putDownload(download);
-          } catch (IOException e) {
-            Log.e(TAG, "Failed to update index.", e);
-          }
+          downloadingDownloads.add(download);
+        }
+      }
+      if (!downloadingDownloads.isEmpty()) {
+        try {
+          downloadIndex.putDownloads(downloadingDownloads);
+        } catch (IOException e) {
+          Log.e(TAG, "Failed to update index.", e);
         }
       }
       sendEmptyMessageDelayed(MSG_UPDATE_PROGRESS, UPDATE_PROGRESS_INTERVAL_MS);
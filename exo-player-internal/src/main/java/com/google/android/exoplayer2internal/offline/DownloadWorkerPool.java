@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.offline;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.util.Assertions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the requests of multiple downloads on a shared {@link Executor}, limiting the number of
+ * requests that run at the same time, both in total and to each host.
+ *
+ * <p>Each download submits its requests to its own {@link Executor}, obtained from {@link
+ * #createExecutor()}. Requests of a download are started in the order in which they're submitted.
+ * When a request can be started, it's taken from the download with the fewest running requests
+ * whose next request isn't blocked by the limit for its host, so downloads share the pool fairly
+ * regardless of how many requests they submit.
+ *
+ * <p>The host of a request is known if it implements {@link HostRunnable}. Requests whose host is
+ * unknown are only subject to the total limit.
+ */
+public final class DownloadWorkerPool {
+
+  /** A {@link Runnable} that makes requests to a single host. */
+  public interface HostRunnable extends Runnable {
+
+    /** Returns the host to which requests are made, or {@code null} if it's unknown. */
+    @Nullable
+    String getHost();
+  }
+
+  /** The default maximum number of requests that run at the same time. */
+  public static final int DEFAULT_MAX_RUNNING_TASKS = 8;
+  /** The default maximum number of requests to the same host that run at the same time. */
+  public static final int DEFAULT_MAX_RUNNING_TASKS_PER_HOST = 4;
+
+  private final Executor executor;
+  private final int maxRunningTasks;
+  private final int maxRunningTasksPerHost;
+
+  @GuardedBy("this")
+  private final ArrayDeque<TaskQueue> pendingQueues;
+
+  @GuardedBy("this")
+  private final HashMap<String, Integer> runningTaskCountsByHost;
+
+  @GuardedBy("this")
+  private int runningTaskCount;
+
+  /**
+   * Creates an instance that uses {@link #DEFAULT_MAX_RUNNING_TASKS} and {@link
+   * #DEFAULT_MAX_RUNNING_TASKS_PER_HOST}.
+   *
+   * @param executor The {@link Executor} on which requests are run. It must be able to run {@link
+   *     #DEFAULT_MAX_RUNNING_TASKS} tasks at the same time.
+   */
+  public DownloadWorkerPool(Executor executor) {
+    this(executor, DEFAULT_MAX_RUNNING_TASKS, DEFAULT_MAX_RUNNING_TASKS_PER_HOST);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param executor The {@link Executor} on which requests are run. It must be able to run {@code
+   *     maxRunningTasks} tasks at the same time, for example a fixed thread pool of that size.
+   * @param maxRunningTasks The maximum number of requests that run at the same time.
+   * @param maxRunningTasksPerHost The maximum number of requests to the same host that run at the
+   *     same time.
+   */
+  public DownloadWorkerPool(Executor executor, int maxRunningTasks, int maxRunningTasksPerHost) {
+    Assertions.checkArgument(maxRunningTasks > 0 && maxRunningTasksPerHost > 0);
+    this.executor = executor;
+    this.maxRunningTasks = maxRunningTasks;
+    this.maxRunningTasksPerHost = maxRunningTasksPerHost;
+    pendingQueues = new ArrayDeque<>();
+    runningTaskCountsByHost = new HashMap<>();
+  }
+
+  /**
+   * Returns an {@link Executor} through which a single download submits its requests to the pool.
+   */
+  public Executor createExecutor() {
+    return new TaskQueue();
+  }
+
+  /** Returns the number of requests that are running. */
+  public synchronized int getRunningTaskCount() {
+    return runningTaskCount;
+  }
+
+  private void enqueue(TaskQueue queue, Runnable task) {
+    synchronized (this) {
+      queue.pendingTasks.addLast(task);
+      if (queue.pendingTasks.size() == 1) {
+        pendingQueues.addLast(queue);
+      }
+    }
+    maybeStartTasks();
+  }
+
+  private void onTaskFinished(TaskQueue queue, @Nullable String host) {
+    synchronized (this) {
+      runningTaskCount--;
+      queue.runningTaskCount--;
+      if (host != null) {
+        int hostTaskCount = Assertions.checkNotNull(runningTaskCountsByHost.get(host)) - 1;
+        if (hostTaskCount == 0) {
+          runningTaskCountsByHost.remove(host);
+        } else {
+          runningTaskCountsByHost.put(host, hostTaskCount);
+        }
+      }
+    }
+    maybeStartTasks();
+  }
+
+  private void maybeStartTasks() {
+    ArrayList<Runnable> tasksToStart = new ArrayList<>();
+    synchronized (this) {
+      while (runningTaskCount < maxRunningTasks) {
+        @Nullable TaskQueue queue = selectNextQueue();
+        if (queue == null) {
+          break;
+        }
+        Runnable task = queue.pendingTasks.removeFirst();
+        // Move the queue to the back, so that queues with equal numbers of running tasks take
+        // turns.
+        pendingQueues.remove(queue);
+        if (!queue.pendingTasks.isEmpty()) {
+          pendingQueues.addLast(queue);
+        }
+        @Nullable String host = getHost(task);
+        runningTaskCount++;
+        queue.runningTaskCount++;
+        if (host != null) {
+          @Nullable Integer hostTaskCount = runningTaskCountsByHost.get(host);
+          runningTaskCountsByHost.put(host, hostTaskCount == null ? 1 : hostTaskCount + 1);
+        }
+        tasksToStart.add(
+            () -> {
+              try {
+                task.run();
+              } finally {
+                onTaskFinished(queue, host);
+              }
+            });
+      }
+    }
+    // Tasks are started outside of the lock, in case the executor runs them on the calling thread.
+    for (int i = 0; i < tasksToStart.size(); i++) {
+      executor.execute(tasksToStart.get(i));
+    }
+  }
+
+  /**
+   * Returns the pending queue with the fewest running tasks whose next task can be started without
+   * exceeding the limit for its host, or {@code null} if there isn't one.
+   */
+  @GuardedBy("this")
+  @Nullable
+  private TaskQueue selectNextQueue() {
+    @Nullable TaskQueue selectedQueue = null;
+    for (TaskQueue queue : pendingQueues) {
+      if (selectedQueue != null && queue.runningTaskCount >= selectedQueue.runningTaskCount) {
+        continue;
+      }
+      @Nullable String host = getHost(queue.pendingTasks.getFirst());
+      @Nullable Integer hostTaskCount = host != null ? runningTaskCountsByHost.get(host) : null;
+      if (hostTaskCount == null || hostTaskCount < maxRunningTasksPerHost) {
+        selectedQueue = queue;
+      }
+    }
+    return selectedQueue;
+  }
+
+  @Nullable
+  private static String getHost(Runnable task) {
+    return task instanceof HostRunnable ? ((HostRunnable) task).getHost() : null;
+  }
+
+  private final class TaskQueue implements Executor {
+
+    @GuardedBy("DownloadWorkerPool.this")
+    private final ArrayDeque<Runnable> pendingTasks;
+
+    @GuardedBy("DownloadWorkerPool.this")
+    private int runningTaskCount;
+
+    public TaskQueue() {
+      pendingTasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      enqueue(this, task);
+    }
+  }
+}
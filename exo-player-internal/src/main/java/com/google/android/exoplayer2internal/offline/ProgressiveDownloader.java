@@ -21,31 +21,62 @@ import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.MediaItem;
+import com.google.android.exoplayer2internal.upstream.DataSourceException;
 import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.upstream.cache.Cache;
 import com.google.android.exoplayer2internal.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2internal.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2internal.upstream.cache.ContentMetadata;
 import com.google.android.exoplayer2internal.util.Assertions;
 import com.google.android.exoplayer2internal.util.PriorityTaskManager;
 import com.google.android.exoplayer2internal.util.PriorityTaskManager.PriorityTooLowException;
 import com.google.android.exoplayer2internal.util.RunnableFutureTask;
 import com.google.android.exoplayer2internal.util.Util;
 
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
-
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
-/** A downloader for progressive media streams. */
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A downloader for progressive media streams.
+ *
+ * <p>If the length of the stream is known, or can be determined, the stream is split into byte
+ * ranges that are downloaded into separate cache spans. The ranges are handed to the {@link
+ * Executor} one at a time, so providing an {@link Executor} that uses multiple threads allows them
+ * to be downloaded in parallel. Only the parts of each range that aren't already cached are
+ * requested, so a download that's resumed only fetches the missing data.
+ */
 public final class ProgressiveDownloader implements Downloader {
 
+  /** The minimum length of a byte range that's downloaded separately. */
+  private static final long MIN_RANGE_LENGTH = 4 * 1024 * 1024;
+  /** The maximum number of byte ranges into which a stream is split. */
+  private static final int MAX_RANGE_COUNT = 8;
+
   private final Executor executor;
   private final DataSpec dataSpec;
+  private final CacheDataSource.Factory cacheDataSourceFactory;
   private final CacheDataSource dataSource;
+  private final Cache cache;
+  private final String cacheKey;
   @Nullable private final PriorityTaskManager priorityTaskManager;
+  private final boolean isUpstreamSharedWhilePreempted;
+
+  /**
+   * The currently active runnables.
+   *
+   * <p>Note: Only the {@link #download} thread is permitted to modify this list. Modifications, as
+   * well as the iteration on the {@link #cancel} thread, must be synchronized on the instance for
+   * thread safety. Iterations on the {@link #download} thread do not need to be synchronized, and
+   * should not be synchronized because doing so can erroneously block {@link #cancel}.
+   */
+  private final ArrayList<RunnableFutureTask<?, ?>> activeRunnables;
 
-  @Nullable private ProgressListener progressListener;
-  private volatile @MonotonicNonNull RunnableFutureTask<Void, IOException> downloadRunnable;
   private volatile boolean isCanceled;
 
   /** @deprecated Use {@link #ProgressiveDownloader(MediaItem, CacheDataSource.Factory)} instead. */
@@ -90,9 +121,9 @@ public final class ProgressiveDownloader implements Downloader {
    * @param mediaItem The media item with a uri to the stream to be downloaded.
    * @param cacheDataSourceFactory A {@link CacheDataSource.Factory} for the cache into which the
    *     download will be written.
-   * @param executor An {@link Executor} used to make requests for the media being downloaded. In
-   *     the future, providing an {@link Executor} that uses multiple threads may speed up the
-   *     download by allowing parts of it to be executed in parallel.
+   * @param executor An {@link Executor} used to make requests for the media being downloaded.
+   *     Providing an {@link Executor} that uses multiple threads will speed up the download by
+   *     allowing byte ranges of the stream to be downloaded in parallel.
    */
   public ProgressiveDownloader(
       MediaItem mediaItem, CacheDataSource.Factory cacheDataSourceFactory, Executor executor) {
@@ -104,66 +135,124 @@ public final class ProgressiveDownloader implements Downloader {
             .setKey(mediaItem.playbackProperties.customCacheKey)
             .setFlags(DataSpec.FLAG_ALLOW_CACHE_FRAGMENTATION)
             .build();
+    this.cacheDataSourceFactory = cacheDataSourceFactory;
     dataSource = cacheDataSourceFactory.createDataSourceForDownloading();
+    cache = dataSource.getCache();
+    cacheKey = dataSource.getCacheKeyFactory().buildCacheKey(dataSpec);
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
+    isUpstreamSharedWhilePreempted = cacheDataSourceFactory.getUpstreamPreemptedShare() > 0;
+    activeRunnables = new ArrayList<>();
   }
 
   @Override
   public void download(@Nullable ProgressListener progressListener)
       throws IOException, InterruptedException {
-    this.progressListener = progressListener;
-    if (downloadRunnable == null) {
-      CacheWriter cacheWriter =
-          new CacheWriter(
-              dataSource,
-              dataSpec,
-              /* allowShortContent= */ false,
-              /* temporaryBuffer= */ null,
-              this::onProgress);
-      downloadRunnable =
-          new RunnableFutureTask<Void, IOException>() {
-            @Override
-            protected Void doWork() throws IOException {
-              cacheWriter.cache();
-              return null;
-            }
-
-            @Override
-            protected void cancelWork() {
-              cacheWriter.cancel();
-            }
-          };
-    }
-
+    ArrayDeque<DataSpec> pendingRanges = new ArrayDeque<>();
+    ArrayDeque<RangeDownloadRunnable> recycledRunnables = new ArrayDeque<>();
     if (priorityTaskManager != null) {
       priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
     }
     try {
-      boolean finished = false;
-      while (!finished && !isCanceled) {
-        if (priorityTaskManager != null) {
+      long contentLength = getContentLength();
+      if (contentLength == C.LENGTH_UNSET) {
+        // Open an unbounded request to have the length of the stream stored in the cache.
+        execute(new ContentLengthProbeRunnable());
+        contentLength = getContentLength();
+      }
+
+      // Split the stream into ranges, skipping any that are fully downloaded.
+      if (contentLength == C.LENGTH_UNSET) {
+        pendingRanges.add(dataSpec);
+      } else {
+        long rangeLength =
+            max(MIN_RANGE_LENGTH, (contentLength + MAX_RANGE_COUNT - 1) / MAX_RANGE_COUNT);
+        for (long position = 0; position < contentLength; position += rangeLength) {
+          long length = min(rangeLength, contentLength - position);
+          if (cache.getCachedBytes(cacheKey, position, length) != length) {
+            pendingRanges.add(dataSpec.subrange(position, length));
+          }
+        }
+      }
+
+      // Download the ranges.
+      @Nullable
+      ProgressNotifier progressNotifier =
+          progressListener != null
+              ? new ProgressNotifier(
+                  progressListener,
+                  contentLength,
+                  cache.getCachedBytes(cacheKey, /* position= */ 0, C.LENGTH_UNSET))
+              : null;
+      while (!isCanceled && !pendingRanges.isEmpty()) {
+        // Block until there aren't any higher priority tasks, unless the upstream is shared with
+        // them.
+        if (priorityTaskManager != null && !isUpstreamSharedWhilePreempted) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
         }
+
+        // Create and execute a runnable to download the next range.
+        CacheDataSource rangeDataSource;
+        byte[] temporaryBuffer;
+        if (!recycledRunnables.isEmpty()) {
+          RangeDownloadRunnable recycledRunnable = recycledRunnables.removeFirst();
+          rangeDataSource = recycledRunnable.dataSource;
+          temporaryBuffer = recycledRunnable.temporaryBuffer;
+        } else {
+          rangeDataSource = cacheDataSourceFactory.createDataSourceForDownloading();
+          temporaryBuffer = new byte[CacheWriter.DEFAULT_BUFFER_SIZE_BYTES];
+        }
+        DataSpec range = pendingRanges.removeFirst();
+        RangeDownloadRunnable downloadRunnable =
+            new RangeDownloadRunnable(range, rangeDataSource, progressNotifier, temporaryBuffer);
+        addActiveRunnable(downloadRunnable);
         executor.execute(downloadRunnable);
-        try {
-          downloadRunnable.get();
-          finished = true;
-        } catch (ExecutionException e) {
-          Throwable cause = Assertions.checkNotNull(e.getCause());
-          if (cause instanceof PriorityTooLowException) {
-            // The next loop iteration will block until the task is able to proceed.
-          } else if (cause instanceof IOException) {
-            throw (IOException) cause;
-          } else {
-            // The cause must be an uncaught Throwable type.
-            Util.sneakyThrow(cause);
+
+        // Clean up runnables that have finished.
+        for (int j = activeRunnables.size() - 1; j >= 0; j--) {
+          RangeDownloadRunnable activeRunnable = (RangeDownloadRunnable) activeRunnables.get(j);
+          // Only block until the runnable has finished if we don't have any more pending ranges to
+          // start. If we do have pending ranges to start then only process the runnable if it's
+          // already finished.
+          if (pendingRanges.isEmpty() || activeRunnable.isDone()) {
+            try {
+              activeRunnable.get();
+              removeActiveRunnable(j);
+              recycledRunnables.addLast(activeRunnable);
+            } catch (ExecutionException e) {
+              Throwable cause = Assertions.checkNotNull(e.getCause());
+              if (cause instanceof PriorityTooLowException) {
+                // We need to schedule this range again in a future loop iteration. The parts of it
+                // that were already written to the cache won't be requested again.
+                pendingRanges.addFirst(activeRunnable.range);
+                removeActiveRunnable(j);
+                recycledRunnables.addLast(activeRunnable);
+              } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+              } else {
+                // The cause must be an uncaught Throwable type.
+                Util.sneakyThrow(cause);
+              }
+            }
           }
         }
+
+        // Don't move on to the next range until the runnable for this range has started. This drip
+        // feeds runnables to the executor, rather than providing them all up front.
+        downloadRunnable.blockUntilStarted();
       }
     } finally {
-      // If the main download thread was interrupted as part of cancelation, then it's possible that
-      // the runnable is still doing work. We need to wait until it's finished before returning.
-      downloadRunnable.blockUntilFinished();
+      // If one of the runnables has thrown an exception, then it's possible there are other active
+      // runnables still doing work. We need to wait until they finish before exiting this method.
+      // Cancel them to speed this up.
+      for (int i = 0; i < activeRunnables.size(); i++) {
+        activeRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+      }
+      // Wait until the runnables have finished. In addition to the failure case, we also need to
+      // do this for the case where the main download thread was interrupted as part of cancelation.
+      for (int i = activeRunnables.size() - 1; i >= 0; i--) {
+        activeRunnables.get(i).blockUntilFinished();
+        removeActiveRunnable(i);
+      }
       if (priorityTaskManager != null) {
         priorityTaskManager.remove(C.PRIORITY_DOWNLOAD);
       }
@@ -172,26 +261,185 @@ public final class ProgressiveDownloader implements Downloader {
 
   @Override
   public void cancel() {
-    isCanceled = true;
-    RunnableFutureTask<Void, IOException> downloadRunnable = this.downloadRunnable;
-    if (downloadRunnable != null) {
-      downloadRunnable.cancel(/* interruptIfRunning= */ true);
+    synchronized (activeRunnables) {
+      isCanceled = true;
+      for (int i = 0; i < activeRunnables.size(); i++) {
+        activeRunnables.get(i).cancel(/* interruptIfRunning= */ true);
+      }
     }
   }
 
   @Override
   public void remove() {
-    dataSource.getCache().removeResource(dataSource.getCacheKeyFactory().buildCacheKey(dataSpec));
+    cache.removeResource(cacheKey);
   }
 
-  private void onProgress(long contentLength, long bytesCached, long newBytesCached) {
-    if (progressListener == null) {
-      return;
+  // Internal methods.
+
+  private long getContentLength() {
+    return ContentMetadata.getContentLength(cache.getContentMetadata(cacheKey));
+  }
+
+  /**
+   * Executes the provided {@link RunnableFutureTask}, retrying it for as long as it fails because
+   * of a higher priority task.
+   */
+  private void execute(RunnableFutureTask<Void, IOException> runnable)
+      throws InterruptedException, IOException {
+    while (true) {
+      if (isCanceled) {
+        throw new InterruptedException();
+      }
+      // Block until there aren't any higher priority tasks, unless the upstream is shared with
+      // them.
+      if (priorityTaskManager != null && !isUpstreamSharedWhilePreempted) {
+        priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
+      }
+      addActiveRunnable(runnable);
+      executor.execute(runnable);
+      try {
+        runnable.get();
+        return;
+      } catch (ExecutionException e) {
+        Throwable cause = Assertions.checkNotNull(e.getCause());
+        if (cause instanceof PriorityTooLowException) {
+          // The next loop iteration will block until the task is able to proceed.
+        } else if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else {
+          // The cause must be an uncaught Throwable type.
+          Util.sneakyThrow(cause);
+        }
+      } finally {
+        // We don't want to return for as long as the runnable might still be doing work.
+        runnable.blockUntilFinished();
+        removeActiveRunnable(runnable);
+      }
+    }
+  }
+
+  private void addActiveRunnable(RunnableFutureTask<?, ?> runnable) throws InterruptedException {
+    synchronized (activeRunnables) {
+      if (isCanceled) {
+        throw new InterruptedException();
+      }
+      activeRunnables.add(runnable);
+    }
+  }
+
+  private void removeActiveRunnable(RunnableFutureTask<?, ?> runnable) {
+    synchronized (activeRunnables) {
+      activeRunnables.remove(runnable);
+    }
+  }
+
+  private void removeActiveRunnable(int index) {
+    synchronized (activeRunnables) {
+      activeRunnables.remove(index);
+    }
+  }
+
+  /**
+   * Opens an unbounded request at the first position that isn't cached, and closes it again
+   * without reading any data. This causes the {@link CacheDataSource} to store the length of the
+   * stream in the cache.
+   */
+  private final class ContentLengthProbeRunnable extends RunnableFutureTask<Void, IOException> {
+
+    @Override
+    protected Void doWork() throws IOException {
+      long cachedLength = cache.getCachedLength(cacheKey, /* position= */ 0, C.LENGTH_UNSET);
+      DataSpec probeDataSpec =
+          dataSpec.buildUpon().setPosition(max(0, cachedLength)).setLength(C.LENGTH_UNSET).build();
+      try {
+        dataSource.open(probeDataSpec);
+      } catch (IOException e) {
+        if (!DataSourceException.isCausedByPositionOutOfRange(e)) {
+          throw e;
+        }
+        // The stream may be fully cached. Fall back to downloading it as a single range, which
+        // will determine its length.
+      } finally {
+        Util.closeQuietly(dataSource);
+      }
+      return null;
+    }
+
+    @Override
+    protected void cancelWork() {
+      // Interrupting the thread is sufficient.
+    }
+  }
+
+  private static final class RangeDownloadRunnable extends RunnableFutureTask<Void, IOException>
+      implements DownloadWorkerPool.HostRunnable {
+
+    public final DataSpec range;
+    public final CacheDataSource dataSource;
+    public final byte[] temporaryBuffer;
+    private final CacheWriter cacheWriter;
+
+    public RangeDownloadRunnable(
+        DataSpec range,
+        CacheDataSource dataSource,
+        @Nullable ProgressNotifier progressNotifier,
+        byte[] temporaryBuffer) {
+      this.range = range;
+      this.dataSource = dataSource;
+      this.temporaryBuffer = temporaryBuffer;
+      this.cacheWriter =
+          new CacheWriter(
+              dataSource,
+              range,
+              /* allowShortContent= */ false,
+              temporaryBuffer,
+              progressNotifier);
+    }
+
+    @Override
+    protected Void doWork() throws IOException {
+      cacheWriter.cache();
+      return null;
+    }
+
+    @Override
+    protected void cancelWork() {
+      cacheWriter.cancel();
+    }
+
+    @Override
+    @Nullable
+    public String getHost() {
+      return range.uri.getHost();
+    }
+  }
+
+  private static final class ProgressNotifier implements CacheWriter.ProgressListener {
+
+    private final ProgressListener progressListener;
+
+    private long contentLength;
+    private long bytesCached;
+
+    public ProgressNotifier(
+        ProgressListener progressListener, long contentLength, long bytesCached) {
+      this.progressListener = progressListener;
+      this.contentLength = contentLength;
+      this.bytesCached = bytesCached;
+    }
+
+    @Override
+    public synchronized void onProgress(long requestLength, long bytesCached, long newBytesCached) {
+      if (contentLength == C.LENGTH_UNSET) {
+        // The stream is being downloaded as a single range, whose length is the content length.
+        contentLength = requestLength;
+      }
+      this.bytesCached += newBytesCached;
+      float percentDownloaded =
+          contentLength == C.LENGTH_UNSET || contentLength == 0
+              ? C.PERCENTAGE_UNSET
+              : ((this.bytesCached * 100f) / contentLength);
+      progressListener.onProgress(contentLength, this.bytesCached, percentDownloaded);
     }
-    float percentDownloaded =
-        contentLength == C.LENGTH_UNSET || contentLength == 0
-            ? C.PERCENTAGE_UNSET
-            : ((bytesCached * 100f) / contentLength);
-    progressListener.onProgress(contentLength, bytesCached, percentDownloaded);
   }
 }
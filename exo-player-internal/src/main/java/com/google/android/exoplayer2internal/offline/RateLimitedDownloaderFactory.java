@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.offline;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.upstream.DataSource;
+import com.google.android.exoplayer2internal.upstream.RateLimitedDataSource;
+import com.google.android.exoplayer2internal.upstream.TokenBucket;
+import com.google.android.exoplayer2internal.upstream.cache.Cache;
+import com.google.android.exoplayer2internal.upstream.cache.CacheDataSource;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link DownloaderFactory} that creates {@link Downloader Downloaders} whose upstream reads are
+ * limited by a {@link TokenBucket} shared by all downloads, and by a {@link TokenBucket} of each
+ * download.
+ */
+/* package */ final class RateLimitedDownloaderFactory implements DownloaderFactory {
+
+  private final Cache cache;
+  private final DataSource.Factory upstreamFactory;
+  private final Executor executor;
+  @Nullable private final DownloadWorkerPool downloadWorkerPool;
+  private final TokenBucket tokenBucket;
+
+  /**
+   * The token buckets of downloads that may still be in progress. Buckets are removed when their
+   * downloaders are garbage collected.
+   */
+  @GuardedBy("this")
+  private final Set<TokenBucket> downloadTokenBuckets;
+
+  @GuardedBy("this")
+  private long maxBytesPerSecondPerDownload;
+
+  /**
+   * Creates an instance.
+   *
+   * @param cache The cache into which downloads are written.
+   * @param upstreamFactory A {@link DataSource.Factory} for creating {@link DataSource}s for
+   *     downloading data.
+   * @param executor An {@link Executor} used to download data. Ignored if {@code
+   *     downloadWorkerPool} is set.
+   * @param downloadWorkerPool A {@link DownloadWorkerPool} on which the requests of all downloads
+   *     are run, or {@code null}.
+   */
+  public RateLimitedDownloaderFactory(
+      Cache cache,
+      DataSource.Factory upstreamFactory,
+      Executor executor,
+      @Nullable DownloadWorkerPool downloadWorkerPool) {
+    this.cache = cache;
+    this.upstreamFactory = upstreamFactory;
+    this.executor = executor;
+    this.downloadWorkerPool = downloadWorkerPool;
+    tokenBucket = new TokenBucket();
+    downloadTokenBuckets = Collections.newSetFromMap(new WeakHashMap<>());
+    maxBytesPerSecondPerDownload = TokenBucket.RATE_UNLIMITED;
+  }
+
+  /** Returns the maximum rate of all downloads together, in bytes per second. */
+  public long getMaxBytesPerSecond() {
+    return tokenBucket.getRate();
+  }
+
+  /**
+   * Sets the maximum rate of all downloads together.
+   *
+   * @param maxBytesPerSecond The maximum rate in bytes per second, or {@link
+   *     TokenBucket#RATE_UNLIMITED}.
+   */
+  public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+    tokenBucket.setRate(maxBytesPerSecond);
+  }
+
+  /** Returns the maximum rate of each download, in bytes per second. */
+  public synchronized long getMaxBytesPerSecondPerDownload() {
+    return maxBytesPerSecondPerDownload;
+  }
+
+  /**
+   * Sets the maximum rate of each download, including downloads that are in progress.
+   *
+   * @param maxBytesPerSecondPerDownload The maximum rate in bytes per second, or {@link
+   *     TokenBucket#RATE_UNLIMITED}.
+   */
+  public synchronized void setMaxBytesPerSecondPerDownload(long maxBytesPerSecondPerDownload) {
+    this.maxBytesPerSecondPerDownload = maxBytesPerSecondPerDownload;
+    for (TokenBucket downloadTokenBucket : downloadTokenBuckets) {
+      downloadTokenBucket.setRate(maxBytesPerSecondPerDownload);
+    }
+  }
+
+  @Override
+  public Downloader createDownloader(DownloadRequest request) {
+    TokenBucket downloadTokenBucket;
+    synchronized (this) {
+      downloadTokenBucket = new TokenBucket(maxBytesPerSecondPerDownload);
+      downloadTokenBuckets.add(downloadTokenBucket);
+    }
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(
+                new RateLimitedDataSource.Factory(
+                    upstreamFactory, tokenBucket, downloadTokenBucket));
+    DefaultDownloaderFactory downloaderFactory =
+        downloadWorkerPool != null
+            ? new DefaultDownloaderFactory(cacheDataSourceFactory, downloadWorkerPool)
+            : new DefaultDownloaderFactory(cacheDataSourceFactory, executor);
+    return downloaderFactory.createDownloader(request);
+  }
+}
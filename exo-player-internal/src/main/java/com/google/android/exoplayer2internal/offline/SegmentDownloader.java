@@ -18,6 +18,7 @@ package com.google.android.exoplayer2internal.offline;
 import android.net.Uri;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.MediaItem;
@@ -30,9 +31,11 @@ import com.google.android.exoplayer2internal.upstream.cache.CacheKeyFactory;
 import com.google.android.exoplayer2internal.upstream.cache.CacheWriter;
 import com.google.android.exoplayer2internal.upstream.cache.ContentMetadata;
 import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.Clock;
 import com.google.android.exoplayer2internal.util.PriorityTaskManager;
 import com.google.android.exoplayer2internal.util.PriorityTaskManager.PriorityTooLowException;
 import com.google.android.exoplayer2internal.util.RunnableFutureTask;
+import com.google.android.exoplayer2internal.util.SlidingPercentile;
 import com.google.android.exoplayer2internal.util.Util;
 
 import java.io.IOException;
@@ -40,6 +43,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -47,6 +51,11 @@ import java.util.concurrent.Executor;
 /**
  * Base class for multi segment stream downloaders.
  *
+ * <p>Small segments with known lengths that are requested from the same host are downloaded in
+ * batches, one after another through the same {@link DataSource}, so that consecutive requests can
+ * reuse its connection and aren't each scheduled separately. Batches are sized so that each takes
+ * roughly two seconds to download at the throughput observed for previous batches.
+ *
  * @param <M> The type of the manifest object.
  */
 public abstract class SegmentDownloader<M extends FilterableManifest<M>> implements Downloader {
@@ -74,6 +83,19 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
 
   private static final int BUFFER_SIZE_BYTES = 128 * 1024;
   private static final long MAX_MERGED_SEGMENT_START_TIME_DIFF_US = 20 * C.MICROS_PER_SECOND;
+  /** The duration that downloading a batch of segments should take, in milliseconds. */
+  private static final long TARGET_BATCH_DURATION_MS = 2000;
+  /** The maximum length of a batch of segments, in bytes, before any throughput is observed. */
+  private static final long DEFAULT_MAX_BATCH_LENGTH = 1024 * 1024;
+  /** The maximum number of segments in a batch. */
+  private static final int MAX_SEGMENTS_PER_BATCH = 32;
+  /**
+   * The maximum number of pending segments that are checked for segments that can be added to a
+   * batch.
+   */
+  private static final int MAX_BATCH_LOOKAHEAD_SEGMENTS = 2 * MAX_SEGMENTS_PER_BATCH;
+  /** The maximum weight of the throughput samples, which are weighted by their square root. */
+  private static final int THROUGHPUT_SLIDING_WINDOW_MAX_WEIGHT = 2000;
 
   private final DataSpec manifestDataSpec;
   private final ParsingLoadable.Parser<M> manifestParser;
@@ -82,6 +104,7 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
   private final Cache cache;
   private final CacheKeyFactory cacheKeyFactory;
   @Nullable private final PriorityTaskManager priorityTaskManager;
+  private final boolean isUpstreamSharedWhilePreempted;
   private final Executor executor;
 
   /**
@@ -94,6 +117,10 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
    */
   private final ArrayList<RunnableFutureTask<?, ?>> activeRunnables;
 
+  /** The throughput of previous batches in bits per second. Only used on the download thread. */
+  private final SlidingPercentile throughputPercentile;
+
+  private Clock clock;
   private volatile boolean isCanceled;
 
   /**
@@ -119,7 +146,16 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     cache = Assertions.checkNotNull(cacheDataSourceFactory.getCache());
     cacheKeyFactory = cacheDataSourceFactory.getCacheKeyFactory();
     priorityTaskManager = cacheDataSourceFactory.getUpstreamPriorityTaskManager();
+    isUpstreamSharedWhilePreempted = cacheDataSourceFactory.getUpstreamPreemptedShare() > 0;
     activeRunnables = new ArrayList<>();
+    throughputPercentile = new SlidingPercentile(THROUGHPUT_SLIDING_WINDOW_MAX_WEIGHT);
+    clock = Clock.DEFAULT;
+  }
+
+  /** Sets the {@link Clock} used to measure the throughput of batches of segments. */
+  @VisibleForTesting
+  /* package */ final void setClock(Clock clock) {
+    this.clock = clock;
   }
 
   @Override
@@ -190,12 +226,13 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
               : null;
       pendingSegments.addAll(segments);
       while (!isCanceled && !pendingSegments.isEmpty()) {
-        // Block until there aren't any higher priority tasks.
-        if (priorityTaskManager != null) {
+        // Block until there aren't any higher priority tasks, unless the upstream is shared with
+        // them.
+        if (priorityTaskManager != null && !isUpstreamSharedWhilePreempted) {
           priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
         }
 
-        // Create and execute a runnable to download the next segment.
+        // Create and execute a runnable to download the next batch of segments.
         CacheDataSource segmentDataSource;
         byte[] temporaryBuffer;
         if (!recycledRunnables.isEmpty()) {
@@ -206,10 +243,10 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
           segmentDataSource = cacheDataSourceFactory.createDataSourceForDownloading();
           temporaryBuffer = new byte[BUFFER_SIZE_BYTES];
         }
-        Segment segment = pendingSegments.removeFirst();
+        List<Segment> batch = removeSegmentBatch(pendingSegments);
         SegmentDownloadRunnable downloadRunnable =
             new SegmentDownloadRunnable(
-                segment, segmentDataSource, progressNotifier, temporaryBuffer);
+                batch, segmentDataSource, progressNotifier, temporaryBuffer, clock);
         addActiveRunnable(downloadRunnable);
         executor.execute(downloadRunnable);
 
@@ -224,11 +261,16 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
               activeRunnable.get();
               removeActiveRunnable(j);
               recycledRunnables.addLast(activeRunnable);
+              onBatchDownloaded(activeRunnable);
             } catch (ExecutionException e) {
               Throwable cause = Assertions.checkNotNull(e.getCause());
               if (cause instanceof PriorityTooLowException) {
-                // We need to schedule this segment again in a future loop iteration.
-                pendingSegments.addFirst(activeRunnable.segment);
+                // We need to schedule the segments that weren't downloaded again in a future loop
+                // iteration.
+                List<Segment> remainingSegments = activeRunnable.getRemainingSegments();
+                for (int k = remainingSegments.size() - 1; k >= 0; k--) {
+                  pendingSegments.addFirst(remainingSegments.get(k));
+                }
                 removeActiveRunnable(j);
                 recycledRunnables.addLast(activeRunnable);
               } else if (cause instanceof IOException) {
@@ -345,8 +387,9 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
       if (isCanceled) {
         throw new InterruptedException();
       }
-      // Block until there aren't any higher priority tasks.
-      if (priorityTaskManager != null) {
+      // Block until there aren't any higher priority tasks, unless the upstream is shared with
+      // them.
+      if (priorityTaskManager != null && !isUpstreamSharedWhilePreempted) {
         priorityTaskManager.proceed(C.PRIORITY_DOWNLOAD);
       }
       addActiveRunnable(runnable);
@@ -413,6 +456,61 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
     }
   }
 
+  /**
+   * Removes and returns the next batch of segments to download. The batch consists of the first
+   * pending segment, followed by pending segments with known lengths that are requested from the
+   * same host, for as long as the total length of the batch doesn't exceed {@link
+   * #getMaxBatchLength()}.
+   */
+  private List<Segment> removeSegmentBatch(ArrayDeque<Segment> pendingSegments) {
+    Segment firstSegment = pendingSegments.removeFirst();
+    ArrayList<Segment> batch = new ArrayList<>();
+    batch.add(firstSegment);
+    long batchLength = firstSegment.dataSpec.length;
+    if (batchLength == C.LENGTH_UNSET) {
+      return batch;
+    }
+    long maxBatchLength = getMaxBatchLength();
+    @Nullable String host = firstSegment.dataSpec.uri.getHost();
+    Iterator<Segment> iterator = pendingSegments.iterator();
+    for (int i = 0; i < MAX_BATCH_LOOKAHEAD_SEGMENTS && iterator.hasNext(); i++) {
+      Segment segment = iterator.next();
+      if (!Util.areEqual(host, segment.dataSpec.uri.getHost())) {
+        // Leave the segment for a batch of its own host.
+        continue;
+      }
+      long segmentLength = segment.dataSpec.length;
+      if (segmentLength == C.LENGTH_UNSET || batchLength + segmentLength > maxBatchLength) {
+        break;
+      }
+      iterator.remove();
+      batch.add(segment);
+      batchLength += segmentLength;
+      if (batch.size() == MAX_SEGMENTS_PER_BATCH) {
+        break;
+      }
+    }
+    return batch;
+  }
+
+  /** Returns the maximum length of a batch of segments, in bytes. */
+  private long getMaxBatchLength() {
+    float bitsPerSecond = throughputPercentile.getPercentile(0.5f);
+    if (Float.isNaN(bitsPerSecond)) {
+      return DEFAULT_MAX_BATCH_LENGTH;
+    }
+    return (long) (bitsPerSecond * TARGET_BATCH_DURATION_MS / 8000);
+  }
+
+  private void onBatchDownloaded(SegmentDownloadRunnable runnable) {
+    long bytesDownloaded = runnable.getBytesDownloaded();
+    long durationMs = runnable.getDurationMs();
+    if (bytesDownloaded > 0 && durationMs > 0) {
+      float bitsPerSecond = (bytesDownloaded * 8000f) / durationMs;
+      throughputPercentile.addSample((int) Math.sqrt(bytesDownloaded), bitsPerSecond);
+    }
+  }
+
   private static void mergeSegments(List<Segment> segments, CacheKeyFactory keyFactory) {
     HashMap<String, Integer> lastIndexByCacheKey = new HashMap<>();
     int nextOutIndex = 0;
@@ -451,44 +549,98 @@ public abstract class SegmentDownloader<M extends FilterableManifest<M>> impleme
         && dataSpec1.httpRequestHeaders.equals(dataSpec2.httpRequestHeaders);
   }
 
-  private static final class SegmentDownloadRunnable extends RunnableFutureTask<Void, IOException> {
+  private static final class SegmentDownloadRunnable extends RunnableFutureTask<Void, IOException>
+      implements DownloadWorkerPool.HostRunnable, CacheWriter.ProgressListener {
 
-    public final Segment segment;
+    public final List<Segment> segments;
     public final CacheDataSource dataSource;
     @Nullable private final ProgressNotifier progressNotifier;
     public final byte[] temporaryBuffer;
-    private final CacheWriter cacheWriter;
+    private final Clock clock;
+
+    @Nullable private volatile CacheWriter cacheWriter;
+    private volatile boolean isCanceled;
+    private volatile int downloadedSegmentCount;
+    private long bytesDownloaded;
+    private long durationMs;
 
     public SegmentDownloadRunnable(
-        Segment segment,
+        List<Segment> segments,
         CacheDataSource dataSource,
         @Nullable ProgressNotifier progressNotifier,
-        byte[] temporaryBuffer) {
-      this.segment = segment;
+        byte[] temporaryBuffer,
+        Clock clock) {
+      this.segments = segments;
       this.dataSource = dataSource;
       this.progressNotifier = progressNotifier;
       this.temporaryBuffer = temporaryBuffer;
-      this.cacheWriter =
-          new CacheWriter(
-              dataSource,
-              segment.dataSpec,
-              /* allowShortContent= */ false,
-              temporaryBuffer,
-              progressNotifier);
+      this.clock = clock;
+    }
+
+    /** Returns the segments that haven't been fully downloaded. */
+    public List<Segment> getRemainingSegments() {
+      return segments.subList(downloadedSegmentCount, segments.size());
+    }
+
+    /** Returns the number of bytes that were downloaded. Must only be called once done. */
+    public long getBytesDownloaded() {
+      return bytesDownloaded;
+    }
+
+    /** Returns the time taken to download the segments. Must only be called once done. */
+    public long getDurationMs() {
+      return durationMs;
     }
 
     @Override
     protected Void doWork() throws IOException {
-      cacheWriter.cache();
-      if (progressNotifier != null) {
-        progressNotifier.onSegmentDownloaded();
+      long startTimeMs = clock.elapsedRealtime();
+      for (int i = downloadedSegmentCount; i < segments.size(); i++) {
+        CacheWriter cacheWriter =
+            new CacheWriter(
+                dataSource,
+                segments.get(i).dataSpec,
+                /* allowShortContent= */ false,
+                temporaryBuffer,
+                /* progressListener= */ this);
+        this.cacheWriter = cacheWriter;
+        if (isCanceled) {
+          // The runnable was canceled before the writer was assigned.
+          cacheWriter.cancel();
+        }
+        cacheWriter.cache();
+        downloadedSegmentCount++;
+        if (progressNotifier != null) {
+          progressNotifier.onSegmentDownloaded();
+        }
       }
+      durationMs = clock.elapsedRealtime() - startTimeMs;
       return null;
     }
 
     @Override
     protected void cancelWork() {
-      cacheWriter.cancel();
+      isCanceled = true;
+      @Nullable CacheWriter cacheWriter = this.cacheWriter;
+      if (cacheWriter != null) {
+        cacheWriter.cancel();
+      }
+    }
+
+    @Override
+    @Nullable
+    public String getHost() {
+      return segments.get(0).dataSpec.uri.getHost();
+    }
+
+    // CacheWriter.ProgressListener implementation.
+
+    @Override
+    public void onProgress(long requestLength, long bytesCached, long newBytesCached) {
+      bytesDownloaded += newBytesCached;
+      if (progressNotifier != null) {
+        progressNotifier.onProgress(requestLength, bytesCached, newBytesCached);
+      }
     }
   }
 
@@ -18,6 +18,7 @@ package com.google.android.exoplayer2internal.offline;
 import androidx.annotation.WorkerThread;
 
 import java.io.IOException;
+import java.util.List;
 
 /** A writable index of {@link Download Downloads}. */
 @WorkerThread
@@ -33,6 +34,22 @@ public interface WritableDownloadIndex extends DownloadIndex {
    */
   void putDownload(Download download) throws IOException;
 
+  /**
+   * Adds or replaces multiple {@link Download Downloads}. Implementations may write them together,
+   * which is cheaper than calling {@link #putDownload(Download)} for each. The default
+   * implementation calls {@link #putDownload(Download)} for each download.
+   *
+   * <p>This method may be slow and shouldn't normally be called on the main thread.
+   *
+   * @param downloads The {@link Download Downloads} to be added.
+   * @throws IOException If an error occurs setting the state.
+   */
+  default void putDownloads(List<Download> downloads) throws IOException {
+    for (int i = 0; i < downloads.size(); i++) {
+      putDownload(downloads.get(i));
+    }
+  }
+
   /**
    * Removes the download with the given ID. Does nothing if a download with the given ID does not
    * exist.
@@ -20,12 +20,12 @@ import android.net.Uri;
 import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2internal.C;
-import com.google.android.exoplayer2internal.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2internal.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.Extractor;
-import com.google.android.exoplayer2internal.extractor.ExtractorInput;
 import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
 import com.google.android.exoplayer2internal.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
+import com.google.android.exoplayer2internal.extractor.RingBufferExtractorInput;
 import com.google.android.exoplayer2internal.extractor.mp3.Mp3Extractor;
 import com.google.android.exoplayer2internal.upstream.DataReader;
 import com.google.android.exoplayer2internal.util.Assertions;
@@ -42,10 +42,16 @@ import java.util.Map;
  */
 /* package */ final class BundledExtractorsAdapter implements ProgressiveMediaExtractor {
 
+  /**
+   * The number of bytes read into the input before sniffing, which covers the search range of all
+   * extractors in {@link DefaultExtractorsFactory} except {@link Mp3Extractor}.
+   */
+  private static final int SNIFF_PREFETCH_LENGTH = 8 * 1024;
+
   private final ExtractorsFactory extractorsFactory;
 
   @Nullable private Extractor extractor;
-  @Nullable private ExtractorInput extractorInput;
+  @Nullable private RingBufferExtractorInput extractorInput;
 
   /**
    * Creates a holder that will select an extractor and initialize it using the specified output.
@@ -65,8 +71,14 @@ import java.util.Map;
       long length,
       ExtractorOutput output)
       throws IOException {
-    ExtractorInput extractorInput = new DefaultExtractorInput(dataReader, position, length);
-    this.extractorInput = extractorInput;
+    // Reuse the input across loads, so that its peek buffer is only allocated once.
+    RingBufferExtractorInput extractorInput = this.extractorInput;
+    if (extractorInput == null) {
+      extractorInput = new RingBufferExtractorInput(dataReader, position, length);
+      this.extractorInput = extractorInput;
+    } else {
+      extractorInput.reset(dataReader, position, length);
+    }
     if (extractor != null) {
       return;
     }
@@ -74,7 +86,14 @@ import java.util.Map;
     if (extractors.length == 1) {
       this.extractor = extractors[0];
     } else {
-      for (Extractor extractor : extractors) {
+      for (int i = 0; i < extractors.length; i++) {
+        Extractor extractor = extractors[i];
+        if (i == 1) {
+          // The most likely extractor didn't match. Read the start of the stream once, so that the
+          // remaining extractors sniff the same buffered data rather than extending it with small
+          // reads from upstream.
+          extractorInput.prefetch(SNIFF_PREFETCH_LENGTH);
+        }
         try {
           if (extractor.sniff(extractorInput)) {
             this.extractor = extractor;
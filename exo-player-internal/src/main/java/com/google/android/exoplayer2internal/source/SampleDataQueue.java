@@ -23,6 +23,7 @@ import com.google.android.exoplayer2internal.decoder.DecoderInputBuffer;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
 import com.google.android.exoplayer2internal.upstream.Allocation;
 import com.google.android.exoplayer2internal.upstream.Allocator;
+import com.google.android.exoplayer2internal.upstream.ByteBufferDataReader;
 import com.google.android.exoplayer2internal.upstream.DataReader;
 import com.google.android.exoplayer2internal.util.ParsableByteArray;
 import com.google.android.exoplayer2internal.util.Util;
@@ -34,7 +35,13 @@ import java.util.Arrays;
 
 import static java.lang.Math.min;
 
-/** A queue of media sample data. */
+/**
+ * A queue of media sample data.
+ *
+ * <p>The queue supports {@link Allocation}s backed by either heap arrays or direct buffers. When
+ * they're backed by direct buffers, sample data is copied from direct memory straight into the
+ * {@link DecoderInputBuffer}, whose data is typically also a direct buffer.
+ */
 /* package */ class SampleDataQueue {
 
   private static final int INITIAL_SCRATCH_SIZE = 32;
@@ -43,6 +50,10 @@ import static java.lang.Math.min;
   private final int allocationLength;
   private final ParsableByteArray scratch;
 
+  // Used by the loading thread to read from a DataReader into direct buffer allocations, if the
+  // DataReader can't read into them directly.
+  @Nullable private byte[] writeScratch;
+
   // References into the linked list of allocations.
   private AllocationNode firstAllocationNode;
   private AllocationNode readAllocationNode;
@@ -182,11 +193,25 @@ import static java.lang.Math.min;
 
   public int sampleData(DataReader input, int length, boolean allowEndOfInput) throws IOException {
     length = preAppend(length);
-    int bytesAppended =
-        input.read(
-            writeAllocationNode.allocation.data,
-            writeAllocationNode.translateOffset(totalBytesWritten),
-            length);
+    Allocation allocation = writeAllocationNode.allocation;
+    int offset = writeAllocationNode.translateOffset(totalBytesWritten);
+    int bytesAppended;
+    if (allocation.buffer == null) {
+      bytesAppended = input.read(allocation.data, offset, length);
+    } else {
+      bytesAppended = readIntoBuffer(input, allocation.buffer, offset, length);
+      if (bytesAppended == ByteBufferDataReader.RESULT_UNSUPPORTED) {
+        // The input can't read into the buffer directly, so read via a scratch array.
+        if (writeScratch == null) {
+          writeScratch = new byte[allocationLength];
+        }
+        bytesAppended = input.read(writeScratch, /* offset= */ 0, length);
+        if (bytesAppended != C.RESULT_END_OF_INPUT) {
+          allocation.buffer.position(offset);
+          allocation.buffer.put(writeScratch, /* offset= */ 0, bytesAppended);
+        }
+      }
+    }
     if (bytesAppended == C.RESULT_END_OF_INPUT) {
       if (allowEndOfInput) {
         return C.RESULT_END_OF_INPUT;
@@ -200,10 +225,14 @@ import static java.lang.Math.min;
   public void sampleData(ParsableByteArray buffer, int length) {
     while (length > 0) {
       int bytesAppended = preAppend(length);
-      buffer.readBytes(
-          writeAllocationNode.allocation.data,
-          writeAllocationNode.translateOffset(totalBytesWritten),
-          bytesAppended);
+      Allocation allocation = writeAllocationNode.allocation;
+      int offset = writeAllocationNode.translateOffset(totalBytesWritten);
+      if (allocation.buffer == null) {
+        buffer.readBytes(allocation.data, offset, bytesAppended);
+      } else {
+        allocation.buffer.position(offset);
+        buffer.readBytes(allocation.buffer, bytesAppended);
+      }
       length -= bytesAppended;
       postAppend(bytesAppended);
     }
@@ -309,7 +338,15 @@ import static java.lang.Math.min;
     while (remaining > 0) {
       int toCopy = min(remaining, (int) (readAllocationNode.endPosition - absolutePosition));
       Allocation allocation = readAllocationNode.allocation;
-      target.put(allocation.data, readAllocationNode.translateOffset(absolutePosition), toCopy);
+      int offset = readAllocationNode.translateOffset(absolutePosition);
+      @Nullable ByteBuffer readView = readAllocationNode.readView;
+      if (readView == null) {
+        target.put(allocation.data, offset, toCopy);
+      } else {
+        readView.limit(offset + toCopy);
+        readView.position(offset);
+        target.put(readView);
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == readAllocationNode.endPosition) {
@@ -331,12 +368,15 @@ import static java.lang.Math.min;
     while (remaining > 0) {
       int toCopy = min(remaining, (int) (readAllocationNode.endPosition - absolutePosition));
       Allocation allocation = readAllocationNode.allocation;
-      System.arraycopy(
-          allocation.data,
-          readAllocationNode.translateOffset(absolutePosition),
-          target,
-          length - remaining,
-          toCopy);
+      int offset = readAllocationNode.translateOffset(absolutePosition);
+      @Nullable ByteBuffer readView = readAllocationNode.readView;
+      if (readView == null) {
+        System.arraycopy(allocation.data, offset, target, length - remaining, toCopy);
+      } else {
+        readView.limit(readView.capacity());
+        readView.position(offset);
+        readView.get(target, length - remaining, toCopy);
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == readAllocationNode.endPosition) {
@@ -381,6 +421,33 @@ import static java.lang.Math.min;
     allocator.release(allocationsToRelease);
   }
 
+  /**
+   * Reads from {@code input} straight into the allocated space of a direct buffer, if {@code input}
+   * is a {@link ByteBufferDataReader}.
+   *
+   * @param input The {@link DataReader} from which to read.
+   * @param buffer The direct buffer of the {@link Allocation} being written.
+   * @param offset The offset in {@code buffer} at which to write.
+   * @param length The maximum number of bytes to read.
+   * @return The number of bytes read, {@link C#RESULT_END_OF_INPUT} if the input has ended, or
+   *     {@link ByteBufferDataReader#RESULT_UNSUPPORTED} if nothing was read because the data must
+   *     be read into an array instead.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  private static int readIntoBuffer(DataReader input, ByteBuffer buffer, int offset, int length)
+      throws IOException {
+    if (!(input instanceof ByteBufferDataReader)) {
+      return ByteBufferDataReader.RESULT_UNSUPPORTED;
+    }
+    buffer.limit(offset + length);
+    buffer.position(offset);
+    try {
+      return ((ByteBufferDataReader) input).read(buffer);
+    } finally {
+      buffer.limit(buffer.capacity());
+    }
+  }
+
   /**
    * Called before writing sample data to {@link #writeAllocationNode}. May cause {@link
    * #writeAllocationNode} to be initialized.
@@ -421,6 +488,12 @@ import static java.lang.Math.min;
     public boolean wasInitialized;
     /** The {@link Allocation}, or {@code null} if the node is not initialized. */
     @Nullable public Allocation allocation;
+    /**
+     * A duplicate of the {@link #allocation}'s {@link Allocation#buffer} for use by the consuming
+     * thread, so that it doesn't modify the position of the buffer being written by the loading
+     * thread. {@code null} if the allocation isn't backed by a buffer.
+     */
+    @Nullable public ByteBuffer readView;
     /**
      * The next {@link AllocationNode} in the list, or {@code null} if the node has not been
      * initialized. Remains set after {@link #clear()}.
@@ -445,6 +518,7 @@ import static java.lang.Math.min;
      */
     public void initialize(Allocation allocation, AllocationNode next) {
       this.allocation = allocation;
+      readView = allocation.buffer != null ? allocation.buffer.duplicate() : null;
       this.next = next;
       wasInitialized = true;
     }
@@ -467,6 +541,7 @@ import static java.lang.Math.min;
      */
     public AllocationNode clear() {
       allocation = null;
+      readView = null;
       AllocationNode temp = next;
       next = null;
       return temp;
@@ -15,8 +15,14 @@
  */
 package com.google.android.exoplayer2internal.upstream;
 
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.util.Util;
+
+import java.nio.ByteBuffer;
+
 /**
- * An allocation within a byte array.
+ * An allocation within a byte array, or within a direct {@link ByteBuffer}.
  * <p>
  * The allocation's length is obtained by calling {@link Allocator#getIndividualAllocationLength()}
  * on the {@link Allocator} from which it was obtained.
@@ -25,10 +31,21 @@ public final class Allocation {
 
   /**
    * The array containing the allocated space. The allocated space might not be at the start of the
-   * array, and so {@link #offset} must be used when indexing into it.
+   * array, and so {@link #offset} must be used when indexing into it. Empty if the allocation is
+   * backed by a {@link #buffer}.
    */
   public final byte[] data;
 
+  /**
+   * The direct buffer containing the allocated space, or {@code null} if the allocation is backed
+   * by {@link #data}. The allocated space spans the whole capacity of the buffer, and {@link
+   * #offset} is always 0.
+   *
+   * <p>The position and limit of the buffer may be modified by whoever holds the allocation. Any
+   * other thread reading from the allocation should do so through a {@link ByteBuffer#duplicate()}.
+   */
+  @Nullable public final ByteBuffer buffer;
+
   /**
    * The offset of the allocated space in {@link #data}.
    */
@@ -41,6 +58,17 @@ public final class Allocation {
   public Allocation(byte[] data, int offset) {
     this.data = data;
     this.offset = offset;
+    buffer = null;
+  }
+
+  /**
+   * @param buffer The direct buffer containing the allocated space, which spans its whole
+   *     capacity.
+   */
+  public Allocation(ByteBuffer buffer) {
+    this.buffer = buffer;
+    data = Util.EMPTY_BYTE_ARRAY;
+    offset = 0;
   }
 
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import com.google.android.exoplayer2internal.C;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataReader} that may be able to read into a {@link ByteBuffer}, which may be direct,
+ * without copying the data through an intermediate array.
+ */
+public interface ByteBufferDataReader extends DataReader {
+
+  /**
+   * Returned by {@link #read(ByteBuffer)} if the data at the current position can't be read into a
+   * {@link ByteBuffer} without an intermediate copy, in which case {@link #read(byte[], int, int)}
+   * should be used instead.
+   */
+  int RESULT_UNSUPPORTED = -2;
+
+  /**
+   * Reads up to {@link ByteBuffer#remaining()} bytes of data into {@code target}, advancing its
+   * position by the number of bytes read. Otherwise behaves like {@link #read(byte[], int, int)}.
+   *
+   * @param target The buffer into which data should be written.
+   * @return The number of bytes read, {@link C#RESULT_END_OF_INPUT} if the input has ended, or
+   *     {@link #RESULT_UNSUPPORTED} if nothing was read because the data at the current position
+   *     can't be read into a {@link ByteBuffer} directly.
+   * @throws IOException If an error occurs reading from the input.
+   */
+  int read(ByteBuffer target) throws IOException;
+}
@@ -22,24 +22,46 @@ import com.google.android.exoplayer2internal.util.Util;
 
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /**
  * Default implementation of {@link Allocator}.
+ *
+ * <p>By default all operations synchronize on the allocator. If thread local caches are enabled,
+ * each thread allocates from and releases to its own magazine of {@link Allocation}s instead. Full
+ * magazines are exchanged between threads through a lock-free depot, so a loading thread that
+ * allocates and a playback thread that releases don't contend for a monitor.
+ *
+ * <p>Allocations are backed by heap arrays by default. They can instead be backed by direct {@link
+ * ByteBuffer}s, which keeps buffered media off the Java heap.
  */
 public final class DefaultAllocator implements Allocator {
 
   private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+  /** The number of {@link Allocation}s held by each thread local magazine. */
+  private static final int MAGAZINE_CAPACITY = 16;
 
   private final boolean trimOnReset;
   private final int individualAllocationSize;
+  private final boolean useDirectBuffers;
   @Nullable private final byte[] initialAllocationBlock;
+  private final Set<Allocation> initialBufferAllocations;
   private final Allocation[] singleAllocationReleaseHolder;
+  private final AtomicInteger allocatedCount;
+  @Nullable private final ThreadLocal<Magazine> magazines;
+  private final ConcurrentLinkedQueue<Allocation[]> fullMagazines;
 
   private int targetBufferSize;
-  private int allocatedCount;
   private int availableCount;
   private @NullableType Allocation[] availableAllocations;
 
@@ -66,13 +88,81 @@ public final class DefaultAllocator implements Allocator {
    */
   public DefaultAllocator(boolean trimOnReset, int individualAllocationSize,
       int initialAllocationCount) {
+    this(
+        trimOnReset,
+        individualAllocationSize,
+        initialAllocationCount,
+        /* useThreadLocalCaches= */ false);
+  }
+
+  /**
+   * Constructs an instance with some {@link Allocation}s created up front.
+   *
+   * <p>Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front.
+   * @param useThreadLocalCaches Whether {@link #allocate()} and {@link #release} should use thread
+   *     local magazines rather than synchronizing on the allocator. Up to {@code 16} available
+   *     allocations per thread are held in these magazines, and are not discarded by {@link
+   *     #trim()}.
+   */
+  public DefaultAllocator(
+      boolean trimOnReset,
+      int individualAllocationSize,
+      int initialAllocationCount,
+      boolean useThreadLocalCaches) {
+    this(
+        trimOnReset,
+        individualAllocationSize,
+        initialAllocationCount,
+        useThreadLocalCaches,
+        /* useDirectBuffers= */ false);
+  }
+
+  /**
+   * Constructs an instance with some {@link Allocation}s created up front.
+   *
+   * <p>Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front.
+   * @param useThreadLocalCaches Whether {@link #allocate()} and {@link #release} should use thread
+   *     local magazines rather than synchronizing on the allocator. Up to {@code 16} available
+   *     allocations per thread are held in these magazines, and are not discarded by {@link
+   *     #trim()}.
+   * @param useDirectBuffers Whether {@link Allocation}s should be backed by direct {@link
+   *     ByteBuffer}s, as described by {@link Allocation#buffer}, rather than by heap arrays.
+   */
+  public DefaultAllocator(
+      boolean trimOnReset,
+      int individualAllocationSize,
+      int initialAllocationCount,
+      boolean useThreadLocalCaches,
+      boolean useDirectBuffers) {
     Assertions.checkArgument(individualAllocationSize > 0);
     Assertions.checkArgument(initialAllocationCount >= 0);
     this.trimOnReset = trimOnReset;
     this.individualAllocationSize = individualAllocationSize;
+    this.useDirectBuffers = useDirectBuffers;
     this.availableCount = initialAllocationCount;
     this.availableAllocations = new Allocation[initialAllocationCount + AVAILABLE_EXTRA_CAPACITY];
-    if (initialAllocationCount > 0) {
+    initialBufferAllocations = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (initialAllocationCount > 0 && useDirectBuffers) {
+      initialAllocationBlock = null;
+      ByteBuffer block = ByteBuffer.allocateDirect(initialAllocationCount * individualAllocationSize);
+      for (int i = 0; i < initialAllocationCount; i++) {
+        block.position(i * individualAllocationSize);
+        block.limit(block.position() + individualAllocationSize);
+        Allocation allocation = new Allocation(block.slice());
+        initialBufferAllocations.add(allocation);
+        availableAllocations[i] = allocation;
+      }
+    } else if (initialAllocationCount > 0) {
       initialAllocationBlock = new byte[initialAllocationCount * individualAllocationSize];
       for (int i = 0; i < initialAllocationCount; i++) {
         int allocationOffset = i * individualAllocationSize;
@@ -82,6 +172,17 @@ public final class DefaultAllocator implements Allocator {
       initialAllocationBlock = null;
     }
     singleAllocationReleaseHolder = new Allocation[1];
+    allocatedCount = new AtomicInteger();
+    fullMagazines = new ConcurrentLinkedQueue<>();
+    if (useThreadLocalCaches) {
+      magazines = new ThreadLocal<>();
+      // Move the initial allocations into the depot, where they're visible to all threads.
+      availableCount = 0;
+      moveToDepot(availableAllocations, initialAllocationCount);
+      Arrays.fill(availableAllocations, null);
+    } else {
+      magazines = null;
+    }
   }
 
   public synchronized void reset() {
@@ -99,26 +200,64 @@ public final class DefaultAllocator implements Allocator {
   }
 
   @Override
-  public synchronized Allocation allocate() {
-    allocatedCount++;
+  public Allocation allocate() {
+    if (magazines != null) {
+      allocatedCount.incrementAndGet();
+      Magazine magazine = getMagazine(magazines);
+      if (magazine.count == 0) {
+        @Nullable Allocation[] fullMagazine = fullMagazines.poll();
+        if (fullMagazine == null) {
+          return createAllocation();
+        }
+        magazine.allocations = fullMagazine;
+        magazine.count = fullMagazine.length;
+      }
+      Allocation allocation = Assertions.checkNotNull(magazine.allocations[--magazine.count]);
+      magazine.allocations[magazine.count] = null;
+      return allocation;
+    }
+    return allocateSynchronized();
+  }
+
+  private synchronized Allocation allocateSynchronized() {
+    allocatedCount.incrementAndGet();
     Allocation allocation;
     if (availableCount > 0) {
       allocation = Assertions.checkNotNull(availableAllocations[--availableCount]);
       availableAllocations[availableCount] = null;
     } else {
-      allocation = new Allocation(new byte[individualAllocationSize], 0);
+      allocation = createAllocation();
     }
     return allocation;
   }
 
   @Override
-  public synchronized void release(Allocation allocation) {
-    singleAllocationReleaseHolder[0] = allocation;
-    release(singleAllocationReleaseHolder);
+  public void release(Allocation allocation) {
+    if (magazines != null) {
+      releaseToMagazine(getMagazine(magazines), allocation);
+      allocatedCount.decrementAndGet();
+      return;
+    }
+    synchronized (this) {
+      singleAllocationReleaseHolder[0] = allocation;
+      release(singleAllocationReleaseHolder);
+    }
   }
 
   @Override
-  public synchronized void release(Allocation[] allocations) {
+  public void release(Allocation[] allocations) {
+    if (magazines != null) {
+      Magazine magazine = getMagazine(magazines);
+      for (Allocation allocation : allocations) {
+        releaseToMagazine(magazine, allocation);
+      }
+      allocatedCount.addAndGet(-allocations.length);
+      return;
+    }
+    releaseSynchronized(allocations);
+  }
+
+  private synchronized void releaseSynchronized(Allocation[] allocations) {
     if (availableCount + allocations.length >= availableAllocations.length) {
       availableAllocations =
           Arrays.copyOf(
@@ -128,7 +267,7 @@ public final class DefaultAllocator implements Allocator {
     for (Allocation allocation : allocations) {
       availableAllocations[availableCount++] = allocation;
     }
-    allocatedCount -= allocations.length;
+    allocatedCount.addAndGet(-allocations.length);
     // Wake up threads waiting for the allocated size to drop.
     notifyAll();
   }
@@ -136,13 +275,17 @@ public final class DefaultAllocator implements Allocator {
   @Override
   public synchronized void trim() {
     int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
-    int targetAvailableCount = max(0, targetAllocationCount - allocatedCount);
+    int targetAvailableCount = max(0, targetAllocationCount - allocatedCount.get());
+    if (magazines != null) {
+      trimDepot(targetAvailableCount);
+      return;
+    }
     if (targetAvailableCount >= availableCount) {
       // We're already at or below the target.
       return;
     }
 
-    if (initialAllocationBlock != null) {
+    if (initialAllocationBlock != null || !initialBufferAllocations.isEmpty()) {
       // Some allocations are backed by an initial block. We need to make sure that we hold onto all
       // such allocations. Re-order the available allocations so that the ones backed by the initial
       // block come first.
@@ -150,11 +293,11 @@ public final class DefaultAllocator implements Allocator {
       int highIndex = availableCount - 1;
       while (lowIndex <= highIndex) {
         Allocation lowAllocation = Assertions.checkNotNull(availableAllocations[lowIndex]);
-        if (lowAllocation.data == initialAllocationBlock) {
+        if (isInitialAllocation(lowAllocation)) {
           lowIndex++;
         } else {
           Allocation highAllocation = Assertions.checkNotNull(availableAllocations[highIndex]);
-          if (highAllocation.data != initialAllocationBlock) {
+          if (!isInitialAllocation(highAllocation)) {
             highIndex--;
           } else {
             availableAllocations[lowIndex++] = highAllocation;
@@ -176,8 +319,8 @@ public final class DefaultAllocator implements Allocator {
   }
 
   @Override
-  public synchronized int getTotalBytesAllocated() {
-    return allocatedCount * individualAllocationSize;
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
   }
 
   @Override
@@ -185,4 +328,83 @@ public final class DefaultAllocator implements Allocator {
     return individualAllocationSize;
   }
 
+  private Allocation createAllocation() {
+    return useDirectBuffers
+        ? new Allocation(ByteBuffer.allocateDirect(individualAllocationSize))
+        : new Allocation(new byte[individualAllocationSize], 0);
+  }
+
+  private boolean isInitialAllocation(Allocation allocation) {
+    return allocation.data == initialAllocationBlock
+        || initialBufferAllocations.contains(allocation);
+  }
+
+  private void releaseToMagazine(Magazine magazine, Allocation allocation) {
+    if (magazine.count == magazine.allocations.length) {
+      fullMagazines.offer(magazine.allocations);
+      magazine.allocations = new Allocation[MAGAZINE_CAPACITY];
+      magazine.count = 0;
+    }
+    magazine.allocations[magazine.count++] = allocation;
+  }
+
+  /**
+   * Discards available allocations in the depot until at most {@code targetAvailableCount} remain,
+   * keeping any that are backed by the initial allocation block. Allocations held in thread local
+   * magazines aren't visible to this method.
+   */
+  private void trimDepot(int targetAvailableCount) {
+    ArrayList<Allocation> retained = new ArrayList<>();
+    ArrayList<Allocation> discardable = new ArrayList<>();
+    @Nullable Allocation[] fullMagazine;
+    while ((fullMagazine = fullMagazines.poll()) != null) {
+      for (Allocation allocation : fullMagazine) {
+        if (isInitialAllocation(allocation)) {
+          retained.add(allocation);
+        } else {
+          discardable.add(allocation);
+        }
+      }
+    }
+    for (int i = 0; i < discardable.size() && retained.size() < targetAvailableCount; i++) {
+      retained.add(discardable.get(i));
+    }
+    moveToDepot(retained.toArray(new Allocation[0]), retained.size());
+  }
+
+  /**
+   * Packs the first {@code count} allocations of the given array into full magazines, adding them
+   * to the depot. Any remainder that doesn't fill a magazine is added as a partial magazine.
+   */
+  private void moveToDepot(@NullableType Allocation[] allocations, int count) {
+    for (int start = 0; start < count; start += MAGAZINE_CAPACITY) {
+      int end = min(start + MAGAZINE_CAPACITY, count);
+      Allocation[] magazine = new Allocation[end - start];
+      for (int i = start; i < end; i++) {
+        magazine[i - start] = Assertions.checkNotNull(allocations[i]);
+      }
+      fullMagazines.offer(magazine);
+    }
+  }
+
+  private static Magazine getMagazine(ThreadLocal<Magazine> magazines) {
+    @Nullable Magazine magazine = magazines.get();
+    if (magazine == null) {
+      magazine = new Magazine();
+      magazines.set(magazine);
+    }
+    return magazine;
+  }
+
+  /** The available allocations cached by a single thread. */
+  private static final class Magazine {
+
+    public @NullableType Allocation[] allocations;
+    public int count;
+
+    public Magazine() {
+      allocations = new Allocation[MAGAZINE_CAPACITY];
+    }
+  }
+
 }
@@ -28,11 +28,17 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import static java.lang.Math.min;
 
-/** A {@link DataSource} for reading local files. */
-public final class FileDataSource extends BaseDataSource {
+/**
+ * A {@link DataSource} for reading local files.
+ *
+ * <p>{@link #read(ByteBuffer)} reads through the {@link java.nio.channels.FileChannel} of the file,
+ * so data can be read into direct buffers without an intermediate copy.
+ */
+public final class FileDataSource extends BaseDataSource implements ByteBufferDataReader {
 
   /** Thrown when a {@link FileDataSource} encounters an error reading a file. */
   public static class FileDataSourceException extends IOException {
@@ -129,6 +135,36 @@ public final class FileDataSource extends BaseDataSource {
     }
   }
 
+  @Override
+  public int read(ByteBuffer target) throws FileDataSourceException {
+    int readLength = target.remaining();
+    if (readLength == 0) {
+      return 0;
+    } else if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    } else {
+      int bytesRead;
+      int limit = target.limit();
+      try {
+        if (bytesRemaining < readLength) {
+          target.limit(target.position() + (int) bytesRemaining);
+        }
+        bytesRead = Util.castNonNull(file).getChannel().read(target);
+      } catch (IOException e) {
+        throw new FileDataSourceException(e);
+      } finally {
+        target.limit(limit);
+      }
+
+      if (bytesRead > 0) {
+        bytesRemaining -= bytesRead;
+        bytesTransferred(bytesRead);
+      }
+
+      return bytesRead;
+    }
+  }
+
   @Override
   @Nullable
   public Uri getUri() {
@@ -18,11 +18,15 @@ package com.google.android.exoplayer2internal.upstream;
 import android.net.Uri;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
+import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.Clock;
 import com.google.android.exoplayer2internal.util.PriorityTaskManager;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 import java.util.Map;
 
@@ -40,9 +44,19 @@ import java.util.Map;
  */
 public final class PriorityDataSource implements DataSource {
 
+  /**
+   * The period over which the time for which a preempted task is allowed to proceed is shared, in
+   * milliseconds.
+   */
+  private static final long PREEMPTED_PERIOD_MS = 1000;
+
   private final DataSource upstream;
   private final PriorityTaskManager priorityTaskManager;
   private final int priority;
+  private final float preemptedShare;
+
+  private Clock clock;
+  private long preemptedPeriodStartTimeMs;
 
   /**
    * @param upstream The upstream {@link DataSource}.
@@ -51,9 +65,44 @@ public final class PriorityDataSource implements DataSource {
    */
   public PriorityDataSource(DataSource upstream, PriorityTaskManager priorityTaskManager,
       int priority) {
+    this(upstream, priorityTaskManager, priority, /* preemptedShare= */ 0);
+  }
+
+  /**
+   * Creates an instance that shares the upstream with higher priority tasks, rather than throwing
+   * {@link PriorityTaskManager.PriorityTooLowException} whenever one is registered.
+   *
+   * <p>While a higher priority task is registered, calls to {@link #open(DataSpec)} and {@link
+   * #read(byte[], int, int)} are allowed to proceed for {@code preemptedShare} of each second, and
+   * block for the rest of it. The share is of time rather than of bandwidth, so the amount of data
+   * the task reads in its share depends on the throughput of the upstream. An open upstream is not
+   * closed while blocked, so the task resumes reading from where it paused.
+   *
+   * @param upstream The upstream {@link DataSource}.
+   * @param priorityTaskManager The priority manager to which the task is registered.
+   * @param priority The priority of the task.
+   * @param preemptedShare The share of time, from 0 to 1, for which the task is allowed to proceed
+   *     while a higher priority task is registered. If 0, {@link
+   *     PriorityTaskManager.PriorityTooLowException} is thrown instead of blocking.
+   */
+  public PriorityDataSource(
+      DataSource upstream,
+      PriorityTaskManager priorityTaskManager,
+      int priority,
+      float preemptedShare) {
+    Assertions.checkArgument(preemptedShare >= 0 && preemptedShare <= 1);
     this.upstream = Assertions.checkNotNull(upstream);
     this.priorityTaskManager = Assertions.checkNotNull(priorityTaskManager);
     this.priority = priority;
+    this.preemptedShare = preemptedShare;
+    clock = Clock.DEFAULT;
+    preemptedPeriodStartTimeMs = C.TIME_UNSET;
+  }
+
+  /** Sets the {@link Clock} used to time the share of a preempted task. */
+  @VisibleForTesting
+  /* package */ void setClock(Clock clock) {
+    this.clock = clock;
   }
 
   @Override
@@ -64,13 +113,13 @@ public final class PriorityDataSource implements DataSource {
 
   @Override
   public long open(DataSpec dataSpec) throws IOException {
-    priorityTaskManager.proceedOrThrow(priority);
+    proceed();
     return upstream.open(dataSpec);
   }
 
   @Override
   public int read(byte[] buffer, int offset, int max) throws IOException {
-    priorityTaskManager.proceedOrThrow(priority);
+    proceed();
     return upstream.read(buffer, offset, max);
   }
 
@@ -90,4 +139,36 @@ public final class PriorityDataSource implements DataSource {
     upstream.close();
   }
 
+  private void proceed() throws IOException {
+    if (preemptedShare == 0) {
+      priorityTaskManager.proceedOrThrow(priority);
+      return;
+    }
+    if (priorityTaskManager.proceedNonBlocking(priority)) {
+      preemptedPeriodStartTimeMs = C.TIME_UNSET;
+      return;
+    }
+    long nowMs = clock.elapsedRealtime();
+    if (preemptedPeriodStartTimeMs == C.TIME_UNSET
+        || nowMs >= preemptedPeriodStartTimeMs + PREEMPTED_PERIOD_MS) {
+      preemptedPeriodStartTimeMs = nowMs;
+    }
+    long pauseTimeMs = preemptedPeriodStartTimeMs + (long) (PREEMPTED_PERIOD_MS * preemptedShare);
+    if (nowMs < pauseTimeMs) {
+      return;
+    }
+    // Block for the rest of the period, unless the higher priority tasks finish before it ends.
+    long resumeTimeMs = preemptedPeriodStartTimeMs + PREEMPTED_PERIOD_MS;
+    try {
+      if (priorityTaskManager.proceedUntil(priority, resumeTimeMs, clock)) {
+        preemptedPeriodStartTimeMs = C.TIME_UNSET;
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    preemptedPeriodStartTimeMs = clock.elapsedRealtime();
+  }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.util.Assertions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DataSource} that limits the rate at which data is read from an upstream {@link
+ * DataSource}, using one or more {@link TokenBucket TokenBuckets}.
+ *
+ * <p>Tokens are taken once per call to {@link #read(byte[], int, int)}, after the data has been
+ * read, and the call blocks until none of the buckets are in debt. Token buckets may be shared
+ * between instances, for example to limit the total rate of several downloads as well as the rate
+ * of each.
+ */
+public final class RateLimitedDataSource implements DataSource {
+
+  /** {@link DataSource.Factory} for {@link RateLimitedDataSource} instances. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final DataSource.Factory upstreamFactory;
+    private final TokenBucket[] tokenBuckets;
+
+    /**
+     * Creates an instance.
+     *
+     * @param upstreamFactory A {@link DataSource.Factory} for the upstream {@link DataSource}.
+     * @param tokenBuckets The {@link TokenBucket TokenBuckets} that limit the rate of reads.
+     */
+    public Factory(DataSource.Factory upstreamFactory, TokenBucket... tokenBuckets) {
+      this.upstreamFactory = upstreamFactory;
+      this.tokenBuckets = tokenBuckets;
+    }
+
+    @Override
+    public RateLimitedDataSource createDataSource() {
+      return new RateLimitedDataSource(upstreamFactory.createDataSource(), tokenBuckets);
+    }
+  }
+
+  private final DataSource upstream;
+  private final TokenBucket[] tokenBuckets;
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param tokenBuckets The {@link TokenBucket TokenBuckets} that limit the rate of reads.
+   */
+  public RateLimitedDataSource(DataSource upstream, TokenBucket... tokenBuckets) {
+    this.upstream = Assertions.checkNotNull(upstream);
+    this.tokenBuckets = tokenBuckets;
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    Assertions.checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int max) throws IOException {
+    int bytesRead = upstream.read(buffer, offset, max);
+    if (bytesRead > 0) {
+      try {
+        for (TokenBucket tokenBucket : tokenBuckets) {
+          tokenBucket.consume(bytesRead);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    upstream.close();
+  }
+}
@@ -23,6 +23,7 @@ import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.util.Assertions;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -31,7 +32,7 @@ import java.util.Map;
  * {@link DataSource} wrapper which keeps track of bytes transferred, redirected uris, and response
  * headers.
  */
-public final class StatsDataSource implements DataSource {
+public final class StatsDataSource implements DataSource, ByteBufferDataReader {
 
   private final DataSource dataSource;
 
@@ -99,6 +100,24 @@ public final class StatsDataSource implements DataSource {
     return bytesRead;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Returns {@link #RESULT_UNSUPPORTED} unless the wrapped {@link DataSource} is a {@link
+   * ByteBufferDataReader}.
+   */
+  @Override
+  public int read(ByteBuffer target) throws IOException {
+    if (!(dataSource instanceof ByteBufferDataReader)) {
+      return RESULT_UNSUPPORTED;
+    }
+    int bytesRead = ((ByteBufferDataReader) dataSource).read(target);
+    if (bytesRead > 0) {
+      this.bytesRead += bytesRead;
+    }
+    return bytesRead;
+  }
+
   @Override
   @Nullable
   public Uri getUri() {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.util.Assertions;
+import com.google.android.exoplayer2internal.util.Clock;
+
+import static java.lang.Math.min;
+
+/**
+ * Limits the rate at which data is transferred, using a token bucket that's refilled at a rate in
+ * bytes per second and holds up to one second of tokens.
+ *
+ * <p>Transfers take tokens after the data is transferred. If there aren't enough tokens, the
+ * bucket goes into debt and {@link #consume(int)} blocks until the debt has been repaid, so data
+ * can be transferred in chunks of any size. The rate can be changed at any time, and takes effect
+ * for transfers that are blocked.
+ *
+ * <p>This class is thread-safe. While the rate is {@link #RATE_UNLIMITED unlimited}, {@link
+ * #consume(int)} doesn't acquire a lock.
+ */
+public final class TokenBucket {
+
+  /** A rate that doesn't limit transfers. */
+  public static final long RATE_UNLIMITED = Long.MAX_VALUE;
+
+  private volatile long bytesPerSecond;
+
+  @GuardedBy("this")
+  private Clock clock;
+
+  @GuardedBy("this")
+  private long availableBytes;
+
+  @GuardedBy("this")
+  private long lastRefillTimeMs;
+
+  /** Creates an instance with a rate of {@link #RATE_UNLIMITED}. */
+  public TokenBucket() {
+    this(RATE_UNLIMITED);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param bytesPerSecond The rate at which data may be transferred, in bytes per second, or {@link
+   *     #RATE_UNLIMITED}. Must be greater than 0.
+   */
+  public TokenBucket(long bytesPerSecond) {
+    Assertions.checkArgument(bytesPerSecond > 0);
+    this.bytesPerSecond = bytesPerSecond;
+    clock = Clock.DEFAULT;
+    availableBytes = bytesPerSecond;
+    lastRefillTimeMs = C.TIME_UNSET;
+  }
+
+  /** Sets the {@link Clock} used to refill the bucket. */
+  @VisibleForTesting
+  /* package */ synchronized void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  /** Returns the rate at which data may be transferred, in bytes per second. */
+  public long getRate() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Sets the rate at which data may be transferred.
+   *
+   * @param bytesPerSecond The rate at which data may be transferred, in bytes per second, or {@link
+   *     #RATE_UNLIMITED}. Must be greater than 0.
+   */
+  public synchronized void setRate(long bytesPerSecond) {
+    Assertions.checkArgument(bytesPerSecond > 0);
+    refill(clock.elapsedRealtime());
+    this.bytesPerSecond = bytesPerSecond;
+    if (bytesPerSecond == RATE_UNLIMITED) {
+      // Forgive any debt, so that blocked transfers resume immediately.
+      availableBytes = 0;
+    } else {
+      availableBytes = min(availableBytes, bytesPerSecond);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Takes tokens for data that has been transferred, blocking until the bucket isn't in debt.
+   *
+   * @param bytes The number of bytes that have been transferred.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  public void consume(int bytes) throws InterruptedException {
+    if (bytesPerSecond == RATE_UNLIMITED) {
+      return;
+    }
+    synchronized (this) {
+      refill(clock.elapsedRealtime());
+      availableBytes -= bytes;
+      while (availableBytes < 0 && bytesPerSecond != RATE_UNLIMITED) {
+        long debtDurationMs = (-availableBytes * 1000 + bytesPerSecond - 1) / bytesPerSecond;
+        wait(debtDurationMs);
+        refill(clock.elapsedRealtime());
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void refill(long nowMs) {
+    if (lastRefillTimeMs == C.TIME_UNSET || bytesPerSecond == RATE_UNLIMITED) {
+      lastRefillTimeMs = nowMs;
+      return;
+    }
+    long elapsedMs = nowMs - lastRefillTimeMs;
+    // Saturate rather than overflow, since the result is capped at one second of tokens anyway.
+    long refillBytes =
+        elapsedMs > Long.MAX_VALUE / bytesPerSecond
+            ? Long.MAX_VALUE
+            : elapsedMs * bytesPerSecond / 1000;
+    if (refillBytes == 0) {
+      // Keep the elapsed time, so that it isn't lost at low rates.
+      return;
+    }
+    // The full refill repays any debt before the balance is capped, so a debt of several seconds
+    // is repaid in as many seconds.
+    availableBytes =
+        refillBytes >= bytesPerSecond - availableBytes
+            ? bytesPerSecond
+            : availableBytes + refillBytes;
+    lastRefillTimeMs = nowMs;
+  }
+}
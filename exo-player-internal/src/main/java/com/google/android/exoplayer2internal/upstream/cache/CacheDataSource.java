@@ -21,6 +21,7 @@ import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.ByteBufferDataReader;
 import com.google.android.exoplayer2internal.upstream.DataSink;
 import com.google.android.exoplayer2internal.upstream.DataSource;
 import com.google.android.exoplayer2internal.upstream.DataSourceException;
@@ -41,6 +42,7 @@ import java.io.InterruptedIOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -51,8 +53,13 @@ import static java.lang.Math.min;
  * A {@link DataSource} that reads and writes a {@link Cache}. Requests are fulfilled from the cache
  * when possible. When data is not cached it is requested from an upstream {@link DataSource} and
  * written into the cache.
+ *
+ * <p>Data read from the cache can also be read into a {@link ByteBuffer} using {@link
+ * #read(ByteBuffer)}, which avoids an intermediate copy if the cache read {@link DataSource} is a
+ * {@link ByteBufferDataReader}. Data read from upstream must be read using {@link #read(byte[], int,
+ * int)}.
  */
-public final class CacheDataSource implements DataSource {
+public final class CacheDataSource implements DataSource, ByteBufferDataReader {
 
   /** {@link DataSource.Factory} for {@link CacheDataSource} instances. */
   public static final class Factory implements DataSource.Factory {
@@ -65,6 +72,7 @@ public final class CacheDataSource implements DataSource {
     @Nullable private DataSource.Factory upstreamDataSourceFactory;
     @Nullable private PriorityTaskManager upstreamPriorityTaskManager;
     private int upstreamPriority;
+    private float upstreamPreemptedShare;
     @CacheDataSource.Flags private int flags;
     @Nullable private CacheDataSource.EventListener eventListener;
 
@@ -208,6 +216,36 @@ public final class CacheDataSource implements DataSource {
       return this;
     }
 
+    /**
+     * Sets the share of time for which requests to upstream are allowed to proceed while a higher
+     * priority task is registered to the {@link PriorityTaskManager}. The share is only used if a
+     * {@link PriorityTaskManager} is set by calling {@link #setUpstreamPriorityTaskManager}.
+     *
+     * <p>If greater than 0, requests block for the rest of the time rather than throwing {@link
+     * PriorityTaskManager.PriorityTooLowException}, and open requests resume where they paused. For
+     * example, a share of 0.2 lets a download use the network for a fifth of the time while
+     * playback is loading. See {@link PriorityDataSource}.
+     *
+     * <p>The default is {@code 0}.
+     *
+     * @param upstreamPreemptedShare The share of time, from 0 to 1, for which requests to upstream
+     *     are allowed to proceed while a higher priority task is registered.
+     * @return This factory.
+     */
+    public Factory setUpstreamPreemptedShare(float upstreamPreemptedShare) {
+      Assertions.checkArgument(upstreamPreemptedShare >= 0 && upstreamPreemptedShare <= 1);
+      this.upstreamPreemptedShare = upstreamPreemptedShare;
+      return this;
+    }
+
+    /**
+     * Returns the share of time for which requests to upstream are allowed to proceed while a
+     * higher priority task is registered.
+     */
+    public float getUpstreamPreemptedShare() {
+      return upstreamPreemptedShare;
+    }
+
     /**
      * Sets the {@link CacheDataSource.Flags}.
      *
@@ -299,6 +337,7 @@ public final class CacheDataSource implements DataSource {
           flags,
           upstreamPriorityTaskManager,
           upstreamPriority,
+          upstreamPreemptedShare,
           eventListener);
     }
   }
@@ -497,6 +536,7 @@ public final class CacheDataSource implements DataSource {
         flags,
         /* upstreamPriorityTaskManager= */ null,
         /* upstreamPriority= */ C.PRIORITY_PLAYBACK,
+        /* upstreamPreemptedShare= */ 0,
         eventListener);
   }
 
@@ -509,6 +549,7 @@ public final class CacheDataSource implements DataSource {
       @Flags int flags,
       @Nullable PriorityTaskManager upstreamPriorityTaskManager,
       int upstreamPriority,
+      float upstreamPreemptedShare,
       @Nullable EventListener eventListener) {
     this.cache = cache;
     this.cacheReadDataSource = cacheReadDataSource;
@@ -521,7 +562,10 @@ public final class CacheDataSource implements DataSource {
       if (upstreamPriorityTaskManager != null) {
         upstreamDataSource =
             new PriorityDataSource(
-                upstreamDataSource, upstreamPriorityTaskManager, upstreamPriority);
+                upstreamDataSource,
+                upstreamPriorityTaskManager,
+                upstreamPriority,
+                upstreamPreemptedShare);
       }
       this.upstreamDataSource = upstreamDataSource;
       this.cacheWriteDataSource =
@@ -588,10 +632,29 @@ public final class CacheDataSource implements DataSource {
 
   @Override
   public int read(byte[] buffer, int offset, int readLength) throws IOException {
-    DataSpec requestDataSpec = Assertions.checkNotNull(this.requestDataSpec);
     if (readLength == 0) {
       return 0;
     }
+    return read(buffer, offset, readLength, /* target= */ null);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Returns {@link #RESULT_UNSUPPORTED} if the data at the current position isn't being read
+   * from the cache, or if the cache read {@link DataSource} isn't a {@link ByteBufferDataReader}.
+   */
+  @Override
+  public int read(ByteBuffer target) throws IOException {
+    if (!target.hasRemaining()) {
+      return 0;
+    }
+    return read(Util.EMPTY_BYTE_ARRAY, /* offset= */ 0, target.remaining(), target);
+  }
+
+  private int read(byte[] buffer, int offset, int readLength, @Nullable ByteBuffer target)
+      throws IOException {
+    DataSpec requestDataSpec = Assertions.checkNotNull(this.requestDataSpec);
     if (bytesRemaining == 0) {
       return C.RESULT_END_OF_INPUT;
     }
@@ -599,7 +662,18 @@ public final class CacheDataSource implements DataSource {
       if (readPosition >= checkCachePosition) {
         openNextSource(requestDataSpec, true);
       }
-      int bytesRead = Assertions.checkNotNull(currentDataSource).read(buffer, offset, readLength);
+      DataSource dataSource = Assertions.checkNotNull(currentDataSource);
+      int bytesRead;
+      if (target == null) {
+        bytesRead = dataSource.read(buffer, offset, readLength);
+      } else if (isReadingFromCache() && dataSource instanceof ByteBufferDataReader) {
+        bytesRead = ((ByteBufferDataReader) dataSource).read(target);
+        if (bytesRead == RESULT_UNSUPPORTED) {
+          return RESULT_UNSUPPORTED;
+        }
+      } else {
+        return RESULT_UNSUPPORTED;
+      }
       if (bytesRead != C.RESULT_END_OF_INPUT) {
         if (isReadingFromCache()) {
           totalCachedBytesRead += bytesRead;
@@ -613,7 +687,7 @@ public final class CacheDataSource implements DataSource {
       } else if (bytesRemaining > 0 || bytesRemaining == C.LENGTH_UNSET) {
         closeCurrentSource();
         openNextSource(requestDataSpec, false);
-        return read(buffer, offset, readLength);
+        return read(buffer, offset, readLength, target);
       }
       return bytesRead;
     } catch (IOException e) {
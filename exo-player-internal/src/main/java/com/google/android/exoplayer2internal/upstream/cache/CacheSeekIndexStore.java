@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream.cache;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link SeekIndexStore} that stores the seek indices of a single piece of content in the {@link
+ * ContentMetadata} of its cache key.
+ *
+ * <p>Seek indices are held in memory by the cache index, so indices larger than a maximum size,
+ * such as the sample tables of long MP4 streams, aren't stored. {@link
+ * com.google.android.exoplayer2internal.extractor.FileSeekIndexStore.Factory} is better suited to
+ * large indices. Stored indices are removed along with the metadata when the content is removed
+ * from the cache.
+ *
+ * <p>Storing a seek index writes the whole cache index to disk, during which other writes to the
+ * cache index wait. By default this happens on the thread that calls {@link
+ * #put(String, byte[])}, which is the loading thread of the extractor. An {@link Executor} can be
+ * provided to store indices asynchronously instead.
+ */
+public final class CacheSeekIndexStore implements SeekIndexStore {
+
+  /** A {@link SeekIndexStore.Factory} of {@link CacheSeekIndexStore} instances. */
+  public static final class Factory implements SeekIndexStore.Factory {
+
+    private final Cache cache;
+    private final CacheKeyFactory cacheKeyFactory;
+    private final Executor executor;
+    private final int maxSeekIndexBytes;
+
+    /**
+     * Creates an instance that uses {@link CacheKeyFactory#DEFAULT}, and stores seek indices of up
+     * to {@link #DEFAULT_MAX_SEEK_INDEX_BYTES} on the calling thread.
+     *
+     * @param cache The {@link Cache} in which seek indices are stored.
+     */
+    public Factory(Cache cache) {
+      this(cache, CacheKeyFactory.DEFAULT);
+    }
+
+    /**
+     * Creates an instance that stores seek indices of up to {@link #DEFAULT_MAX_SEEK_INDEX_BYTES}
+     * on the calling thread.
+     *
+     * @param cache The {@link Cache} in which seek indices are stored.
+     * @param cacheKeyFactory The {@link CacheKeyFactory} used by the {@link CacheDataSource} that
+     *     reads the content.
+     */
+    public Factory(Cache cache, CacheKeyFactory cacheKeyFactory) {
+      this(cache, cacheKeyFactory, Runnable::run);
+    }
+
+    /**
+     * Creates an instance that stores seek indices of up to {@link #DEFAULT_MAX_SEEK_INDEX_BYTES}.
+     *
+     * @param cache The {@link Cache} in which seek indices are stored.
+     * @param cacheKeyFactory The {@link CacheKeyFactory} used by the {@link CacheDataSource} that
+     *     reads the content.
+     * @param executor An {@link Executor} on which seek indices are stored.
+     */
+    public Factory(Cache cache, CacheKeyFactory cacheKeyFactory, Executor executor) {
+      this(cache, cacheKeyFactory, executor, DEFAULT_MAX_SEEK_INDEX_BYTES);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param cache The {@link Cache} in which seek indices are stored.
+     * @param cacheKeyFactory The {@link CacheKeyFactory} used by the {@link CacheDataSource} that
+     *     reads the content.
+     * @param executor An {@link Executor} on which seek indices are stored.
+     * @param maxSeekIndexBytes The maximum size of a stored seek index, in bytes.
+     */
+    public Factory(
+        Cache cache, CacheKeyFactory cacheKeyFactory, Executor executor, int maxSeekIndexBytes) {
+      this.cache = cache;
+      this.cacheKeyFactory = cacheKeyFactory;
+      this.executor = executor;
+      this.maxSeekIndexBytes = maxSeekIndexBytes;
+    }
+
+    @Override
+    public SeekIndexStore createSeekIndexStore(Uri uri) {
+      return new CacheSeekIndexStore(
+          cache,
+          cacheKeyFactory.buildCacheKey(new DataSpec(uri)),
+          executor,
+          maxSeekIndexBytes);
+    }
+  }
+
+  /** The prefix of the names of the {@link ContentMetadata} values that hold seek indices. */
+  public static final String METADATA_NAME_PREFIX = "exo_idx_";
+
+  /** The default maximum size of a stored seek index, in bytes. */
+  public static final int DEFAULT_MAX_SEEK_INDEX_BYTES = 64 * 1024;
+
+  private static final String TAG = "CacheSeekIndexStore";
+
+  private final Cache cache;
+  private final String cacheKey;
+  private final Executor executor;
+  private final int maxSeekIndexBytes;
+
+  /**
+   * Creates an instance that stores seek indices of up to {@link #DEFAULT_MAX_SEEK_INDEX_BYTES} on
+   * the calling thread.
+   *
+   * @param cache The {@link Cache} in which seek indices are stored.
+   * @param cacheKey The cache key of the content.
+   */
+  public CacheSeekIndexStore(Cache cache, String cacheKey) {
+    this(cache, cacheKey, Runnable::run);
+  }
+
+  /**
+   * Creates an instance that stores seek indices of up to {@link #DEFAULT_MAX_SEEK_INDEX_BYTES}.
+   *
+   * @param cache The {@link Cache} in which seek indices are stored.
+   * @param cacheKey The cache key of the content.
+   * @param executor An {@link Executor} on which seek indices are stored. If it runs them
+   *     asynchronously, a stored index may not be returned by {@link #get(String)} until it has
+   *     been written.
+   */
+  public CacheSeekIndexStore(Cache cache, String cacheKey, Executor executor) {
+    this(cache, cacheKey, executor, DEFAULT_MAX_SEEK_INDEX_BYTES);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cache The {@link Cache} in which seek indices are stored.
+   * @param cacheKey The cache key of the content.
+   * @param executor An {@link Executor} on which seek indices are stored. If it runs them
+   *     asynchronously, a stored index may not be returned by {@link #get(String)} until it has
+   *     been written.
+   * @param maxSeekIndexBytes The maximum size of a stored seek index, in bytes. Larger indices are
+   *     discarded.
+   */
+  public CacheSeekIndexStore(
+      Cache cache, String cacheKey, Executor executor, int maxSeekIndexBytes) {
+    this.cache = cache;
+    this.cacheKey = cacheKey;
+    this.executor = executor;
+    this.maxSeekIndexBytes = maxSeekIndexBytes;
+  }
+
+  @Override
+  @Nullable
+  public byte[] get(String key) {
+    return cache
+        .getContentMetadata(cacheKey)
+        .get(METADATA_NAME_PREFIX + key, /* defaultValue= */ (byte[]) null);
+  }
+
+  @Override
+  public void put(String key, byte[] seekIndex) {
+    if (seekIndex.length > maxSeekIndexBytes) {
+      return;
+    }
+    executor.execute(() -> storeSeekIndex(key, seekIndex));
+  }
+
+  private void storeSeekIndex(String key, byte[] seekIndex) {
+    try {
+      cache.applyContentMetadataMutations(
+          cacheKey, new ContentMetadataMutations().set(METADATA_NAME_PREFIX + key, seekIndex));
+    } catch (Cache.CacheException | IllegalStateException e) {
+      // IllegalStateException is thrown if the cache has been released before the index is stored.
+      Log.w(TAG, "Failed to store seek index: " + key, e);
+    }
+  }
+}
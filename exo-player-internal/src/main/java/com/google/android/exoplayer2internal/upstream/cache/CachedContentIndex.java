@@ -40,14 +40,21 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -58,6 +65,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -66,16 +78,30 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-/** Maintains the index of cached content. */
+/**
+ * Maintains the index of cached content.
+ *
+ * <p>This class is thread-safe. Lookups of content by key don't acquire a lock. Changes to the
+ * index, and storing it, are serialized by the instance monitor, so callers can store the index
+ * without holding a lock of their own.
+ */
 /* package */ class CachedContentIndex {
 
   /* package */ static final String FILE_NAME_ATOMIC = "cached_content_index.exi";
+  /* package */ static final String FILE_NAME_JOURNAL = "cached_content_index.exj";
+
+  private static final String COMPACTION_THREAD_NAME = "ExoPlayer:CacheIndexCompaction";
 
   private static final int INCREMENTAL_METADATA_READ_LENGTH = 10 * 1024 * 1024;
 
-  private final HashMap<String, CachedContent> keyToContent;
+  /**
+   * Maps keys to their corresponding content. Supports lookups that are concurrent with changes to
+   * the index, which are serialized by the instance monitor.
+   */
+  private final ConcurrentHashMap<String, CachedContent> keyToContent;
   /**
    * Maps assigned ids to their corresponding keys. Also contains (id -> null) entries for ids that
    * have been removed from the index since it was last stored. This prevents reuse of these ids,
@@ -107,8 +133,8 @@ import static java.lang.Math.min;
 
   /** Returns whether the file is an index file. */
   public static boolean isIndexFile(String fileName) {
-    // Atomic file backups add additional suffixes to the file name.
-    return fileName.startsWith(FILE_NAME_ATOMIC);
+    // Atomic file backups and journal compaction add additional suffixes to the file name.
+    return fileName.startsWith(FILE_NAME_ATOMIC) || fileName.startsWith(FILE_NAME_JOURNAL);
   }
 
   /**
@@ -162,7 +188,7 @@ import static java.lang.Math.min;
       boolean legacyStorageEncrypt,
       boolean preferLegacyStorage) {
     Assertions.checkState(databaseProvider != null || legacyStorageDir != null);
-    keyToContent = new HashMap<>();
+    keyToContent = new ConcurrentHashMap<>();
     idToKey = new SparseArray<>();
     removedIds = new SparseBooleanArray();
     newIds = new SparseBooleanArray();
@@ -186,6 +212,47 @@ import static java.lang.Math.min;
     }
   }
 
+  /**
+   * Creates an instance that uses journal storage. The journal is updated by appending records for
+   * changed content only, which makes {@link #store()} cost proportional to the number of changes
+   * rather than to the size of the index. Any index data in legacy storage in the same directory is
+   * migrated into the journal when the index is initialized.
+   *
+   * @param storageDir The directory in which the journal, and any legacy storage, is stored.
+   * @param legacyStorageSecretKey A 16 byte AES key for reading legacy storage, or {@code null} if
+   *     legacy storage is not encrypted.
+   */
+  public CachedContentIndex(File storageDir, @Nullable byte[] legacyStorageSecretKey) {
+    this(
+        storageDir,
+        legacyStorageSecretKey,
+        /* compactionExecutor= */ runnable -> new Thread(runnable, COMPACTION_THREAD_NAME).start());
+  }
+
+  /**
+   * Creates an instance that uses journal storage, and compacts the journal on the specified
+   * {@link Executor}.
+   *
+   * @param storageDir The directory in which the journal, and any legacy storage, is stored.
+   * @param legacyStorageSecretKey A 16 byte AES key for reading legacy storage, or {@code null} if
+   *     legacy storage is not encrypted.
+   * @param compactionExecutor The {@link Executor} on which the journal is compacted.
+   */
+  @VisibleForTesting
+  /* package */ CachedContentIndex(
+      File storageDir, @Nullable byte[] legacyStorageSecretKey, Executor compactionExecutor) {
+    keyToContent = new ConcurrentHashMap<>();
+    idToKey = new SparseArray<>();
+    removedIds = new SparseBooleanArray();
+    newIds = new SparseBooleanArray();
+    storage = new JournalStorage(new File(storageDir, FILE_NAME_JOURNAL), compactionExecutor);
+    previousStorage =
+        new LegacyStorage(
+            new File(storageDir, FILE_NAME_ATOMIC),
+            legacyStorageSecretKey,
+            /* encrypt= */ false);
+  }
+
   /**
    * Loads the index data for the given cache UID.
    *
@@ -195,7 +262,7 @@ import static java.lang.Math.min;
    * @throws IOException If an error occurs initializing the index data.
    */
   @WorkerThread
-  public void initialize(long uid) throws IOException {
+  public synchronized void initialize(long uid) throws IOException {
     storage.initialize(uid);
     if (previousStorage != null) {
       previousStorage.initialize(uid);
@@ -222,7 +289,7 @@ import static java.lang.Math.min;
    * @throws IOException If an error occurs storing the index data.
    */
   @WorkerThread
-  public void store() throws IOException {
+  public synchronized void store() throws IOException {
     storage.storeIncremental(keyToContent);
     // Make ids that were removed since the index was last stored eligible for re-use.
     int removedIdCount = removedIds.size();
@@ -241,7 +308,13 @@ import static java.lang.Math.min;
    */
   public CachedContent getOrAdd(String key) {
     @Nullable CachedContent cachedContent = keyToContent.get(key);
-    return cachedContent == null ? addNew(key) : cachedContent;
+    if (cachedContent != null) {
+      return cachedContent;
+    }
+    synchronized (this) {
+      cachedContent = keyToContent.get(key);
+      return cachedContent == null ? addNew(key) : cachedContent;
+    }
   }
 
   /**
@@ -272,7 +345,7 @@ import static java.lang.Math.min;
 
   /** Returns the key which has the given id assigned, or {@code null} if no such key exists. */
   @Nullable
-  public String getKeyForId(int id) {
+  public synchronized String getKeyForId(int id) {
     return idToKey.get(id);
   }
 
@@ -281,7 +354,7 @@ import static java.lang.Math.min;
    *
    * @param key The cache key of the resource.
    */
-  public void maybeRemove(String key) {
+  public synchronized void maybeRemove(String key) {
     @Nullable CachedContent cachedContent = keyToContent.get(key);
     if (cachedContent != null && cachedContent.isEmpty() && cachedContent.isFullyUnlocked()) {
       keyToContent.remove(key);
@@ -302,7 +375,7 @@ import static java.lang.Math.min;
   }
 
   /** Removes all resources whose {@link CachedContent CachedContents} are empty and unlocked. */
-  public void removeEmpty() {
+  public synchronized void removeEmpty() {
     String[] keys = new String[keyToContent.size()];
     keyToContent.keySet().toArray(keys);
     for (String key : keys) {
@@ -324,7 +397,8 @@ import static java.lang.Math.min;
    * Applies {@code mutations} to the {@link ContentMetadata} for the given key. A new {@link
    * CachedContent} is added if there isn't one already with the given key.
    */
-  public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations) {
+  public synchronized void applyContentMetadataMutations(
+      String key, ContentMetadataMutations mutations) {
     CachedContent cachedContent = getOrAdd(key);
     if (cachedContent.applyMetadataMutations(mutations)) {
       storage.onUpdate(cachedContent);
@@ -464,7 +538,7 @@ import static java.lang.Math.min;
      * @param idToKey The id to key map to populate with persisted data.
      * @throws IOException If an error occurs loading the index.
      */
-    void load(HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+    void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException;
 
     /**
@@ -474,17 +548,17 @@ import static java.lang.Math.min;
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeFully(HashMap<String, CachedContent> content) throws IOException;
+    void storeFully(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Ensures incremental changes to the index since the initial {@link #initialize(long)} or last
-     * {@link #storeFully(HashMap)} are persisted. The storage will have been notified of all such
+     * {@link #storeFully(Map)} are persisted. The storage will have been notified of all such
      * changes via {@link #onUpdate(CachedContent)} and {@link #onRemove(CachedContent, boolean)}.
      *
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeIncremental(HashMap<String, CachedContent> content) throws IOException;
+    void storeIncremental(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Called when a {@link CachedContent} is added or updated.
@@ -558,7 +632,7 @@ import static java.lang.Math.min;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       Assertions.checkState(!changed);
       if (!readFile(content, idToKey)) {
         content.clear();
@@ -568,13 +642,13 @@ import static java.lang.Math.min;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       writeFile(content);
       changed = false;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (!changed) {
         return;
       }
@@ -592,7 +666,7 @@ import static java.lang.Math.min;
     }
 
     private boolean readFile(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       if (!atomicFile.exists()) {
         return true;
       }
@@ -647,7 +721,7 @@ import static java.lang.Math.min;
       return true;
     }
 
-    private void writeFile(HashMap<String, CachedContent> content) throws IOException {
+    private void writeFile(Map<String, CachedContent> content) throws IOException {
       @Nullable DataOutputStream output = null;
       try {
         OutputStream outputStream = atomicFile.startWrite();
@@ -746,6 +820,475 @@ import static java.lang.Math.min;
     }
   }
 
+  /**
+   * {@link Storage} implementation that uses an append-only journal, which is accessed through a
+   * memory mapping. Each record describes the addition, update or removal of a single {@link
+   * CachedContent}, and is protected by a checksum so that a record torn by a crash is discarded
+   * together with anything after it. The journal is compacted by rewriting it from scratch once
+   * obsolete records dominate it, which keeps the amortized cost of {@link
+   * #storeIncremental(Map)} proportional to the number of changes.
+   *
+   * <p>Compaction writes a snapshot of the content on the compaction {@link Executor}, whilst
+   * records continue to be appended to the journal. Once the compacted journal has been written,
+   * the records appended in the meantime are replayed onto it, and it atomically replaces the
+   * journal.
+   */
+  private static final class JournalStorage implements Storage {
+
+    private static final int MAGIC = 0x45584A4C; // "EXJL"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int RECORD_TYPE_UPDATE = 1;
+    private static final int RECORD_TYPE_REMOVE = 2;
+    private static final int INITIAL_MAPPED_LENGTH = 64 * 1024;
+    private static final int MIN_RECORD_COUNT_FOR_COMPACTION = 1024;
+    private static final String COMPACTION_FILE_SUFFIX = ".new";
+
+    private final File file;
+    private final File compactionFile;
+    private final Executor compactionExecutor;
+    private final SparseArray<@NullableType CachedContent> pendingUpdates;
+    private final RecordEncoder recordEncoder;
+    private final CRC32 crc;
+    /** Records appended to the journal whilst {@link #compaction} is in progress. */
+    private final ByteArrayOutputStream replayBytes;
+    private final DataOutputStream replayOutput;
+
+    @Nullable private MappedByteBuffer mappedBuffer;
+    /** The compaction in progress, whose result is the length of the compacted journal. */
+    @Nullable private FutureTask<Integer> compaction;
+    private int recordCount;
+    private int compactionRecordCount;
+
+    public JournalStorage(File file, Executor compactionExecutor) {
+      this.file = file;
+      this.compactionExecutor = compactionExecutor;
+      compactionFile = new File(file.getPath() + COMPACTION_FILE_SUFFIX);
+      pendingUpdates = new SparseArray<>();
+      recordEncoder = new RecordEncoder();
+      crc = new CRC32();
+      replayBytes = new ByteArrayOutputStream();
+      replayOutput = new DataOutputStream(replayBytes);
+    }
+
+    @Override
+    public void initialize(long uid) {
+      // Do nothing. Journal storage uses a separate file for each cache.
+    }
+
+    @Override
+    public boolean exists() {
+      return file.exists();
+    }
+
+    @Override
+    public void delete() throws IOException {
+      discardCompaction();
+      releaseMappedBuffer();
+      file.delete();
+      compactionFile.delete();
+    }
+
+    @Override
+    public void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      Assertions.checkState(pendingUpdates.size() == 0);
+      // A compaction file is only left behind if the process died whilst it was being written.
+      compactionFile.delete();
+      if (!file.exists()) {
+        return;
+      }
+      MappedByteBuffer buffer = map(/* minLength= */ INITIAL_MAPPED_LENGTH);
+      if (!readJournal(buffer, content, idToKey)) {
+        unmap(buffer);
+        content.clear();
+        idToKey.clear();
+        delete();
+        return;
+      }
+      mappedBuffer = buffer;
+    }
+
+    @Override
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
+      discardCompaction();
+      int length = writeJournal(compactionFile, new ContentSnapshot(content));
+      replaceJournal(length);
+      recordCount = content.size();
+      pendingUpdates.clear();
+    }
+
+    @Override
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
+      if (compaction != null && compaction.isDone()) {
+        finishCompaction();
+      }
+      if (pendingUpdates.size() == 0) {
+        return;
+      }
+      if (mappedBuffer == null) {
+        storeFully(content);
+        return;
+      }
+      MappedByteBuffer buffer = mappedBuffer;
+      for (int i = 0; i < pendingUpdates.size(); i++) {
+        byte[] record = recordEncoder.encode(pendingUpdates.keyAt(i), pendingUpdates.valueAt(i));
+        int checksum = recordEncoder.getChecksum();
+        // Leave space for a terminating zero length after the record.
+        int requiredLength = RECORD_HEADER_LENGTH + record.length + 4;
+        if (buffer.remaining() < requiredLength) {
+          buffer = remap(buffer, requiredLength);
+        }
+        int recordPosition = buffer.position();
+        buffer.position(recordPosition + RECORD_HEADER_LENGTH);
+        buffer.put(record);
+        buffer.putInt(buffer.position(), 0);
+        // Write the record header last, so that the record only becomes visible once complete.
+        buffer.putInt(recordPosition + 4, checksum);
+        buffer.putInt(recordPosition, record.length);
+        recordCount++;
+        if (compaction != null) {
+          replayOutput.writeInt(record.length);
+          replayOutput.writeInt(checksum);
+          replayOutput.write(record);
+          compactionRecordCount++;
+        }
+      }
+      buffer.force();
+      pendingUpdates.clear();
+      if (compaction == null
+          && recordCount >= MIN_RECORD_COUNT_FOR_COMPACTION
+          && recordCount > 2 * content.size()) {
+        startCompaction(content);
+      }
+    }
+
+    @Override
+    public void onUpdate(CachedContent cachedContent) {
+      pendingUpdates.put(cachedContent.id, cachedContent);
+    }
+
+    @Override
+    public void onRemove(CachedContent cachedContent, boolean neverStored) {
+      if (neverStored) {
+        pendingUpdates.delete(cachedContent.id);
+      } else {
+        pendingUpdates.put(cachedContent.id, null);
+      }
+    }
+
+    /** Starts writing a compacted journal containing {@code content} on the compaction executor. */
+    private void startCompaction(Map<String, CachedContent> content) {
+      ContentSnapshot snapshot = new ContentSnapshot(content);
+      FutureTask<Integer> compaction =
+          new FutureTask<>(() -> writeJournal(compactionFile, snapshot));
+      this.compaction = compaction;
+      compactionRecordCount = snapshot.ids.length;
+      replayBytes.reset();
+      compactionExecutor.execute(compaction);
+    }
+
+    /**
+     * Replays the records appended since the completed {@link #compaction} started onto the
+     * compacted journal, and replaces the journal with it.
+     */
+    private void finishCompaction() throws IOException {
+      FutureTask<Integer> compaction = Assertions.checkNotNull(this.compaction);
+      this.compaction = null;
+      int length;
+      try {
+        length = compaction.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        compactionFile.delete();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        compactionFile.delete();
+        Throwable cause = e.getCause();
+        throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+      }
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(compactionFile, "rw")) {
+        randomAccessFile.seek(length);
+        randomAccessFile.write(replayBytes.toByteArray());
+        randomAccessFile.writeInt(0);
+        randomAccessFile.getFD().sync();
+      }
+      length += replayBytes.size();
+      replayBytes.reset();
+      replaceJournal(length);
+      recordCount = compactionRecordCount;
+    }
+
+    /** Waits for any compaction in progress to complete, and discards the compacted journal. */
+    private void discardCompaction() throws IOException {
+      @Nullable FutureTask<Integer> compaction = this.compaction;
+      if (compaction == null) {
+        return;
+      }
+      this.compaction = null;
+      replayBytes.reset();
+      try {
+        compaction.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        // Ignore. The compacted journal is discarded anyway.
+      } finally {
+        compactionFile.delete();
+      }
+    }
+
+    /**
+     * Replaces the journal with the compaction file, and maps it for appending.
+     *
+     * @param length The length of the compacted journal, excluding its terminating zero length.
+     */
+    private void replaceJournal(int length) throws IOException {
+      releaseMappedBuffer();
+      if (!compactionFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + compactionFile + " to " + file);
+      }
+      MappedByteBuffer buffer = map(/* minLength= */ 2L * length);
+      buffer.position(length);
+      mappedBuffer = buffer;
+    }
+
+    /**
+     * Writes a journal containing a record for each content, and syncs it to the file system.
+     *
+     * @param file The file to write.
+     * @param snapshot The content.
+     * @return The length of the journal, excluding its terminating zero length.
+     * @throws IOException If an error occurs writing the journal.
+     */
+    private static int writeJournal(File file, ContentSnapshot snapshot) throws IOException {
+      RecordEncoder recordEncoder = new RecordEncoder();
+      int length = HEADER_LENGTH;
+      FileOutputStream fileOutputStream = new FileOutputStream(file);
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        for (int i = 0; i < snapshot.ids.length; i++) {
+          byte[] record =
+              recordEncoder.encode(snapshot.ids[i], snapshot.keys[i], snapshot.metadata[i]);
+          output.writeInt(record.length);
+          output.writeInt(recordEncoder.getChecksum());
+          output.write(record);
+          length += RECORD_HEADER_LENGTH + record.length;
+        }
+        output.writeInt(0);
+        output.flush();
+        // Sync before the file replaces the journal, so that a crash can't leave a partially
+        // written journal in its place.
+        fileOutputStream.getFD().sync();
+      }
+      return length;
+    }
+
+    /**
+     * Reads the journal, stopping at the first record that is incomplete or corrupt. The buffer is
+     * left positioned where the next record should be appended.
+     *
+     * @return Whether the journal header was valid.
+     */
+    private boolean readJournal(
+        MappedByteBuffer buffer,
+        Map<String, CachedContent> content,
+        SparseArray<@NullableType String> idToKey) {
+      if (buffer.remaining() < HEADER_LENGTH
+          || buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION) {
+        return false;
+      }
+      recordCount = 0;
+      while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+        int recordPosition = buffer.position();
+        int recordLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (recordLength <= 0 || recordLength > buffer.remaining()) {
+          buffer.position(recordPosition);
+          break;
+        }
+        byte[] record = new byte[recordLength];
+        buffer.get(record);
+        crc.reset();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum || !applyRecord(record, content, idToKey)) {
+          buffer.position(recordPosition);
+          break;
+        }
+        recordCount++;
+      }
+      return true;
+    }
+
+    private static boolean applyRecord(
+        byte[] record,
+        Map<String, CachedContent> content,
+        SparseArray<@NullableType String> idToKey) {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+      try {
+        int type = input.readByte();
+        int id = input.readInt();
+        @Nullable String previousKey = idToKey.get(id);
+        if (previousKey != null) {
+          content.remove(previousKey);
+          idToKey.remove(id);
+        }
+        if (type == RECORD_TYPE_UPDATE) {
+          String key = input.readUTF();
+          DefaultContentMetadata metadata = readContentMetadata(input);
+          @Nullable CachedContent previousContent = content.get(key);
+          if (previousContent != null && previousContent.id != id) {
+            idToKey.remove(previousContent.id);
+          }
+          content.put(key, new CachedContent(id, key, metadata));
+          idToKey.put(id, key);
+        } else if (type != RECORD_TYPE_REMOVE) {
+          return false;
+        }
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    /** Maps the journal file, extending it to {@code minLength} bytes if it's shorter. */
+    private MappedByteBuffer map(long minLength) throws IOException {
+      // The mapping remains valid after the file is closed.
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+        long length = max(randomAccessFile.length(), minLength);
+        return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+      }
+    }
+
+    /**
+     * Remaps the journal file so that at least {@code requiredLength} bytes can be appended, and
+     * releases the previous mapping.
+     */
+    private MappedByteBuffer remap(MappedByteBuffer buffer, int requiredLength)
+        throws IOException {
+      int position = buffer.position();
+      long length = buffer.capacity();
+      while (length - position < requiredLength) {
+        length *= 2;
+      }
+      MappedByteBuffer newBuffer = map(length);
+      newBuffer.position(position);
+      unmap(buffer);
+      mappedBuffer = newBuffer;
+      return newBuffer;
+    }
+
+    private void releaseMappedBuffer() {
+      if (mappedBuffer != null) {
+        unmap(mappedBuffer);
+        mappedBuffer = null;
+      }
+    }
+
+    /**
+     * Releases the mapping of a buffer that's no longer used. Otherwise the mapping is only
+     * released once the buffer is garbage collected, so every replaced mapping of the journal
+     * would remain mapped until then. The buffer must not be accessed afterwards.
+     */
+    @SuppressLint("PrivateApi")
+    private static void unmap(MappedByteBuffer buffer) {
+      try {
+        Class.forName("java.nio.NioUtils")
+            .getMethod("freeDirectBuffer", ByteBuffer.class)
+            .invoke(/* obj= */ null, buffer);
+      } catch (Exception e) {
+        // Not supported on this platform. The mapping is released on garbage collection.
+      }
+    }
+
+    /** The ids, keys and metadata of all content, captured for writing on another thread. */
+    private static final class ContentSnapshot {
+
+      public final int[] ids;
+      public final String[] keys;
+      public final DefaultContentMetadata[] metadata;
+
+      public ContentSnapshot(Map<String, CachedContent> content) {
+        int size = content.size();
+        ids = new int[size];
+        keys = new String[size];
+        metadata = new DefaultContentMetadata[size];
+        int i = 0;
+        for (CachedContent cachedContent : content.values()) {
+          ids[i] = cachedContent.id;
+          keys[i] = cachedContent.key;
+          metadata[i] = cachedContent.getMetadata();
+          i++;
+        }
+      }
+    }
+
+    /** Encodes journal records, and computes their checksums. */
+    private static final class RecordEncoder {
+
+      private final ByteArrayOutputStream recordBytes;
+      private final DataOutputStream recordOutput;
+      private final CRC32 crc;
+
+      public RecordEncoder() {
+        recordBytes = new ByteArrayOutputStream();
+        recordOutput = new DataOutputStream(recordBytes);
+        crc = new CRC32();
+      }
+
+      /**
+       * Encodes a record.
+       *
+       * @param id The id of the content.
+       * @param cachedContent The content, or {@code null} if it was removed.
+       * @return The encoded record, whose checksum is returned by {@link #getChecksum()}.
+       */
+      public byte[] encode(int id, @Nullable CachedContent cachedContent) throws IOException {
+        return cachedContent == null
+            ? encode(id, /* key= */ null, /* metadata= */ null)
+            : encode(id, cachedContent.key, cachedContent.getMetadata());
+      }
+
+      /**
+       * Encodes a record.
+       *
+       * @param id The id of the content.
+       * @param key The key of the content, or {@code null} if it was removed.
+       * @param metadata The metadata of the content, or {@code null} if it was removed.
+       * @return The encoded record, whose checksum is returned by {@link #getChecksum()}.
+       */
+      public byte[] encode(
+          int id, @Nullable String key, @Nullable DefaultContentMetadata metadata)
+          throws IOException {
+        recordBytes.reset();
+        if (key == null) {
+          recordOutput.writeByte(RECORD_TYPE_REMOVE);
+          recordOutput.writeInt(id);
+        } else {
+          recordOutput.writeByte(RECORD_TYPE_UPDATE);
+          recordOutput.writeInt(id);
+          recordOutput.writeUTF(key);
+          writeContentMetadata(Assertions.checkNotNull(metadata), recordOutput);
+        }
+        recordOutput.flush();
+        byte[] record = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(record);
+        return record;
+      }
+
+      /** Returns the checksum of the last encoded record. */
+      public int getChecksum() {
+        return (int) crc.getValue();
+      }
+    }
+  }
+
   /** {@link Storage} implementation that uses an SQL database. */
   private static final class DatabaseStorage implements Storage {
 
@@ -811,7 +1354,7 @@ import static java.lang.Math.min;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException {
       Assertions.checkState(pendingUpdates.size() == 0);
       try {
@@ -854,7 +1397,7 @@ import static java.lang.Math.min;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       try {
         SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
         writableDatabase.beginTransactionNonExclusive();
@@ -874,7 +1417,7 @@ import static java.lang.Math.min;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (pendingUpdates.size() == 0) {
         return;
       }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream.cache;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2internal.extractor.CachedRanges;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+
+/**
+ * A {@link CachedRanges.Factory} that reports the ranges of streams that are held in a {@link
+ * Cache}.
+ *
+ * <p>Cache keys are built from {@link DataSpec DataSpecs} that only contain the {@link Uri} of the
+ * stream, so streams that are cached using a custom key are only reported if the {@link
+ * CacheKeyFactory} maps their {@link Uri} to that key.
+ */
+public final class CachedRangesFactory implements CachedRanges.Factory {
+
+  private final Cache cache;
+  private final CacheKeyFactory cacheKeyFactory;
+
+  /**
+   * Creates an instance that uses {@link CacheKeyFactory#DEFAULT}.
+   *
+   * @param cache The {@link Cache} whose content is reported.
+   */
+  public CachedRangesFactory(Cache cache) {
+    this(cache, CacheKeyFactory.DEFAULT);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param cache The {@link Cache} whose content is reported.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} used by the {@link CacheDataSource} that
+   *     reads the streams.
+   */
+  public CachedRangesFactory(Cache cache, CacheKeyFactory cacheKeyFactory) {
+    this.cache = cache;
+    this.cacheKeyFactory = cacheKeyFactory;
+  }
+
+  @Override
+  public CachedRanges createCachedRanges(Uri uri) {
+    String key = cacheKeyFactory.buildCacheKey(new DataSpec(uri));
+    return (position, length) -> cache.getCachedLength(key, position, length);
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream.cache;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.util.Assertions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Evicts cache files using a segmented least recently used (SLRU) policy.
+ *
+ * <p>Newly added spans enter a probationary segment. Spans that are touched again whilst cached
+ * are promoted to a protected segment, whose size is limited to a fraction of the maximum cache
+ * size. Spans are evicted from the least recently used end of the probationary segment first, so
+ * data that is written once and never read again (e.g. by a bulk download) can't flush frequently
+ * read data out of the cache.
+ *
+ * <p>Both segments are intrusive doubly linked lists, so adding, touching and removing a span all
+ * take constant time, unlike {@link LeastRecentlyUsedCacheEvictor}, which keeps spans in a sorted
+ * tree.
+ */
+public final class SegmentedLruCacheEvictor implements CacheEvictor {
+
+  /** The default fraction of the maximum cache size that may be used by the protected segment. */
+  public static final float DEFAULT_PROTECTED_FRACTION = 0.8f;
+
+  private final long maxBytes;
+  private final long maxProtectedBytes;
+  private final HashMap<SpanId, Node> nodes;
+  private final Node probationary;
+  private final Node protectedSegment;
+
+  private long currentSize;
+  private long protectedSize;
+  private boolean initialized;
+
+  /**
+   * Creates an instance using {@link #DEFAULT_PROTECTED_FRACTION}.
+   *
+   * @param maxBytes The maximum size of the cache in bytes.
+   */
+  public SegmentedLruCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_PROTECTED_FRACTION);
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache in bytes.
+   * @param protectedFraction The fraction of {@code maxBytes} that may be used by spans that have
+   *     been touched since they were added.
+   */
+  public SegmentedLruCacheEvictor(long maxBytes, float protectedFraction) {
+    Assertions.checkArgument(protectedFraction >= 0 && protectedFraction <= 1);
+    this.maxBytes = maxBytes;
+    this.maxProtectedBytes = (long) (maxBytes * protectedFraction);
+    nodes = new HashMap<>();
+    probationary = Node.createSentinel();
+    protectedSegment = Node.createSentinel();
+  }
+
+  @Override
+  public boolean requiresCacheSpanTouches() {
+    return true;
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Spans are added in arbitrary order during initialization. Order them by their persisted last
+    // touch timestamps once, so that the initial eviction order matches their recency. Any excess
+    // data is evicted when the next span is written.
+    ArrayList<Node> initialNodes = new ArrayList<>(nodes.values());
+    Collections.sort(
+        initialNodes,
+        (lhs, rhs) ->
+            Long.compare(
+                Assertions.checkNotNull(lhs.span).lastTouchTimestamp,
+                Assertions.checkNotNull(rhs.span).lastTouchTimestamp));
+    for (int i = 0; i < initialNodes.size(); i++) {
+      Node node = initialNodes.get(i);
+      node.unlink();
+      node.linkBefore(probationary);
+    }
+    initialized = true;
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    if (length != C.LENGTH_UNSET) {
+      evictCache(cache, length);
+    }
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    Node node = new Node(span);
+    nodes.put(new SpanId(span), node);
+    node.linkBefore(probationary);
+    currentSize += span.length;
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    @Nullable Node node = nodes.remove(new SpanId(span));
+    if (node == null) {
+      return;
+    }
+    node.unlink();
+    currentSize -= span.length;
+    if (node.isProtected) {
+      protectedSize -= span.length;
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    @Nullable Node node = nodes.get(new SpanId(oldSpan));
+    if (node == null) {
+      onSpanAdded(cache, newSpan);
+      return;
+    }
+    node.span = newSpan;
+    node.unlink();
+    if (!node.isProtected) {
+      node.isProtected = true;
+      protectedSize += newSpan.length;
+    }
+    node.linkBefore(protectedSegment);
+    // Demote the least recently used protected spans if the protected segment is too large.
+    while (protectedSize > maxProtectedBytes && protectedSegment.next != protectedSegment) {
+      Node demoted = Assertions.checkNotNull(protectedSegment.next);
+      demoted.unlink();
+      demoted.isProtected = false;
+      protectedSize -= Assertions.checkNotNull(demoted.span).length;
+      demoted.linkBefore(probationary);
+    }
+  }
+
+  private void evictCache(Cache cache, long requiredSpace) {
+    if (!initialized) {
+      return;
+    }
+    while (currentSize + requiredSpace > maxBytes && !nodes.isEmpty()) {
+      Node victim =
+          Assertions.checkNotNull(
+              probationary.next != probationary ? probationary.next : protectedSegment.next);
+      CacheSpan victimSpan = Assertions.checkNotNull(victim.span);
+      // Removing the span calls back into onSpanRemoved, which unlinks the victim.
+      cache.removeSpan(victimSpan);
+      if (victim.prev != null) {
+        // The cache didn't hold the span, so it wasn't removed. Drop it to avoid looping forever.
+        onSpanRemoved(cache, victimSpan);
+      }
+    }
+  }
+
+  /** Identifies a span independently of its file and last touch timestamp. */
+  private static final class SpanId {
+
+    private final String key;
+    private final long position;
+
+    public SpanId(CacheSpan span) {
+      key = span.key;
+      position = span.position;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SpanId other = (SpanId) o;
+      return position == other.position && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * key.hashCode() + (int) (position ^ (position >>> 32));
+    }
+  }
+
+  /**
+   * A node in one of the segment lists. Each segment has a sentinel node, whose {@code next} is the
+   * least recently used node and whose {@code prev} is the most recently used node. Only sentinel
+   * nodes have a {@code null} span, and only unlinked nodes have {@code null} links.
+   */
+  private static final class Node {
+
+    @Nullable private CacheSpan span;
+    @Nullable private Node prev;
+    @Nullable private Node next;
+    private boolean isProtected;
+
+    public Node(@Nullable CacheSpan span) {
+      this.span = span;
+    }
+
+    public static Node createSentinel() {
+      Node sentinel = new Node(/* span= */ null);
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+      return sentinel;
+    }
+
+    /** Links this node as the most recently used node of the segment with the given sentinel. */
+    public void linkBefore(Node sentinel) {
+      Node mostRecentlyUsed = Assertions.checkNotNull(sentinel.prev);
+      prev = mostRecentlyUsed;
+      next = sentinel;
+      mostRecentlyUsed.next = this;
+      sentinel.prev = this;
+    }
+
+    /** Unlinks this node from its segment. */
+    public void unlink() {
+      @Nullable Node prev = this.prev;
+      if (prev != null) {
+        Node next = Assertions.checkNotNull(this.next);
+        prev.next = next;
+        next.prev = prev;
+        this.prev = null;
+        this.next = null;
+      }
+    }
+  }
+}
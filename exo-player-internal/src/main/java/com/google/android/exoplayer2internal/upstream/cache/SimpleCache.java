@@ -49,6 +49,15 @@ import java.util.TreeSet;
  * <p>To delete a SimpleCache, use {@link #delete(File, DatabaseProvider)} rather than deleting the
  * directory and its contents directly. This is necessary to ensure that associated index data is
  * also removed.
+ *
+ * <p>Per-key state held in {@link CachedContent} is guarded by one of a set of striped key locks,
+ * so that reads and writes of different keys don't contend with each other. This helps when several
+ * writers (e.g. parallel downloads) and readers use the cache at the same time. Locking a range for
+ * writing, releasing it, and cache hits that don't need span touching hold just the key lock.
+ * Global state (the total cache space, listeners and the {@link CacheEvictor}) is guarded by the
+ * instance monitor, which is held only whilst a span is added, touched or removed, so the set of
+ * cached spans is only changed whilst holding both. The {@link CachedContentIndex} serializes its
+ * own changes, so the file index and the content index are written without holding either lock.
  */
 public final class SimpleCache implements Cache {
 
@@ -62,6 +71,8 @@ public final class SimpleCache implements Cache {
   private static final int SUBDIRECTORY_COUNT = 10;
 
   private static final String UID_FILE_SUFFIX = ".uid";
+  /** The number of key locks. Must be a power of two. */
+  private static final int KEY_LOCK_STRIPE_COUNT = 32;
 
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
 
@@ -72,10 +83,12 @@ public final class SimpleCache implements Cache {
   private final HashMap<String, ArrayList<Listener>> listeners;
   private final Random random;
   private final boolean touchCacheSpans;
+  private final KeyLock[] keyLocks;
 
   private long uid;
-  private long totalSpace;
-  private boolean released;
+  private volatile long totalSpace;
+  private volatile boolean released;
+  private volatile boolean initialized;
   private @MonotonicNonNull CacheException initializationException;
 
   /**
@@ -128,6 +141,31 @@ public final class SimpleCache implements Cache {
     Util.recursiveDelete(cacheDir);
   }
 
+  /**
+   * Creates a cache whose index is stored in an append-only journal in the cache directory. Storing
+   * the index then costs time proportional to the number of changed resources rather than to the
+   * total number of resources, which makes this index preferable for caches holding very many
+   * resources. A legacy index in the cache directory is migrated when the cache is initialized.
+   *
+   * <p>The cache will delete any unrecognized files from the directory. Hence the directory cannot
+   * be used to store other files.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used. For download use cases where cache eviction should not
+   *     occur, use {@link NoOpCacheEvictor}.
+   * @param legacyIndexSecretKey A 16 byte AES key for reading a legacy index that is to be migrated,
+   *     or {@code null} if any legacy index is not encrypted.
+   * @return The cache.
+   */
+  public static SimpleCache createWithJournalIndex(
+      File cacheDir, CacheEvictor evictor, @Nullable byte[] legacyIndexSecretKey) {
+    return new SimpleCache(
+        cacheDir,
+        evictor,
+        new CachedContentIndex(cacheDir, legacyIndexSecretKey),
+        /* fileIndex= */ null);
+  }
+
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
    * the directory cannot be used to store other files.
@@ -260,6 +298,10 @@ public final class SimpleCache implements Cache {
     listeners = new HashMap<>();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
+    keyLocks = new KeyLock[KEY_LOCK_STRIPE_COUNT];
+    for (int i = 0; i < keyLocks.length; i++) {
+      keyLocks[i] = new KeyLock();
+    }
     uid = UID_UNSET;
 
     // Start cache initialization.
@@ -271,6 +313,7 @@ public final class SimpleCache implements Cache {
           conditionVariable.open();
           initialize();
           SimpleCache.this.evictor.onCacheInitialized();
+          initialized = true;
         }
       }
     }.start();
@@ -282,7 +325,8 @@ public final class SimpleCache implements Cache {
    *
    * @throws CacheException If an error occurred during initialization.
    */
-  public synchronized void checkInitialization() throws CacheException {
+  public void checkInitialization() throws CacheException {
+    blockUntilInitialized();
     if (initializationException != null) {
       throw initializationException;
     }
@@ -339,12 +383,15 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
     Assertions.checkState(!released);
-    CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent == null || cachedContent.isEmpty()
-        ? new TreeSet<>()
-        : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent == null || cachedContent.isEmpty()
+          ? new TreeSet<>()
+          : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    }
   }
 
   @Override
@@ -354,54 +401,75 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized long getCacheSpace() {
+  public long getCacheSpace() {
     Assertions.checkState(!released);
     return totalSpace;
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position, long length)
+  public CacheSpan startReadWrite(String key, long position, long length)
       throws InterruptedException, CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
+    KeyLock keyLock = getKeyLock(key);
     while (true) {
-      CacheSpan span = startReadWriteNonBlocking(key, position, length);
+      int changeCount;
+      synchronized (keyLock) {
+        changeCount = keyLock.changeCount;
+      }
+      @Nullable CacheSpan span = startReadWriteNonBlocking(key, position, length);
       if (span != null) {
         return span;
-      } else {
-        // Lock not available. We'll be woken up when a span is added, or when a locked span is
-        // released. We'll be able to make progress when either:
-        // 1. A span is added for the requested key that covers the requested position, in which
-        //    case a read can be started.
-        // 2. The lock for the requested key is released, in which case a write can be started.
-        wait();
+      }
+      // Lock not available. We'll be woken up when a span is added, or when a locked span is
+      // released. We'll be able to make progress when either:
+      // 1. A span is added for the requested key that covers the requested position, in which
+      //    case a read can be started.
+      // 2. The lock for the requested key is released, in which case a write can be started.
+      synchronized (keyLock) {
+        while (keyLock.changeCount == changeCount) {
+          keyLock.wait();
+        }
       }
     }
   }
 
   @Override
   @Nullable
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+  public CacheSpan startReadWriteNonBlocking(String key, long position, long length)
       throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    SimpleCacheSpan span = getSpan(key, position, length);
-
-    if (span.isCached) {
-      // Read case.
-      return touchSpan(key, span);
-    }
+    KeyLock keyLock = getKeyLock(key);
+    while (true) {
+      synchronized (keyLock) {
+        @Nullable CachedContent cachedContent = contentIndex.get(key);
+        SimpleCacheSpan span =
+            cachedContent != null
+                ? cachedContent.getSpan(position, length)
+                : SimpleCacheSpan.createHole(key, position, length);
+        if (!span.isCached) {
+          // Write case, which only changes per-key state. Returns null if the lock isn't available.
+          return contentIndex.getOrAdd(key).lockRange(position, span.length) ? span : null;
+        } else if (!touchCacheSpans && span.file.length() == span.length) {
+          // Read case. Reads don't need to update global state, so cache hits can be served whilst
+          // holding only the key lock.
+          return span;
+        }
+      }
 
-    CachedContent cachedContent = contentIndex.getOrAdd(key);
-    if (cachedContent.lockRange(position, span.length)) {
-      // Write case.
-      return span;
+      // The span needs touching, or is stale, both of which update global state.
+      synchronized (this) {
+        SimpleCacheSpan span = getSpan(key, position, length);
+        if (span.isCached) {
+          // Read case.
+          return touchSpan(key, span);
+        }
+      }
+      // The span was removed, so try again to start a write.
     }
-
-    // Lock not available.
-    return null;
   }
 
   @Override
@@ -411,7 +479,9 @@ public final class SimpleCache implements Cache {
 
     CachedContent cachedContent = contentIndex.get(key);
     Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isFullyLocked(position, length));
+    synchronized (getKeyLock(key)) {
+      Assertions.checkState(cachedContent.isFullyLocked(position, length));
+    }
     if (!cacheDir.exists()) {
       // For some reason the cache directory doesn't exist. Make a best effort to create it.
       cacheDir.mkdirs();
@@ -428,7 +498,7 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized void commitFile(File file, long length) throws CacheException {
+  public void commitFile(File file, long length) throws CacheException {
     Assertions.checkState(!released);
     if (!file.exists()) {
       return;
@@ -440,15 +510,19 @@ public final class SimpleCache implements Cache {
 
     SimpleCacheSpan span =
         Assertions.checkNotNull(SimpleCacheSpan.createCacheEntry(file, length, contentIndex));
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
-    Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
-
-    // Check if the span conflicts with the set content length
-    long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
-    if (contentLength != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= contentLength);
+    synchronized (getKeyLock(span.key)) {
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(span.key));
+      Assertions.checkState(cachedContent.isFullyLocked(span.position, span.length));
+
+      // Check if the span conflicts with the set content length
+      long contentLength = ContentMetadata.getContentLength(cachedContent.getMetadata());
+      if (contentLength != C.LENGTH_UNSET) {
+        Assertions.checkState((span.position + span.length) <= contentLength);
+      }
     }
 
+    // The range is locked by the caller, so the file and its index entry can be written without
+    // holding either lock.
     if (fileIndex != null) {
       String fileName = file.getName();
       try {
@@ -457,22 +531,27 @@ public final class SimpleCache implements Cache {
         throw new CacheException(e);
       }
     }
-    addSpan(span);
+    synchronized (this) {
+      addSpan(span);
+    }
     try {
       contentIndex.store();
     } catch (IOException e) {
       throw new CacheException(e);
+    } finally {
+      notifyKeyLockWaiters(span.key);
     }
-    notifyAll();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
+  public void releaseHoleSpan(CacheSpan holeSpan) {
     Assertions.checkState(!released);
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
-    cachedContent.unlockRange(holeSpan.position);
-    contentIndex.maybeRemove(cachedContent.key);
-    notifyAll();
+    synchronized (getKeyLock(holeSpan.key)) {
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
+      cachedContent.unlockRange(holeSpan.position);
+      contentIndex.maybeRemove(cachedContent.key);
+    }
+    notifyKeyLockWaiters(holeSpan.key);
   }
 
   @Override
@@ -490,24 +569,31 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
+  public boolean isCached(String key, long position, long length) {
     Assertions.checkState(!released);
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null
+          && cachedContent.getCachedBytesLength(position, length) >= length;
+    }
   }
 
   @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
+  public long getCachedLength(String key, long position, long length) {
     Assertions.checkState(!released);
+    blockUntilInitialized();
     if (length == C.LENGTH_UNSET) {
       length = Long.MAX_VALUE;
     }
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
+    synchronized (getKeyLock(key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(key);
+      return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
+    }
   }
 
   @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
+  public long getCachedBytes(String key, long position, long length) {
     long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
     if (endPosition < 0) {
       // The calculation rolled over (length is probably Long.MAX_VALUE).
@@ -515,27 +601,33 @@ public final class SimpleCache implements Cache {
     }
     long currentPosition = position;
     long cachedBytes = 0;
-    while (currentPosition < endPosition) {
-      long maxRemainingLength = endPosition - currentPosition;
-      long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
-      if (blockLength > 0) {
-        cachedBytes += blockLength;
-      } else {
-        // There's a hole of length -blockLength.
-        blockLength = -blockLength;
+    // Must not block on initialization whilst holding the key lock.
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      while (currentPosition < endPosition) {
+        long maxRemainingLength = endPosition - currentPosition;
+        long blockLength = getCachedLength(key, currentPosition, maxRemainingLength);
+        if (blockLength > 0) {
+          cachedBytes += blockLength;
+        } else {
+          // There's a hole of length -blockLength.
+          blockLength = -blockLength;
+        }
+        currentPosition += blockLength;
       }
-      currentPosition += blockLength;
     }
     return cachedBytes;
   }
 
   @Override
-  public synchronized void applyContentMetadataMutations(
-      String key, ContentMetadataMutations mutations) throws CacheException {
+  public void applyContentMetadataMutations(String key, ContentMetadataMutations mutations)
+      throws CacheException {
     Assertions.checkState(!released);
     checkInitialization();
 
-    contentIndex.applyContentMetadataMutations(key, mutations);
+    synchronized (getKeyLock(key)) {
+      contentIndex.applyContentMetadataMutations(key, mutations);
+    }
     try {
       contentIndex.store();
     } catch (IOException e) {
@@ -544,9 +636,12 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized ContentMetadata getContentMetadata(String key) {
+  public ContentMetadata getContentMetadata(String key) {
     Assertions.checkState(!released);
-    return contentIndex.getContentMetadata(key);
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      return contentIndex.getContentMetadata(key);
+    }
   }
 
   /** Ensures that the cache's in-memory representation has been initialized. */
@@ -597,7 +692,7 @@ public final class SimpleCache implements Cache {
       return;
     }
 
-    contentIndex.removeEmpty();
+    removeEmptyContent();
     try {
       contentIndex.store();
     } catch (IOException e) {
@@ -686,8 +781,10 @@ public final class SimpleCache implements Cache {
       // updating the file index. Hence we only update the file if we don't have a file index.
       updateFile = true;
     }
-    SimpleCacheSpan newSpan =
-        contentIndex.get(key).setLastTouchTimestamp(span, lastTouchTimestamp, updateFile);
+    SimpleCacheSpan newSpan;
+    synchronized (getKeyLock(key)) {
+      newSpan = contentIndex.get(key).setLastTouchTimestamp(span, lastTouchTimestamp, updateFile);
+    }
     notifySpanTouched(span, newSpan);
     return newSpan;
   }
@@ -702,12 +799,15 @@ public final class SimpleCache implements Cache {
    * @return The corresponding cache {@link SimpleCacheSpan}.
    */
   private SimpleCacheSpan getSpan(String key, long position, long length) {
-    @Nullable CachedContent cachedContent = contentIndex.get(key);
-    if (cachedContent == null) {
-      return SimpleCacheSpan.createHole(key, position, length);
-    }
     while (true) {
-      SimpleCacheSpan span = cachedContent.getSpan(position, length);
+      SimpleCacheSpan span;
+      synchronized (getKeyLock(key)) {
+        @Nullable CachedContent cachedContent = contentIndex.get(key);
+        if (cachedContent == null) {
+          return SimpleCacheSpan.createHole(key, position, length);
+        }
+        span = cachedContent.getSpan(position, length);
+      }
       if (span.isCached && span.file.length() != span.length) {
         // The file has been modified or deleted underneath us. It's likely that other files will
         // have been modified too, so scan the whole in-memory representation.
@@ -724,15 +824,20 @@ public final class SimpleCache implements Cache {
    * @param span The span to be added.
    */
   private void addSpan(SimpleCacheSpan span) {
-    contentIndex.getOrAdd(span.key).addSpan(span);
+    synchronized (getKeyLock(span.key)) {
+      contentIndex.getOrAdd(span.key).addSpan(span);
+    }
     totalSpace += span.length;
     notifySpanAdded(span);
   }
 
   private void removeSpanInternal(CacheSpan span) {
-    @Nullable CachedContent cachedContent = contentIndex.get(span.key);
-    if (cachedContent == null || !cachedContent.removeSpan(span)) {
-      return;
+    synchronized (getKeyLock(span.key)) {
+      @Nullable CachedContent cachedContent = contentIndex.get(span.key);
+      if (cachedContent == null || !cachedContent.removeSpan(span)) {
+        return;
+      }
+      contentIndex.maybeRemove(cachedContent.key);
     }
     totalSpace -= span.length;
     if (fileIndex != null) {
@@ -745,10 +850,50 @@ public final class SimpleCache implements Cache {
         Log.w(TAG, "Failed to remove file index entry for: " + fileName);
       }
     }
-    contentIndex.maybeRemove(cachedContent.key);
     notifySpanRemoved(span);
   }
 
+  /** Removes all {@link CachedContent CachedContents} that are both empty and unlocked. */
+  private void removeEmptyContent() {
+    for (String key : new ArrayList<>(contentIndex.getKeys())) {
+      synchronized (getKeyLock(key)) {
+        contentIndex.maybeRemove(key);
+      }
+    }
+  }
+
+  /**
+   * Returns the lock guarding the per-key state of the given key. Must not be held when acquiring
+   * the instance monitor.
+   */
+  private KeyLock getKeyLock(String key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return keyLocks[hash & (keyLocks.length - 1)];
+  }
+
+  /** Wakes up threads blocked in {@link #startReadWrite} waiting for changes to the given key. */
+  private void notifyKeyLockWaiters(String key) {
+    KeyLock keyLock = getKeyLock(key);
+    synchronized (keyLock) {
+      keyLock.changeCount++;
+      keyLock.notifyAll();
+    }
+  }
+
+  /**
+   * Blocks until cache initialization has completed. Methods that don't acquire the instance
+   * monitor must call this before reading the index.
+   */
+  private void blockUntilInitialized() {
+    if (!initialized) {
+      // Initialization holds the instance monitor, so acquiring it blocks until it has completed.
+      synchronized (this) {
+        Assertions.checkState(initialized);
+      }
+    }
+  }
+
   /**
    * Scans all of the cached spans in the in-memory representation, removing any for which the
    * underlying file lengths no longer match.
@@ -845,4 +990,14 @@ public final class SimpleCache implements Cache {
   private static synchronized void unlockFolder(File cacheDir) {
     lockedCacheDirs.remove(cacheDir.getAbsoluteFile());
   }
+
+  /** Guards per-key state for the keys that map to it. */
+  private static final class KeyLock {
+
+    /**
+     * Incremented whenever spans are added or locked ranges are released for a key that maps to
+     * this lock. Used by waiters in {@link #startReadWrite} to detect missed notifications.
+     */
+    public int changeCount;
+  }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.util;
+
+/**
+ * Searches byte arrays for the patterns that extractors scan for in every byte of their input.
+ *
+ * <p>Implementations must return identical results, and differ only in how they scan.
+ */
+public interface ByteArrayScanner {
+
+  /** Scans one byte at a time. */
+  ByteArrayScanner SCALAR = new ScalarByteArrayScanner();
+
+  /** Scans eight bytes at a time, reading them as a {@code long}. */
+  ByteArrayScanner WORD_AT_A_TIME = new WordAtATimeByteArrayScanner();
+
+  /**
+   * Returns the index of the first occurrence of {@code value} within the range [{@code
+   * fromIndex}, {@code toIndex}) of {@code data}, or {@code toIndex} if there's none.
+   */
+  int indexOf(byte[] data, int fromIndex, int toIndex, byte value);
+
+  /**
+   * Returns the index of the first byte of the first start code prefix ({@code 0x000001}) that's
+   * entirely contained within the range [{@code fromIndex}, {@code toIndex}) of {@code data}, or
+   * {@code toIndex} if there's none.
+   */
+  int indexOfStartCode(byte[] data, int fromIndex, int toIndex);
+}
@@ -27,6 +27,8 @@ public final class NalUnitUtil {
 
   private static final String TAG = "NalUnitUtil";
 
+  private static volatile ByteArrayScanner byteArrayScanner = ByteArrayScanner.SCALAR;
+
   /**
    * Holds data parsed from a sequence parameter set NAL unit.
    */
@@ -404,6 +406,16 @@ public final class NalUnitUtil {
     return new PpsData(picParameterSetId, seqParameterSetId, bottomFieldPicOrderInFramePresentFlag);
   }
 
+  /**
+   * Sets the {@link ByteArrayScanner} used by {@link #findNalUnit(byte[], int, int, boolean[])} to
+   * search for start code prefixes. The default is {@link ByteArrayScanner#SCALAR}.
+   *
+   * @param scanner The {@link ByteArrayScanner} to use.
+   */
+  public static void setByteArrayScanner(ByteArrayScanner scanner) {
+    byteArrayScanner = scanner;
+  }
+
   /**
    * Finds the first NAL unit in {@code data}.
    * <p>
@@ -448,21 +460,13 @@ public final class NalUnitUtil {
       return startOffset - 1;
     }
 
+    // We're looking for the NAL unit start code prefix 0x000001. A prefix ending at the last byte
+    // is found through the prefix flags by the next call.
     int limit = endOffset - 1;
-    // We're looking for the NAL unit start code prefix 0x000001. The value of i tracks the index of
-    // the third byte.
-    for (int i = startOffset + 2; i < limit; i += 3) {
-      if ((data[i] & 0xFE) != 0) {
-        // There isn't a NAL prefix here, or at the next two positions. Do nothing and let the
-        // loop advance the index by three.
-      } else if (data[i - 2] == 0 && data[i - 1] == 0 && data[i] == 1) {
-        clearPrefixFlags(prefixFlags);
-        return i - 2;
-      } else {
-        // There isn't a NAL prefix here, but there might be at the next position. We should
-        // only skip forward by one. The loop will skip forward by three, so subtract two here.
-        i -= 2;
-      }
+    int nalUnitOffset = byteArrayScanner.indexOfStartCode(data, startOffset, limit);
+    if (nalUnitOffset < limit) {
+      clearPrefixFlags(prefixFlags);
+      return nalUnitOffset;
     }
 
     // True if the last three bytes in the data seen so far are {0,0,1}.
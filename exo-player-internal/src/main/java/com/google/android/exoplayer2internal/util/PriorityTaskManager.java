@@ -79,6 +79,31 @@ public final class PriorityTaskManager {
     }
   }
 
+  /**
+   * Blocks until the task is allowed to proceed, or until {@code clock} reaches {@code deadlineMs}.
+   *
+   * <p>The deadline is measured by the caller's {@link Clock}, so that it's consistent with the
+   * time the caller uses to decide how long to block.
+   *
+   * @param priority The priority of the task.
+   * @param deadlineMs The {@link Clock#elapsedRealtime()} at which to stop blocking, in
+   *     milliseconds.
+   * @param clock The {@link Clock} against which {@code deadlineMs} is measured.
+   * @return Whether the task is allowed to proceed.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  public boolean proceedUntil(int priority, long deadlineMs, Clock clock)
+      throws InterruptedException {
+    synchronized (lock) {
+      long remainingMs = deadlineMs - clock.elapsedRealtime();
+      while (highestPriority != priority && remainingMs > 0) {
+        lock.wait(remainingMs);
+        remainingMs = deadlineMs - clock.elapsedRealtime();
+      }
+      return highestPriority == priority;
+    }
+  }
+
   /**
    * A non-blocking variant of {@link #proceed(int)}.
    *
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.util;
+
+/** A {@link ByteArrayScanner} that scans one byte at a time. */
+public final class ScalarByteArrayScanner implements ByteArrayScanner {
+
+  @Override
+  public int indexOf(byte[] data, int fromIndex, int toIndex, byte value) {
+    int index = fromIndex;
+    while (index < toIndex && data[index] != value) {
+      index++;
+    }
+    return index;
+  }
+
+  @Override
+  public int indexOfStartCode(byte[] data, int fromIndex, int toIndex) {
+    // The value of i tracks the index of the third byte.
+    for (int i = fromIndex + 2; i < toIndex; i += 3) {
+      if ((data[i] & 0xFE) != 0) {
+        // There isn't a start code here, or at the next two positions. Do nothing and let the
+        // loop advance the index by three.
+      } else if (data[i - 2] == 0 && data[i - 1] == 0 && data[i] == 1) {
+        return i - 2;
+      } else {
+        // There isn't a start code here, but there might be at the next position. We should
+        // only skip forward by one. The loop will skip forward by three, so subtract two here.
+        i -= 2;
+      }
+    }
+    return toIndex;
+  }
+}
@@ -73,6 +73,8 @@ import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -1401,6 +1403,16 @@ public final class Util {
     return result.toString();
   }
 
+  /** Returns a new {@link MessageDigest} that computes SHA-256 digests. */
+  public static MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Android platform implementation is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Returns a string with comma delimited simple names of each object's class.
    *
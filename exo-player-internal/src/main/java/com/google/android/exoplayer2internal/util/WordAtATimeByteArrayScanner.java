@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ByteArrayScanner} that scans eight bytes at a time, reading them as a {@code long}
+ * through a {@link ByteBuffer} view of the array and detecting matching bytes with bitwise
+ * arithmetic.
+ *
+ * <p>Short ranges are scanned one byte at a time, as creating the view costs more than scanning
+ * them does.
+ */
+public final class WordAtATimeByteArrayScanner implements ByteArrayScanner {
+
+  private static final int MIN_WORD_SCAN_LENGTH = 64;
+
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long ALL_BUT_LOW_BITS = ~LOW_BITS;
+
+  @Override
+  public int indexOf(byte[] data, int fromIndex, int toIndex, byte value) {
+    if (fromIndex < toIndex && data[fromIndex] == value) {
+      // Fast path for callers that usually find the value immediately, like TS sync byte search.
+      return fromIndex;
+    }
+    if (toIndex - fromIndex < MIN_WORD_SCAN_LENGTH) {
+      return SCALAR.indexOf(data, fromIndex, toIndex, value);
+    }
+    ByteBuffer buffer = wrap(data);
+    long pattern = (value & 0xFFL) * LOW_BITS;
+    int index = fromIndex;
+    for (int wordLimit = toIndex - 8; index <= wordLimit; index += 8) {
+      long matchingBytes = findZeroBytes(buffer.getLong(index) ^ pattern);
+      if (matchingBytes != 0) {
+        return index + (Long.numberOfTrailingZeros(matchingBytes) >> 3);
+      }
+    }
+    return SCALAR.indexOf(data, index, toIndex, value);
+  }
+
+  @Override
+  public int indexOfStartCode(byte[] data, int fromIndex, int toIndex) {
+    if (toIndex - fromIndex < MIN_WORD_SCAN_LENGTH) {
+      return SCALAR.indexOfStartCode(data, fromIndex, toIndex);
+    }
+    ByteBuffer buffer = wrap(data);
+    // The value of index tracks the index of the third byte. Bytes that are 0x00 or 0x01 are
+    // candidates for the third byte, and are checked individually.
+    int index = fromIndex + 2;
+    for (int wordLimit = toIndex - 8; index <= wordLimit; index += 8) {
+      long candidateBytes = findZeroBytes(buffer.getLong(index) & ALL_BUT_LOW_BITS);
+      while (candidateBytes != 0) {
+        int candidateIndex = index + (Long.numberOfTrailingZeros(candidateBytes) >> 3);
+        if (isStartCodeEndingAt(data, candidateIndex)) {
+          return candidateIndex - 2;
+        }
+        candidateBytes &= candidateBytes - 1;
+      }
+    }
+    for (; index < toIndex; index++) {
+      if (isStartCodeEndingAt(data, index)) {
+        return index - 2;
+      }
+    }
+    return toIndex;
+  }
+
+  private static ByteBuffer wrap(byte[] data) {
+    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns a word whose bytes have their high bit set if the corresponding byte of {@code word}
+   * may be zero. The lowest set bit always corresponds to a zero byte, but higher set bits may be
+   * false positives. No zero byte is ever missed.
+   */
+  private static long findZeroBytes(long word) {
+    return (word - LOW_BITS) & ~word & HIGH_BITS;
+  }
+
+  private static boolean isStartCodeEndingAt(byte[] data, int index) {
+    return data[index] == 1 && data[index - 1] == 0 && data[index - 2] == 0;
+  }
+}
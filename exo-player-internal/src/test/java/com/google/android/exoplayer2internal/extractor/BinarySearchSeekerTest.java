@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2internal.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit test for {@link BinarySearchSeeker}. */
+@RunWith(AndroidJUnit4.class)
+public final class BinarySearchSeekerTest {
+
+  // The test stream consists of fixed length frames, where the timestamp of each frame is equal to
+  // its byte position.
+  private static final int STREAM_LENGTH = 4_000_000;
+  private static final int FRAME_LENGTH = 1000;
+  private static final int SEARCH_LENGTH = 10_000;
+  private static final int MINIMUM_SEARCH_RANGE = 2 * FRAME_LENGTH;
+
+  private ByteArrayDataSource dataSource;
+  private TestTimestampSeeker timestampSeeker;
+  private TestBinarySearchSeeker binarySearchSeeker;
+  private int requestCount;
+
+  @Before
+  public void setUp() {
+    dataSource = new ByteArrayDataSource(new byte[STREAM_LENGTH]);
+    timestampSeeker = new TestTimestampSeeker();
+    binarySearchSeeker = new TestBinarySearchSeeker(timestampSeeker);
+  }
+
+  @Test
+  public void handlePendingSeek_findsTargetFrame() throws IOException {
+    long timeUs = 1_234_567;
+
+    ExtractorInput input = seek(timeUs);
+
+    assertThat(input.getPosition()).isAtMost(timeUs);
+    assertThat(input.getPosition()).isGreaterThan(timeUs - FRAME_LENGTH - MINIMUM_SEARCH_RANGE);
+  }
+
+  @Test
+  public void handlePendingSeek_toPreviouslySoughtTime_searchesForwardFromSeekPoint()
+      throws IOException {
+    long timeUs = 2_345_678;
+    long firstSeekPosition = seek(timeUs).getPosition();
+    requestCount = 0;
+
+    ExtractorInput input = seek(timeUs);
+
+    assertThat(requestCount).isEqualTo(1);
+    assertThat(input.getPosition()).isEqualTo(firstSeekPosition);
+  }
+
+  @Test
+  public void getSeekPoints_afterManySeeks_narrowsToTimestampsOfLatestSeek() throws IOException {
+    // Seek to enough different times to reach the limit of retained timestamps.
+    for (int i = 0; i < 1000; i++) {
+      seek((i * 1_234_567L) % (STREAM_LENGTH - 100_000) + 50_000);
+    }
+    long timeUs = 3_333_333;
+    seek(timeUs);
+
+    long position = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+
+    assertThat(position).isAtMost(timeUs);
+    assertThat(position).isAtLeast(timeUs - MINIMUM_SEARCH_RANGE);
+  }
+
+  @Test
+  public void getSeekPoints_withNearbyCachedRange_doesNotQueryCachedRanges() {
+    long timeUs = 2_000_000;
+    long estimatedPosition = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+    binarySearchSeeker.setCachedRanges(
+        (position, length) -> {
+          throw new IllegalStateException();
+        });
+
+    long position = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+
+    assertThat(position).isEqualTo(estimatedPosition);
+  }
+
+  @Test
+  public void handlePendingSeek_requiringNewRequestWithNearbyCachedRange_seeksToCachedRange()
+      throws IOException {
+    long timeUs = 2_000_000;
+    long estimatedPosition = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+    long cachedStartPosition = estimatedPosition + 50_000;
+    long cachedEndPosition = estimatedPosition + 150_000;
+    binarySearchSeeker.setCachedRanges(createCachedRanges(cachedStartPosition, cachedEndPosition));
+    binarySearchSeeker.setSeekTargetUs(timeUs);
+    PositionHolder positionHolder = new PositionHolder();
+
+    int result = binarySearchSeeker.handlePendingSeek(openInput(/* position= */ 0), positionHolder);
+
+    assertThat(result).isEqualTo(Extractor.RESULT_SEEK);
+    assertThat(positionHolder.position).isEqualTo(cachedStartPosition);
+  }
+
+  @Test
+  public void handlePendingSeek_withDistantCachedRange_seeksToEstimatedPosition()
+      throws IOException {
+    long timeUs = 2_000_000;
+    long estimatedPosition = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+    binarySearchSeeker.setCachedRanges(
+        createCachedRanges(
+            /* cachedStartPosition= */ STREAM_LENGTH - 100_000,
+            /* cachedEndPosition= */ STREAM_LENGTH));
+    binarySearchSeeker.setSeekTargetUs(timeUs);
+    PositionHolder positionHolder = new PositionHolder();
+
+    int result = binarySearchSeeker.handlePendingSeek(openInput(/* position= */ 0), positionHolder);
+
+    assertThat(result).isEqualTo(Extractor.RESULT_SEEK);
+    assertThat(positionHolder.position).isEqualTo(estimatedPosition);
+  }
+
+  @Test
+  public void handlePendingSeek_fromSeekPointWithNearbyCachedRange_searchesFromSeekPoint()
+      throws IOException {
+    long timeUs = 2_000_000;
+    long seekPosition = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+    binarySearchSeeker.setCachedRanges(
+        createCachedRanges(
+            /* cachedStartPosition= */ seekPosition + 50_000,
+            /* cachedEndPosition= */ seekPosition + 150_000));
+    binarySearchSeeker.setSeekTargetUs(timeUs);
+
+    binarySearchSeeker.handlePendingSeek(openInput(seekPosition), new PositionHolder());
+
+    assertThat(timestampSeeker.searchPositions.get(0)).isEqualTo(seekPosition);
+  }
+
+  /**
+   * Seeks {@link #binarySearchSeeker} to {@code timeUs}, starting from the position returned by its
+   * seek map as a player would, and returns the input positioned at the result of the seek.
+   */
+  private ExtractorInput seek(long timeUs) throws IOException {
+    long position = binarySearchSeeker.getSeekMap().getSeekPoints(timeUs).first.position;
+    ExtractorInput input = openInput(position);
+    binarySearchSeeker.setSeekTargetUs(timeUs);
+    PositionHolder positionHolder = new PositionHolder();
+    while (binarySearchSeeker.isSeeking()) {
+      if (binarySearchSeeker.handlePendingSeek(input, positionHolder) == Extractor.RESULT_SEEK) {
+        input = openInput(positionHolder.position);
+      }
+    }
+    return input;
+  }
+
+  private ExtractorInput openInput(long position) throws IOException {
+    requestCount++;
+    dataSource.close();
+    dataSource.open(new DataSpec.Builder().setUri(Uri.EMPTY).setPosition(position).build());
+    return new DefaultExtractorInput(dataSource, position, STREAM_LENGTH);
+  }
+
+  /** Returns {@link CachedRanges} in which only the given range of the stream is cached. */
+  private static CachedRanges createCachedRanges(long cachedStartPosition, long cachedEndPosition) {
+    return (position, length) -> {
+      if (position >= cachedStartPosition && position < cachedEndPosition) {
+        return Math.min(length, cachedEndPosition - position);
+      }
+      long holeEndPosition = position < cachedStartPosition ? cachedStartPosition : STREAM_LENGTH;
+      return -Math.min(length, holeEndPosition - position);
+    };
+  }
+
+  private static final class TestBinarySearchSeeker extends BinarySearchSeeker {
+
+    public TestBinarySearchSeeker(TestTimestampSeeker timestampSeeker) {
+      super(
+          new DefaultSeekTimestampConverter(),
+          timestampSeeker,
+          /* durationUs= */ STREAM_LENGTH,
+          /* floorTimePosition= */ 0,
+          /* ceilingTimePosition= */ STREAM_LENGTH,
+          /* floorBytePosition= */ 0,
+          /* ceilingBytePosition= */ STREAM_LENGTH,
+          /* approxBytesPerFrame= */ FRAME_LENGTH,
+          MINIMUM_SEARCH_RANGE);
+    }
+  }
+
+  private static final class TestTimestampSeeker implements BinarySearchSeeker.TimestampSeeker {
+
+    public final List<Long> searchPositions;
+
+    public TestTimestampSeeker() {
+      searchPositions = new ArrayList<>();
+    }
+
+    @Override
+    public BinarySearchSeeker.TimestampSearchResult searchForTimestamp(
+        ExtractorInput input, long targetTimestamp) throws IOException {
+      long searchPosition = input.getPosition();
+      searchPositions.add(searchPosition);
+      input.advancePeekPosition(
+          (int) Math.min(SEARCH_LENGTH, STREAM_LENGTH - searchPosition),
+          /* allowEndOfInput= */ true);
+      // The first frame that starts at or after the search position.
+      long framePosition = (searchPosition + FRAME_LENGTH - 1) / FRAME_LENGTH * FRAME_LENGTH;
+      if (framePosition > targetTimestamp) {
+        return BinarySearchSeeker.TimestampSearchResult.overestimatedResult(
+            framePosition, searchPosition);
+      } else if (targetTimestamp - framePosition < FRAME_LENGTH) {
+        return BinarySearchSeeker.TimestampSearchResult.targetFoundResult(framePosition);
+      } else {
+        return BinarySearchSeeker.TimestampSearchResult.underestimatedResult(
+            framePosition, framePosition + 1);
+      }
+    }
+
+    @Override
+    public int getSearchLength() {
+      return SEARCH_LENGTH;
+    }
+  }
+}
@@ -17,18 +17,21 @@ package com.google.android.exoplayer2internal.extractor;
 
 import android.net.Uri;
 
-import androidx.test.ext.junit.runners.AndroidJUnit4;
-
 import com.google.android.exoplayer2.testutil.FakeDataSource;
 import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.DataReader;
 import com.google.android.exoplayer2internal.upstream.DataSpec;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameter;
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameters;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.google.android.exoplayer2internal.C.RESULT_END_OF_INPUT;
 import static com.google.common.truth.Truth.assertThat;
@@ -36,10 +39,22 @@ import static java.util.Arrays.copyOf;
 import static java.util.Arrays.copyOfRange;
 import static org.junit.Assert.fail;
 
-/** Test for {@link DefaultExtractorInput}. */
-@RunWith(AndroidJUnit4.class)
+/**
+ * Test for {@link DefaultExtractorInput}, also run against {@link RingBufferExtractorInput}, which
+ * must behave identically.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
 public class DefaultExtractorInputTest {
 
+  @Parameters(name = "{0}")
+  public static List<Object[]> params() {
+    return Arrays.asList(
+        new Object[] {DefaultExtractorInput.class.getSimpleName()},
+        new Object[] {RingBufferExtractorInput.class.getSimpleName()});
+  }
+
+  @Parameter public String implementation;
+
   private static final String TEST_URI = "http://www.google.com";
   private static final byte[] TEST_DATA = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8};
   private static final int LARGE_TEST_DATA_LENGTH = 8192;
@@ -47,14 +62,13 @@ public class DefaultExtractorInputTest {
   @Test
   public void initialPosition() throws Exception {
     FakeDataSource testDataSource = buildDataSource();
-    DefaultExtractorInput input =
-        new DefaultExtractorInput(testDataSource, 123, C.LENGTH_UNSET);
+    ExtractorInput input = createExtractorInput(testDataSource, /* position= */ 123);
     assertThat(input.getPosition()).isEqualTo(123);
   }
 
   @Test
   public void readMultipleTimes() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
     // We expect to perform three reads of three bytes, as setup in buildTestDataSource.
     int bytesRead = 0;
@@ -70,7 +84,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readAlreadyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length);
@@ -84,7 +98,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readPartiallyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length - 1);
@@ -98,7 +112,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readEndOfInputBeforeFirstByteRead() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.skipFully(TEST_DATA.length);
@@ -110,7 +124,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readEndOfInputAfterFirstByteRead() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.skipFully(TEST_DATA.length - 1);
@@ -122,7 +136,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readZeroLength() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     int bytesRead = input.read(target, /* offset= */ 0, /* length= */ 0);
@@ -132,7 +146,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readFullyOnce() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
     input.readFully(target, 0, TEST_DATA.length);
     // Check that we read the whole of TEST_DATA.
@@ -153,7 +167,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void readFullyTwice() throws Exception {
     // Read TEST_DATA in two parts.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[5];
     input.readFully(target, 0, 5);
     assertThat(copyOf(TEST_DATA, 5)).isEqualTo(target);
@@ -167,7 +181,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void readFullyTooMuch() throws Exception {
     // Read more than TEST_DATA. Should fail with an EOFException. Position should not update.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     try {
       byte[] target = new byte[TEST_DATA.length + 1];
       input.readFully(target, 0, TEST_DATA.length + 1);
@@ -179,7 +193,7 @@ public class DefaultExtractorInputTest {
 
     // Read more than TEST_DATA with allowEndOfInput set. Should fail with an EOFException because
     // the end of input isn't encountered immediately. Position should not update.
-    input = createDefaultExtractorInput();
+    input = createExtractorInput();
     try {
       byte[] target = new byte[TEST_DATA.length + 1];
       input.readFully(target, 0, TEST_DATA.length + 1, true);
@@ -193,7 +207,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void readFullyWithFailingDataSource() throws Exception {
     FakeDataSource testDataSource = buildFailingDataSource();
-    DefaultExtractorInput input = new DefaultExtractorInput(testDataSource, 0, C.LENGTH_UNSET);
+    ExtractorInput input = createExtractorInput(testDataSource, /* position= */ 0);
     try {
       byte[] target = new byte[TEST_DATA.length];
       input.readFully(target, 0, TEST_DATA.length);
@@ -207,7 +221,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void readFullyHalfPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(4);
@@ -221,7 +235,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipMultipleTimes() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     // We expect to perform three skips of three bytes, as setup in buildTestDataSource.
     for (int i = 0; i < 3; i++) {
       assertThat(input.skip(TEST_DATA.length)).isEqualTo(3);
@@ -231,7 +245,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void largeSkip() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     // Check that skipping the entire data source succeeds.
     int bytesToSkip = LARGE_TEST_DATA_LENGTH;
     while (bytesToSkip > 0) {
@@ -241,7 +255,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipAlreadyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     input.advancePeekPosition(TEST_DATA.length);
     int bytesSkipped = input.skip(TEST_DATA.length - 1);
@@ -252,7 +266,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipPartiallyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     input.advancePeekPosition(TEST_DATA.length - 1);
     int bytesSkipped = input.skip(TEST_DATA.length);
@@ -263,7 +277,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipEndOfInputBeforeFirstByteSkipped() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     input.skipFully(TEST_DATA.length);
     int bytesSkipped = input.skip(TEST_DATA.length);
@@ -274,7 +288,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipEndOfInputAfterFirstByteSkipped() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     input.skipFully(TEST_DATA.length - 1);
     int bytesSkipped = input.skip(TEST_DATA.length);
@@ -285,7 +299,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void skipZeroLength() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     int bytesRead = input.skip(0);
 
@@ -295,7 +309,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void skipFullyOnce() throws Exception {
     // Skip TEST_DATA.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     input.skipFully(TEST_DATA.length);
     assertThat(input.getPosition()).isEqualTo(TEST_DATA.length);
     // Check that we see end of input if we skip again with allowEndOfInput set.
@@ -313,7 +327,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void skipFullyTwice() throws Exception {
     // Skip TEST_DATA in two parts.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     input.skipFully(5);
     assertThat(input.getPosition()).isEqualTo(5);
     input.skipFully(4);
@@ -323,7 +337,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void skipFullyTwicePeeked() throws Exception {
     // Skip TEST_DATA.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
 
     input.advancePeekPosition(TEST_DATA.length);
 
@@ -338,7 +352,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void skipFullyTooMuch() throws Exception {
     // Skip more than TEST_DATA. Should fail with an EOFException. Position should not update.
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     try {
       input.skipFully(TEST_DATA.length + 1);
       fail();
@@ -349,7 +363,7 @@ public class DefaultExtractorInputTest {
 
     // Skip more than TEST_DATA with allowEndOfInput set. Should fail with an EOFException because
     // the end of input isn't encountered immediately. Position should not update.
-    input = createDefaultExtractorInput();
+    input = createExtractorInput();
     try {
       input.skipFully(TEST_DATA.length + 1, true);
       fail();
@@ -362,7 +376,7 @@ public class DefaultExtractorInputTest {
   @Test
   public void skipFullyWithFailingDataSource() throws Exception {
     FakeDataSource testDataSource = buildFailingDataSource();
-    DefaultExtractorInput input = new DefaultExtractorInput(testDataSource, 0, C.LENGTH_UNSET);
+    ExtractorInput input = createExtractorInput(testDataSource, /* position= */ 0);
     try {
       input.skipFully(TEST_DATA.length);
       fail();
@@ -381,7 +395,7 @@ public class DefaultExtractorInputTest {
     testDataSource.getDataSet().newDefaultData().appendReadData(new byte[largeSkipSize]);
     testDataSource.open(new DataSpec(Uri.parse(TEST_URI)));
 
-    DefaultExtractorInput input = new DefaultExtractorInput(testDataSource, 0, C.LENGTH_UNSET);
+    ExtractorInput input = createExtractorInput(testDataSource, /* position= */ 0);
     input.skipFully(largeSkipSize);
     assertThat(input.getPosition()).isEqualTo(largeSkipSize);
     // Check that we fail with EOFException we skip again.
@@ -395,7 +409,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekMultipleTimes() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     // We expect to perform three peeks of three bytes, as setup in buildTestDataSource.
@@ -412,7 +426,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekAlreadyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length);
@@ -427,7 +441,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekPartiallyPeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length - 1);
@@ -441,7 +455,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekEndOfInputBeforeFirstBytePeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length);
@@ -453,7 +467,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekEndOfInputAfterFirstBytePeeked() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     input.advancePeekPosition(TEST_DATA.length - 1);
@@ -465,7 +479,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekZeroLength() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     int bytesPeeked = input.peek(target, /* offset= */ 0, /* length= */ 0);
@@ -475,7 +489,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekFully() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
     input.peekFully(target, 0, TEST_DATA.length);
 
@@ -502,7 +516,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekFullyAfterEofExceptionPeeksAsExpected() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length + 10];
 
     try {
@@ -519,7 +533,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void resetPeekPosition() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
     input.peekFully(target, 0, TEST_DATA.length);
 
@@ -544,7 +558,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekFullyAtEndOfStreamWithAllowEndOfInputSucceeds() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     // Check peeking up to the end of input succeeds.
@@ -556,7 +570,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekFullyAtEndThenReadEndOfInput() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     // Peek up to the end of the input.
@@ -574,7 +588,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void peekFullyAcrossEndOfInputWithAllowEndOfInputFails() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     // Check peeking before the end of input with allowEndOfInput succeeds.
@@ -591,7 +605,7 @@ public class DefaultExtractorInputTest {
 
   @Test
   public void resetAndPeekFullyPastEndOfStreamWithAllowEndOfInputFails() throws Exception {
-    DefaultExtractorInput input = createDefaultExtractorInput();
+    ExtractorInput input = createExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
 
     // Check peeking up to the end of input succeeds.
@@ -626,9 +640,15 @@ public class DefaultExtractorInputTest {
     return testDataSource;
   }
 
-  private static DefaultExtractorInput createDefaultExtractorInput() throws Exception {
+  private ExtractorInput createExtractorInput() throws Exception {
     FakeDataSource testDataSource = buildDataSource();
-    return new DefaultExtractorInput(testDataSource, 0, C.LENGTH_UNSET);
+    return createExtractorInput(testDataSource, /* position= */ 0);
+  }
+
+  private ExtractorInput createExtractorInput(DataReader dataReader, long position) {
+    return implementation.equals(RingBufferExtractorInput.class.getSimpleName())
+        ? new RingBufferExtractorInput(dataReader, position, C.LENGTH_UNSET)
+        : new DefaultExtractorInput(dataReader, position, C.LENGTH_UNSET);
   }
 
 }
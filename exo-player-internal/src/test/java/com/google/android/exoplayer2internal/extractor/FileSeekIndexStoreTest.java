@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link FileSeekIndexStore}. */
+@RunWith(AndroidJUnit4.class)
+public final class FileSeekIndexStoreTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+  }
+
+  @After
+  public void tearDown() {
+    Util.recursiveDelete(directory);
+  }
+
+  @Test
+  public void put_thenGetFromNewInstance_returnsSeekIndex() {
+    byte[] seekIndex = TestUtil.buildTestData(100);
+    new FileSeekIndexStore(directory).put("key", seekIndex);
+
+    FileSeekIndexStore seekIndexStore = new FileSeekIndexStore(directory);
+
+    assertThat(seekIndexStore.get("key")).isEqualTo(seekIndex);
+    assertThat(seekIndexStore.get("other")).isNull();
+  }
+
+  @Test
+  public void put_exceedingMaxBytes_evictsLeastRecentlyUsed() {
+    FileSeekIndexStore seekIndexStore = new FileSeekIndexStore(directory, /* maxBytes= */ 250);
+    byte[] seekIndex1 = TestUtil.buildTestData(100);
+    byte[] seekIndex2 = TestUtil.buildTestData(100);
+    seekIndexStore.put("key1", seekIndex1);
+    seekIndexStore.put("key2", seekIndex2);
+    seekIndexStore.get("key1");
+
+    seekIndexStore.put("key3", TestUtil.buildTestData(100));
+
+    assertThat(seekIndexStore.get("key1")).isEqualTo(seekIndex1);
+    assertThat(seekIndexStore.get("key2")).isNull();
+    assertThat(seekIndexStore.get("key3")).isNotNull();
+  }
+
+  @Test
+  public void put_replacingIndex_countsOnlyNewLength() {
+    FileSeekIndexStore seekIndexStore = new FileSeekIndexStore(directory, /* maxBytes= */ 250);
+    seekIndexStore.put("key1", TestUtil.buildTestData(100));
+    seekIndexStore.put("key2", TestUtil.buildTestData(100));
+
+    byte[] seekIndex = TestUtil.buildTestData(50);
+    seekIndexStore.put("key1", seekIndex);
+    seekIndexStore.put("key3", TestUtil.buildTestData(100));
+
+    assertThat(seekIndexStore.get("key1")).isEqualTo(seekIndex);
+    assertThat(seekIndexStore.get("key2")).isNotNull();
+    assertThat(seekIndexStore.get("key3")).isNotNull();
+  }
+
+  @Test
+  public void put_largerThanMaxBytes_isNotStored() {
+    FileSeekIndexStore seekIndexStore = new FileSeekIndexStore(directory, /* maxBytes= */ 250);
+    seekIndexStore.put("key1", TestUtil.buildTestData(100));
+
+    seekIndexStore.put("key2", TestUtil.buildTestData(300));
+
+    assertThat(seekIndexStore.get("key1")).isNotNull();
+    assertThat(seekIndexStore.get("key2")).isNull();
+  }
+
+  @Test
+  public void factory_putThenGetFromNewFactory_returnsSeekIndexOfSameUri() {
+    byte[] seekIndex = TestUtil.buildTestData(100);
+    new FileSeekIndexStore.Factory(directory)
+        .createSeekIndexStore(Uri.parse("https://test.test/1"))
+        .put("key", seekIndex);
+
+    FileSeekIndexStore.Factory factory = new FileSeekIndexStore.Factory(directory);
+
+    assertThat(factory.createSeekIndexStore(Uri.parse("https://test.test/1")).get("key"))
+        .isEqualTo(seekIndex);
+    assertThat(factory.createSeekIndexStore(Uri.parse("https://test.test/2")).get("key"))
+        .isNull();
+  }
+
+  @Test
+  public void factory_putForManyUris_sharesMaxBytes() {
+    FileSeekIndexStore.Factory factory =
+        new FileSeekIndexStore.Factory(directory, /* maxBytes= */ 250);
+    SeekIndexStore seekIndexStore1 = factory.createSeekIndexStore(Uri.parse("https://test.test/1"));
+    SeekIndexStore seekIndexStore2 = factory.createSeekIndexStore(Uri.parse("https://test.test/2"));
+    SeekIndexStore seekIndexStore3 = factory.createSeekIndexStore(Uri.parse("https://test.test/3"));
+    seekIndexStore1.put("key", TestUtil.buildTestData(100));
+    seekIndexStore2.put("key", TestUtil.buildTestData(100));
+
+    seekIndexStore3.put("key", TestUtil.buildTestData(100));
+
+    assertThat(seekIndexStore1.get("key")).isNull();
+    assertThat(seekIndexStore2.get("key")).isNotNull();
+    assertThat(seekIndexStore3.get("key")).isNotNull();
+  }
+}
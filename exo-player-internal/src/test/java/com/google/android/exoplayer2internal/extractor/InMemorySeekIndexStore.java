@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A {@link SeekIndexStore} that holds seek indices in memory, for use in tests. */
+public final class InMemorySeekIndexStore implements SeekIndexStore {
+
+  private final Map<String, byte[]> seekIndices;
+
+  public InMemorySeekIndexStore() {
+    seekIndices = new HashMap<>();
+  }
+
+  /** Returns the stored seek indices, keyed by their keys. */
+  public synchronized Map<String, byte[]> getSeekIndices() {
+    return Collections.unmodifiableMap(new HashMap<>(seekIndices));
+  }
+
+  @Override
+  @Nullable
+  public synchronized byte[] get(String key) {
+    return seekIndices.get(key);
+  }
+
+  @Override
+  public synchronized void put(String key, byte[] seekIndex) {
+    seekIndices.put(key, seekIndex);
+  }
+}
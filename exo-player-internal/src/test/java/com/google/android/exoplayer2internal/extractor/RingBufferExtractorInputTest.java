@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor;
+
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.upstream.FileDataSource;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.android.exoplayer2internal.C.RESULT_END_OF_INPUT;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Arrays.copyOfRange;
+import static org.junit.Assert.assertThrows;
+
+/** Test for {@link RingBufferExtractorInput}. */
+@RunWith(AndroidJUnit4.class)
+public final class RingBufferExtractorInputTest {
+
+  private static final String TEST_URI = "http://www.google.com";
+  private static final byte[] TEST_DATA = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8};
+  // Larger than the initial capacity of the ring buffer, so that peeked data wraps around.
+  private static final int LARGE_TEST_DATA_LENGTH = 200 * 1024;
+
+  @Test
+  public void readMultipleTimes() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    byte[] target = new byte[TEST_DATA.length];
+    // We expect to perform three reads of three bytes, as setup in buildDataSource.
+    int bytesRead = 0;
+    bytesRead += input.read(target, 0, TEST_DATA.length);
+    assertThat(bytesRead).isEqualTo(3);
+    bytesRead += input.read(target, 3, TEST_DATA.length);
+    assertThat(bytesRead).isEqualTo(6);
+    bytesRead += input.read(target, 6, TEST_DATA.length);
+    assertThat(bytesRead).isEqualTo(9);
+    assertThat(input.getPosition()).isEqualTo(9);
+    assertThat(target).isEqualTo(TEST_DATA);
+  }
+
+  @Test
+  public void peekFullyThenReadFully_whenPeekedDataWrapsAround_returnsSameData() throws Exception {
+    byte[] data = TestUtil.buildTestData(LARGE_TEST_DATA_LENGTH);
+    RingBufferExtractorInput input = createRingBufferExtractorInput(data);
+    byte[] peekTarget = new byte[5000];
+    byte[] readTarget = new byte[5000];
+
+    for (int position = 0; position + 5000 <= data.length; position += 5000) {
+      input.peekFully(peekTarget, 0, 5000);
+      input.advancePeekPosition(1000, /* allowEndOfInput= */ true);
+      input.readFully(readTarget, 0, 3000);
+      input.skipFully(2000);
+
+      byte[] expected = copyOfRange(data, position, position + 5000);
+      assertThat(peekTarget).isEqualTo(expected);
+      assertThat(Arrays.copyOf(readTarget, 3000)).isEqualTo(Arrays.copyOf(expected, 3000));
+      assertThat(input.getPosition()).isEqualTo(position + 5000);
+      assertThat(input.getPeekPosition()).isEqualTo(position + 5000);
+    }
+  }
+
+  @Test
+  public void peekFully_largerThanBuffer_growsBuffer() throws Exception {
+    byte[] data = TestUtil.buildTestData(LARGE_TEST_DATA_LENGTH);
+    RingBufferExtractorInput input = createRingBufferExtractorInput(data);
+    byte[] target = new byte[LARGE_TEST_DATA_LENGTH];
+
+    input.skipFully(10);
+    input.peekFully(target, 0, 10);
+    input.peekFully(target, 10, LARGE_TEST_DATA_LENGTH - 20);
+    input.readFully(target, 0, LARGE_TEST_DATA_LENGTH - 10);
+
+    assertThat(Arrays.copyOf(target, LARGE_TEST_DATA_LENGTH - 10))
+        .isEqualTo(copyOfRange(data, 10, LARGE_TEST_DATA_LENGTH));
+    assertThat(input.getPosition()).isEqualTo(LARGE_TEST_DATA_LENGTH);
+  }
+
+  @Test
+  public void peekFully_pastEndOfInput_throwsEofException() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    byte[] target = new byte[TEST_DATA.length + 1];
+
+    assertThrows(EOFException.class, () -> input.peekFully(target, 0, TEST_DATA.length + 1));
+    assertThat(input.getPosition()).isEqualTo(0);
+    // The data read before the exception was thrown can still be peeked.
+    input.peekFully(target, 0, TEST_DATA.length);
+    assertThat(Arrays.copyOf(target, TEST_DATA.length)).isEqualTo(TEST_DATA);
+    assertThat(input.peekFully(target, 0, 1, /* allowEndOfInput= */ true)).isFalse();
+  }
+
+  @Test
+  public void readByteBuffer_afterPeek_returnsPeekedData() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length);
+
+    input.advancePeekPosition(5);
+    int bytesRead = input.read(target);
+
+    assertThat(bytesRead).isEqualTo(5);
+    assertThat(target.position()).isEqualTo(5);
+    assertThat(input.getPosition()).isEqualTo(5);
+    assertThat(input.getPeekPosition()).isEqualTo(5);
+    byte[] bytes = new byte[5];
+    target.flip();
+    target.get(bytes);
+    assertThat(bytes).isEqualTo(Arrays.copyOf(TEST_DATA, 5));
+  }
+
+  @Test
+  public void readByteBuffer_untilEndOfInput_returnsAllData() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length + 1);
+
+    while (input.read(target) != RESULT_END_OF_INPUT) {}
+
+    assertThat(target.position()).isEqualTo(TEST_DATA.length);
+    assertThat(input.getPosition()).isEqualTo(TEST_DATA.length);
+    byte[] bytes = new byte[TEST_DATA.length];
+    target.flip();
+    target.get(bytes);
+    assertThat(bytes).isEqualTo(TEST_DATA);
+  }
+
+  @Test
+  public void prefetch_thenPeekWithinPrefetchedData_doesNotReadUpstream() throws Exception {
+    FakeDataSource testDataSource = buildDataSource();
+    AtomicInteger upstreamReadCount = new AtomicInteger();
+    RingBufferExtractorInput input =
+        new RingBufferExtractorInput(
+            (target, offset, length) -> {
+              upstreamReadCount.incrementAndGet();
+              return testDataSource.read(target, offset, length);
+            },
+            /* position= */ 0,
+            C.LENGTH_UNSET);
+    byte[] target = new byte[6];
+
+    int bytesPrefetched = input.prefetch(6);
+    int prefetchReadCount = upstreamReadCount.get();
+    input.peekFully(target, 0, 2);
+    input.resetPeekPosition();
+    input.peekFully(target, 0, 6);
+
+    assertThat(bytesPrefetched).isEqualTo(6);
+    assertThat(upstreamReadCount.get()).isEqualTo(prefetchReadCount);
+    assertThat(target).isEqualTo(Arrays.copyOf(TEST_DATA, 6));
+    assertThat(input.getPosition()).isEqualTo(0);
+  }
+
+  @Test
+  public void prefetch_pastEndOfInput_returnsRemainingLength() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    input.advancePeekPosition(2);
+
+    int bytesPrefetched = input.prefetch(TEST_DATA.length);
+
+    assertThat(bytesPrefetched).isEqualTo(TEST_DATA.length - 2);
+    assertThat(input.getPeekPosition()).isEqualTo(2);
+  }
+
+  @Test
+  public void reset_discardsPeekedData() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    input.advancePeekPosition(5);
+    byte[] target = new byte[TEST_DATA.length];
+
+    input.reset(buildDataSource(), /* position= */ 123, C.LENGTH_UNSET);
+    input.readFully(target, 0, TEST_DATA.length);
+
+    assertThat(target).isEqualTo(TEST_DATA);
+    assertThat(input.getPosition()).isEqualTo(123 + TEST_DATA.length);
+    assertThat(input.getLength()).isEqualTo(C.LENGTH_UNSET);
+  }
+
+  @Test
+  public void readIntoDirectByteBuffer_fromByteBufferDataReader_readsData() throws Exception {
+    File file = Util.createTempFile(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(TEST_DATA);
+    }
+    FileDataSource fileDataSource = new FileDataSource();
+    fileDataSource.open(new DataSpec(Uri.fromFile(file)));
+    RingBufferExtractorInput input =
+        new RingBufferExtractorInput(fileDataSource, /* position= */ 0, TEST_DATA.length);
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length);
+
+    try {
+      input.peekFully(new byte[2], /* offset= */ 0, /* length= */ 2);
+      while (target.hasRemaining()) {
+        assertThat(input.read(target)).isNotEqualTo(RESULT_END_OF_INPUT);
+      }
+      target.flip();
+      byte[] data = new byte[TEST_DATA.length];
+      target.get(data);
+
+      assertThat(data).isEqualTo(TEST_DATA);
+      assertThat(input.getPosition()).isEqualTo(TEST_DATA.length);
+      assertThat(input.read(ByteBuffer.allocateDirect(1))).isEqualTo(RESULT_END_OF_INPUT);
+    } finally {
+      fileDataSource.close();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void setRetryPosition_setsPositionAndThrows() throws Exception {
+    RingBufferExtractorInput input = createRingBufferExtractorInput();
+    EOFException exception = new EOFException();
+
+    EOFException thrown =
+        assertThrows(EOFException.class, () -> input.setRetryPosition(123, exception));
+
+    assertThat(thrown).isSameInstanceAs(exception);
+    assertThat(input.getPosition()).isEqualTo(123);
+  }
+
+  private static FakeDataSource buildDataSource() throws Exception {
+    FakeDataSource testDataSource = new FakeDataSource();
+    testDataSource.getDataSet().newDefaultData()
+        .appendReadData(Arrays.copyOfRange(TEST_DATA, 0, 3))
+        .appendReadData(Arrays.copyOfRange(TEST_DATA, 3, 6))
+        .appendReadData(Arrays.copyOfRange(TEST_DATA, 6, 9));
+    testDataSource.open(new DataSpec(Uri.parse(TEST_URI)));
+    return testDataSource;
+  }
+
+  private static RingBufferExtractorInput createRingBufferExtractorInput() throws Exception {
+    return new RingBufferExtractorInput(buildDataSource(), 0, C.LENGTH_UNSET);
+  }
+
+  private static RingBufferExtractorInput createRingBufferExtractorInput(byte[] data)
+      throws Exception {
+    FakeDataSource testDataSource = new FakeDataSource();
+    testDataSource.getDataSet().newDefaultData().appendReadData(data);
+    testDataSource.open(new DataSpec(Uri.parse(TEST_URI)));
+    return new RingBufferExtractorInput(testDataSource, 0, data.length);
+  }
+}
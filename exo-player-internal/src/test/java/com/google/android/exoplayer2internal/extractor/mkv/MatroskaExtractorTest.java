@@ -15,7 +15,9 @@
  */
 package com.google.android.exoplayer2internal.extractor.mkv;
 
+
 import com.google.android.exoplayer2.testutil.ExtractorAsserts;
+import com.google.android.exoplayer2internal.extractor.InMemorySeekIndexStore;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,6 +27,8 @@ import org.robolectric.ParameterizedRobolectricTestRunner.Parameters;
 
 import java.util.List;
 
+import static com.google.common.truth.Truth.assertThat;
+
 /** Tests for {@link MatroskaExtractor}. */
 @RunWith(ParameterizedRobolectricTestRunner.class)
 public final class MatroskaExtractorTest {
@@ -42,6 +46,28 @@ public final class MatroskaExtractorTest {
         MatroskaExtractor::new, "media/mkv/sample.mkv", simulationConfig);
   }
 
+  @Test
+  public void mkvSample_withSeekIndexStore() throws Exception {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+
+    // The extractor is created repeatedly, so later extractions load the stored cues and must
+    // produce the same output as parsing them.
+    ExtractorAsserts.assertBehavior(
+        () -> new MatroskaExtractor(/* flags= */ 0, seekIndexStore),
+        "media/mkv/sample.mkv",
+        simulationConfig);
+
+    assertThat(seekIndexStore.getSeekIndices()).hasSize(1);
+  }
+
+  @Test
+  public void mkvSample_withParallelClusterParsing() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () -> new MatroskaExtractor(MatroskaExtractor.FLAG_ENABLE_PARALLEL_CLUSTER_PARSING),
+        "media/mkv/sample.mkv",
+        simulationConfig);
+  }
+
   @Test
   public void mkvSample_withSubripSubtitles() throws Exception {
     ExtractorAsserts.assertBehavior(
@@ -62,6 +88,14 @@ public final class MatroskaExtractorTest {
         MatroskaExtractor::new, "media/mkv/full_blocks.mkv", simulationConfig);
   }
 
+  @Test
+  public void mkvFullBlocksSample_withParallelClusterParsing() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () -> new MatroskaExtractor(MatroskaExtractor.FLAG_ENABLE_PARALLEL_CLUSTER_PARSING),
+        "media/mkv/full_blocks.mkv",
+        simulationConfig);
+  }
+
   @Test
   public void webmSubsampleEncryption() throws Exception {
     ExtractorAsserts.assertBehavior(
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp3;
+
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeExtractorOutput;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.extractor.InMemorySeekIndexStore;
+import com.google.android.exoplayer2internal.extractor.SeekMap;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.upstream.DefaultDataSource;
+import com.google.android.exoplayer2internal.upstream.DefaultDataSourceFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InterruptedIOException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/** Tests for {@link Mp3SeekTableBuilder}. */
+@RunWith(AndroidJUnit4.class)
+public final class Mp3SeekTableBuilderTest {
+
+  private static final String TEST_FILE_NO_SEEK_TABLE = "media/mp3/bear-vbr-no-seek-table.mp3";
+  private static final int TEST_FILE_NO_SEEK_TABLE_DURATION = 2_808_000;
+
+  private DefaultDataSource dataSource;
+  private Uri fileUri;
+
+  @Before
+  public void setUp() {
+    dataSource =
+        new DefaultDataSourceFactory(ApplicationProvider.getApplicationContext())
+            .createDataSource();
+    fileUri = TestUtil.buildAssetUri(TEST_FILE_NO_SEEK_TABLE);
+  }
+
+  @Test
+  public void build_storesSameSeekTableAsIndexSeeking() throws Exception {
+    InMemorySeekIndexStore builtSeekIndexStore = new InMemorySeekIndexStore();
+    InMemorySeekIndexStore indexedSeekIndexStore = new InMemorySeekIndexStore();
+
+    boolean stored =
+        new Mp3SeekTableBuilder(dataSource, new DataSpec(fileUri), builtSeekIndexStore).build();
+    TestUtil.extractAllSamplesFromFile(
+        new Mp3Extractor(Mp3Extractor.FLAG_ENABLE_INDEX_SEEKING, indexedSeekIndexStore),
+        ApplicationProvider.getApplicationContext(),
+        TEST_FILE_NO_SEEK_TABLE);
+
+    assertThat(stored).isTrue();
+    assertThat(builtSeekIndexStore.getSeekIndices()).hasSize(1);
+    assertThat(indexedSeekIndexStore.getSeekIndices().keySet())
+        .isEqualTo(builtSeekIndexStore.getSeekIndices().keySet());
+    for (String key : builtSeekIndexStore.getSeekIndices().keySet()) {
+      assertThat(indexedSeekIndexStore.getSeekIndices().get(key))
+          .isEqualTo(builtSeekIndexStore.getSeekIndices().get(key));
+    }
+  }
+
+  @Test
+  public void mp3ExtractorReads_withBuiltSeekTable_returnsExactSeekMap() throws Exception {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+    new Mp3SeekTableBuilder(dataSource, new DataSpec(fileUri), seekIndexStore).build();
+
+    SeekMap seekMap =
+        TestUtil.extractSeekMap(
+            new Mp3Extractor(/* flags= */ 0, seekIndexStore),
+            new FakeExtractorOutput(),
+            dataSource,
+            fileUri);
+
+    // Without a seek table, the duration would be estimated from the bitrate of the first frame.
+    assertThat(seekMap.isSeekable()).isTrue();
+    assertThat(seekMap.getDurationUs()).isEqualTo(TEST_FILE_NO_SEEK_TABLE_DURATION);
+    long timeUs = TEST_FILE_NO_SEEK_TABLE_DURATION / 2;
+    SeekMap.SeekPoints seekPoints = seekMap.getSeekPoints(timeUs);
+    assertThat(seekPoints.first.timeUs).isAtMost(timeUs);
+    assertThat(seekPoints.first.timeUs)
+        .isGreaterThan(timeUs - IndexSeeker.MIN_TIME_BETWEEN_POINTS_US);
+  }
+
+  @Test
+  public void build_whenCanceled_throws() {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+    Mp3SeekTableBuilder seekTableBuilder =
+        new Mp3SeekTableBuilder(dataSource, new DataSpec(fileUri), seekIndexStore);
+
+    seekTableBuilder.cancel();
+
+    assertThrows(InterruptedIOException.class, seekTableBuilder::build);
+    assertThat(seekIndexStore.getSeekIndices()).isEmpty();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.mp4;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/** Tests for {@link CompactLongArray}. */
+@RunWith(AndroidJUnit4.class)
+public final class CompactLongArrayTest {
+
+  @Test
+  public void get_returnsAddedValues() {
+    Random random = new Random(/* seed= */ 0);
+    long[] values = new long[1000];
+    long offset = 0;
+    for (int i = 0; i < values.length; i++) {
+      offset += random.nextInt(100_000);
+      values[i] = offset;
+    }
+
+    CompactLongArray array = CompactLongArray.of(values);
+
+    assertThat(array.size()).isEqualTo(values.length);
+    for (int i = 0; i < values.length; i++) {
+      assertThat(array.get(i)).isEqualTo(values[i]);
+    }
+  }
+
+  @Test
+  public void get_withExtremeValues_returnsAddedValues() {
+    long[] values =
+        new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, Long.MIN_VALUE + 1, Long.MAX_VALUE - 1};
+
+    CompactLongArray array = CompactLongArray.of(values);
+
+    for (int i = 0; i < values.length; i++) {
+      assertThat(array.get(i)).isEqualTo(values[i]);
+    }
+  }
+
+  @Test
+  public void fromBlocks_withBlocksOfAnotherArray_returnsSameValues() {
+    Random random = new Random(/* seed= */ 0);
+    long[] values = new long[1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt(100_000) - 50_000;
+    }
+    CompactLongArray array = CompactLongArray.of(values);
+
+    CompactLongArray copy =
+        CompactLongArray.fromBlocks(
+            array.size(),
+            array.getBlockBases(),
+            array.getBlockIncrements(),
+            array.getBlockBitWidths(),
+            array.getBits());
+
+    assertThat(copy.size()).isEqualTo(values.length);
+    for (int i = 0; i < values.length; i++) {
+      assertThat(copy.get(i)).isEqualTo(values[i]);
+    }
+  }
+
+  @Test
+  public void fromBlocks_withInconsistentBits_throws() {
+    CompactLongArray array = CompactLongArray.of(new long[] {1, 5, 2, 8});
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            CompactLongArray.fromBlocks(
+                array.size(),
+                array.getBlockBases(),
+                array.getBlockIncrements(),
+                array.getBlockBitWidths(),
+                new long[array.getBits().length + 1]));
+  }
+
+  @Test
+  public void get_withIndexOutOfBounds_throws() {
+    CompactLongArray array = CompactLongArray.of(new long[] {1, 2, 3});
+
+    assertThrows(IndexOutOfBoundsException.class, () -> array.get(-1));
+    assertThrows(IndexOutOfBoundsException.class, () -> array.get(3));
+  }
+
+  @Test
+  public void binarySearch_withUnsortedValues_matchesUtil() {
+    // Timestamps of reordered video frames, which aren't sorted.
+    long[] values = new long[200];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (i + (i % 3 == 1 ? 2 : 0)) * 33_333L;
+    }
+    CompactLongArray array = CompactLongArray.of(values);
+
+    for (long value = -40_000; value < 220 * 33_333L; value += 10_000) {
+      for (int i = 0; i < 4; i++) {
+        boolean inclusive = (i & 1) != 0;
+        boolean stayInBounds = (i & 2) != 0;
+        assertThat(array.binarySearchFloor(value, inclusive, stayInBounds))
+            .isEqualTo(Util.binarySearchFloor(values, value, inclusive, stayInBounds));
+        assertThat(array.binarySearchCeil(value, inclusive, stayInBounds))
+            .isEqualTo(Util.binarySearchCeil(values, value, inclusive, stayInBounds));
+      }
+    }
+  }
+
+  @Test
+  public void binarySearch_withEmptyArray() {
+    CompactLongArray array = new CompactLongArray.Builder().build();
+
+    assertThat(array.binarySearchFloor(0, /* inclusive= */ true, /* stayInBounds= */ false))
+        .isEqualTo(-1);
+    assertThat(array.binarySearchCeil(0, /* inclusive= */ true, /* stayInBounds= */ false))
+        .isEqualTo(0);
+  }
+}
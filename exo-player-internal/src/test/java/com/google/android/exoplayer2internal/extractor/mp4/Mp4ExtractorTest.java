@@ -15,7 +15,9 @@
  */
 package com.google.android.exoplayer2internal.extractor.mp4;
 
+
 import com.google.android.exoplayer2.testutil.ExtractorAsserts;
+import com.google.android.exoplayer2internal.extractor.InMemorySeekIndexStore;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,6 +27,8 @@ import org.robolectric.ParameterizedRobolectricTestRunner.Parameters;
 
 import java.util.List;
 
+import static com.google.common.truth.Truth.assertThat;
+
 /** Tests for {@link Mp4Extractor}. */
 @RunWith(ParameterizedRobolectricTestRunner.class)
 public final class Mp4ExtractorTest {
@@ -41,6 +45,20 @@ public final class Mp4ExtractorTest {
     ExtractorAsserts.assertBehavior(Mp4Extractor::new, "media/mp4/sample.mp4", simulationConfig);
   }
 
+  @Test
+  public void mp4Sample_withSeekIndexStore() throws Exception {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+
+    // The extractor is created repeatedly, so later extractions load the stored sample tables and
+    // must produce the same output as parsing them.
+    ExtractorAsserts.assertBehavior(
+        () -> new Mp4Extractor(/* flags= */ 0, seekIndexStore),
+        "media/mp4/sample.mp4",
+        simulationConfig);
+
+    assertThat(seekIndexStore.getSeekIndices()).hasSize(1);
+  }
+
   @Test
   public void mp4SampleWithSlowMotionMetadata() throws Exception {
     ExtractorAsserts.assertBehavior(
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.extractor.ts;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeExtractorOutput;
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.extractor.ExtractorOutput;
+import com.google.android.exoplayer2internal.util.ParsableByteArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/** Test for {@link PipelinedElementaryStreamReader}. */
+@RunWith(AndroidJUnit4.class)
+public final class PipelinedElementaryStreamReaderTest {
+
+  private FakeElementaryStreamReader wrappedReader;
+  private PipelinedElementaryStreamReader reader;
+
+  @Before
+  public void setUp() {
+    wrappedReader = new FakeElementaryStreamReader();
+    reader = new PipelinedElementaryStreamReader(wrappedReader);
+    reader.createTracks(new FakeExtractorOutput(), new TsPayloadReader.TrackIdGenerator(0, 1));
+  }
+
+  @After
+  public void tearDown() {
+    reader.release();
+  }
+
+  @Test
+  public void consume_executesOnWorkerThreadInOrder() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      reader.packetStarted(/* pesTimeUs= */ i, /* flags= */ 0);
+      reader.consume(new ParsableByteArray(new byte[] {1, 2, 3}));
+      reader.packetFinished();
+    }
+    reader.awaitIdle();
+
+    assertThat(wrappedReader.packetCount.get()).isEqualTo(1000);
+    assertThat(wrappedReader.bytesConsumed.get()).isEqualTo(3000);
+  }
+
+  @Test
+  public void awaitIdle_afterWrappedReaderThrowsError_throwsErrorWithoutBlocking() {
+    wrappedReader.errorToThrow = new OutOfMemoryError();
+
+    // Queue more calls than fit in the queue, which mustn't block after the failure.
+    for (int i = 0; i < 1000; i++) {
+      reader.packetStarted(/* pesTimeUs= */ i, /* flags= */ 0);
+    }
+
+    assertThrows(OutOfMemoryError.class, reader::awaitIdle);
+    assertThrows(
+        OutOfMemoryError.class, () -> reader.consume(new ParsableByteArray(new byte[] {1})));
+  }
+
+  private static final class FakeElementaryStreamReader implements ElementaryStreamReader {
+
+    public final AtomicInteger packetCount;
+    public final AtomicInteger bytesConsumed;
+
+    @Nullable public volatile Error errorToThrow;
+
+    public FakeElementaryStreamReader() {
+      packetCount = new AtomicInteger();
+      bytesConsumed = new AtomicInteger();
+    }
+
+    @Override
+    public void seek() {}
+
+    @Override
+    public void createTracks(
+        ExtractorOutput extractorOutput, PesReader.TrackIdGenerator idGenerator) {
+      idGenerator.generateNewId();
+      extractorOutput.track(idGenerator.getTrackId(), C.TRACK_TYPE_AUDIO);
+    }
+
+    @Override
+    public void packetStarted(long pesTimeUs, int flags) {
+      if (errorToThrow != null) {
+        throw errorToThrow;
+      }
+      packetCount.incrementAndGet();
+    }
+
+    @Override
+    public void consume(ParsableByteArray data) {
+      bytesConsumed.addAndGet(data.bytesLeft());
+      data.skipBytes(data.bytesLeft());
+    }
+
+    @Override
+    public void packetFinished() {}
+  }
+}
@@ -21,6 +21,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.testutil.FakeExtractorInput;
 import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2internal.extractor.Extractor;
+import com.google.android.exoplayer2internal.extractor.InMemorySeekIndexStore;
 import com.google.android.exoplayer2internal.extractor.PositionHolder;
 
 import org.junit.Before;
@@ -97,4 +98,30 @@ public final class TsDurationReaderTest {
     }
     assertThat(tsDurationReader.getDurationUs() / 1000).isEqualTo(2500);
   }
+
+  @Test
+  public void readDuration_withStoredPcrValues_doesNotSeek() throws IOException {
+    InMemorySeekIndexStore seekIndexStore = new InMemorySeekIndexStore();
+    byte[] data =
+        TestUtil.getByteArray(
+            ApplicationProvider.getApplicationContext(), "media/ts/bbb_2500ms.ts");
+    FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+    TsDurationReader storingDurationReader = new TsDurationReader(seekIndexStore);
+    while (!storingDurationReader.isDurationReadFinished()) {
+      if (storingDurationReader.readDuration(input, seekPositionHolder, /* pcrPid= */ 256)
+          == Extractor.RESULT_SEEK) {
+        input.setPosition((int) seekPositionHolder.position);
+      }
+    }
+    input = new FakeExtractorInput.Builder().setData(data).build();
+    TsDurationReader loadingDurationReader = new TsDurationReader(seekIndexStore);
+
+    int result = loadingDurationReader.readDuration(input, seekPositionHolder, /* pcrPid= */ 256);
+
+    assertThat(seekIndexStore.getSeekIndices()).hasSize(1);
+    assertThat(result).isEqualTo(Extractor.RESULT_CONTINUE);
+    assertThat(loadingDurationReader.isDurationReadFinished()).isTrue();
+    assertThat(loadingDurationReader.getDurationUs())
+        .isEqualTo(storingDurationReader.getDurationUs());
+  }
 }
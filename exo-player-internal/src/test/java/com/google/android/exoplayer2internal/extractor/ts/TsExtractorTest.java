@@ -72,6 +72,19 @@ public final class TsExtractorTest {
         TsExtractor::new, "media/ts/sample_h264_mpeg_audio.ts", simulationConfig);
   }
 
+  @Test
+  public void sampleWithH264AndMpegAudio_withPipelinedElementaryStreams() throws Exception {
+    ExtractorAsserts.assertBehavior(
+        () ->
+            new TsExtractor(
+                TsExtractor.MODE_SINGLE_PMT,
+                new TimestampAdjuster(0),
+                new DefaultTsPayloadReaderFactory(),
+                /* pipelineElementaryStreams= */ true),
+        "media/ts/sample_h264_mpeg_audio.ts",
+        simulationConfig);
+  }
+
   @Test
   public void sampleWithH264NoAccessUnitDelimiters() throws Exception {
     ExtractorAsserts.assertBehavior(
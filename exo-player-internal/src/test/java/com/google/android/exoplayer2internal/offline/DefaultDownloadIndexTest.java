@@ -124,6 +124,48 @@ public class DefaultDownloadIndexTest {
     assertEqual(readDownload, download);
   }
 
+  @Test
+  public void putDownloads_getDownloadAndGetDownloadsReturnWrittenProgress()
+      throws DatabaseIOException {
+    Download download1 =
+        new DownloadBuilder("id1")
+            .setStartTimeMs(0)
+            .setState(Download.STATE_DOWNLOADING)
+            .setBytesDownloaded(100)
+            .build();
+    Download download2 =
+        new DownloadBuilder("id2")
+            .setStartTimeMs(1)
+            .setState(Download.STATE_DOWNLOADING)
+            .setBytesDownloaded(200)
+            .build();
+    downloadIndex.putDownload(new DownloadBuilder("id1").setStartTimeMs(0).build());
+
+    downloadIndex.putDownloads(Arrays.asList(download1, download2));
+
+    assertEqual(downloadIndex.getDownload("id1"), download1);
+    try (DownloadCursor cursor = downloadIndex.getDownloads(Download.STATE_DOWNLOADING)) {
+      assertThat(cursor.getCount()).isEqualTo(2);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download1);
+      cursor.moveToNext();
+      assertEqual(cursor.getDownload(), download2);
+    }
+  }
+
+  @Test
+  public void putDownloads_thenSetDownloadingStatesToQueued_setsState()
+      throws DatabaseIOException {
+    Download download = new DownloadBuilder("id").setState(Download.STATE_DOWNLOADING).build();
+    downloadIndex.putDownloads(Arrays.asList(download));
+
+    downloadIndex.setDownloadingStatesToQueued();
+
+    Download readDownload = new DefaultDownloadIndex(databaseProvider).getDownload("id");
+    assertThat(readDownload).isNotNull();
+    assertThat(readDownload.state).isEqualTo(Download.STATE_QUEUED);
+  }
+
   @Test
   public void removeDownload_nonExistingId_doesNotFail() throws DatabaseIOException {
     downloadIndex.removeDownload("non existing id");
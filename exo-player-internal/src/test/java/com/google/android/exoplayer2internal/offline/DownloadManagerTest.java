@@ -25,12 +25,18 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.testutil.DownloadBuilder;
 import com.google.android.exoplayer2.testutil.DummyMainThread;
 import com.google.android.exoplayer2.testutil.DummyMainThread.TestRunnable;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
 import com.google.android.exoplayer2.testutil.TestDownloadManagerListener;
 import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2internal.C;
 import com.google.android.exoplayer2internal.scheduler.Requirements;
+import com.google.android.exoplayer2internal.upstream.TokenBucket;
+import com.google.android.exoplayer2internal.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2internal.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2internal.util.Assertions;
 import com.google.android.exoplayer2internal.util.ConditionVariable;
+import com.google.android.exoplayer2internal.util.Util;
 
 import org.junit.After;
 import org.junit.Before;
@@ -38,6 +44,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -63,6 +70,7 @@ public class DownloadManagerTest {
   private static final String ID1 = "id1";
   private static final String ID2 = "id2";
   private static final String ID3 = "id3";
+  private static final String TEST_URI = "test_data";
 
   @GuardedBy("downloaders")
   private final List<FakeDownloader> downloaders = new ArrayList<>();
@@ -654,7 +662,62 @@ public class DownloadManagerTest {
     assertEqualIgnoringUpdateTime(mergedDownload, expectedDownload);
   }
 
+  @Test
+  public void setMaxBytesPerSecondPerDownload_appliesToDownloadInProgress() throws Throwable {
+    File tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    SimpleCache cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    FakeDataSet fakeDataSet = new FakeDataSet().setRandomData(TEST_URI, /* length= */ 10_000);
+    try {
+      setupDownloadManager(
+          /* maxParallelDownloads= */ 100,
+          new RateLimitedDownloaderFactory(
+              cache,
+              () -> new FakeDataSource(fakeDataSet),
+              /* executor= */ Runnable::run,
+              /* downloadWorkerPool= */ null));
+      // At one byte per second, the first read of the download puts it into debt for hours.
+      runOnMainThread(() -> downloadManager.setMaxBytesPerSecondPerDownload(1));
+      runOnMainThread(
+          () ->
+              downloadManager.addDownload(
+                  new DownloadRequest.Builder(ID1, Uri.parse(TEST_URI)).build()));
+      assertDownloading(ID1);
+
+      runOnMainThread(
+          () -> downloadManager.setMaxBytesPerSecondPerDownload(TokenBucket.RATE_UNLIMITED));
+
+      assertCompleted(ID1);
+    } finally {
+      releaseDownloadManager();
+      cache.release();
+      Util.recursiveDelete(tempFolder);
+    }
+  }
+
+  @Test
+  public void setMaxBytesPerSecond_withCustomDownloaderFactory_isIgnored() {
+    runOnMainThread(
+        () -> {
+          downloadManager.setMaxBytesPerSecond(1);
+          downloadManager.setMaxBytesPerSecondPerDownload(1);
+        });
+
+    runOnMainThread(
+        () -> {
+          assertThat(downloadManager.getMaxBytesPerSecond()).isEqualTo(TokenBucket.RATE_UNLIMITED);
+          assertThat(downloadManager.getMaxBytesPerSecondPerDownload())
+              .isEqualTo(TokenBucket.RATE_UNLIMITED);
+        });
+  }
+
   private void setupDownloadManager(int maxParallelDownloads) throws Exception {
+    setupDownloadManager(maxParallelDownloads, new FakeDownloaderFactory());
+  }
+
+  private void setupDownloadManager(int maxParallelDownloads, DownloaderFactory downloaderFactory)
+      throws Exception {
     if (downloadManager != null) {
       releaseDownloadManager();
     }
@@ -665,7 +728,7 @@ public class DownloadManagerTest {
                 new DownloadManager(
                     ApplicationProvider.getApplicationContext(),
                     new DefaultDownloadIndex(TestUtil.getInMemoryDatabaseProvider()),
-                    new FakeDownloaderFactory());
+                    downloaderFactory);
             downloadManager.setMaxParallelDownloads(maxParallelDownloads);
             downloadManager.setMinRetryCount(MIN_RETRY_COUNT);
             downloadManager.setRequirements(new Requirements(0));
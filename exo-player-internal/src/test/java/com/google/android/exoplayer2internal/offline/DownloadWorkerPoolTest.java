@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.offline;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link DownloadWorkerPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class DownloadWorkerPoolTest {
+
+  private List<Runnable> startedTasks;
+  private List<String> runTasks;
+
+  @Before
+  public void setUp() {
+    startedTasks = new ArrayList<>();
+    runTasks = new ArrayList<>();
+  }
+
+  @Test
+  public void execute_limitsRunningTasks() {
+    DownloadWorkerPool pool =
+        new DownloadWorkerPool(
+            startedTasks::add, /* maxRunningTasks= */ 2, /* maxRunningTasksPerHost= */ 2);
+    Executor executor = pool.createExecutor();
+
+    executor.execute(new TestTask("1", /* host= */ null));
+    executor.execute(new TestTask("2", /* host= */ null));
+    executor.execute(new TestTask("3", /* host= */ null));
+
+    assertThat(startedTasks).hasSize(2);
+    assertThat(pool.getRunningTaskCount()).isEqualTo(2);
+    finishTask(0);
+    assertThat(startedTasks).hasSize(2);
+    assertThat(runTasks).containsExactly("1");
+    finishTask(0);
+    finishTask(0);
+    assertThat(runTasks).containsExactly("1", "2", "3").inOrder();
+    assertThat(pool.getRunningTaskCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void execute_startsTaskOfDownloadWithFewestRunningTasks() {
+    DownloadWorkerPool pool =
+        new DownloadWorkerPool(
+            startedTasks::add, /* maxRunningTasks= */ 2, /* maxRunningTasksPerHost= */ 2);
+    Executor executor1 = pool.createExecutor();
+    Executor executor2 = pool.createExecutor();
+
+    executor1.execute(new TestTask("1a", /* host= */ null));
+    executor1.execute(new TestTask("1b", /* host= */ null));
+    executor1.execute(new TestTask("1c", /* host= */ null));
+    executor2.execute(new TestTask("2a", /* host= */ null));
+    finishTask(0);
+    // Finish the task that was started when the first task finished.
+    finishTask(1);
+
+    // The second download had no running tasks, so its task was started before the first
+    // download's third task.
+    assertThat(runTasks).containsExactly("1a", "2a").inOrder();
+  }
+
+  @Test
+  public void execute_limitsRunningTasksPerHost() {
+    DownloadWorkerPool pool =
+        new DownloadWorkerPool(
+            startedTasks::add, /* maxRunningTasks= */ 4, /* maxRunningTasksPerHost= */ 1);
+    Executor executor1 = pool.createExecutor();
+    Executor executor2 = pool.createExecutor();
+
+    executor1.execute(new TestTask("1a", "a.test"));
+    executor1.execute(new TestTask("1b", "a.test"));
+    executor2.execute(new TestTask("2a", "b.test"));
+
+    // The first download's second task waits for its first, while the second download's task runs.
+    assertThat(startedTasks).hasSize(2);
+    finishTask(1);
+    assertThat(startedTasks).hasSize(1);
+    finishTask(0);
+    assertThat(startedTasks).hasSize(1);
+    finishTask(0);
+    assertThat(runTasks).containsExactly("2a", "1a", "1b").inOrder();
+  }
+
+  private void finishTask(int index) {
+    startedTasks.remove(index).run();
+  }
+
+  private final class TestTask implements DownloadWorkerPool.HostRunnable {
+
+    private final String name;
+    @Nullable private final String host;
+
+    public TestTask(String name, @Nullable String host) {
+      this.name = name;
+      this.host = host;
+    }
+
+    @Override
+    public void run() {
+      runTasks.add(name);
+    }
+
+    @Override
+    @Nullable
+    public String getHost() {
+      return host;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.offline;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.MediaItem;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2internal.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2internal.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2internal.upstream.cache.ContentMetadataMutations;
+import com.google.android.exoplayer2internal.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2internal.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2internal.util.PriorityTaskManager;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.android.exoplayer2.testutil.CacheAsserts.assertCachedData;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/** Unit tests for {@link ProgressiveDownloader}. */
+@RunWith(AndroidJUnit4.class)
+public final class ProgressiveDownloaderTest {
+
+  private static final String TEST_URI = "test_data";
+  /** Long enough to be split into ranges of 4, 4 and 2 MB. */
+  private static final int TEST_DATA_LENGTH = 10 * 1024 * 1024;
+  private static final int RANGE_LENGTH = 4 * 1024 * 1024;
+
+  private File tempFolder;
+  private SimpleCache cache;
+  private byte[] testData;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    testData = TestUtil.buildTestData(TEST_DATA_LENGTH);
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void download_knownLength_cachesRangesAndReportsProgress() throws Exception {
+    FakeDataSet fakeDataSet = new FakeDataSet().setData(TEST_URI, testData);
+    FakeDataSource upstream = new FakeDataSource(fakeDataSet);
+    ProgressiveDownloader downloader = createDownloader(upstream, /* priorityTaskManager= */ null);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    downloader.download(progressListener);
+
+    assertCachedData(cache, fakeDataSet);
+    assertDataSpecs(
+        upstream.getAndClearOpenedDataSpecs(),
+        // The content length probe.
+        new long[] {0, C.LENGTH_UNSET},
+        new long[] {0, RANGE_LENGTH},
+        new long[] {RANGE_LENGTH, RANGE_LENGTH},
+        new long[] {2 * RANGE_LENGTH, TEST_DATA_LENGTH - 2 * RANGE_LENGTH});
+    assertThat(progressListener.contentLength).isEqualTo(TEST_DATA_LENGTH);
+    assertThat(progressListener.bytesDownloaded).isEqualTo(TEST_DATA_LENGTH);
+    assertThat(progressListener.percentDownloaded).isEqualTo(100f);
+  }
+
+  @Test
+  public void download_withCachedMiddleRange_onlyRequestsMissingRanges() throws Exception {
+    FakeDataSet fakeDataSet = new FakeDataSet().setData(TEST_URI, testData);
+    FakeDataSource upstream = new FakeDataSource(fakeDataSet);
+    // Simulate a partially completed download, for which the content length is already known.
+    new CacheWriter(
+            new CacheDataSource(cache, upstream),
+            new DataSpec(Uri.parse(TEST_URI), /* position= */ RANGE_LENGTH, RANGE_LENGTH),
+            /* allowShortContent= */ false,
+            /* temporaryBuffer= */ null,
+            /* progressListener= */ null)
+        .cache();
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentLength(mutations, TEST_DATA_LENGTH);
+    cache.applyContentMetadataMutations(TEST_URI, mutations);
+    upstream.getAndClearOpenedDataSpecs();
+    ProgressiveDownloader downloader = createDownloader(upstream, /* priorityTaskManager= */ null);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    downloader.download(progressListener);
+
+    assertCachedData(cache, fakeDataSet);
+    assertDataSpecs(
+        upstream.getAndClearOpenedDataSpecs(),
+        new long[] {0, RANGE_LENGTH},
+        new long[] {2 * RANGE_LENGTH, TEST_DATA_LENGTH - 2 * RANGE_LENGTH});
+    assertThat(progressListener.bytesDownloaded).isEqualTo(TEST_DATA_LENGTH);
+  }
+
+  @Test
+  public void download_unknownLength_probesThenCachesSingleRange() throws Exception {
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .newData(TEST_URI)
+            .setSimulateUnknownLength(true)
+            .appendReadData(TestUtil.buildTestData(100))
+            .endData();
+    FakeDataSource upstream = new FakeDataSource(fakeDataSet);
+    ProgressiveDownloader downloader = createDownloader(upstream, /* priorityTaskManager= */ null);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    downloader.download(progressListener);
+
+    assertCachedData(cache, fakeDataSet);
+    // The probe doesn't resolve the length, so the stream is downloaded as a single range.
+    assertDataSpecs(
+        upstream.getAndClearOpenedDataSpecs(),
+        new long[] {0, C.LENGTH_UNSET},
+        new long[] {0, C.LENGTH_UNSET});
+    assertThat(ContentMetadata.getContentLength(cache.getContentMetadata(TEST_URI)))
+        .isEqualTo(100);
+    assertThat(progressListener.bytesDownloaded).isEqualTo(100);
+  }
+
+  @Test
+  public void download_canceledMidRange_stopsDownloading() throws Exception {
+    int cancelPosition = RANGE_LENGTH / 2;
+    ProgressiveDownloader[] downloader = new ProgressiveDownloader[1];
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .newData(TEST_URI)
+            .appendReadData(Arrays.copyOf(testData, cancelPosition))
+            .appendReadAction(() -> downloader[0].cancel())
+            .appendReadData(Arrays.copyOfRange(testData, cancelPosition, TEST_DATA_LENGTH))
+            .endData();
+    FakeDataSource upstream = new FakeDataSource(fakeDataSet);
+    downloader[0] = createDownloader(upstream, /* priorityTaskManager= */ null);
+
+    assertThrows(
+        CancellationException.class, () -> downloader[0].download(/* progressListener= */ null));
+
+    // The download stopped within the first range, without requesting any of the other ranges.
+    assertDataSpecs(
+        upstream.getAndClearOpenedDataSpecs(),
+        new long[] {0, C.LENGTH_UNSET},
+        new long[] {0, RANGE_LENGTH});
+    long bytesCached = cache.getCachedBytes(TEST_URI, /* position= */ 0, C.LENGTH_UNSET);
+    assertThat(bytesCached).isAtLeast(cancelPosition);
+    assertThat(bytesCached).isLessThan(RANGE_LENGTH);
+  }
+
+  @Test
+  public void download_preemptedByHigherPriorityTask_resumesAndCompletes() throws Exception {
+    int preemptPosition = RANGE_LENGTH / 2;
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    Thread downloadThread = Thread.currentThread();
+    AtomicBoolean preempted = new AtomicBoolean();
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .newData(TEST_URI)
+            .appendReadData(Arrays.copyOf(testData, preemptPosition))
+            .appendReadAction(
+                () -> {
+                  if (preempted.getAndSet(true)) {
+                    // The action runs again when the range is resumed.
+                    return;
+                  }
+                  priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+                  // Finish the higher priority task once the download is blocked waiting for it.
+                  new Thread(
+                          () -> {
+                            while (downloadThread.getState() != Thread.State.WAITING) {
+                              Thread.yield();
+                            }
+                            priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+                          })
+                      .start();
+                })
+            .appendReadData(Arrays.copyOfRange(testData, preemptPosition, TEST_DATA_LENGTH))
+            .endData();
+    FakeDataSource upstream = new FakeDataSource(fakeDataSet);
+    ProgressiveDownloader downloader = createDownloader(upstream, priorityTaskManager);
+    TestProgressListener progressListener = new TestProgressListener();
+
+    downloader.download(progressListener);
+
+    assertCachedData(cache, fakeDataSet);
+    // The preempted range is resumed from where it stopped, which is one read after the higher
+    // priority task was added.
+    int resumePosition = preemptPosition + CacheWriter.DEFAULT_BUFFER_SIZE_BYTES;
+    assertDataSpecs(
+        upstream.getAndClearOpenedDataSpecs(),
+        new long[] {0, C.LENGTH_UNSET},
+        new long[] {0, RANGE_LENGTH},
+        new long[] {resumePosition, RANGE_LENGTH - resumePosition},
+        new long[] {RANGE_LENGTH, RANGE_LENGTH},
+        new long[] {2 * RANGE_LENGTH, TEST_DATA_LENGTH - 2 * RANGE_LENGTH});
+    assertThat(progressListener.bytesDownloaded).isEqualTo(TEST_DATA_LENGTH);
+  }
+
+  private ProgressiveDownloader createDownloader(
+      FakeDataSource upstream, @Nullable PriorityTaskManager priorityTaskManager) {
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(() -> upstream)
+            .setUpstreamPriorityTaskManager(priorityTaskManager);
+    return new ProgressiveDownloader(MediaItem.fromUri(TEST_URI), cacheDataSourceFactory);
+  }
+
+  /** Asserts the positions and lengths of {@code dataSpecs}, given as {position, length} pairs. */
+  private static void assertDataSpecs(DataSpec[] dataSpecs, long[]... expectedRanges) {
+    assertThat(dataSpecs).hasLength(expectedRanges.length);
+    for (int i = 0; i < dataSpecs.length; i++) {
+      assertThat(dataSpecs[i].position).isEqualTo(expectedRanges[i][0]);
+      assertThat(dataSpecs[i].length).isEqualTo(expectedRanges[i][1]);
+    }
+  }
+
+  private static final class TestProgressListener implements Downloader.ProgressListener {
+
+    public long contentLength;
+    public long bytesDownloaded;
+    public float percentDownloaded;
+
+    @Override
+    public void onProgress(long contentLength, long bytesDownloaded, float percentDownloaded) {
+      this.contentLength = contentLength;
+      this.bytesDownloaded = bytesDownloaded;
+      this.percentDownloaded = percentDownloaded;
+    }
+  }
+}
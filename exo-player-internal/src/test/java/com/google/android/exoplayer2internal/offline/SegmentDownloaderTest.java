@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.offline;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.MediaItem;
+import com.google.android.exoplayer2internal.upstream.DataSource;
+import com.google.android.exoplayer2internal.upstream.DataSpec;
+import com.google.android.exoplayer2internal.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2internal.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2internal.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2internal.util.PriorityTaskManager;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link SegmentDownloader}. */
+@RunWith(AndroidJUnit4.class)
+public final class SegmentDownloaderTest {
+
+  private static final String MANIFEST_URI = "https://a.test/manifest";
+  private static final int SEGMENT_LENGTH = 256 * 1024;
+
+  private File tempFolder;
+  private SimpleCache cache;
+  private FakeDataSet fakeDataSet;
+  private FakeDataSource upstream;
+  private FakeClock clock;
+  /** The {@link DataSpec DataSpecs} opened by each runnable executed by the downloader. */
+  private List<List<DataSpec>> executedRunnables;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(tempFolder, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+    fakeDataSet = new FakeDataSet().setRandomData(MANIFEST_URI, /* length= */ 1);
+    upstream = new FakeDataSource(fakeDataSet);
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+    executedRunnables = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void download_segmentsFromDifferentHosts_batchesSegmentsByHost() throws Exception {
+    List<SegmentDownloader.Segment> segments = new ArrayList<>();
+    segments.add(createSegment("https://a.test/0", /* startTimeUs= */ 0));
+    segments.add(createSegment("https://b.test/0", /* startTimeUs= */ 1));
+    segments.add(createSegment("https://a.test/1", /* startTimeUs= */ 2));
+    segments.add(createSegment("https://b.test/1", /* startTimeUs= */ 3));
+    segments.add(createSegment("https://a.test/2", /* startTimeUs= */ 4));
+
+    createDownloader(segments, /* priorityTaskManager= */ null)
+        .download(/* progressListener= */ null);
+
+    assertThat(getSegmentBatches())
+        .containsExactly(
+            Arrays.asList("https://a.test/0", "https://a.test/1", "https://a.test/2"),
+            Arrays.asList("https://b.test/0", "https://b.test/1"))
+        .inOrder();
+  }
+
+  @Test
+  public void download_lowThroughput_reducesBatchLength() throws Exception {
+    // Each segment takes one second to download, so the first 1 MB batch of four segments is
+    // downloaded at 2 Mbps, which limits subsequent batches to the 512 KB that can be downloaded in
+    // the two second target duration.
+    List<SegmentDownloader.Segment> segments =
+        createSegments(/* count= */ 12, /* segmentDurationMs= */ 1000);
+
+    createDownloader(segments, /* priorityTaskManager= */ null)
+        .download(/* progressListener= */ null);
+
+    assertThat(getSegmentBatchSizes()).containsExactly(4, 2, 2, 2, 2).inOrder();
+  }
+
+  @Test
+  public void download_highThroughput_increasesBatchLengthUpToMaxSegmentCount() throws Exception {
+    List<SegmentDownloader.Segment> segments =
+        createSegments(/* count= */ 40, /* segmentDurationMs= */ 10);
+
+    createDownloader(segments, /* priorityTaskManager= */ null)
+        .download(/* progressListener= */ null);
+
+    assertThat(getSegmentBatchSizes()).containsExactly(4, 32, 4).inOrder();
+  }
+
+  @Test
+  public void download_batchPreemptedByHigherPriorityTask_requeuesRemainingSegments()
+      throws Exception {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    Thread downloadThread = Thread.currentThread();
+    AtomicBoolean preempted = new AtomicBoolean();
+    List<SegmentDownloader.Segment> segments = new ArrayList<>();
+    segments.add(createSegment("https://a.test/0", /* startTimeUs= */ 0));
+    segments.add(createSegment("https://a.test/1", /* startTimeUs= */ 1));
+    segments.add(createSegment("https://a.test/2", /* startTimeUs= */ 2));
+    segments.add(createSegment("https://a.test/3", /* startTimeUs= */ 3));
+    // Add a higher priority task during the second segment.
+    fakeDataSet
+        .newData("https://a.test/1")
+        .appendReadData(SEGMENT_LENGTH / 4)
+        .appendReadAction(
+            () -> {
+              if (preempted.getAndSet(true)) {
+                // The action runs again when the segment is resumed.
+                return;
+              }
+              priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+              // Finish the higher priority task once the download is blocked waiting for it.
+              new Thread(
+                      () -> {
+                        while (downloadThread.getState() != Thread.State.WAITING) {
+                          Thread.yield();
+                        }
+                        priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+                      })
+                  .start();
+            })
+        .appendReadData(SEGMENT_LENGTH * 3 / 4)
+        .endData();
+    TestProgressListener progressListener = new TestProgressListener();
+
+    createDownloader(segments, priorityTaskManager).download(progressListener);
+
+    // The first batch stops in the second segment, one read after the higher priority task is
+    // added. The second batch resumes that segment, followed by the segments that weren't started.
+    int resumePosition = SEGMENT_LENGTH / 4 + 128 * 1024;
+    assertThat(getSegmentBatches())
+        .containsExactly(
+            Arrays.asList("https://a.test/0", "https://a.test/1"),
+            Arrays.asList("https://a.test/1", "https://a.test/2", "https://a.test/3"))
+        .inOrder();
+    assertThat(executedRunnables.get(2).get(0).position).isEqualTo(resumePosition);
+    assertThat(executedRunnables.get(2).get(0).length).isEqualTo(SEGMENT_LENGTH - resumePosition);
+    // The bytes of the preempted segment are only counted once.
+    assertThat(progressListener.contentLength).isEqualTo(4 * SEGMENT_LENGTH);
+    assertThat(progressListener.bytesDownloaded).isEqualTo(4 * SEGMENT_LENGTH);
+    assertThat(progressListener.percentDownloaded).isEqualTo(100f);
+  }
+
+  private SegmentDownloader.Segment createSegment(String uri, long startTimeUs) {
+    fakeDataSet.setRandomData(uri, SEGMENT_LENGTH);
+    return new SegmentDownloader.Segment(
+        startTimeUs, new DataSpec(Uri.parse(uri), /* position= */ 0, SEGMENT_LENGTH));
+  }
+
+  /** Creates segments from the same host that each take {@code segmentDurationMs} to download. */
+  private List<SegmentDownloader.Segment> createSegments(int count, long segmentDurationMs) {
+    List<SegmentDownloader.Segment> segments = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String uri = "https://a.test/" + i;
+      fakeDataSet
+          .newData(uri)
+          .appendReadAction(() -> clock.advanceTime(segmentDurationMs))
+          .appendReadData(SEGMENT_LENGTH)
+          .endData();
+      segments.add(
+          new SegmentDownloader.Segment(
+              /* startTimeUs= */ i,
+              new DataSpec(Uri.parse(uri), /* position= */ 0, SEGMENT_LENGTH)));
+    }
+    return segments;
+  }
+
+  private TestSegmentDownloader createDownloader(
+      List<SegmentDownloader.Segment> segments,
+      @Nullable PriorityTaskManager priorityTaskManager) {
+    CacheDataSource.Factory cacheDataSourceFactory =
+        new CacheDataSource.Factory()
+            .setCache(cache)
+            .setUpstreamDataSourceFactory(() -> upstream)
+            .setUpstreamPriorityTaskManager(priorityTaskManager);
+    TestSegmentDownloader downloader =
+        new TestSegmentDownloader(
+            segments,
+            cacheDataSourceFactory,
+            runnable -> {
+              runnable.run();
+              executedRunnables.add(Arrays.asList(upstream.getAndClearOpenedDataSpecs()));
+            });
+    downloader.setClock(clock);
+    return downloader;
+  }
+
+  /** Returns the uris requested by each batch of segments, excluding the manifest request. */
+  private List<List<String>> getSegmentBatches() {
+    List<List<String>> batches = new ArrayList<>();
+    for (int i = 1; i < executedRunnables.size(); i++) {
+      List<String> uris = new ArrayList<>();
+      for (DataSpec dataSpec : executedRunnables.get(i)) {
+        uris.add(dataSpec.uri.toString());
+      }
+      batches.add(uris);
+    }
+    return batches;
+  }
+
+  private List<Integer> getSegmentBatchSizes() {
+    List<Integer> batchSizes = new ArrayList<>();
+    for (List<String> batch : getSegmentBatches()) {
+      batchSizes.add(batch.size());
+    }
+    return batchSizes;
+  }
+
+  private static final class TestManifest implements FilterableManifest<TestManifest> {
+
+    @Override
+    public TestManifest copy(List<StreamKey> streamKeys) {
+      return this;
+    }
+  }
+
+  private static final class TestSegmentDownloader extends SegmentDownloader<TestManifest> {
+
+    private final List<Segment> segments;
+
+    public TestSegmentDownloader(
+        List<Segment> segments,
+        CacheDataSource.Factory cacheDataSourceFactory,
+        Executor executor) {
+      super(
+          MediaItem.fromUri(MANIFEST_URI),
+          (uri, inputStream) -> new TestManifest(),
+          cacheDataSourceFactory,
+          executor);
+      this.segments = segments;
+    }
+
+    @Override
+    protected List<Segment> getSegments(
+        DataSource dataSource, TestManifest manifest, boolean removing) {
+      return new ArrayList<>(segments);
+    }
+  }
+
+  private static final class TestProgressListener implements Downloader.ProgressListener {
+
+    public long contentLength;
+    public long bytesDownloaded;
+    public float percentDownloaded;
+
+    @Override
+    public void onProgress(long contentLength, long bytesDownloaded, float percentDownloaded) {
+      this.contentLength = contentLength;
+      this.bytesDownloaded = bytesDownloaded;
+      this.percentDownloaded = percentDownloaded;
+    }
+  }
+}
@@ -32,6 +32,7 @@ import com.google.android.exoplayer2internal.drm.DrmSessionManager;
 import com.google.android.exoplayer2internal.drm.ExoMediaCrypto;
 import com.google.android.exoplayer2internal.extractor.TrackOutput;
 import com.google.android.exoplayer2internal.upstream.Allocator;
+import com.google.android.exoplayer2internal.upstream.ByteBufferDataReader;
 import com.google.android.exoplayer2internal.upstream.DefaultAllocator;
 import com.google.android.exoplayer2internal.util.Assertions;
 import com.google.android.exoplayer2internal.util.MimeTypes;
@@ -46,6 +47,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -353,6 +355,62 @@ public final class SampleQueueTest {
     assertAllocationCount(0);
   }
 
+  @Test
+  public void readMultiSamples_withDirectBufferAllocations() {
+    allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ false,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* useThreadLocalCaches= */ false,
+            /* useDirectBuffers= */ true);
+    sampleQueue =
+        new SampleQueue(
+            allocator,
+            /* playbackLooper= */ Assertions.checkNotNull(Looper.myLooper()),
+            mockDrmSessionManager,
+            eventDispatcher);
+    inputBuffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+
+    writeTestData();
+    assertAllocationCount(10);
+    assertReadTestData();
+    sampleQueue.discardToRead();
+    assertAllocationCount(0);
+  }
+
+  @Test
+  public void readMultiSamples_fromByteBufferDataReaderWithDirectBufferAllocations()
+      throws IOException {
+    allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ false,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 0,
+            /* useThreadLocalCaches= */ false,
+            /* useDirectBuffers= */ true);
+    sampleQueue =
+        new SampleQueue(
+            allocator,
+            /* playbackLooper= */ Assertions.checkNotNull(Looper.myLooper()),
+            mockDrmSessionManager,
+            eventDispatcher);
+    inputBuffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+    FakeByteBufferDataReader dataReader = new FakeByteBufferDataReader(DATA);
+
+    int bytesWritten = 0;
+    while (bytesWritten < DATA.length) {
+      bytesWritten +=
+          sampleQueue.sampleData(
+              dataReader, DATA.length - bytesWritten, /* allowEndOfInput= */ false);
+    }
+    writeTestMetadata(
+        SAMPLE_SIZES, SAMPLE_OFFSETS, SAMPLE_TIMESTAMPS, SAMPLE_FORMATS, SAMPLE_FLAGS);
+
+    assertThat(dataReader.arrayReadCount).isEqualTo(0);
+    assertReadTestData();
+  }
+
   @Test
   public void readMultiSamplesTwice() {
     writeTestData();
@@ -1346,6 +1404,15 @@ public final class SampleQueueTest {
   private void writeTestData(byte[] data, int[] sampleSizes, int[] sampleOffsets,
       long[] sampleTimestamps, Format[] sampleFormats, int[] sampleFlags) {
     sampleQueue.sampleData(new ParsableByteArray(data), data.length);
+    writeTestMetadata(sampleSizes, sampleOffsets, sampleTimestamps, sampleFormats, sampleFlags);
+  }
+
+  /**
+   * Writes the metadata of the specified test samples to {@code sampleQueue}.
+   */
+  @SuppressWarnings("ReferenceEquality")
+  private void writeTestMetadata(int[] sampleSizes, int[] sampleOffsets,
+      long[] sampleTimestamps, Format[] sampleFormats, int[] sampleFlags) {
     Format format = null;
     for (int i = 0; i < sampleTimestamps.length; i++) {
       if (sampleFormats[i] != format) {
@@ -1669,4 +1736,40 @@ public final class SampleQueueTest {
           : null;
     }
   }
+
+  /** A {@link ByteBufferDataReader} that reads from an array and counts array reads. */
+  private static final class FakeByteBufferDataReader implements ByteBufferDataReader {
+
+    private final ByteBuffer data;
+
+    public int arrayReadCount;
+
+    public FakeByteBufferDataReader(byte[] data) {
+      this.data = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      arrayReadCount++;
+      if (!data.hasRemaining()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      length = Math.min(length, data.remaining());
+      data.get(target, offset, length);
+      return length;
+    }
+
+    @Override
+    public int read(ByteBuffer target) {
+      if (!data.hasRemaining()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int length = Math.min(target.remaining(), data.remaining());
+      ByteBuffer source = data.duplicate();
+      source.limit(source.position() + length);
+      target.put(source);
+      data.position(data.position() + length);
+      return length;
+    }
+  }
 }
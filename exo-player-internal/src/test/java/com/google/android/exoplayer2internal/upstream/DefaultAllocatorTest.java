@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link DefaultAllocator}. */
+@RunWith(AndroidJUnit4.class)
+public final class DefaultAllocatorTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+
+  @Test
+  public void withThreadLocalCaches_releasedAllocationsAreReused() {
+    DefaultAllocator allocator = createAllocator(/* initialAllocationCount= */ 0);
+
+    Allocation allocation = allocator.allocate();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(ALLOCATION_SIZE);
+    allocator.release(allocation);
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+    assertThat(allocator.allocate()).isSameInstanceAs(allocation);
+  }
+
+  @Test
+  public void withThreadLocalCaches_allocationsReleasedOnOtherThreadAreReused() throws Exception {
+    DefaultAllocator allocator = createAllocator(/* initialAllocationCount= */ 0);
+    int allocationCount = 64;
+    Allocation[] allocations = new Allocation[allocationCount];
+    for (int i = 0; i < allocationCount; i++) {
+      allocations[i] = allocator.allocate();
+    }
+
+    Thread releasingThread = new Thread(() -> allocator.release(allocations));
+    releasingThread.start();
+    releasingThread.join();
+
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+    // Full magazines released on the other thread are handed back through the depot.
+    for (int i = 0; i < allocationCount / 2; i++) {
+      assertThat(allocations).asList().contains(allocator.allocate());
+    }
+  }
+
+  @Test
+  public void withThreadLocalCaches_trimKeepsInitialAllocations() {
+    DefaultAllocator allocator = createAllocator(/* initialAllocationCount= */ 32);
+
+    allocator.trim();
+
+    Allocation allocation = allocator.allocate();
+    assertThat(allocation.offset % ALLOCATION_SIZE).isEqualTo(0);
+    assertThat(allocation.data.length).isEqualTo(32 * ALLOCATION_SIZE);
+  }
+
+  @Test
+  public void withThreadLocalCaches_concurrentAllocateAndRelease_tracksTotalBytesAllocated()
+      throws Exception {
+    DefaultAllocator allocator = createAllocator(/* initialAllocationCount= */ 0);
+    ArrayBlockingQueue<Allocation> queue = new ArrayBlockingQueue<>(/* capacity= */ 8);
+    int allocationCount = 10_000;
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread releasingThread =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < allocationCount; i++) {
+                  allocator.release(queue.take());
+                }
+              } catch (Throwable e) {
+                error.set(e);
+              }
+            });
+    releasingThread.start();
+
+    for (int i = 0; i < allocationCount; i++) {
+      queue.put(allocator.allocate());
+    }
+    releasingThread.join();
+
+    assertThat(error.get()).isNull();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+  }
+
+  @Test
+  public void withDirectBuffers_allocationsAreDirectAndTrimKeepsInitialAllocations() {
+    DefaultAllocator allocator =
+        new DefaultAllocator(
+            /* trimOnReset= */ true,
+            ALLOCATION_SIZE,
+            /* initialAllocationCount= */ 1,
+            /* useThreadLocalCaches= */ false,
+            /* useDirectBuffers= */ true);
+    Allocation initialAllocation = allocator.allocate();
+    Allocation allocation = allocator.allocate();
+    allocator.release(new Allocation[] {initialAllocation, allocation});
+
+    allocator.trim();
+
+    assertThat(initialAllocation.buffer.isDirect()).isTrue();
+    assertThat(initialAllocation.buffer.capacity()).isEqualTo(ALLOCATION_SIZE);
+    assertThat(allocation.buffer.isDirect()).isTrue();
+    assertThat(allocator.allocate()).isSameInstanceAs(initialAllocation);
+    assertThat(allocator.allocate()).isNotSameInstanceAs(allocation);
+  }
+
+  private static DefaultAllocator createAllocator(int initialAllocationCount) {
+    return new DefaultAllocator(
+        /* trimOnReset= */ true,
+        ALLOCATION_SIZE,
+        initialAllocationCount,
+        /* useThreadLocalCaches= */ true);
+  }
+}
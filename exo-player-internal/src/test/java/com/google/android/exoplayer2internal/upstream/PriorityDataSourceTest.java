@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.util.PriorityTaskManager;
+import com.google.android.exoplayer2internal.util.PriorityTaskManager.PriorityTooLowException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+/** Unit tests for {@link PriorityDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class PriorityDataSourceTest {
+
+  private static final int DATA_LENGTH = 1024;
+  private static final int READ_LENGTH = 16;
+
+  private PriorityTaskManager priorityTaskManager;
+  private FakeClock clock;
+  private FakeDataSource upstream;
+
+  @Before
+  public void setUp() {
+    priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+    upstream = new FakeDataSource();
+    upstream.getDataSet().newDefaultData().appendReadData(TestUtil.buildTestData(DATA_LENGTH));
+  }
+
+  @Test
+  public void read_withoutHigherPriorityTask_proceeds() throws IOException {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0.5f);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    clock.advanceTime(/* timeDiffMs= */ 10_000);
+
+    assertThat(read(dataSource)).isEqualTo(READ_LENGTH);
+  }
+
+  @Test
+  public void read_zeroShareWithHigherPriorityTask_throws() throws IOException {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+
+    assertThrows(PriorityTooLowException.class, () -> read(dataSource));
+  }
+
+  @Test
+  public void open_zeroShareWithHigherPriorityTask_throws() {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+
+    assertThrows(PriorityTooLowException.class, () -> dataSource.open(new DataSpec(Uri.EMPTY)));
+  }
+
+  @Test
+  public void read_fullShareWithHigherPriorityTask_neverBlocks() throws IOException {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 1);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+
+    for (int i = 0; i < 8; i++) {
+      assertThat(read(dataSource)).isEqualTo(READ_LENGTH);
+      clock.advanceTime(/* timeDiffMs= */ 499);
+    }
+  }
+
+  @Test
+  public void read_preemptedDuringShare_proceeds() throws IOException {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0.5f);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+
+    assertThat(read(dataSource)).isEqualTo(READ_LENGTH);
+    clock.advanceTime(/* timeDiffMs= */ 499);
+    assertThat(read(dataSource)).isEqualTo(READ_LENGTH);
+  }
+
+  @Test
+  public void read_preemptedOutsideShare_blocksUntilHigherPriorityTaskRemoved()
+      throws Exception {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0.5f);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    // Start the preempted period.
+    read(dataSource);
+    clock.advanceTime(/* timeDiffMs= */ 500);
+
+    AtomicInteger bytesRead = new AtomicInteger(C.LENGTH_UNSET);
+    Thread readThread = startReadThread(dataSource, bytesRead);
+    waitUntilBlocked(readThread);
+    assertThat(bytesRead.get()).isEqualTo(C.LENGTH_UNSET);
+
+    priorityTaskManager.remove(C.PRIORITY_PLAYBACK);
+    readThread.join(/* millis= */ 10_000);
+    assertThat(readThread.isAlive()).isFalse();
+    assertThat(bytesRead.get()).isEqualTo(READ_LENGTH);
+  }
+
+  @Test
+  public void read_preemptedOutsideShare_blocksUntilNextPeriod() throws Exception {
+    PriorityDataSource dataSource = createDataSource(/* preemptedShare= */ 0.9f);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    // Start the preempted period.
+    read(dataSource);
+    clock.advanceTime(/* timeDiffMs= */ 900);
+
+    AtomicInteger bytesRead = new AtomicInteger(C.LENGTH_UNSET);
+    Thread readThread = startReadThread(dataSource, bytesRead);
+    waitUntilBlocked(readThread);
+    assertThat(bytesRead.get()).isEqualTo(C.LENGTH_UNSET);
+
+    clock.advanceTime(/* timeDiffMs= */ 100);
+    readThread.join(/* millis= */ 10_000);
+    assertThat(readThread.isAlive()).isFalse();
+    assertThat(bytesRead.get()).isEqualTo(READ_LENGTH);
+    // The task is allowed to proceed for the share of the next period.
+    clock.advanceTime(/* timeDiffMs= */ 899);
+    assertThat(read(dataSource)).isEqualTo(READ_LENGTH);
+  }
+
+  private PriorityDataSource createDataSource(float preemptedShare) {
+    PriorityDataSource dataSource =
+        new PriorityDataSource(upstream, priorityTaskManager, C.PRIORITY_DOWNLOAD, preemptedShare);
+    dataSource.setClock(clock);
+    return dataSource;
+  }
+
+  private static int read(DataSource dataSource) throws IOException {
+    return dataSource.read(new byte[READ_LENGTH], /* offset= */ 0, READ_LENGTH);
+  }
+
+  private static Thread startReadThread(DataSource dataSource, AtomicInteger bytesRead) {
+    Thread readThread =
+        new Thread(
+            () -> {
+              try {
+                bytesRead.set(read(dataSource));
+              } catch (IOException e) {
+                // Leave bytesRead unset, so that the test fails.
+              }
+            });
+    readThread.start();
+    return readThread;
+  }
+
+  private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      assertThat(thread.isAlive()).isTrue();
+      Thread.sleep(/* millis= */ 1);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.C;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link RateLimitedDataSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class RateLimitedDataSourceTest {
+
+  private static final int BYTES_PER_SECOND = 1000;
+  private static final int DATA_LENGTH = 4 * BYTES_PER_SECOND;
+
+  private FakeClock clock;
+  private TokenBucket tokenBucket;
+  private RateLimitedDataSource dataSource;
+
+  @Before
+  public void setUp() throws IOException {
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+    tokenBucket = new TokenBucket(BYTES_PER_SECOND);
+    tokenBucket.setClock(clock);
+    FakeDataSource upstream = new FakeDataSource();
+    upstream.getDataSet().newDefaultData().appendReadData(TestUtil.buildTestData(DATA_LENGTH));
+    dataSource = new RateLimitedDataSource(upstream, tokenBucket);
+    dataSource.open(new DataSpec(Uri.EMPTY));
+  }
+
+  @Test
+  public void read_withinAvailableTokens_doesNotBlock() throws IOException {
+    // The bucket starts with one second of tokens.
+    assertThat(read(dataSource, BYTES_PER_SECOND / 2)).isEqualTo(BYTES_PER_SECOND / 2);
+    assertThat(read(dataSource, BYTES_PER_SECOND / 2)).isEqualTo(BYTES_PER_SECOND / 2);
+  }
+
+  @Test
+  public void read_withBucketRefilled_doesNotBlock() throws IOException {
+    read(dataSource, BYTES_PER_SECOND);
+    clock.advanceTime(/* timeDiffMs= */ 1000);
+
+    assertThat(read(dataSource, BYTES_PER_SECOND)).isEqualTo(BYTES_PER_SECOND);
+  }
+
+  @Test
+  public void read_withBucketInDebt_blocksUntilRateSetUnlimited() throws Exception {
+    AtomicInteger bytesRead = new AtomicInteger(C.LENGTH_UNSET);
+    // Reading two seconds of tokens puts the bucket into debt.
+    Thread readThread = startReadThread(dataSource, 2 * BYTES_PER_SECOND, bytesRead);
+    waitUntilBlocked(readThread);
+    assertThat(bytesRead.get()).isEqualTo(C.LENGTH_UNSET);
+
+    tokenBucket.setRate(TokenBucket.RATE_UNLIMITED);
+    readThread.join();
+
+    assertThat(bytesRead.get()).isEqualTo(2 * BYTES_PER_SECOND);
+    assertThat(read(dataSource, BYTES_PER_SECOND)).isEqualTo(BYTES_PER_SECOND);
+  }
+
+  @Test
+  public void read_withBucketInDebt_blocksUntilDebtRepaidAtRaisedRate() throws Exception {
+    AtomicInteger bytesRead = new AtomicInteger(C.LENGTH_UNSET);
+    // Reading two seconds of tokens puts the bucket into one second of debt.
+    Thread readThread = startReadThread(dataSource, 2 * BYTES_PER_SECOND, bytesRead);
+    waitUntilBlocked(readThread);
+    assertThat(bytesRead.get()).isEqualTo(C.LENGTH_UNSET);
+
+    // At a thousand times the rate, the debt is repaid in a millisecond.
+    tokenBucket.setRate(1000 * BYTES_PER_SECOND);
+    clock.advanceTime(/* timeDiffMs= */ 1);
+    readThread.join();
+
+    assertThat(bytesRead.get()).isEqualTo(2 * BYTES_PER_SECOND);
+  }
+
+  private static int read(DataSource dataSource, int length) throws IOException {
+    return dataSource.read(new byte[length], /* offset= */ 0, length);
+  }
+
+  private static Thread startReadThread(
+      DataSource dataSource, int length, AtomicInteger bytesRead) {
+    Thread readThread =
+        new Thread(
+            () -> {
+              try {
+                bytesRead.set(read(dataSource, length));
+              } catch (IOException e) {
+                // Leave bytesRead unset, so that the test fails.
+              }
+            });
+    readThread.start();
+    return readThread;
+  }
+
+  private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      assertThat(thread.isAlive()).isTrue();
+      Thread.sleep(/* millis= */ 1);
+    }
+  }
+}
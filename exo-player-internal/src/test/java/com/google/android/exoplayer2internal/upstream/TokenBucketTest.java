@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link TokenBucket}. */
+@RunWith(AndroidJUnit4.class)
+public final class TokenBucketTest {
+
+  @Test
+  public void consume_withUnlimitedRate_doesNotBlock() throws InterruptedException {
+    TokenBucket tokenBucket = new TokenBucket();
+
+    tokenBucket.consume(Integer.MAX_VALUE);
+    tokenBucket.consume(Integer.MAX_VALUE);
+
+    assertThat(tokenBucket.getRate()).isEqualTo(TokenBucket.RATE_UNLIMITED);
+  }
+
+  @Test
+  public void consume_withinAvailableTokens_doesNotBlock() throws InterruptedException {
+    TokenBucket tokenBucket = new TokenBucket(/* bytesPerSecond= */ 1000);
+
+    // The bucket starts with one second of tokens.
+    tokenBucket.consume(600);
+    tokenBucket.consume(400);
+
+    assertThat(tokenBucket.getRate()).isEqualTo(1000);
+  }
+
+  @Test
+  public void setRate_toUnlimited_unblocksConsume() throws InterruptedException {
+    TokenBucket tokenBucket = new TokenBucket(/* bytesPerSecond= */ 1000);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                // Consuming a thousand seconds of tokens blocks until the rate is changed.
+                tokenBucket.consume(1_000_000);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    thread.start();
+    waitUntilBlocked(thread);
+
+    tokenBucket.setRate(TokenBucket.RATE_UNLIMITED);
+    thread.join(/* millis= */ 10_000);
+
+    assertThat(thread.isAlive()).isFalse();
+  }
+
+  @Test
+  public void consume_withDebtOfSeveralSeconds_blocksUntilDebtRepaid() throws InterruptedException {
+    // A high rate keeps the real time spent waiting between refills short.
+    long bytesPerSecond = 1_000_000;
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    TokenBucket tokenBucket = new TokenBucket(bytesPerSecond);
+    tokenBucket.setClock(clock);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                // The bucket starts with one second of tokens, so this leaves three seconds of
+                // debt.
+                tokenBucket.consume((int) (4 * bytesPerSecond));
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    thread.start();
+    waitUntilBlocked(thread);
+
+    clock.advanceTime(/* timeDiffMs= */ 2999);
+    Thread.sleep(/* millis= */ 100);
+    assertThat(thread.isAlive()).isTrue();
+
+    clock.advanceTime(/* timeDiffMs= */ 1);
+    thread.join(/* millis= */ 10_000);
+    assertThat(thread.isAlive()).isFalse();
+  }
+
+  private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      assertThat(thread.isAlive()).isTrue();
+      Thread.sleep(/* millis= */ 1);
+    }
+  }
+}
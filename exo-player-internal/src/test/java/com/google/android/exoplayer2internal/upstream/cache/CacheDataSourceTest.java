@@ -26,6 +26,7 @@ import com.google.android.exoplayer2.testutil.FakeDataSet.FakeData;
 import com.google.android.exoplayer2.testutil.FakeDataSource;
 import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2internal.C;
+import com.google.android.exoplayer2internal.upstream.ByteBufferDataReader;
 import com.google.android.exoplayer2internal.upstream.DataSpec;
 import com.google.android.exoplayer2internal.upstream.FileDataSource;
 import com.google.android.exoplayer2internal.util.Util;
@@ -37,6 +38,7 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -128,6 +130,52 @@ public final class CacheDataSourceTest {
     assertCacheAndRead(boundedDataSpec, /* unknownLength= */ false);
   }
 
+  @Test
+  public void readIntoByteBuffer_fromCache_readsCachedData() throws Exception {
+    CacheDataSource cacheDataSource =
+        createCacheDataSource(/* setReadException= */ false, /* unknownLength= */ false);
+    assertReadDataContentLength(
+        cacheDataSource,
+        unboundedDataSpec,
+        /* unknownLength= */ false,
+        /* customCacheKey= */ false);
+    cacheDataSource =
+        createCacheDataSource(/* setReadException= */ true, /* unknownLength= */ false);
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length + 1);
+
+    cacheDataSource.open(unboundedDataSpec);
+    int bytesRead;
+    while ((bytesRead = cacheDataSource.read(target)) != C.RESULT_END_OF_INPUT) {
+      assertThat(bytesRead).isGreaterThan(0);
+    }
+    cacheDataSource.close();
+
+    target.flip();
+    byte[] data = new byte[target.remaining()];
+    target.get(data);
+    assertThat(data).isEqualTo(TEST_DATA);
+  }
+
+  @Test
+  public void readIntoByteBuffer_fromUpstream_returnsUnsupported() throws Exception {
+    CacheDataSource cacheDataSource =
+        createCacheDataSource(/* setReadException= */ false, /* unknownLength= */ false);
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length);
+
+    cacheDataSource.open(unboundedDataSpec);
+    int bytesRead = cacheDataSource.read(target);
+    byte[] data = new byte[TEST_DATA.length];
+    int offset = 0;
+    while (offset < data.length) {
+      offset += cacheDataSource.read(data, offset, data.length - offset);
+    }
+    cacheDataSource.close();
+
+    assertThat(bytesRead).isEqualTo(ByteBufferDataReader.RESULT_UNSUPPORTED);
+    assertThat(target.position()).isEqualTo(0);
+    assertThat(data).isEqualTo(TEST_DATA);
+  }
+
   @Test
   public void propagatesHttpHeadersUpstream() throws Exception {
     CacheDataSource cacheDataSource =
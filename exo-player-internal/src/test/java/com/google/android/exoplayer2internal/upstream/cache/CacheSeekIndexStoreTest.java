@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream.cache;
+
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2internal.extractor.SeekIndexStore;
+import com.google.android.exoplayer2internal.util.Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link CacheSeekIndexStore}. */
+@RunWith(AndroidJUnit4.class)
+public final class CacheSeekIndexStoreTest {
+
+  private File cacheDir;
+  private SimpleCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir =
+        Util.createTempDirectory(ApplicationProvider.getApplicationContext(), "ExoPlayerTest");
+    cache =
+        new SimpleCache(cacheDir, new NoOpCacheEvictor(), TestUtil.getInMemoryDatabaseProvider());
+  }
+
+  @After
+  public void tearDown() {
+    cache.release();
+    Util.recursiveDelete(cacheDir);
+  }
+
+  @Test
+  public void factory_put_isReturnedOnlyForSameUri() {
+    CacheSeekIndexStore.Factory factory = new CacheSeekIndexStore.Factory(cache);
+    byte[] seekIndex = TestUtil.buildTestData(100);
+
+    factory.createSeekIndexStore(Uri.parse("https://test.test/1")).put("key", seekIndex);
+
+    assertThat(factory.createSeekIndexStore(Uri.parse("https://test.test/1")).get("key"))
+        .isEqualTo(seekIndex);
+    assertThat(factory.createSeekIndexStore(Uri.parse("https://test.test/2")).get("key"))
+        .isNull();
+  }
+
+  @Test
+  public void put_largerThanMaxSeekIndexBytes_isNotStored() {
+    SeekIndexStore seekIndexStore =
+        new CacheSeekIndexStore(cache, "cacheKey", Runnable::run, /* maxSeekIndexBytes= */ 100);
+
+    seekIndexStore.put("key1", TestUtil.buildTestData(100));
+    seekIndexStore.put("key2", TestUtil.buildTestData(101));
+
+    assertThat(seekIndexStore.get("key1")).isNotNull();
+    assertThat(seekIndexStore.get("key2")).isNull();
+  }
+}
@@ -34,7 +34,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import static com.google.android.exoplayer2.testutil.TestUtil.createTestFile;
@@ -195,6 +198,119 @@ public class CachedContentIndexTest {
     assertThat(ContentMetadata.getContentLength(metadata2)).isEqualTo(2560);
   }
 
+  @Test
+  public void journalStoreAndLoad() throws Exception {
+    assertStoredAndLoadedEqual(newJournalInstance(), newJournalInstance());
+  }
+
+  @Test
+  public void journalStoreIncrementalAndLoad() throws Exception {
+    CachedContentIndex index = newJournalInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("ABCDE");
+    index.getOrAdd("KLMNO");
+    index.store();
+
+    index.maybeRemove("ABCDE");
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentLength(mutations, 10);
+    index.applyContentMetadataMutations("KLMNO", mutations);
+    index.getOrAdd("VWXYZ");
+    index.store();
+
+    CachedContentIndex index2 = newJournalInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("KLMNO", "VWXYZ");
+    assertThat(index2.get("KLMNO")).isEqualTo(index.get("KLMNO"));
+    assertThat(index2.get("VWXYZ")).isEqualTo(index.get("VWXYZ"));
+    assertThat(ContentMetadata.getContentLength(index2.getContentMetadata("KLMNO")))
+        .isEqualTo(10);
+  }
+
+  @Test
+  public void journalLoad_withTruncatedRecord_discardsRecord() throws Exception {
+    CachedContentIndex index = newJournalInstance();
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("ABCDE");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    long validLength = getJournalDataLength(journalFile);
+    index.getOrAdd("KLMNO");
+    index.store();
+
+    // Corrupt the last byte of the second record.
+    long corruptPosition = getJournalDataLength(journalFile) - 1;
+    try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+      file.seek(corruptPosition);
+      int value = file.read();
+      file.seek(corruptPosition);
+      file.write(value ^ 0xFF);
+    }
+    assertThat(corruptPosition).isGreaterThan(validLength);
+
+    CachedContentIndex index2 = newJournalInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("ABCDE");
+  }
+
+  @Test
+  public void journalCompaction_replaysRecordsStoredWhilstCompacting() throws Exception {
+    List<Runnable> compactions = new ArrayList<>();
+    CachedContentIndex index =
+        new CachedContentIndex(cacheDir, /* legacyStorageSecretKey= */ null, compactions::add);
+    index.initialize(/* uid= */ 0);
+    index.getOrAdd("ABCDE");
+    index.getOrAdd("KLMNO");
+    index.store();
+    File journalFile = new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL);
+    // Update the same content until obsolete records dominate the journal.
+    for (int i = 0; compactions.isEmpty(); i++) {
+      ContentMetadataMutations mutations = new ContentMetadataMutations();
+      ContentMetadataMutations.setContentLength(mutations, i);
+      index.applyContentMetadataMutations("ABCDE", mutations);
+      index.store();
+    }
+    long uncompactedLength = getJournalDataLength(journalFile);
+
+    // Store changes whilst the compaction is in progress, then complete it.
+    index.maybeRemove("KLMNO");
+    index.getOrAdd("VWXYZ");
+    index.store();
+    compactions.get(0).run();
+    ContentMetadataMutations mutations = new ContentMetadataMutations();
+    ContentMetadataMutations.setContentLength(mutations, 123);
+    index.applyContentMetadataMutations("VWXYZ", mutations);
+    index.store();
+
+    assertThat(getJournalDataLength(journalFile)).isLessThan(uncompactedLength);
+    CachedContentIndex index2 = newJournalInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("ABCDE", "VWXYZ");
+    assertThat(index2.get("ABCDE")).isEqualTo(index.get("ABCDE"));
+    assertThat(ContentMetadata.getContentLength(index2.getContentMetadata("VWXYZ")))
+        .isEqualTo(123);
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_JOURNAL + ".new").exists())
+        .isFalse();
+  }
+
+  @Test
+  public void journal_migratesLegacyIndex() throws Exception {
+    FileOutputStream fos =
+        new FileOutputStream(new File(cacheDir, CachedContentIndex.FILE_NAME_ATOMIC));
+    fos.write(testIndexV2File);
+    fos.close();
+
+    CachedContentIndex index = newJournalInstance();
+    index.initialize(/* uid= */ 0);
+
+    assertThat(index.getAll()).hasSize(2);
+    assertThat(index.assignIdForKey("ABCDE")).isEqualTo(5);
+    assertThat(new File(cacheDir, CachedContentIndex.FILE_NAME_ATOMIC).exists()).isFalse();
+    CachedContentIndex index2 = newJournalInstance();
+    index2.initialize(/* uid= */ 0);
+    assertThat(index2.getKeys()).containsExactly("ABCDE", "KLMNO");
+  }
+
   @Test
   public void assignIdForKeyAndGetKeyForId() {
     CachedContentIndex index = newInstance();
@@ -332,6 +448,24 @@ public class CachedContentIndexTest {
     }
   }
 
+  private CachedContentIndex newJournalInstance() {
+    return new CachedContentIndex(cacheDir, /* legacyStorageSecretKey= */ null);
+  }
+
+  /** Returns the length of the journal up to and excluding its terminating zero length. */
+  private static long getJournalDataLength(File journalFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+      long position = 8; // Header length.
+      file.seek(position);
+      int recordLength;
+      while ((recordLength = file.readInt()) != 0) {
+        position += 8 + recordLength;
+        file.seek(position);
+      }
+      return position;
+    }
+  }
+
   private CachedContentIndex newInstance() {
     return new CachedContentIndex(TestUtil.getInMemoryDatabaseProvider());
   }
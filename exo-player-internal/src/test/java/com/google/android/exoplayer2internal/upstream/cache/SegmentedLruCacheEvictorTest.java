@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.upstream.cache;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.HashMap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+/** Unit tests for {@link SegmentedLruCacheEvictor}. */
+@RunWith(AndroidJUnit4.class)
+public class SegmentedLruCacheEvictorTest {
+
+  private static final int SPAN_LENGTH = 10;
+
+  @Test
+  public void contentBiggerThanMaxSizeDoesNotThrowException() {
+    int maxBytes = 100;
+    SegmentedLruCacheEvictor evictor = new SegmentedLruCacheEvictor(maxBytes);
+    evictor.onCacheInitialized();
+    evictor.onStartFile(Mockito.mock(Cache.class), "key", 0, maxBytes + 1);
+  }
+
+  @Test
+  public void evictsLeastRecentlyAddedUntouchedSpanFirst() {
+    FakeCache cache = new FakeCache(new SegmentedLruCacheEvictor(/* maxBytes= */ 3 * SPAN_LENGTH));
+
+    cache.add("a");
+    cache.add("b");
+    cache.add("c");
+    cache.touch("a");
+    cache.add("d");
+
+    assertThat(cache.spans.keySet()).containsExactly("a", "c", "d");
+  }
+
+  @Test
+  public void evictsProtectedSpansWhenNoProbationarySpansRemain() {
+    SegmentedLruCacheEvictor evictor =
+        new SegmentedLruCacheEvictor(/* maxBytes= */ 2 * SPAN_LENGTH, /* protectedFraction= */ 1);
+    FakeCache cache = new FakeCache(evictor);
+
+    cache.add("a");
+    cache.add("b");
+    cache.touch("a");
+    cache.touch("b");
+    cache.add("c");
+
+    // No probationary spans remained when "c" was written, so the least recently used protected
+    // span was evicted.
+    assertThat(cache.spans.keySet()).containsExactly("b", "c");
+  }
+
+  @Test
+  public void scanDoesNotFlushFrequentlyTouchedSpans() {
+    int hotSpanCount = 10;
+    int maxBytes = 4 * hotSpanCount * SPAN_LENGTH;
+    FakeCache segmentedCache = new FakeCache(new SegmentedLruCacheEvictor(maxBytes));
+    FakeCache lruCache = new FakeCache(new LeastRecentlyUsedCacheEvictor(maxBytes));
+
+    double segmentedHitRatio = runHotSetWithScanWorkload(segmentedCache, hotSpanCount);
+    double lruHitRatio = runHotSetWithScanWorkload(lruCache, hotSpanCount);
+
+    assertThat(segmentedHitRatio).isEqualTo(1.0);
+    assertThat(segmentedHitRatio).isGreaterThan(lruHitRatio);
+  }
+
+  /**
+   * Touches a hot working set, then performs a large scan of spans that are never read again, and
+   * then returns the fraction of hot spans that survived the scan.
+   */
+  private static double runHotSetWithScanWorkload(FakeCache cache, int hotSpanCount) {
+    for (int i = 0; i < hotSpanCount; i++) {
+      cache.add("hot" + i);
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < hotSpanCount; i++) {
+        cache.touch("hot" + i);
+      }
+    }
+    for (int i = 0; i < 10 * hotSpanCount; i++) {
+      cache.add("scan" + i);
+    }
+    int hits = 0;
+    for (int i = 0; i < hotSpanCount; i++) {
+      if (cache.spans.containsKey("hot" + i)) {
+        hits++;
+      }
+    }
+    return (double) hits / hotSpanCount;
+  }
+
+  /** Minimal cache that holds one span per key and forwards events to an evictor. */
+  private static final class FakeCache {
+
+    public final HashMap<String, CacheSpan> spans;
+
+    private final CacheEvictor evictor;
+    private final Cache cache;
+    private long timestamp;
+
+    public FakeCache(CacheEvictor evictor) {
+      this.evictor = evictor;
+      spans = new HashMap<>();
+      cache = Mockito.mock(Cache.class);
+      doAnswer(
+              invocation -> {
+                CacheSpan span = invocation.getArgument(0);
+                if (spans.remove(span.key) != null) {
+                  evictor.onSpanRemoved(cache, span);
+                }
+                return null;
+              })
+          .when(cache)
+          .removeSpan(any());
+      evictor.onCacheInitialized();
+    }
+
+    public void add(String key) {
+      evictor.onStartFile(cache, key, /* position= */ 0, SPAN_LENGTH);
+      CacheSpan span = createSpan(key);
+      spans.put(key, span);
+      evictor.onSpanAdded(cache, span);
+    }
+
+    public void touch(String key) {
+      CacheSpan oldSpan = spans.get(key);
+      CacheSpan newSpan = createSpan(key);
+      spans.put(key, newSpan);
+      evictor.onSpanTouched(cache, oldSpan, newSpan);
+    }
+
+    private CacheSpan createSpan(String key) {
+      return new CacheSpan(
+          key, /* position= */ 0, SPAN_LENGTH, ++timestamp, new File(key + ".exo"));
+    }
+  }
+}
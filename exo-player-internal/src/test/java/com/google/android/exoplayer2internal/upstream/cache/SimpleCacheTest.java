@@ -37,6 +37,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.NavigableSet;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
@@ -678,6 +681,99 @@ public class SimpleCacheTest {
     assertThat(fileSpan.length).isEqualTo(15);
   }
 
+  @Test
+  public void write_differentKeyLocked_thenRead() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, C.LENGTH_UNSET);
+
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, C.LENGTH_UNSET);
+    assertThat(holeSpan2.isCached).isFalse();
+    addCache(simpleCache, KEY_2, 0, 15);
+
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_2, 0, C.LENGTH_UNSET);
+    assertThat(readSpan.length).isEqualTo(15);
+    assertCachedDataReadCorrect(readSpan);
+    assertThat(simpleCache.getCachedSpans(KEY_2)).hasSize(1);
+    assertThat(simpleCache.getCachedBytes(KEY_2, 0, C.LENGTH_UNSET)).isEqualTo(15);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(15);
+
+    simpleCache.releaseHoleSpan(holeSpan1);
+    simpleCache.releaseHoleSpan(holeSpan2);
+  }
+
+  @Test
+  public void startReadWrite_blocksUntilLockReleased() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0, C.LENGTH_UNSET);
+    assertThat(simpleCache.startReadWriteNonBlocking(KEY_1, 0, C.LENGTH_UNSET)).isNull();
+
+    AtomicReference<CacheSpan> blockedSpan = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                blockedSpan.set(simpleCache.startReadWrite(KEY_1, 0, C.LENGTH_UNSET));
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    thread.start();
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    thread.join();
+
+    assertThat(blockedSpan.get().isCached).isTrue();
+    assertCachedDataReadCorrect(blockedSpan.get());
+  }
+
+  @Test
+  public void commitFile_whileIndexIsBeingStored_doesNotBlockWritesOfOtherKeys() throws Exception {
+    CachedContentIndex contentIndex =
+        Mockito.spy(new CachedContentIndex(TestUtil.getInMemoryDatabaseProvider()));
+    SimpleCache simpleCache =
+        new SimpleCache(cacheDir, new NoOpCacheEvictor(), contentIndex, /* fileIndex= */ null);
+    simpleCache.checkInitialization();
+    // Block the first store of the index until the other key has been written.
+    CountDownLatch storeStarted = new CountDownLatch(1);
+    CountDownLatch storeAllowed = new CountDownLatch(1);
+    AtomicBoolean blockStore = new AtomicBoolean(true);
+    doAnswer(
+            invocation -> {
+              if (blockStore.getAndSet(false)) {
+                storeStarted.countDown();
+                storeAllowed.await();
+              }
+              return invocation.callRealMethod();
+            })
+        .when(contentIndex)
+        .store();
+
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0, C.LENGTH_UNSET);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                addCache(simpleCache, KEY_1, 0, 15);
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    thread.start();
+    storeStarted.await();
+
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0, C.LENGTH_UNSET);
+    assertThat(holeSpan2.isCached).isFalse();
+    addCache(simpleCache, KEY_2, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan2);
+    assertThat(simpleCache.getCachedSpans(KEY_2)).hasSize(1);
+
+    storeAllowed.countDown();
+    thread.join();
+    simpleCache.releaseHoleSpan(holeSpan1);
+    assertThat(simpleCache.getCachedSpans(KEY_1)).hasSize(1);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(30);
+  }
+
   @Test
   public void usingReleasedCache_throwsException() {
     SimpleCache simpleCache = getSimpleCache();
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Tests for {@link ByteArrayScanner} implementations. */
+@RunWith(AndroidJUnit4.class)
+public final class ByteArrayScannerTest {
+
+  @Test
+  public void wordAtATime_indexOfStartCode_findsFirstStartCodeWithinRange() {
+    byte[] data = new byte[100];
+    Arrays.fill(data, (byte) 0xFF);
+    // Start codes at 40 and 70, and a start code straddling the end of the range at 97.
+    data[40] = 0;
+    data[41] = 0;
+    data[42] = 1;
+    data[70] = 0;
+    data[71] = 0;
+    data[72] = 1;
+    data[97] = 0;
+    data[98] = 0;
+    data[99] = 1;
+
+    ByteArrayScanner scanner = ByteArrayScanner.WORD_AT_A_TIME;
+
+    assertThat(scanner.indexOfStartCode(data, /* fromIndex= */ 0, /* toIndex= */ 100))
+        .isEqualTo(40);
+    assertThat(scanner.indexOfStartCode(data, /* fromIndex= */ 41, /* toIndex= */ 100))
+        .isEqualTo(70);
+    assertThat(scanner.indexOfStartCode(data, /* fromIndex= */ 0, /* toIndex= */ 42))
+        .isEqualTo(42);
+    assertThat(scanner.indexOfStartCode(data, /* fromIndex= */ 73, /* toIndex= */ 99))
+        .isEqualTo(99);
+  }
+
+  @Test
+  public void wordAtATime_indexOf_findsFirstMatchingByteWithinRange() {
+    byte[] data = new byte[100];
+    data[10] = 0x47;
+    data[80] = 0x47;
+
+    ByteArrayScanner scanner = ByteArrayScanner.WORD_AT_A_TIME;
+
+    assertThat(scanner.indexOf(data, /* fromIndex= */ 0, /* toIndex= */ 100, (byte) 0x47))
+        .isEqualTo(10);
+    assertThat(scanner.indexOf(data, /* fromIndex= */ 11, /* toIndex= */ 100, (byte) 0x47))
+        .isEqualTo(80);
+    assertThat(scanner.indexOf(data, /* fromIndex= */ 11, /* toIndex= */ 80, (byte) 0x47))
+        .isEqualTo(80);
+  }
+
+  @Test
+  public void wordAtATime_matchesScalarOnRandomData() {
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < 10_000; i++) {
+      byte[] data = new byte[random.nextInt(300)];
+      // Draw bytes from a small alphabet so that start codes and matches are common.
+      for (int j = 0; j < data.length; j++) {
+        data[j] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : random.nextInt(3));
+      }
+      int fromIndex = random.nextInt(data.length + 1);
+      int toIndex = fromIndex + random.nextInt(data.length - fromIndex + 1);
+      byte value = (byte) random.nextInt(3);
+
+      assertThat(ByteArrayScanner.WORD_AT_A_TIME.indexOfStartCode(data, fromIndex, toIndex))
+          .isEqualTo(ByteArrayScanner.SCALAR.indexOfStartCode(data, fromIndex, toIndex));
+      assertThat(ByteArrayScanner.WORD_AT_A_TIME.indexOf(data, fromIndex, toIndex, value))
+          .isEqualTo(ByteArrayScanner.SCALAR.indexOf(data, fromIndex, toIndex, value));
+    }
+  }
+}
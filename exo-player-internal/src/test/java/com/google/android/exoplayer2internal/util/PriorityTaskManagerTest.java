@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2internal.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2internal.C;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link PriorityTaskManager}. */
+@RunWith(AndroidJUnit4.class)
+public final class PriorityTaskManagerTest {
+
+  @Test
+  public void proceedUntil_withoutHigherPriorityTask_returnsTrue() throws InterruptedException {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+
+    assertThat(priorityTaskManager.proceedUntil(C.PRIORITY_DOWNLOAD, /* deadlineMs= */ 1, clock))
+        .isTrue();
+  }
+
+  @Test
+  public void proceedUntil_withHigherPriorityTaskAndDeadlineReached_returnsFalse()
+      throws InterruptedException {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+
+    assertThat(priorityTaskManager.proceedUntil(C.PRIORITY_DOWNLOAD, /* deadlineMs= */ 0, clock))
+        .isFalse();
+  }
+
+  @Test
+  public void proceedUntil_withHigherPriorityTask_blocksUntilClockReachesDeadline()
+      throws InterruptedException {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    AtomicBoolean proceeded = new AtomicBoolean(true);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                proceeded.set(
+                    priorityTaskManager.proceedUntil(
+                        C.PRIORITY_DOWNLOAD, /* deadlineMs= */ 100, clock));
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    thread.start();
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      assertThat(thread.isAlive()).isTrue();
+      Thread.sleep(/* millis= */ 1);
+    }
+
+    clock.advanceTime(/* timeDiffMs= */ 100);
+    thread.join(/* millis= */ 10_000);
+
+    assertThat(thread.isAlive()).isFalse();
+    assertThat(proceeded.get()).isFalse();
+  }
+
+  @Test
+  public void proceedUntil_higherPriorityTaskRemoved_returnsTrue() throws InterruptedException {
+    PriorityTaskManager priorityTaskManager = new PriorityTaskManager();
+    priorityTaskManager.add(C.PRIORITY_DOWNLOAD);
+    priorityTaskManager.add(C.PRIORITY_PLAYBACK);
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    Thread thread = new Thread(() -> priorityTaskManager.remove(C.PRIORITY_PLAYBACK));
+    thread.start();
+
+    boolean proceeded =
+        priorityTaskManager.proceedUntil(C.PRIORITY_DOWNLOAD, /* deadlineMs= */ 10_000, clock);
+    thread.join();
+
+    assertThat(proceeded).isTrue();
+  }
+}